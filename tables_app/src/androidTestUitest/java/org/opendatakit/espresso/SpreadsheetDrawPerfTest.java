@@ -0,0 +1,248 @@
+package org.opendatakit.espresso;
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ScrollView;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.ColumnList;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.activities.TableDisplayActivity;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.util.DisableAnimationsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.opendatakit.util.TestConstants.*;
+
+/**
+ * Measures the cost of drawing the data portion of the spreadsheet once the
+ * rows on screen have been loaded and rendered: the time per cell painted, and
+ * the number of objects allocated per frame, which should be zero.
+ * <p>
+ * The spreadsheet is of a generated table of {@link #COLUMN_COUNT} columns and
+ * {@link #ROW_COUNT} rows, drawn from the middle of the table, so that neither
+ * the paging of the rows nor the column range is trivially small.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SpreadsheetDrawPerfTest {
+  private static final String TAG = "SpreadsheetDrawPerfTest";
+
+  private static final String TABLE_ID = "spreadsheet_draw_perf";
+  private static final int COLUMN_COUNT = 50;
+  private static final int ROW_COUNT = 10000;
+
+  private static final int SCROLL_POSITIONS = 8;
+  private static final int WARM_UP_FRAMES = 5;
+  private static final int MEASURED_FRAMES = 50;
+
+  @ClassRule
+  public static DisableAnimationsRule disableAnimationsRule = new DisableAnimationsRule();
+
+  @Rule
+  public ActivityTestRule<TableDisplayActivity> mActivityRule =
+      new ActivityTestRule<TableDisplayActivity>(TableDisplayActivity.class, false, false);
+
+  @BeforeClass
+  public static void createTable() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    for (int c = 0; c < COLUMN_COUNT; ++c) {
+      // alternate text and numbers, which are formatted differently
+      String type = (c % 2 == 0) ? ElementDataType.string.name() : ElementDataType.integer.name();
+      columns.add(new Column(columnKey(c), columnKey(c), type, "[]"));
+    }
+
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      if (Tables.getInstance().getDatabase().getAllTableIds(APP_NAME, db).contains(TABLE_ID)) {
+        Tables.getInstance().getDatabase().deleteDBTableAndAllData(APP_NAME, db, TABLE_ID);
+      }
+      OrderedColumns orderedColumns = Tables.getInstance().getDatabase()
+          .createOrOpenDBTableWithColumns(APP_NAME, db, TABLE_ID, new ColumnList(columns));
+
+      boolean complete = false;
+      Tables.getInstance().getDatabase().beginTransaction(APP_NAME, db);
+      try {
+        for (int r = 0; r < ROW_COUNT; ++r) {
+          ContentValues values = new ContentValues();
+          for (int c = 0; c < COLUMN_COUNT; ++c) {
+            if (c % 2 == 0) {
+              values.put(columnKey(c), "row " + r + " col " + c);
+            } else {
+              values.put(columnKey(c), r * COLUMN_COUNT + c);
+            }
+          }
+          Tables.getInstance().getDatabase().insertRowWithId(APP_NAME, db, TABLE_ID,
+              orderedColumns, values, "uuid:perf-" + r);
+        }
+        complete = true;
+      } finally {
+        Tables.getInstance().getDatabase().closeTransaction(APP_NAME, db, complete);
+      }
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  @AfterClass
+  public static void dropTable() throws Exception {
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      Tables.getInstance().getDatabase().deleteDBTableAndAllData(APP_NAME, db, TABLE_ID);
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  @Test
+  public void spreadsheet_steadyStateDrawDoesNotAllocate() throws Exception {
+    Bundle extras = new Bundle();
+    IntentUtil.addAppNameToBundle(extras, APP_NAME);
+    IntentUtil.addTableIdToBundle(extras, TABLE_ID);
+    IntentUtil.addFragmentViewTypeToBundle(extras,
+        TableDisplayActivity.ViewFragmentType.SPREADSHEET);
+    Intent intent = new Intent();
+    intent.putExtras(extras);
+    final TableDisplayActivity activity = mActivityRule.launchActivity(intent);
+
+    try {
+      Thread.sleep(OBJ_WAIT_TIMEOUT);
+    } catch (Exception e) {}
+
+    final View[] data = new View[1];
+    final int[] origin = new int[1];
+    final int screenHeight = activity.getResources().getDisplayMetrics().heightPixels;
+    final int screenWidth = activity.getResources().getDisplayMetrics().widthPixels;
+    final Bitmap target = Bitmap.createBitmap(screenWidth, screenHeight, Bitmap.Config.ARGB_8888);
+    final Canvas canvas = new Canvas(target);
+
+    // load and render every position that will be measured. The rows are
+    // fetched in the background, so give each position time to land.
+    for (int p = 0; p < SCROLL_POSITIONS; ++p) {
+      final int position = p;
+      InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+        @Override
+        public void run() {
+          if (data[0] == null) {
+            data[0] = findLargestTabularView(activity.getWindow().getDecorView());
+            assertThat("spreadsheet was not displayed", data[0], notNullValue());
+            origin[0] = data[0].getHeight() / 2;
+          }
+          ((ScrollView) data[0].getParent())
+              .scrollTo(0, origin[0] + position * screenHeight / SCROLL_POSITIONS);
+          data[0].draw(canvas);
+        }
+      });
+      try {
+        Thread.sleep(OBJ_WAIT_TIMEOUT);
+      } catch (Exception e) {}
+    }
+
+    final long[] result = new long[3];
+    InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+      @Override
+      public void run() {
+        ScrollView scroll = (ScrollView) data[0].getParent();
+        for (int p = 0; p < SCROLL_POSITIONS; ++p) {
+          scroll.scrollTo(0, origin[0] + p * screenHeight / SCROLL_POSITIONS);
+          for (int i = 0; i < WARM_UP_FRAMES; ++i) {
+            data[0].draw(canvas);
+          }
+        }
+
+        long nanos = 0;
+        long allocations = 0;
+        Debug.startAllocCounting();
+        try {
+          for (int i = 0; i < MEASURED_FRAMES; ++i) {
+            scroll.scrollTo(0, origin[0] + (i % SCROLL_POSITIONS) * screenHeight / SCROLL_POSITIONS);
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            data[0].draw(canvas);
+            nanos += System.nanoTime() - start;
+            allocations += Debug.getThreadAllocCount();
+          }
+        } finally {
+          Debug.stopAllocCounting();
+        }
+        result[0] = nanos;
+        result[1] = allocations;
+        result[2] = cellsPaintedPerFrame(data[0], screenWidth, screenHeight);
+      }
+    });
+    target.recycle();
+
+    long cells = (long) MEASURED_FRAMES * result[2];
+    Log.i(TAG, "ns/cell: " + (result[0] / Math.max(cells, 1)) + " (" + result[2]
+        + " cells/frame) allocations over " + MEASURED_FRAMES + " frames: " + result[1]);
+    assertThat("draw allocated", result[1], is(0L));
+  }
+
+  private static String columnKey(int c) {
+    return String.format("col_%02d", c);
+  }
+
+  /**
+   * The view paints half a screen beyond each edge of the visible region. The
+   * generated columns all have the same width, so the cells in that region can
+   * be counted from the size of the view.
+   */
+  private static long cellsPaintedPerFrame(View data, int screenWidth, int screenHeight) {
+    int rowPitch = Math.max(1, data.getHeight() / ROW_COUNT);
+    int columnPitch = Math.max(1, data.getWidth() / COLUMN_COUNT);
+    long rows = Math.min(ROW_COUNT, 2 * screenHeight / rowPitch + 1);
+    long columns = Math.min(COLUMN_COUNT, 2 * screenWidth / columnPitch + 1);
+    return rows * columns;
+  }
+
+  /**
+   * The TabularView holding the main data of the spreadsheet is the largest
+   * one. The class is not visible here, so match it by name.
+   */
+  private static View findLargestTabularView(View view) {
+    View largest = null;
+    if (view.getClass().getSimpleName().equals("TabularView")) {
+      largest = view;
+    }
+    if (view instanceof ViewGroup) {
+      ViewGroup group = (ViewGroup) view;
+      for (int i = 0; i < group.getChildCount(); ++i) {
+        View candidate = findLargestTabularView(group.getChildAt(i));
+        if (candidate != null && (largest == null || (long) candidate.getWidth() * candidate
+            .getHeight() > (long) largest.getWidth() * largest.getHeight())) {
+          largest = candidate;
+        }
+      }
+    }
+    return largest;
+  }
+}
@@ -0,0 +1,140 @@
+package org.opendatakit.tables.activities;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads responses out of {@link ChunkedResponses} as a page would, in and out
+ * of order, and checks when a response is released and when a new one is held
+ * back. The test runs off the UI thread, where registering may wait.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ChunkedResponsesTest {
+
+  private static final String RESPONSE = "{\"data\":[[\"a\",1],[\"b\",2],[\"c\",3]]}";
+  private static final int CHUNK_SIZE = 7;
+
+  @Test
+  public void theEnvelopeDescribesTheChunks() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(1000, 1000L);
+    JSONObject envelope = new JSONObject(responses.register(RESPONSE, CHUNK_SIZE));
+
+    assertThat(envelope.getInt("chunkSize"), is(CHUNK_SIZE));
+    assertThat(envelope.getInt("chunkCount"), is(chunkCount()));
+    assertThat(envelope.getInt("length"), is(RESPONSE.length()));
+    assertThat(envelope.getString("chunkedResponseId"), not(isEmptyOrNullString()));
+  }
+
+  @Test
+  public void chunksReadOutOfOrderRebuildTheResponse() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(1000, 1000L);
+    String id = idOf(responses.register(RESPONSE, CHUNK_SIZE));
+
+    int chunkCount = chunkCount();
+    String[] chunks = new String[chunkCount];
+    // the last chunk first, then the rest backwards
+    for (int i = chunkCount - 1; i >= 0; --i) {
+      chunks[i] = responses.getChunk(id, i);
+      assertThat("chunk " + i, chunks[i], notNullValue());
+    }
+    StringBuilder b = new StringBuilder();
+    for (String chunk : chunks) {
+      b.append(chunk);
+    }
+    assertThat(b.toString(), is(RESPONSE));
+  }
+
+  @Test
+  public void aResponseIsReleasedOnlyOnceEveryChunkWasRead() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(1000, 1000L);
+    String id = idOf(responses.register(RESPONSE, CHUNK_SIZE));
+    int chunkCount = chunkCount();
+
+    responses.getChunk(id, chunkCount - 1);
+    // a chunk may be read again while others are unread
+    assertThat(responses.getChunk(id, chunkCount - 1), notNullValue());
+    for (int i = 0; i < chunkCount - 1; ++i) {
+      assertThat(responses.getWaitingChars(), is(RESPONSE.length()));
+      responses.getChunk(id, i);
+    }
+    assertThat(responses.getWaitingChars(), is(0));
+    assertThat(responses.getChunk(id, 0), nullValue());
+  }
+
+  @Test
+  public void chunksOutsideTheResponseAreNull() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(1000, 1000L);
+    String id = idOf(responses.register(RESPONSE, CHUNK_SIZE));
+
+    assertThat(responses.getChunk(id, -1), nullValue());
+    assertThat(responses.getChunk(id, chunkCount()), nullValue());
+    assertThat(responses.getChunk("no such id", 0), nullValue());
+  }
+
+  @Test
+  public void aCancelledResponseIsReleased() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(1000, 1000L);
+    String id = idOf(responses.register(RESPONSE, CHUNK_SIZE));
+    responses.getChunk(id, 0);
+
+    responses.cancel(id);
+
+    assertThat(responses.getWaitingChars(), is(0));
+    assertThat(responses.getChunk(id, 1), nullValue());
+  }
+
+  @Test
+  public void aResponseWaitsUntilThePageCatchesUp() throws Exception {
+    // room for one response, and a wait long enough not to run out
+    final ChunkedResponses responses = new ChunkedResponses(RESPONSE.length(), 60000L);
+    String first = idOf(responses.register(RESPONSE, CHUNK_SIZE));
+
+    final CountDownLatch registered = new CountDownLatch(1);
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        responses.register(RESPONSE, CHUNK_SIZE);
+        registered.countDown();
+      }
+    });
+    producer.start();
+    assertThat("registered while the page was behind",
+        registered.await(500L, TimeUnit.MILLISECONDS), is(false));
+
+    responses.cancel(first);
+    assertThat("still waiting after the page caught up",
+        registered.await(5000L, TimeUnit.MILLISECONDS), is(true));
+    producer.join();
+    assertThat(responses.getWaitingChars(), is(RESPONSE.length()));
+  }
+
+  @Test
+  public void theWaitIsBounded() throws Exception {
+    ChunkedResponses responses = new ChunkedResponses(RESPONSE.length(), 200L);
+    responses.register(RESPONSE, CHUNK_SIZE);
+
+    long start = System.currentTimeMillis();
+    responses.register(RESPONSE, CHUNK_SIZE);
+
+    assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+    assertThat(responses.getWaitingChars(), is(2 * RESPONSE.length()));
+  }
+
+  private static int chunkCount() {
+    return (RESPONSE.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+  }
+
+  private static String idOf(String envelope) throws Exception {
+    return new JSONObject(envelope).getString("chunkedResponseId");
+  }
+}
@@ -0,0 +1,276 @@
+package org.opendatakit.tables.data;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.MediumTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.util.DbTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.opendatakit.util.TestConstants.APP_NAME;
+
+/**
+ * Reads a table of the database service through a {@link PagedRowSource}
+ * with small pages and few resident pages, so that rows are read across page
+ * edges and after their page was evicted, and checks the rows against the
+ * order the source promises: the sort column, then the row id. The score
+ * column has many ties, which only the row id tells apart.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class PagedRowSourceTest {
+
+  private static final String TABLE_ID = "paged_row_source_test";
+  private static final String SCORE = "score";
+  /** the position in which the row was inserted, unique */
+  private static final String RANK = "rank";
+  private static final int ROW_COUNT = 95;
+  private static final int PAGE_SIZE = 10;
+  private static final int MAX_RESIDENT_PAGES = 3;
+
+  private OrderedColumns orderedDefns;
+  private List<String> rowIds;
+  private List<Integer> scores;
+  private final List<PagedRowSource> sources = new ArrayList<PagedRowSource>();
+
+  @Before
+  public void setup() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(SCORE, SCORE, ElementDataType.integer.name(), "[]"));
+    columns.add(new Column(RANK, RANK, ElementDataType.integer.name(), "[]"));
+    orderedDefns = DbTestUtils.createTable(TABLE_ID, columns);
+    rowIds = new ArrayList<String>();
+    scores = new ArrayList<Integer>();
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      // not inserted in row id order
+      rowIds.add(String.format("uuid:paged-%03d", (i * 37) % ROW_COUNT));
+      scores.add(i % 4);
+      ContentValues v = new ContentValues();
+      v.put(SCORE, i % 4);
+      v.put(RANK, i);
+      values.add(v);
+    }
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, rowIds, values);
+    UserTableCache.get().invalidate(APP_NAME, TABLE_ID);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    for (PagedRowSource source : sources) {
+      source.close();
+    }
+    UserTableCache.get().invalidate(APP_NAME, TABLE_ID);
+    DbTestUtils.dropTable(TABLE_ID);
+  }
+
+  @Test
+  public void rowsFollowTheOrderOfTheQueryAcrossPages() throws Exception {
+    PagedRowSource source = newSource(orderedBy(SCORE, "ASC"));
+    List<String> expected = expectedRowIds(true);
+
+    assertThat(source.getNumberOfRows(), is(ROW_COUNT));
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      assertThat("row " + i, source.getRowId(i), is(expected.get(i)));
+    }
+    // backwards, so that every page was evicted and is fetched again
+    for (int i = ROW_COUNT - 1; i >= 0; --i) {
+      assertThat("row " + i, source.getRowId(i), is(expected.get(i)));
+    }
+    // across page edges, in both directions
+    for (int edge = PAGE_SIZE; edge < ROW_COUNT; edge += PAGE_SIZE) {
+      assertThat(source.getRowId(edge - 1), is(expected.get(edge - 1)));
+      assertThat(source.getRowId(edge), is(expected.get(edge)));
+      assertThat(source.getRowId(edge - 1), is(expected.get(edge - 1)));
+    }
+  }
+
+  @Test
+  public void rowsOfAQueryWithoutAnOrderAreInRowIdOrder() throws Exception {
+    PagedRowSource source = newSource(orderedBy(null, null));
+    List<String> expected = new ArrayList<String>(rowIds);
+    Collections.sort(expected);
+
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      assertThat("row " + i, source.getRowId(i), is(expected.get(i)));
+    }
+  }
+
+  @Test
+  public void rowsAreCountedWithoutReadingThem() throws Exception {
+    int[] counts = { 0, 1, PAGE_SIZE - 1, PAGE_SIZE, PAGE_SIZE + 1, 2 * PAGE_SIZE - 1,
+        2 * PAGE_SIZE, 2 * PAGE_SIZE + 1, 4 * PAGE_SIZE, 4 * PAGE_SIZE + 1, ROW_COUNT };
+    for (int count : counts) {
+      PagedRowSource source = newSource(new SQLQueryStruct(RANK + " < ?",
+          new String[] { Integer.toString(count) }, null, null, RANK, "ASC"));
+      assertThat("rank < " + count, source.getNumberOfRows(), is(count));
+    }
+  }
+
+  @Test
+  public void sortingWhilePagingQueriesAgain() throws Exception {
+    PagedRowSource source = newSource(orderedBy(SCORE, "ASC"));
+    source.getRowId(0);
+
+    source.sortBy(SCORE, "DESC");
+    assertThat(source.isHoldingAllRows(), is(false));
+    assertThat(source.getSortElementKey(), is(SCORE));
+    assertThat(source.getSortDirection(), is("DESC"));
+    List<String> expected = expectedRowIds(false);
+    assertThat(source.getNumberOfRows(), is(ROW_COUNT));
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      assertThat("row " + i, source.getRowId(i), is(expected.get(i)));
+    }
+
+    source.sortBy(null, null);
+    assertThat(source.getRowId(0), is(expectedRowIds(true).get(0)));
+  }
+
+  @Test
+  public void filteringNeedsAllRowsToBeHeld() throws Exception {
+    PagedRowSource source = newSource(orderedBy(SCORE, "ASC"));
+
+    assertThat(source.filterBy(SCORE, "2"), is(false));
+    assertThat(source.isFiltered(), is(false));
+    assertThat(source.getNumberOfRows(), is(ROW_COUNT));
+  }
+
+  @Test
+  public void heldRowsAreSortedAndFilteredInMemory() throws Exception {
+    PagedRowSource source = newSource(orderedBy(SCORE, "ASC"));
+    assertThat(source.holdAllRows(), is(true));
+    assertThat(source.isHoldingAllRows(), is(true));
+    assertThat(source.canHoldAllRows(), is(true));
+
+    source.sortBy(RANK, "DESC");
+    assertThat(source.getNumberOfRows(), is(ROW_COUNT));
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      assertThat("row " + i, source.getRowId(i), is(rowIds.get(ROW_COUNT - 1 - i)));
+    }
+
+    assertThat(source.filterBy(SCORE, "2"), is(true));
+    assertThat(source.isFiltered(), is(true));
+    int count = Collections.frequency(scores, 2);
+    assertThat(source.getNumberOfRows(), is(count));
+    int lastRank = Integer.MAX_VALUE;
+    for (int i = 0; i < count; ++i) {
+      assertThat(source.getRowAtIndex(i).getDataByKey(SCORE), is("2"));
+      int rank = Integer.parseInt(source.getRowAtIndex(i).getDataByKey(RANK));
+      assertThat(rank, lessThan(lastRank));
+      lastRank = rank;
+    }
+
+    source.filterBy(null, null);
+    assertThat(source.isFiltered(), is(false));
+    assertThat(source.getNumberOfRows(), is(ROW_COUNT));
+  }
+
+  @Test
+  public void heldRowsRenderAnEmptyPagePastTheEnd() throws Exception {
+    PagedRowSource source = newSource(orderedBy(RANK, "ASC"));
+    source.setRenderLayout(layout());
+    assertThat(source.holdAllRows(), is(true));
+    assertThat(source.filterBy(SCORE, "2"), is(true));
+    int count = source.getNumberOfRows();
+
+    CellRenderBlock first = source.getRenderBlock(0);
+    assertThat(first, notNullValue());
+    assertThat(first.firstRow, is(0));
+    assertThat(first.rowCount, is(PAGE_SIZE));
+    assertThat(first.displayText[first.cellIndex(0, 0)], is("2"));
+
+    int lastPage = (count - 1) / PAGE_SIZE;
+    CellRenderBlock last = source.getRenderBlock(lastPage * PAGE_SIZE);
+    assertThat(last.rowCount, is(count - lastPage * PAGE_SIZE));
+
+    // e.g., drawn with the row count from before the filter
+    CellRenderBlock pastTheEnd = source.getRenderBlock((lastPage + 2) * PAGE_SIZE);
+    assertThat(pastTheEnd, notNullValue());
+    assertThat(pastTheEnd.rowCount, is(0));
+  }
+
+  @Test
+  public void aPageThatIsNotResidentIsFetchedInTheBackground() throws Exception {
+    PagedRowSource source = newSource(orderedBy(SCORE, "ASC"));
+    source.setRenderLayout(layout());
+    final CountDownLatch loaded = new CountDownLatch(1);
+    final int[] loadedRows = new int[2];
+    source.addPageListener(new PagedRowSource.PageListener() {
+      @Override
+      public void onPageLoaded(int firstRow, int lastRow) {
+        loadedRows[0] = firstRow;
+        loadedRows[1] = lastRow;
+        loaded.countDown();
+      }
+    });
+
+    assertThat(source.getRenderBlock(2 * PAGE_SIZE + 5), nullValue());
+    assertThat(loaded.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(loadedRows[0], is(2 * PAGE_SIZE));
+    assertThat(loadedRows[1], is(3 * PAGE_SIZE - 1));
+
+    CellRenderBlock block = source.getRenderBlock(2 * PAGE_SIZE + 5);
+    assertThat(block, notNullValue());
+    assertThat(block.firstRow, is(2 * PAGE_SIZE));
+    assertThat(block.rowCount, is(PAGE_SIZE));
+  }
+
+  private PagedRowSource newSource(SQLQueryStruct query) {
+    PagedRowSource source = new PagedRowSource(APP_NAME, TABLE_ID, orderedDefns, query,
+        PAGE_SIZE, MAX_RESIDENT_PAGES);
+    sources.add(source);
+    return source;
+  }
+
+  private CellRenderBlock.Layout layout() {
+    return new CellRenderBlock.Layout(new String[] { SCORE },
+        new ElementType[] { orderedDefns.find(SCORE).getType() },
+        new ColorRuleGroup[] { null }, null, null);
+  }
+
+  private static SQLQueryStruct orderedBy(String elementKey, String direction) {
+    return new SQLQueryStruct(null, null, null, null, elementKey, direction);
+  }
+
+  /**
+   * @return the row ids ordered by score, then by row id ascending
+   */
+  private List<String> expectedRowIds(final boolean ascending) {
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      rows.add(i);
+    }
+    Collections.sort(rows, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        int byScore = scores.get(lhs).compareTo(scores.get(rhs));
+        if (byScore != 0) {
+          return ascending ? byScore : -byScore;
+        }
+        return rowIds.get(lhs).compareTo(rowIds.get(rhs));
+      }
+    });
+    List<String> expected = new ArrayList<String>();
+    for (int r : rows) {
+      expected.add(rowIds.get(r));
+    }
+    return expected;
+  }
+}
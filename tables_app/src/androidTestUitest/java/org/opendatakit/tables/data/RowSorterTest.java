@@ -0,0 +1,249 @@
+package org.opendatakit.tables.data;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.util.DbTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Sorts and filters the rows of a table read from the database service with
+ * a {@link RowSorter}, and checks the order against a stable sort of the raw
+ * values. The columns have many ties and nulls, so that the order of equal
+ * rows is checked as well as the order of the values.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class RowSorterTest {
+
+  private static final String TABLE_ID = "row_sorter_test";
+  private static final String LARGE_TABLE_ID = "row_sorter_test_large";
+  private static final String INTEGER = "n";
+  private static final String NUMBER = "x";
+  private static final String STRING = "s";
+  private static final int ROW_COUNT = 60;
+  /** enough rows for the sort to be run in parallel */
+  private static final int LARGE_ROW_COUNT = 25000;
+
+  private OrderedColumns orderedDefns;
+  private UserTable table;
+
+  @Before
+  public void setup() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(INTEGER, INTEGER, ElementDataType.integer.name(), "[]"));
+    columns.add(new Column(NUMBER, NUMBER, ElementDataType.number.name(), "[]"));
+    columns.add(new Column(STRING, STRING, ElementDataType.string.name(), "[]"));
+    orderedDefns = DbTestUtils.createTable(TABLE_ID, columns);
+    List<String> rowIds = new ArrayList<String>();
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      rowIds.add(String.format("uuid:sort-%03d", i));
+      ContentValues v = new ContentValues();
+      // from -5 to 17, so that a string order would put 10 before 2
+      v.put(INTEGER, (i % 7 == 0) ? null : Integer.valueOf((i * 37) % 23 - 5));
+      v.put(NUMBER, (i % 5 == 0) ? null : Double.valueOf(((i * 13) % 17) / 4.0 - 1.0));
+      v.put(STRING, (i % 6 == 0) ? null : "v" + ((i * 7) % 9));
+      values.add(v);
+    }
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, rowIds, values);
+    // not in row id order, so that sorting by the id moves rows
+    table = DbTestUtils.queryAll(TABLE_ID, orderedDefns, INTEGER, "ASC");
+    assertThat(table.getNumberOfRows(), is(ROW_COUNT));
+  }
+
+  @After
+  public void teardown() throws Exception {
+    DbTestUtils.dropTable(TABLE_ID);
+  }
+
+  @Test
+  public void integersSortAsNumbers() {
+    checkSort(table, INTEGER, INTEGER_ORDER, true);
+    checkSort(table, INTEGER, INTEGER_ORDER, false);
+  }
+
+  @Test
+  public void numbersSortAsNumbers() {
+    checkSort(table, NUMBER, NUMBER_ORDER, true);
+    checkSort(table, NUMBER, NUMBER_ORDER, false);
+  }
+
+  @Test
+  public void stringsSortAsStrings() {
+    checkSort(table, STRING, STRING_ORDER, true);
+    checkSort(table, STRING, STRING_ORDER, false);
+  }
+
+  @Test
+  public void columnsThatAreNotUserDefinedSortAsStrings() {
+    checkSort(table, DataTableColumns.ID, STRING_ORDER, true);
+  }
+
+  @Test
+  public void nullsComeFirstWhenAscending() {
+    int[] rows = RowSorter.identity(ROW_COUNT);
+    RowSorter.sort(table, orderedDefns, rows, STRING, true);
+    assertThat(valueOf(rows[0], STRING), nullValue());
+    assertThat(valueOf(rows[ROW_COUNT - 1], STRING), notNullValue());
+
+    RowSorter.sort(table, orderedDefns, rows, STRING, false);
+    assertThat(valueOf(rows[0], STRING), notNullValue());
+    assertThat(valueOf(rows[ROW_COUNT - 1], STRING), nullValue());
+  }
+
+  @Test
+  public void onlyTheGivenRowsAreSorted() {
+    int[] rows = { 40, 3, 17, 29, 8 };
+    int[] sorted = rows.clone();
+    RowSorter.sort(table, orderedDefns, sorted, STRING, true);
+
+    assertThat(box(sorted), is(expectedOrder(table, rows, STRING, STRING_ORDER, true)));
+  }
+
+  @Test
+  public void filterKeepsTheEqualRowsInOrder() {
+    int[] rows = RowSorter.identity(ROW_COUNT);
+    RowSorter.sort(table, orderedDefns, rows, NUMBER, false);
+
+    int[] kept = RowSorter.filterEquals(table, rows, STRING, "v3");
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int r : rows) {
+      if ("v3".equals(valueOf(r, STRING))) {
+        expected.add(r);
+      }
+    }
+    assertThat(expected, not(empty()));
+    assertThat(box(kept), is(expected));
+  }
+
+  @Test
+  public void filterOnNullKeepsTheNullRows() {
+    int[] kept = RowSorter.filterEquals(table, RowSorter.identity(ROW_COUNT), STRING, null);
+    assertThat(kept.length, is(ROW_COUNT / 6));
+    for (int r : kept) {
+      assertThat(valueOf(r, STRING), nullValue());
+    }
+  }
+
+  @Test
+  public void filterOnAValueNoRowHasKeepsNothing() {
+    int[] kept = RowSorter.filterEquals(table, RowSorter.identity(ROW_COUNT), STRING, "none");
+    assertThat(kept.length, is(0));
+  }
+
+  @Test
+  @LargeTest
+  public void largeTablesSortInParallelAndStayStable() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(INTEGER, INTEGER, ElementDataType.integer.name(), "[]"));
+    OrderedColumns largeDefns = DbTestUtils.createTable(LARGE_TABLE_ID, columns);
+    try {
+      List<String> rowIds = new ArrayList<String>();
+      List<ContentValues> values = new ArrayList<ContentValues>();
+      for (int i = 0; i < LARGE_ROW_COUNT; ++i) {
+        rowIds.add(String.format("uuid:sort-large-%05d", i));
+        ContentValues v = new ContentValues();
+        v.put(INTEGER, (i % 97 == 0) ? null : Integer.valueOf((i * 7919) % 1000));
+        values.add(v);
+      }
+      DbTestUtils.insertRows(LARGE_TABLE_ID, largeDefns, rowIds, values);
+      UserTable largeTable = DbTestUtils.queryAll(LARGE_TABLE_ID, largeDefns,
+          DataTableColumns.ID, "ASC");
+      assertThat(largeTable.getNumberOfRows(), is(LARGE_ROW_COUNT));
+
+      int[] rows = RowSorter.identity(LARGE_ROW_COUNT);
+      RowSorter.sort(largeTable, largeDefns, rows, INTEGER, true);
+      assertThat(box(rows), is(expectedOrder(largeTable, RowSorter.identity(LARGE_ROW_COUNT),
+          INTEGER, INTEGER_ORDER, true)));
+
+      rows = RowSorter.identity(LARGE_ROW_COUNT);
+      RowSorter.sort(largeTable, largeDefns, rows, INTEGER, false);
+      assertThat(box(rows), is(expectedOrder(largeTable, RowSorter.identity(LARGE_ROW_COUNT),
+          INTEGER, INTEGER_ORDER, false)));
+    } finally {
+      DbTestUtils.dropTable(LARGE_TABLE_ID);
+    }
+  }
+
+  private static final Comparator<String> INTEGER_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String lhs, String rhs) {
+      return Long.valueOf(lhs).compareTo(Long.valueOf(rhs));
+    }
+  };
+
+  private static final Comparator<String> NUMBER_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String lhs, String rhs) {
+      return Double.valueOf(lhs).compareTo(Double.valueOf(rhs));
+    }
+  };
+
+  private static final Comparator<String> STRING_ORDER = new Comparator<String>() {
+    @Override
+    public int compare(String lhs, String rhs) {
+      return lhs.compareTo(rhs);
+    }
+  };
+
+  private void checkSort(UserTable table, String elementKey, Comparator<String> valueOrder,
+      boolean ascending) {
+    int[] rows = RowSorter.identity(table.getNumberOfRows());
+    RowSorter.sort(table, orderedDefns, rows, elementKey, ascending);
+    assertThat(elementKey + (ascending ? " ASC" : " DESC"), box(rows),
+        is(expectedOrder(table, RowSorter.identity(table.getNumberOfRows()), elementKey,
+            valueOrder, ascending)));
+  }
+
+  /**
+   * A stable sort of rows by the raw values of a column, nulls first when
+   * ascending.
+   */
+  private static List<Integer> expectedOrder(final UserTable table, int[] rows,
+      final String elementKey, final Comparator<String> valueOrder, boolean ascending) {
+    Comparator<Integer> rowOrder = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        String x = table.getRowAtIndex(lhs).getDataByKey(elementKey);
+        String y = table.getRowAtIndex(rhs).getDataByKey(elementKey);
+        if (x == null || y == null) {
+          return (x == y) ? 0 : ((x == null) ? -1 : 1);
+        }
+        return valueOrder.compare(x, y);
+      }
+    };
+    List<Integer> expected = box(rows);
+    Collections.sort(expected, ascending ? rowOrder : Collections.reverseOrder(rowOrder));
+    return expected;
+  }
+
+  private String valueOf(int row, String elementKey) {
+    return table.getRowAtIndex(row).getDataByKey(elementKey);
+  }
+
+  private static List<Integer> box(int[] rows) {
+    List<Integer> boxed = new ArrayList<Integer>(rows.length);
+    for (int r : rows) {
+      boxed.add(r);
+    }
+    return boxed;
+  }
+}
@@ -0,0 +1,73 @@
+package org.opendatakit.tables.data;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks which tables a change noted with the {@link TableChangeCounter}
+ * reaches. The counter is shared by the whole process, so the tests use
+ * names of their own and compare counts rather than expect given values.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class TableChangeCounterTest {
+
+  private static final String APP = "table_change_counter_test";
+  private static final String OTHER_APP = "table_change_counter_test_other";
+
+  @Test
+  public void aTableChangeMovesOnlyThatTable() {
+    TableChangeCounter counter = TableChangeCounter.get();
+    long table = counter.changesOf(APP, "a");
+    long otherTable = counter.changesOf(APP, "b");
+    long otherApp = counter.changesOf(OTHER_APP, "a");
+
+    counter.noteTableChanged(APP, "a");
+
+    assertThat(counter.changesOf(APP, "a"), not(table));
+    assertThat(counter.changesOf(APP, "b"), is(otherTable));
+    assertThat(counter.changesOf(OTHER_APP, "a"), is(otherApp));
+  }
+
+  @Test
+  public void anAppChangeMovesEveryTableOfThatApp() {
+    TableChangeCounter counter = TableChangeCounter.get();
+    long table = counter.changesOf(APP, "a");
+    long otherTable = counter.changesOf(APP, "b");
+    long otherApp = counter.changesOf(OTHER_APP, "a");
+
+    counter.noteAppChanged(APP);
+
+    assertThat(counter.changesOf(APP, "a"), not(table));
+    assertThat(counter.changesOf(APP, "b"), not(otherTable));
+    assertThat(counter.changesOf(OTHER_APP, "a"), is(otherApp));
+  }
+
+  @Test
+  public void aCountNeverComesBack() {
+    TableChangeCounter counter = TableChangeCounter.get();
+    long before = counter.changesOf(APP, "c");
+
+    counter.noteTableChanged(APP, "c");
+    counter.noteAppChanged(APP);
+    counter.noteTableChanged(APP, "c");
+
+    assertThat(counter.changesOf(APP, "c"), greaterThan(before));
+  }
+
+  @Test
+  public void namesDoNotRunTogether() {
+    TableChangeCounter counter = TableChangeCounter.get();
+    // "ab" + "c" must not be the same table as "a" + "bc"
+    long bc = counter.changesOf("a", "bc");
+
+    counter.noteTableChanged("ab", "c");
+
+    assertThat(counter.changesOf("a", "bc"), is(bc));
+  }
+}
@@ -0,0 +1,175 @@
+package org.opendatakit.tables.data;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.MediumTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.util.DbTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.opendatakit.util.TestConstants.APP_NAME;
+
+/**
+ * Runs queries through the {@link UserTableCache} against a table of the
+ * database service, and checks which changes to the table a cached result
+ * survives. Within the verify interval a hit is served on the
+ * {@link TableChangeCounter} alone, so a write that is not noted is not seen
+ * until it is.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class UserTableCacheTest {
+
+  private static final String TABLE_ID = "user_table_cache_test";
+  private static final String SCORE = "score";
+  private static final int ROW_COUNT = 10;
+
+  private OrderedColumns orderedDefns;
+  private OdkDbHandle db;
+
+  @Before
+  public void setup() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(SCORE, SCORE, ElementDataType.integer.name(), "[]"));
+    orderedDefns = DbTestUtils.createTable(TABLE_ID, columns);
+    List<String> rowIds = new ArrayList<String>();
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    for (int r = 0; r < ROW_COUNT; ++r) {
+      rowIds.add("uuid:cache-" + r);
+      values.add(score(r));
+    }
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, rowIds, values);
+    UserTableCache.get().invalidate(APP_NAME, TABLE_ID);
+    db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    if (db != null) {
+      Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+    }
+    UserTableCache.get().invalidate(APP_NAME, TABLE_ID);
+    DbTestUtils.dropTable(TABLE_ID);
+  }
+
+  @Test
+  public void aRepeatedQueryIsServedFromTheCache() throws Exception {
+    UserTable first = query(all());
+    assertThat(first.getNumberOfRows(), is(ROW_COUNT));
+    assertThat(query(all()), sameInstance(first));
+  }
+
+  @Test
+  public void differentQueriesAreCachedApart() throws Exception {
+    UserTable all = query(all());
+    UserTable some = query(scoreBelow(3));
+
+    assertThat(some.getNumberOfRows(), is(3));
+    assertThat(query(all()), sameInstance(all));
+    assertThat(query(scoreBelow(3)), sameInstance(some));
+  }
+
+  @Test
+  public void aHitTrustsTheCounter() throws Exception {
+    UserTable before = query(all());
+    insert("uuid:cache-unnoted", ROW_COUNT);
+
+    // nothing told the counter, and the result was just verified
+    assertThat(query(all()), sameInstance(before));
+
+    TableChangeCounter.get().noteTableChanged(APP_NAME, TABLE_ID);
+    assertThat(query(all()).getNumberOfRows(), is(ROW_COUNT + 1));
+  }
+
+  @Test
+  public void aNotedDeleteIsSeen() throws Exception {
+    query(all());
+    DbTestUtils.deleteRow(TABLE_ID, orderedDefns, "uuid:cache-0");
+    TableChangeCounter.get().noteTableChanged(APP_NAME, TABLE_ID);
+
+    assertThat(query(all()).getNumberOfRows(), is(ROW_COUNT - 1));
+  }
+
+  @Test
+  public void aReturnFromAnotherAppIsSeen() throws Exception {
+    query(all());
+    insert("uuid:cache-other-app", ROW_COUNT);
+    TableChangeCounter.get().noteAppChanged(APP_NAME);
+
+    assertThat(query(all()).getNumberOfRows(), is(ROW_COUNT + 1));
+  }
+
+  @Test
+  public void anInvalidatedTableIsReadAgain() throws Exception {
+    UserTable before = query(all());
+    UserTableCache.get().invalidate(APP_NAME, TABLE_ID);
+
+    UserTable after = query(all());
+    assertThat(after, not(sameInstance(before)));
+    assertThat(after.getNumberOfRows(), is(ROW_COUNT));
+  }
+
+  @Test
+  public void otherColumnDefinitionsAreReadAgain() throws Exception {
+    UserTable before = query(all());
+    OrderedColumns reread = Tables.getInstance().getDatabase().getUserDefinedColumns(APP_NAME,
+        db, TABLE_ID);
+
+    UserTable after = UserTableCache.get().getUserTable(APP_NAME, db, TABLE_ID, reread, all());
+    assertThat(after, not(sameInstance(before)));
+  }
+
+  @Test
+  public void theProbesTellTheExactNumberOfRows() throws Exception {
+    assertThat(hasNumberOfRows(all(), ROW_COUNT), is(true));
+    assertThat(hasNumberOfRows(all(), ROW_COUNT - 1), is(false));
+    assertThat(hasNumberOfRows(all(), ROW_COUNT + 1), is(false));
+    assertThat(hasNumberOfRows(scoreBelow(3), 3), is(true));
+    assertThat(hasNumberOfRows(scoreBelow(0), 0), is(true));
+    assertThat(hasNumberOfRows(scoreBelow(0), 1), is(false));
+  }
+
+  private UserTable query(SQLQueryStruct query) throws Exception {
+    return UserTableCache.get().getUserTable(APP_NAME, db, TABLE_ID, orderedDefns, query);
+  }
+
+  private boolean hasNumberOfRows(SQLQueryStruct query, int numberOfRows) throws Exception {
+    return UserTableCache.hasNumberOfRows(APP_NAME, db, TABLE_ID, orderedDefns, query,
+        numberOfRows);
+  }
+
+  private void insert(String rowId, int score) throws Exception {
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, Collections.singletonList(rowId),
+        Collections.singletonList(score(score)));
+  }
+
+  private static ContentValues score(int score) {
+    ContentValues values = new ContentValues();
+    values.put(SCORE, score);
+    return values;
+  }
+
+  private static SQLQueryStruct all() {
+    return new SQLQueryStruct(null, null, null, null, SCORE, "ASC");
+  }
+
+  private static SQLQueryStruct scoreBelow(int score) {
+    return new SQLQueryStruct(SCORE + " < ?", new String[] { Integer.toString(score) }, null,
+        null, SCORE, "ASC");
+  }
+}
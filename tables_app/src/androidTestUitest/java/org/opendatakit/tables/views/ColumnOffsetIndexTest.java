@@ -0,0 +1,91 @@
+package org.opendatakit.tables.views;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks the column found by {@link ColumnOffsetIndex} for every x coordinate
+ * of a layout against a walk over the columns, and the clamping of the
+ * coordinates outside of it.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ColumnOffsetIndexTest {
+
+  private static final int B = TabularView.BORDER_WIDTH;
+
+  @Test
+  public void everyCoordinateFindsTheColumnAWalkFinds() {
+    int[] widths = { 30, 1, 75, 12, 0, 40 };
+    ColumnOffsetIndex index = new ColumnOffsetIndex(widths);
+    for (int x = 0; x < index.getTotalWidth(); ++x) {
+      assertThat("x = " + x, index.getColumnAt(x), is(walk(widths, x)));
+    }
+  }
+
+  @Test
+  public void aLeftBorderBelongsToItsColumn() {
+    ColumnOffsetIndex index = new ColumnOffsetIndex(new int[] { 10, 20, 30 });
+    for (int c = 0; c < 3; ++c) {
+      assertThat(index.getColumnAt(index.getBorderLeft(c)), is(c));
+      assertThat(index.getColumnAt(index.getCellLeft(c)), is(c));
+    }
+  }
+
+  @Test
+  public void coordinatesOutsideTheColumnsAreClamped() {
+    ColumnOffsetIndex index = new ColumnOffsetIndex(new int[] { 10, 20, 30 });
+    assertThat(index.getColumnAt(-1), is(0));
+    assertThat(index.getColumnAt(Integer.MIN_VALUE), is(0));
+    assertThat(index.getColumnAt(index.getTotalWidth()), is(2));
+    assertThat(index.getColumnAt(Integer.MAX_VALUE), is(2));
+  }
+
+  @Test
+  public void noColumnsFindsNone() {
+    ColumnOffsetIndex index = new ColumnOffsetIndex(new int[0]);
+    assertThat(index.getColumnAt(0), is(-1));
+    assertThat(index.getTotalWidth(), is(B));
+  }
+
+  @Test
+  public void offsetsCountEveryBorder() {
+    ColumnOffsetIndex index = new ColumnOffsetIndex(new int[] { 10, 20, 30 });
+    assertThat(index.getBorderLeft(0), is(0));
+    assertThat(index.getCellLeft(0), is(B));
+    assertThat(index.getBorderLeft(1), is(10 + B));
+    assertThat(index.getBorderLeft(2), is(30 + 2 * B));
+    assertThat(index.getTotalWidth(), is(60 + 4 * B));
+  }
+
+  @Test
+  public void aSelectionLaysOutOnlyTheChosenColumns() {
+    ColumnOffsetIndex index = new ColumnOffsetIndex(new int[] { 10, 20, 30 });
+    ColumnOffsetIndex selected = index.select(new int[] { 2, 0 });
+    assertThat(selected.getColumnCount(), is(2));
+    assertThat(selected.getWidth(0), is(30));
+    assertThat(selected.getWidth(1), is(10));
+    assertThat(selected.getTotalWidth(), is(40 + 3 * B));
+  }
+
+  /**
+   * The column under x, by walking the columns as the view did before the
+   * index.
+   */
+  private static int walk(int[] widths, int x) {
+    int left = 0;
+    for (int c = 0; c < widths.length; ++c) {
+      int next = left + B + widths[c];
+      if (x < next) {
+        return c;
+      }
+      left = next;
+    }
+    return widths.length - 1;
+  }
+}
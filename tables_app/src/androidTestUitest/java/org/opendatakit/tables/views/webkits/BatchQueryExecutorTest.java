@@ -0,0 +1,304 @@
+package org.opendatakit.tables.views.webkits;
+
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.MediumTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.util.DbTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.opendatakit.util.TestConstants.APP_NAME;
+
+/**
+ * Runs batches of queries with a {@link BatchQueryExecutor} and checks the
+ * result reported for each query: the rows and the columns asked for, an
+ * error for a query that fails without failing the others, and pages that
+ * together hold every row of the query once.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class BatchQueryExecutorTest {
+
+  private static final String TABLE_ID = "batch_query_executor_test";
+  private static final String NAME = "name";
+  private static final String SCORE = "score";
+  private static final int ROW_COUNT = 23;
+  private static final String CALLBACK_JSON = "{\"callbackId\":3}";
+
+  private OrderedColumns orderedDefns;
+  private BatchQueryExecutor executor;
+
+  @Before
+  public void setup() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(NAME, NAME, ElementDataType.string.name(), "[]"));
+    columns.add(new Column(SCORE, SCORE, ElementDataType.integer.name(), "[]"));
+    orderedDefns = DbTestUtils.createTable(TABLE_ID, columns);
+    TableMetadataCache.get().invalidate(APP_NAME, TABLE_ID);
+    List<String> rowIds = new ArrayList<String>();
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      rowIds.add(rowIdOf(i));
+      ContentValues v = new ContentValues();
+      v.put(NAME, "n" + i);
+      v.put(SCORE, scoreOf(i));
+      values.add(v);
+    }
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, rowIds, values);
+    OdkTables odkTables = new OdkTables(null, null, TABLE_ID) {
+      @Override
+      OrderedColumns retrieveColumnDefinitions(OdkDbHandle db, String tableId) {
+        return orderedDefns;
+      }
+    };
+    executor = new BatchQueryExecutor(odkTables, APP_NAME, false);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    TableMetadataCache.get().invalidate(APP_NAME, TABLE_ID);
+    DbTestUtils.dropTable(TABLE_ID);
+  }
+
+  @Test
+  public void everyQueryOfTheBatchIsAnswered() throws Exception {
+    Map<String, Object> below2 = query();
+    below2.put(BatchQueryExecutor.WHERE_CLAUSE, SCORE + " < ?");
+    below2.put(BatchQueryExecutor.SQL_BIND_PARAMS, Arrays.asList("2"));
+    List<Map<String, Object>> results = execute(query(), below2);
+
+    assertThat(results, hasSize(2));
+    assertThat(rowsOf(results.get(0)), hasSize(ROW_COUNT));
+    int below = 0;
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      if (scoreOf(i) != null && scoreOf(i) < 2) {
+        ++below;
+      }
+    }
+    assertThat(rowsOf(results.get(1)), hasSize(below));
+    assertThat(metadataOf(results.get(0)).get(BatchQueryExecutor.TABLE_ID),
+        is((Object) TABLE_ID));
+  }
+
+  @Test
+  public void aFailedQueryDoesNotFailTheOthers() throws Exception {
+    Map<String, Object> badWhere = query();
+    badWhere.put(BatchQueryExecutor.WHERE_CLAUSE, "no_such_column = 1");
+    Map<String, Object> noTable = query();
+    noTable.remove(BatchQueryExecutor.TABLE_ID);
+    List<Map<String, Object>> results = execute(badWhere, query(), noTable);
+
+    assertThat(results, hasSize(3));
+    assertThat(results.get(0).get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+    assertThat(results.get(0).containsKey(BatchQueryExecutor.DATA), is(false));
+    assertThat(rowsOf(results.get(1)), hasSize(ROW_COUNT));
+    assertThat(results.get(2).get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+  }
+
+  @Test
+  public void aProjectionReturnsTheRowIdAndTheColumnsAskedFor() throws Exception {
+    Map<String, Object> projected = query();
+    projected.put(BatchQueryExecutor.PROJECTION, Arrays.asList(SCORE));
+    projected.put(BatchQueryExecutor.ORDER_BY_ELEMENT_KEY, NAME);
+    Map<String, Object> result = execute(projected).get(0);
+
+    Map<String, Object> elementKeyMap = elementKeyMapOf(result);
+    assertThat(elementKeyMap.keySet(), containsInAnyOrder(DataTableColumns.ID, SCORE));
+    List<List<String>> rows = rowsOf(result);
+    assertThat(rows.get(0), hasSize(2));
+    int id = (Integer) elementKeyMap.get(DataTableColumns.ID);
+    assertThat(rows.get(0).get(id), is("uuid:batch-00"));
+  }
+
+  @Test
+  public void aProjectionOfAnUnknownColumnIsAnError() throws Exception {
+    Map<String, Object> projected = query();
+    projected.put(BatchQueryExecutor.PROJECTION, Arrays.asList("no_such_column"));
+
+    assertThat(execute(projected).get(0).get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+  }
+
+  @Test
+  public void pagesHoldEveryRowOnceWhenAscending() throws Exception {
+    checkPages("ASC");
+  }
+
+  @Test
+  public void pagesHoldEveryRowOnceWhenDescending() throws Exception {
+    checkPages("DESC");
+  }
+
+  @Test
+  public void aTokenOfAnotherOrderIsAnError() throws Exception {
+    Map<String, Object> first = query();
+    first.put(BatchQueryExecutor.ORDER_BY_ELEMENT_KEY, SCORE);
+    first.put(BatchQueryExecutor.LIMIT, 5);
+    String token = tokenOf(execute(first).get(0));
+    assertThat(token, notNullValue());
+
+    Map<String, Object> next = query();
+    next.put(BatchQueryExecutor.ORDER_BY_ELEMENT_KEY, SCORE);
+    next.put(BatchQueryExecutor.ORDER_BY_DIRECTION, "DESC");
+    next.put(BatchQueryExecutor.LIMIT, 5);
+    next.put(BatchQueryExecutor.CONTINUATION_TOKEN, token);
+
+    assertThat(execute(next).get(0).get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+  }
+
+  @Test
+  public void groupedQueriesAndBadLimitsCannotBePaged() throws Exception {
+    Map<String, Object> grouped = query();
+    grouped.put(BatchQueryExecutor.GROUP_BY, Arrays.asList(SCORE));
+    grouped.put(BatchQueryExecutor.LIMIT, 5);
+    Map<String, Object> zero = query();
+    zero.put(BatchQueryExecutor.LIMIT, 0);
+    Map<String, Object> notANumber = query();
+    notANumber.put(BatchQueryExecutor.LIMIT, "five");
+    List<Map<String, Object>> results = execute(grouped, zero, notANumber);
+
+    for (Map<String, Object> result : results) {
+      assertThat(result.get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+    }
+  }
+
+  @Test
+  public void anUnparsableBatchIsAnError() throws Exception {
+    Map<String, Object> response = parse(executor.execute("not json", CALLBACK_JSON));
+
+    assertThat(response.get(BatchQueryExecutor.CALLBACK_JSON), is((Object) CALLBACK_JSON));
+    assertThat(response.get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+  }
+
+  private void checkPages(String direction) throws Exception {
+    List<String> expected = expectedRowIds(direction);
+    for (int pageSize = 1; pageSize <= 7; ++pageSize) {
+      List<String> paged = new ArrayList<String>();
+      String token = null;
+      do {
+        Map<String, Object> page = query();
+        page.put(BatchQueryExecutor.ORDER_BY_ELEMENT_KEY, SCORE);
+        page.put(BatchQueryExecutor.ORDER_BY_DIRECTION, direction);
+        page.put(BatchQueryExecutor.LIMIT, pageSize);
+        if (token != null) {
+          page.put(BatchQueryExecutor.CONTINUATION_TOKEN, token);
+        }
+        Map<String, Object> result = execute(page).get(0);
+        List<String> rowIds = rowIdsOf(result);
+        assertThat(rowIds.size(), lessThanOrEqualTo(pageSize));
+        paged.addAll(rowIds);
+        token = tokenOf(result);
+        assertThat("paging does not end", paged.size(), lessThanOrEqualTo(ROW_COUNT));
+      } while (token != null);
+      assertThat("pages of " + pageSize, paged, is(expected));
+    }
+  }
+
+  /**
+   * @return the row ids in the order of the pages: by score, nulls first
+   *         when ascending, then by row id ascending
+   */
+  private static List<String> expectedRowIds(final String direction) {
+    List<Integer> rows = new ArrayList<Integer>();
+    for (int i = 0; i < ROW_COUNT; ++i) {
+      rows.add(i);
+    }
+    Collections.sort(rows, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        Integer x = scoreOf(lhs);
+        Integer y = scoreOf(rhs);
+        int byScore = (x == null || y == null) ? ((x == y) ? 0 : ((x == null) ? -1 : 1))
+            : x.compareTo(y);
+        if (byScore != 0) {
+          return "DESC".equals(direction) ? -byScore : byScore;
+        }
+        return lhs.compareTo(rhs);
+      }
+    });
+    List<String> rowIds = new ArrayList<String>();
+    for (int i : rows) {
+      rowIds.add(rowIdOf(i));
+    }
+    return rowIds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> execute(Map<String, Object>... queries) throws Exception {
+    Map<String, Object> response = parse(executor.execute(
+        ODKFileUtils.mapper.writeValueAsString(Arrays.asList(queries)), CALLBACK_JSON));
+    assertThat(response.get(BatchQueryExecutor.CALLBACK_JSON), is((Object) CALLBACK_JSON));
+    assertThat(response.get(BatchQueryExecutor.ERROR_MSG), nullValue());
+    return (List<Map<String, Object>>) response.get(BatchQueryExecutor.DATA);
+  }
+
+  private static Map<String, Object> query() {
+    Map<String, Object> query = new HashMap<String, Object>();
+    query.put(BatchQueryExecutor.TABLE_ID, TABLE_ID);
+    return query;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> parse(String response) throws Exception {
+    return ODKFileUtils.mapper.readValue(response, Map.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<List<String>> rowsOf(Map<String, Object> result) {
+    assertThat(result.get(BatchQueryExecutor.ERROR_MSG), nullValue());
+    return (List<List<String>>) result.get(BatchQueryExecutor.DATA);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> metadataOf(Map<String, Object> result) {
+    return (Map<String, Object>) result.get(BatchQueryExecutor.METADATA);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> elementKeyMapOf(Map<String, Object> result) {
+    return (Map<String, Object>) metadataOf(result).get(BatchQueryExecutor.ELEMENT_KEY_MAP);
+  }
+
+  private static String tokenOf(Map<String, Object> result) {
+    return (String) metadataOf(result).get(BatchQueryExecutor.CONTINUATION_TOKEN);
+  }
+
+  private static List<String> rowIdsOf(Map<String, Object> result) {
+    int id = (Integer) elementKeyMapOf(result).get(DataTableColumns.ID);
+    List<String> rowIds = new ArrayList<String>();
+    for (List<String> row : rowsOf(result)) {
+      rowIds.add(row.get(id));
+    }
+    return rowIds;
+  }
+
+  private static String rowIdOf(int i) {
+    return String.format("uuid:batch-%02d", i);
+  }
+
+  /**
+   * @return the score of the i-th row inserted; ties, and nulls, for the
+   *         pages to get past
+   */
+  private static Integer scoreOf(int i) {
+    return (i % 5 == 0) ? null : Integer.valueOf(i % 3);
+  }
+}
@@ -0,0 +1,234 @@
+package org.opendatakit.tables.views.webkits;
+
+import android.content.ContentValues;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.MediumTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.data.TableChangeCounter;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.util.DbTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.opendatakit.util.TestConstants.APP_NAME;
+
+/**
+ * Writes batches of rows with a {@link BulkRowWriter} and checks the outcome
+ * reported for each row against the rows left in the table: a row that
+ * fails is reported with its error, and does not keep the other rows of the
+ * batch from being written.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class BulkRowWriterTest {
+
+  private static final String TABLE_ID = "bulk_row_writer_test";
+  private static final String NAME = "name";
+  private static final String SCORE = "score";
+  private static final String CALLBACK_JSON = "{\"callbackId\":7}";
+
+  private OrderedColumns orderedDefns;
+  private BulkRowWriter writer;
+
+  @Before
+  public void setup() throws Exception {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(NAME, NAME, ElementDataType.string.name(), "[]"));
+    columns.add(new Column(SCORE, SCORE, ElementDataType.integer.name(), "[]"));
+    orderedDefns = DbTestUtils.createTable(TABLE_ID, columns);
+    TableMetadataCache.get().invalidate(APP_NAME, TABLE_ID);
+    List<ContentValues> values = new ArrayList<ContentValues>();
+    values.add(row("a", 1));
+    values.add(row("b", 2));
+    DbTestUtils.insertRows(TABLE_ID, orderedDefns, Arrays.asList("uuid:bulk-a", "uuid:bulk-b"),
+        values);
+    OdkTables odkTables = new OdkTables(null, null, TABLE_ID) {
+      @Override
+      OrderedColumns retrieveColumnDefinitions(OdkDbHandle db, String tableId) {
+        return orderedDefns;
+      }
+    };
+    writer = new BulkRowWriter(InstrumentationRegistry.getTargetContext(), odkTables,
+        APP_NAME);
+  }
+
+  @After
+  public void teardown() throws Exception {
+    TableMetadataCache.get().invalidate(APP_NAME, TABLE_ID);
+    DbTestUtils.dropTable(TABLE_ID);
+  }
+
+  @Test
+  public void addedRowsAreReportedInOrder() throws Exception {
+    Map<String, Object> data = dataOf(writer.execute(BulkRowWriter.Operation.ADD, TABLE_ID,
+        rows(payload("uuid:bulk-c", "c", "3"), payload(null, "d", "4")), CALLBACK_JSON));
+
+    assertThat(data.get(BulkRowWriter.SUCCEEDED), is((Object) 2));
+    assertThat(data.get(BulkRowWriter.FAILED), is((Object) 0));
+    List<Map<String, Object>> outcomes = outcomesOf(data);
+    assertThat(outcomes, hasSize(2));
+    assertThat(outcomes.get(0).get(BulkRowWriter.ROW_ID), is((Object) "uuid:bulk-c"));
+    assertThat(outcomes.get(0).containsKey(BatchQueryExecutor.ERROR_MSG), is(false));
+    // a row id is made up for a row without one
+    String madeUp = (String) outcomes.get(1).get(BulkRowWriter.ROW_ID);
+    assertThat(madeUp, startsWith("uuid:"));
+
+    Map<String, String> names = namesByRowId();
+    assertThat(names.size(), is(4));
+    assertThat(names.get("uuid:bulk-c"), is("c"));
+    assertThat(names.get(madeUp), is("d"));
+  }
+
+  @Test
+  public void aFailedRowDoesNotStopTheOthers() throws Exception {
+    Map<String, Object> noValues = new HashMap<String, Object>();
+    noValues.put(BulkRowWriter.ROW_ID, "uuid:bulk-no-values");
+    Map<String, Object> data = dataOf(writer.execute(BulkRowWriter.Operation.ADD, TABLE_ID,
+        rows(payload("uuid:bulk-c", "c", "3"),
+            // already in the table
+            payload("uuid:bulk-a", "again", "9"),
+            payload("uuid:bulk-bad-score", "e", "not a number"),
+            noValues,
+            unknownColumn("uuid:bulk-unknown"),
+            payload("uuid:bulk-f", "f", "6")), CALLBACK_JSON));
+
+    assertThat(data.get(BulkRowWriter.SUCCEEDED), is((Object) 2));
+    assertThat(data.get(BulkRowWriter.FAILED), is((Object) 4));
+    List<Map<String, Object>> outcomes = outcomesOf(data);
+    assertThat(outcomes, hasSize(6));
+    boolean[] failed = { false, true, true, true, true, false };
+    for (int i = 0; i < failed.length; ++i) {
+      assertThat("row " + i, outcomes.get(i).containsKey(BatchQueryExecutor.ERROR_MSG),
+          is(failed[i]));
+    }
+    assertThat(outcomes.get(1).get(BulkRowWriter.ROW_ID), is((Object) "uuid:bulk-a"));
+
+    Map<String, String> names = namesByRowId();
+    assertThat(names.keySet(), containsInAnyOrder("uuid:bulk-a", "uuid:bulk-b", "uuid:bulk-c",
+        "uuid:bulk-f"));
+    assertThat(names.get("uuid:bulk-a"), is("a"));
+  }
+
+  @Test
+  public void updatedRowsNeedARowId() throws Exception {
+    Map<String, Object> data = dataOf(writer.execute(BulkRowWriter.Operation.UPDATE, TABLE_ID,
+        rows(payload("uuid:bulk-b", "b2", "20"), payload(null, "x", "0")), CALLBACK_JSON));
+
+    assertThat(data.get(BulkRowWriter.SUCCEEDED), is((Object) 1));
+    List<Map<String, Object>> outcomes = outcomesOf(data);
+    assertThat(outcomes.get(0).containsKey(BatchQueryExecutor.ERROR_MSG), is(false));
+    assertThat(outcomes.get(1).get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+
+    Map<String, String> names = namesByRowId();
+    assertThat(names.size(), is(2));
+    assertThat(names.get("uuid:bulk-b"), is("b2"));
+  }
+
+  @Test
+  public void deletedRowsAreGone() throws Exception {
+    Map<String, Object> onlyId = new HashMap<String, Object>();
+    onlyId.put(BulkRowWriter.ROW_ID, "uuid:bulk-a");
+    Map<String, Object> data = dataOf(writer.execute(BulkRowWriter.Operation.DELETE, TABLE_ID,
+        rows(onlyId), CALLBACK_JSON));
+
+    assertThat(data.get(BulkRowWriter.SUCCEEDED), is((Object) 1));
+    assertThat(namesByRowId().keySet(), contains("uuid:bulk-b"));
+  }
+
+  @Test
+  public void theTableIsNotedAsChangedOnlyIfARowWasWritten() throws Exception {
+    long before = TableChangeCounter.get().changesOf(APP_NAME, TABLE_ID);
+    writer.execute(BulkRowWriter.Operation.UPDATE, TABLE_ID, rows(payload(null, "x", "0")),
+        CALLBACK_JSON);
+    assertThat(TableChangeCounter.get().changesOf(APP_NAME, TABLE_ID), is(before));
+
+    writer.execute(BulkRowWriter.Operation.ADD, TABLE_ID, rows(payload(null, "x", "0")),
+        CALLBACK_JSON);
+    assertThat(TableChangeCounter.get().changesOf(APP_NAME, TABLE_ID), not(before));
+  }
+
+  @Test
+  public void anUnparsableBatchIsAnError() throws Exception {
+    Map<String, Object> response = parse(writer.execute(BulkRowWriter.Operation.ADD, TABLE_ID,
+        "not json", CALLBACK_JSON));
+
+    assertThat(response.get(BatchQueryExecutor.CALLBACK_JSON), is((Object) CALLBACK_JSON));
+    assertThat(response.get(BatchQueryExecutor.ERROR_MSG), notNullValue());
+    assertThat(response.containsKey(BatchQueryExecutor.DATA), is(false));
+    assertThat(namesByRowId().size(), is(2));
+  }
+
+  private Map<String, String> namesByRowId() throws Exception {
+    UserTable table = DbTestUtils.queryAll(TABLE_ID, orderedDefns, NAME, "ASC");
+    Map<String, String> names = new HashMap<String, String>();
+    for (int i = 0; i < table.getNumberOfRows(); ++i) {
+      names.put(table.getRowId(i), table.getRowAtIndex(i).getDataByKey(NAME));
+    }
+    return names;
+  }
+
+  private static ContentValues row(String name, int score) {
+    ContentValues values = new ContentValues();
+    values.put(NAME, name);
+    values.put(SCORE, score);
+    return values;
+  }
+
+  private static Map<String, Object> payload(String rowId, String name, String score) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(NAME, name);
+    values.put(SCORE, score);
+    Map<String, Object> payload = new HashMap<String, Object>();
+    if (rowId != null) {
+      payload.put(BulkRowWriter.ROW_ID, rowId);
+    }
+    payload.put(BulkRowWriter.VALUES, values);
+    return payload;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> unknownColumn(String rowId) {
+    Map<String, Object> payload = payload(rowId, "u", "0");
+    ((Map<String, Object>) payload.get(BulkRowWriter.VALUES)).put("no_such_column", "x");
+    return payload;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String rows(Map<String, Object>... rows) throws Exception {
+    return ODKFileUtils.mapper.writeValueAsString(Arrays.asList(rows));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> parse(String response) throws Exception {
+    return ODKFileUtils.mapper.readValue(response, Map.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> dataOf(String response) throws Exception {
+    Map<String, Object> parsed = parse(response);
+    assertThat(parsed.get(BatchQueryExecutor.CALLBACK_JSON), is((Object) CALLBACK_JSON));
+    assertThat(parsed.get(BatchQueryExecutor.ERROR_MSG), nullValue());
+    return (Map<String, Object>) parsed.get(BatchQueryExecutor.DATA);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> outcomesOf(Map<String, Object> data) {
+    return (List<Map<String, Object>>) data.get(BulkRowWriter.OUTCOMES);
+  }
+}
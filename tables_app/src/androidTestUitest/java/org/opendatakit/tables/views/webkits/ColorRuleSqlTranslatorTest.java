@@ -0,0 +1,165 @@
+package org.opendatakit.tables.views.webkits;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.provider.DataTableColumns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs the CASE expressions built by {@link ColorRuleSqlTranslator} against an
+ * in-memory database, and checks that each row selects the first rule that
+ * matches it.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ColorRuleSqlTranslatorTest {
+
+  private static final String NAME = "name";
+  private static final String AGE = "age";
+  private static final List<String> ADMIN_COLUMNS = Arrays.asList(DataTableColumns.SYNC_STATE);
+
+  private SQLiteDatabase db;
+  private OrderedColumns orderedDefns;
+
+  @Before
+  public void setup() {
+    List<Column> columns = new ArrayList<Column>();
+    columns.add(new Column(NAME, NAME, ElementDataType.string.name(), "[]"));
+    columns.add(new Column(AGE, AGE, ElementDataType.integer.name(), "[]"));
+    orderedDefns = new OrderedColumns("tables", "people", columns);
+
+    db = SQLiteDatabase.create(null);
+    db.execSQL("CREATE TABLE people (" + NAME + " TEXT, " + AGE + " INTEGER, "
+        + DataTableColumns.SYNC_STATE + " TEXT)");
+    insert("alice", "70", "synced");
+    insert("bob", "30", "changed");
+    insert("carol", "10", "synced");
+    insert("dave", null, "synced");
+    // not stored as a number, so the numeric rules do not apply to it
+    insert("eve", "seventeen", "synced");
+  }
+
+  @After
+  public void teardown() {
+    db.close();
+  }
+
+  @Test
+  public void eachRowSelectsItsFirstMatchingRule() {
+    List<ColorRule> rules = new ArrayList<ColorRule>();
+    rules.add(rule(AGE, ColorRule.RuleType.GREATER_THAN_OR_EQUAL, "65"));
+    rules.add(rule(NAME, ColorRule.RuleType.EQUAL, "bob"));
+    rules.add(rule(AGE, ColorRule.RuleType.LESS_THAN, "18"));
+    // alice also matches this, but an earlier rule comes first
+    rules.add(rule(NAME, ColorRule.RuleType.LESS_THAN, "b"));
+
+    List<String> bindArgs = new ArrayList<String>();
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(rules, orderedDefns,
+        ADMIN_COLUMNS, bindArgs);
+    assertThat(caseExpression, notNullValue());
+
+    assertThat(namesSelectingRule(caseExpression, bindArgs, 0), contains("alice"));
+    assertThat(namesSelectingRule(caseExpression, bindArgs, 1), contains("bob"));
+    assertThat(namesSelectingRule(caseExpression, bindArgs, 2), contains("carol"));
+    assertThat(namesSelectingRule(caseExpression, bindArgs, 3), empty());
+    assertThat(namesSelectingRule(caseExpression, bindArgs, -1), contains("dave", "eve"));
+  }
+
+  @Test
+  public void caseExpressionYieldsAnInteger() {
+    List<ColorRule> rules = new ArrayList<ColorRule>();
+    rules.add(rule(NAME, ColorRule.RuleType.EQUAL, "bob"));
+
+    List<String> bindArgs = new ArrayList<String>();
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(rules, orderedDefns,
+        ADMIN_COLUMNS, bindArgs);
+    Cursor c = db.rawQuery("SELECT typeof(" + caseExpression + ") FROM people",
+        bindArgs.toArray(new String[bindArgs.size()]));
+    try {
+      while (c.moveToNext()) {
+        // a rule index bound as text would never equal it
+        assertThat(c.getString(0), is("integer"));
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void adminColumnsCompareAsText() {
+    List<ColorRule> rules = new ArrayList<ColorRule>();
+    rules.add(rule(DataTableColumns.SYNC_STATE, ColorRule.RuleType.EQUAL, "changed"));
+
+    List<String> bindArgs = new ArrayList<String>();
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(rules, orderedDefns,
+        ADMIN_COLUMNS, bindArgs);
+    assertThat(namesSelectingRule(caseExpression, bindArgs, 0), contains("bob"));
+  }
+
+  @Test
+  public void ruleOnUnknownColumnCannotBeTranslated() {
+    List<ColorRule> rules = new ArrayList<ColorRule>();
+    rules.add(rule("no_such_column", ColorRule.RuleType.EQUAL, "x"));
+
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(rules, orderedDefns,
+        ADMIN_COLUMNS, new ArrayList<String>());
+    assertThat(caseExpression, nullValue());
+  }
+
+  @Test
+  public void rulesThatNeverMatchSelectNoRule() {
+    List<ColorRule> rules = new ArrayList<ColorRule>();
+    rules.add(rule(AGE, ColorRule.RuleType.NO_OP, "1"));
+    rules.add(rule(AGE, ColorRule.RuleType.EQUAL, "not a number"));
+
+    List<String> bindArgs = new ArrayList<String>();
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(rules, orderedDefns,
+        ADMIN_COLUMNS, bindArgs);
+    assertThat(caseExpression, is("-1"));
+    assertThat(bindArgs, empty());
+    assertThat(namesSelectingRule(caseExpression, bindArgs, -1),
+        contains("alice", "bob", "carol", "dave", "eve"));
+  }
+
+  private void insert(String name, String age, String syncState) {
+    db.execSQL("INSERT INTO people (" + NAME + ", " + AGE + ", " + DataTableColumns.SYNC_STATE
+        + ") VALUES (?, ?, ?)", new Object[] { name, age, syncState });
+  }
+
+  private static ColorRule rule(String elementKey, ColorRule.RuleType type, String value) {
+    return new ColorRule(elementKey, type, value, Color.BLACK, Color.WHITE);
+  }
+
+  private List<String> namesSelectingRule(String caseExpression, List<String> bindArgs,
+      int rule) {
+    List<String> names = new ArrayList<String>();
+    Cursor c = db.rawQuery("SELECT " + NAME + " FROM people WHERE "
+        + ColorRuleSqlTranslator.selectRule(caseExpression, rule) + " ORDER BY " + NAME,
+        bindArgs.toArray(new String[bindArgs.size()]));
+    try {
+      while (c.moveToNext()) {
+        names.add(c.getString(0));
+      }
+    } finally {
+      c.close();
+    }
+    return names;
+  }
+}
@@ -0,0 +1,125 @@
+package org.opendatakit.tables.views.webkits;
+
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Encodes row colors with {@link CompactColorEncoder}, decodes the runs the
+ * way a page would, and checks that every row gets back its colors.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class CompactColorEncoderTest {
+
+  @Test
+  public void everyRowDecodesToItsColors() {
+    TableDataExecutorProcessor.RowColors rowColors = new TableDataExecutorProcessor.RowColors(9);
+    rowColors.set(0, Color.BLACK, Color.WHITE);
+    rowColors.set(1, Color.BLACK, Color.WHITE);
+    // row 2 has no color
+    rowColors.set(3, Color.RED, Color.WHITE);
+    rowColors.set(4, Color.BLACK, Color.WHITE);
+    rowColors.set(5, Color.BLACK, Color.RED);
+    // rows 6 and 7 have no color
+    rowColors.set(8, Color.RED, Color.WHITE);
+
+    Map<String, Object> encoded = CompactColorEncoder.encode(rowColors,
+        new HashMap<Integer, String>());
+    List<String[]> decoded = decode(encoded);
+
+    assertThat(decoded, hasSize(9));
+    for (int i = 0; i < 9; ++i) {
+      if (rowColors.hasColor[i]) {
+        assertThat("row " + i, decoded.get(i), is(new String[] {
+            hex(rowColors.foreground[i]), hex(rowColors.background[i]) }));
+      } else {
+        assertThat("row " + i, decoded.get(i), nullValue());
+      }
+    }
+  }
+
+  @Test
+  public void equalNeighboursShareARunAndColorsShareAnEntry() {
+    TableDataExecutorProcessor.RowColors rowColors = new TableDataExecutorProcessor.RowColors(6);
+    rowColors.set(0, Color.BLACK, Color.WHITE);
+    rowColors.set(1, Color.BLACK, Color.WHITE);
+    rowColors.set(2, Color.BLACK, Color.WHITE);
+    rowColors.set(4, Color.BLACK, Color.WHITE);
+    rowColors.set(5, Color.BLACK, Color.WHITE);
+
+    Map<String, Object> encoded = CompactColorEncoder.encode(rowColors,
+        new HashMap<Integer, String>());
+
+    assertThat((List<?>) encoded.get(CompactColorEncoder.PALETTE), hasSize(1));
+    assertThat((int[]) encoded.get(CompactColorEncoder.RUNS), is(new int[] { 3, 0, 1, -1,
+        2, 0 }));
+  }
+
+  @Test
+  public void noRowsHaveNoRuns() {
+    Map<String, Object> encoded = CompactColorEncoder.encode(
+        new TableDataExecutorProcessor.RowColors(0), new HashMap<Integer, String>());
+
+    assertThat((List<?>) encoded.get(CompactColorEncoder.PALETTE), empty());
+    assertThat(((int[]) encoded.get(CompactColorEncoder.RUNS)).length, is(0));
+  }
+
+  @Test
+  public void manyRunsGrowTheRunArray() {
+    // alternating colors, so every row is a run of its own
+    int numberOfRows = 1000;
+    TableDataExecutorProcessor.RowColors rowColors =
+        new TableDataExecutorProcessor.RowColors(numberOfRows);
+    for (int i = 0; i < numberOfRows; ++i) {
+      rowColors.set(i, (i % 2 == 0) ? Color.BLACK : Color.RED, Color.WHITE);
+    }
+
+    Map<String, Object> encoded = CompactColorEncoder.encode(rowColors,
+        new HashMap<Integer, String>());
+
+    assertThat((List<?>) encoded.get(CompactColorEncoder.PALETTE), hasSize(2));
+    assertThat(((int[]) encoded.get(CompactColorEncoder.RUNS)).length, is(2 * numberOfRows));
+    assertThat(decode(encoded), hasSize(numberOfRows));
+  }
+
+  @Test
+  public void onlyTheKnownEncodingsAreValid() {
+    assertThat(CompactColorEncoder.isValidEncoding(CompactColorEncoder.COMPACT), is(true));
+    assertThat(CompactColorEncoder.isValidEncoding(CompactColorEncoder.VERBOSE), is(true));
+    assertThat(CompactColorEncoder.isValidEncoding("gzip"), is(false));
+    assertThat(CompactColorEncoder.isValidEncoding(null), is(false));
+  }
+
+  /**
+   * @return the (foreground, background) pair of each row, or null for the
+   *         rows that are not colored
+   */
+  @SuppressWarnings("unchecked")
+  private static List<String[]> decode(Map<String, Object> encoded) {
+    List<String[]> palette = (List<String[]>) encoded.get(CompactColorEncoder.PALETTE);
+    int[] runs = (int[]) encoded.get(CompactColorEncoder.RUNS);
+    List<String[]> rows = new ArrayList<String[]>();
+    for (int r = 0; r < runs.length; r += 2) {
+      assertThat("empty run", runs[r], greaterThan(0));
+      for (int i = 0; i < runs[r]; ++i) {
+        rows.add((runs[r + 1] < 0) ? null : palette.get(runs[r + 1]));
+      }
+    }
+    return rows;
+  }
+
+  private static String hex(int color) {
+    return String.format("#%06X", (0xFFFFFF & color));
+  }
+}
@@ -0,0 +1,192 @@
+package org.opendatakit.tables.views.webkits;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.SmallTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.android.provider.DataTableColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Pages through an in-memory table with the conditions built by
+ * {@link KeysetCursor}, and checks that the pages together hold every row
+ * once, in the order of the whole query. The table has rows in conflict and
+ * checkpoints, which share a row id, and nulls in the ordering column.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class KeysetCursorTest {
+
+  private static final String NAME = "name";
+  private static final String SCORE = "score";
+
+  private SQLiteDatabase db;
+
+  @Before
+  public void setup() {
+    db = SQLiteDatabase.create(null);
+    db.execSQL("CREATE TABLE t (" + NAME + " TEXT, " + SCORE + " INTEGER, "
+        + DataTableColumns.ID + " TEXT, " + DataTableColumns.CONFLICT_TYPE + " INTEGER, "
+        + DataTableColumns.SAVEPOINT_TIMESTAMP + " TEXT)");
+    insert("a", 5, "r1", null, "t1");
+    // the local and server versions of a row in conflict
+    insert("b", 5, "r2", 1, "t1");
+    insert("c", 5, "r2", 2, "t1");
+    insert("d", null, "r3", null, "t1");
+    insert("e", null, "r4", null, "t1");
+    // a row and its checkpoint
+    insert("f", 3, "r5", null, "t1");
+    insert("g", 3, "r5", null, "t2");
+    insert("h", null, "r6", 1, "t1");
+    insert("i", null, "r6", 2, "t1");
+    insert("j", 7, "r7", null, "t1");
+  }
+
+  @After
+  public void teardown() {
+    db.close();
+  }
+
+  @Test
+  public void pagesHoldEveryRowOnceWhenOrderedByRowAlone() {
+    checkPages(null, KeysetCursor.ASC);
+  }
+
+  @Test
+  public void pagesHoldEveryRowOnceWhenAscending() {
+    checkPages(SCORE, KeysetCursor.ASC);
+  }
+
+  @Test
+  public void pagesHoldEveryRowOnceWhenDescending() {
+    checkPages(SCORE, KeysetCursor.DESC);
+  }
+
+  @Test
+  public void nothingComesAfterTheLastNullWhenDescending() {
+    List<String> bindArgs = new ArrayList<String>();
+    String after = new KeysetCursor(SCORE, KeysetCursor.DESC, null, "r6", "2", "t1")
+        .afterClause(bindArgs);
+    assertThat(namesWhere(after, bindArgs, SCORE, KeysetCursor.DESC), empty());
+  }
+
+  @Test
+  public void tokenRoundTrips() {
+    KeysetCursor cursor = new KeysetCursor(SCORE, KeysetCursor.DESC, null, "r6", null, "t1");
+    KeysetCursor copy = KeysetCursor.fromToken(cursor.toToken());
+
+    assertThat(copy.isOrderedBy(SCORE, KeysetCursor.DESC), is(true));
+    assertThat(copy.isOrderedBy(SCORE, KeysetCursor.ASC), is(false));
+    assertThat(copy.isOrderedBy(null, KeysetCursor.DESC), is(false));
+
+    List<String> bindArgs = new ArrayList<String>();
+    List<String> copyBindArgs = new ArrayList<String>();
+    assertThat(copy.afterClause(copyBindArgs), is(cursor.afterClause(bindArgs)));
+    assertThat(copyBindArgs, is(bindArgs));
+  }
+
+  @Test
+  public void tokenOrderedByRowAloneRoundTrips() {
+    KeysetCursor cursor = new KeysetCursor(null, KeysetCursor.ASC, null, "r2", "1", "t1");
+    KeysetCursor copy = KeysetCursor.fromToken(cursor.toToken());
+
+    assertThat(copy.isOrderedBy(null, KeysetCursor.ASC), is(true));
+    assertThat(copy.isOrderedBy(SCORE, KeysetCursor.ASC), is(false));
+
+    List<String> bindArgs = new ArrayList<String>();
+    List<String> copyBindArgs = new ArrayList<String>();
+    assertThat(copy.afterClause(copyBindArgs), is(cursor.afterClause(bindArgs)));
+    assertThat(copyBindArgs, is(bindArgs));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void somethingElseIsNotAToken() {
+    KeysetCursor.fromToken("not a token");
+  }
+
+  private void checkPages(String elementKey, String direction) {
+    List<String> all = namesWhere(null, new ArrayList<String>(), elementKey, direction);
+    assertThat(all, hasSize(10));
+    for (int pageSize = 1; pageSize <= 4; ++pageSize) {
+      assertThat("pages of " + pageSize, pageThrough(elementKey, direction, pageSize), is(all));
+    }
+  }
+
+  private List<String> pageThrough(String elementKey, String direction, int pageSize) {
+    List<String> names = new ArrayList<String>();
+    KeysetCursor cursor = null;
+    while (true) {
+      List<String> bindArgs = new ArrayList<String>();
+      String where = (cursor == null) ? null : cursor.afterClause(bindArgs);
+      Cursor c = query(where, bindArgs, elementKey, direction, pageSize);
+      try {
+        int count = c.getCount();
+        while (c.moveToNext()) {
+          names.add(c.getString(c.getColumnIndexOrThrow(NAME)));
+          // through the token, as the page would
+          cursor = KeysetCursor.fromToken(new KeysetCursor(elementKey, direction,
+              (elementKey == null) ? null : c.getString(c.getColumnIndexOrThrow(elementKey)),
+              c.getString(c.getColumnIndexOrThrow(DataTableColumns.ID)),
+              c.getString(c.getColumnIndexOrThrow(DataTableColumns.CONFLICT_TYPE)),
+              c.getString(c.getColumnIndexOrThrow(DataTableColumns.SAVEPOINT_TIMESTAMP)))
+              .toToken());
+        }
+        if (count < pageSize) {
+          return names;
+        }
+      } finally {
+        c.close();
+      }
+      assertThat("paging does not end", names.size(), lessThanOrEqualTo(10));
+    }
+  }
+
+  private List<String> namesWhere(String where, List<String> bindArgs, String elementKey,
+      String direction) {
+    List<String> names = new ArrayList<String>();
+    Cursor c = query(where, bindArgs, elementKey, direction, null);
+    try {
+      while (c.moveToNext()) {
+        names.add(c.getString(c.getColumnIndexOrThrow(NAME)));
+      }
+    } finally {
+      c.close();
+    }
+    return names;
+  }
+
+  private Cursor query(String where, List<String> bindArgs, String elementKey,
+      String direction, Integer limit) {
+    String[] orderBy = KeysetCursor.orderBy(elementKey);
+    String[] directions = KeysetCursor.orderByDirections(elementKey, direction);
+    StringBuilder sql = new StringBuilder("SELECT * FROM t");
+    if (where != null) {
+      sql.append(" WHERE ").append(where);
+    }
+    for (int i = 0; i < orderBy.length; ++i) {
+      sql.append((i == 0) ? " ORDER BY " : ", ").append(orderBy[i]).append(' ')
+          .append(directions[i]);
+    }
+    if (limit != null) {
+      sql.append(" LIMIT ").append(limit);
+    }
+    return db.rawQuery(sql.toString(), bindArgs.toArray(new String[bindArgs.size()]));
+  }
+
+  private void insert(String name, Integer score, String rowId, Integer conflictType,
+      String savepointTimestamp) {
+    db.execSQL("INSERT INTO t (" + NAME + ", " + SCORE + ", " + DataTableColumns.ID + ", "
+        + DataTableColumns.CONFLICT_TYPE + ", " + DataTableColumns.SAVEPOINT_TIMESTAMP
+        + ") VALUES (?, ?, ?, ?, ?)",
+        new Object[] { name, score, rowId, conflictType, savepointTimestamp });
+  }
+}
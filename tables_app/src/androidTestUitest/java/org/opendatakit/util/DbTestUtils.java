@@ -0,0 +1,115 @@
+package org.opendatakit.util;
+
+import android.content.ContentValues;
+import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.ColumnList;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+
+import java.util.List;
+
+import static org.opendatakit.util.TestConstants.APP_NAME;
+
+/**
+ * Creates, fills and drops the tables of the tests that run against the
+ * database service. Each call opens and closes a handle of its own.
+ */
+public class DbTestUtils {
+
+  /**
+   * Create a table, dropping any earlier table of the same id.
+   */
+  public static OrderedColumns createTable(String tableId, List<Column> columns)
+      throws Exception {
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      if (Tables.getInstance().getDatabase().getAllTableIds(APP_NAME, db).contains(tableId)) {
+        Tables.getInstance().getDatabase().deleteDBTableAndAllData(APP_NAME, db, tableId);
+      }
+      return Tables.getInstance().getDatabase()
+          .createOrOpenDBTableWithColumns(APP_NAME, db, tableId, new ColumnList(columns));
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  /**
+   * Insert rows in one transaction.
+   *
+   * @param rowIds
+   * @param values
+   *          the values of each row, in the order of rowIds
+   */
+  public static void insertRows(String tableId, OrderedColumns orderedColumns,
+      List<String> rowIds, List<ContentValues> values) throws Exception {
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      boolean complete = false;
+      Tables.getInstance().getDatabase().beginTransaction(APP_NAME, db);
+      try {
+        for (int i = 0; i < rowIds.size(); ++i) {
+          Tables.getInstance().getDatabase().insertRowWithId(APP_NAME, db, tableId,
+              orderedColumns, values.get(i), rowIds.get(i));
+        }
+        complete = true;
+      } finally {
+        Tables.getInstance().getDatabase().closeTransaction(APP_NAME, db, complete);
+      }
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  public static void deleteRow(String tableId, OrderedColumns orderedColumns, String rowId)
+      throws Exception {
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      Tables.getInstance().getDatabase().deleteRowWithId(APP_NAME, db, tableId, orderedColumns,
+          rowId);
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  /**
+   * @return every row of the table, in the order of the given column
+   */
+  public static UserTable queryAll(String tableId, OrderedColumns orderedColumns,
+      String orderByElementKey, String direction) throws Exception {
+    String[] emptyArray = {};
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      return Tables.getInstance().getDatabase().rawSqlQuery(APP_NAME, db, tableId,
+          orderedColumns, null, emptyArray, emptyArray, null,
+          new String[] { orderByElementKey }, new String[] { direction }, null, null);
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+
+  public static void dropTable(String tableId) throws Exception {
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(APP_NAME);
+      Tables.getInstance().getDatabase().deleteDBTableAndAllData(APP_NAME, db, tableId);
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(APP_NAME, db);
+      }
+    }
+  }
+}
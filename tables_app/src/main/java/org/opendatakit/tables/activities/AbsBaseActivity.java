@@ -32,6 +32,8 @@ import org.opendatakit.database.service.TableHealthInfo;
 import org.opendatakit.database.service.TableHealthStatus;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableChangeCounter;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.TableFileUtils;
 
@@ -53,6 +55,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
 
   protected String mAppName;
   protected String mActionTableId = null;
+  protected String mActionRowId = null;
   
   Bundle mCheckpointTables = new Bundle();
   Bundle mConflictTables = new Bundle();
@@ -67,6 +70,9 @@ public abstract class AbsBaseActivity extends BaseActivity {
           mActionTableId = null;
         }
       }
+      if ( savedInstanceState.containsKey(Constants.IntentKeys.ACTION_ROW_ID) ) {
+        mActionRowId = savedInstanceState.getString(Constants.IntentKeys.ACTION_ROW_ID);
+      }
       
       if ( savedInstanceState.containsKey(Constants.IntentKeys.CHECKPOINT_TABLES) ) {
         mCheckpointTables = savedInstanceState.getBundle(Constants.IntentKeys.CHECKPOINT_TABLES);
@@ -94,6 +100,9 @@ public abstract class AbsBaseActivity extends BaseActivity {
     if ( mActionTableId != null && mActionTableId.length() != 0 ) {
       outState.putString(Constants.IntentKeys.ACTION_TABLE_ID, mActionTableId);
     }
+    if ( mActionRowId != null ) {
+      outState.putString(Constants.IntentKeys.ACTION_ROW_ID, mActionRowId);
+    }
     if ( mCheckpointTables != null && !mCheckpointTables.isEmpty() ) {
       outState.putBundle(Constants.IntentKeys.CHECKPOINT_TABLES, mCheckpointTables);
     }
@@ -105,9 +114,18 @@ public abstract class AbsBaseActivity extends BaseActivity {
   @Override
   protected void onResume() {
     super.onResume();
+    DbHandlePool.get().setCurrentScreen(this.getClass().getSimpleName());
     ((Tables) getApplication()).establishDoNotFireDatabaseConnectionListener(this);
   }
 
+  @Override
+  protected void onPause() {
+    if ( getAppName() != null ) {
+      DbHandlePool.get().logCounters(getAppName(), this.getClass().getSimpleName());
+    }
+    super.onPause();
+  }
+
   @Override
   public void onPostResume() {
     super.onPostResume();
@@ -121,6 +139,18 @@ public abstract class AbsBaseActivity extends BaseActivity {
   public void setActionTableId(String tableId) {
     mActionTableId = tableId;
   }
+
+  /**
+   * @return the row being added or edited by the activity launched for a
+   *         result, if known
+   */
+  public String getActionRowId() {
+    return mActionRowId;
+  }
+
+  public void setActionRowId(String rowId) {
+    mActionRowId = rowId;
+  }
   
   public void scanAllTables() {
     long now = System.currentTimeMillis();
@@ -134,7 +164,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
     }
     
     try {
-      db = app.getDatabase().openDatabase(mAppName);
+      db = DbHandlePool.get().acquire(mAppName);
       List<TableHealthInfo> tableHealthList = app.getDatabase().getTableHealthStatuses(mAppName, db);
       
       Bundle checkpointTables = new Bundle();
@@ -160,7 +190,7 @@ public abstract class AbsBaseActivity extends BaseActivity {
     } finally {
       if ( db != null ) {
         try {
-          app.getDatabase().closeDatabase(mAppName, db);
+          DbHandlePool.get().release(mAppName, db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).printStackTrace(e);
           WebLogger.getLogger(getAppName()).e(this.getClass().getSimpleName(),"Unable to close database");
@@ -276,9 +306,21 @@ public abstract class AbsBaseActivity extends BaseActivity {
     return intent;
   }
 
+  @Override
+  protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+    if (getAppName() != null) {
+      // Survey, sync, the resolvers, or whatever a page launched may have
+      // written rows to any table
+      TableChangeCounter.get().noteAppChanged(getAppName());
+    }
+    super.onActivityResult(requestCode, resultCode, data);
+  }
+
   @Override
   public void databaseAvailable() {
     if ( getAppName() != null ) {
+      // other apps may have written rows while we were disconnected
+      TableChangeCounter.get().noteAppChanged(getAppName());
       resolveAnyConflicts();
     }
     FragmentManager mgr = this.getFragmentManager();
@@ -295,6 +337,8 @@ public abstract class AbsBaseActivity extends BaseActivity {
 
   @Override
   public void databaseUnavailable() {
+    // the handles went with the service
+    DbHandlePool.get().discardAll();
     FragmentManager mgr = this.getFragmentManager();
     int idxLast = mgr.getBackStackEntryCount() - 1;
     if (idxLast >= 0) {
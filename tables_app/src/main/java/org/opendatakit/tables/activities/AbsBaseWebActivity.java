@@ -49,6 +49,8 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
 
   private static final String QUEUED_ACTIONS = "queuedActions";
   private static final String RESPONSE_JSON = "responseJSON";
+  private static final String COLOR_METADATA_ENCODING = "colorMetadataEncoding";
+  private static final String RESPONSE_CHUNK_SIZE = "responseChunkSize";
 
   private String dispatchStringWaitingForData = null;
   private String actionWaitingForData = null;
@@ -59,6 +61,25 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
 
   LinkedList<String> queueResponseJSON = new LinkedList<String>();
 
+  /**
+   * How the color rule metadata of query results is encoded, as chosen by the
+   * page; null for the default.
+   */
+  private volatile String colorMetadataEncoding = null;
+
+  /**
+   * Responses longer than this many characters are handed to the page in
+   * chunks; 0, the default, until the page asks for chunked delivery.
+   */
+  private volatile int responseChunkSize = 0;
+
+  /**
+   * Responses being delivered in chunks. These are not retained across
+   * orientation changes.
+   */
+  private final ChunkedResponses chunkedResponses = new ChunkedResponses(
+      MAX_CHUNKED_RESPONSE_CHARS, CHUNKED_RESPONSE_WAIT_MS);
+
   /**
    * Member variables that do not need to be preserved across orientation
    * changes, etc.
@@ -69,6 +90,14 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
   // no need to preserve
   private PropertyManager mPropertyManager;
 
+  /**
+   * Once this many characters of chunked responses are waiting to be read by
+   * the page, further responses are held back until it catches up.
+   */
+  private static final int MAX_CHUNKED_RESPONSE_CHARS = 8 * 1024 * 1024;
+  /** longest that a response is held back waiting for the page */
+  private static final long CHUNKED_RESPONSE_WAIT_MS = 10000L;
+
   public abstract String getTableId();
   public abstract String getInstanceId();
   public abstract ODKWebView getWebKitView();
@@ -96,6 +125,11 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
       String[] qra = queueResponseJSON.toArray(new String[queueResponseJSON.size()]);
       outState.putStringArray(RESPONSE_JSON, qra);
     }
+
+    if (colorMetadataEncoding != null) {
+      outState.putString(COLOR_METADATA_ENCODING, colorMetadataEncoding);
+    }
+    outState.putInt(RESPONSE_CHUNK_SIZE, responseChunkSize);
   }
 
   @Override
@@ -128,6 +162,10 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
         queueResponseJSON.clear();
         queueResponseJSON.addAll(Arrays.asList(pendingResponseJSON));
       }
+
+      colorMetadataEncoding = savedInstanceState.containsKey(COLOR_METADATA_ENCODING) ?
+          savedInstanceState.getString(COLOR_METADATA_ENCODING) : null;
+      responseChunkSize = savedInstanceState.getInt(RESPONSE_CHUNK_SIZE, 0);
     }
   }
 
@@ -434,6 +472,10 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
           + responseJSON.length() + " long responseJSON!");
     }
     if ( responseJSON != null) {
+      int chunkSize = responseChunkSize;
+      if ( chunkSize > 0 && responseJSON.length() > chunkSize ) {
+        responseJSON = chunkedResponses.register(responseJSON, chunkSize);
+      }
       this.queueResponseJSON.push(responseJSON);
       final ODKWebView webView = getWebKitView();
       if (webView != null) {
@@ -455,6 +497,48 @@ public abstract class AbsBaseWebActivity extends AbsBaseActivity implements IOdk
     return responseJSON;
   }
 
+  /**
+   * Get one chunk of a response being delivered in chunks. Chunks may be read
+   * in any order, and more than once; the response is released once every
+   * one of its chunks has been read.
+   *
+   * @param responseId
+   * @param index
+   * @return the chunk, or null if there is no such response or chunk
+   */
+  public String getResponseChunk(String responseId, int index) {
+    return chunkedResponses.getChunk(responseId, index);
+  }
+
+  /**
+   * Drop a response being delivered in chunks without reading the rest of it.
+   *
+   * @param responseId
+   */
+  public void cancelChunkedResponse(String responseId) {
+    chunkedResponses.cancel(responseId);
+  }
+
+  public int getResponseChunkSize() {
+    return responseChunkSize;
+  }
+
+  /**
+   * @param chunkSize
+   *          0 to deliver every response whole
+   */
+  public void setResponseChunkSize(int chunkSize) {
+    responseChunkSize = chunkSize;
+  }
+
+  public String getColorMetadataEncoding() {
+    return colorMetadataEncoding;
+  }
+
+  public void setColorMetadataEncoding(String encoding) {
+    colorMetadataEncoding = encoding;
+  }
+
   @Override public ExecutorProcessor newExecutorProcessor(ExecutorContext context) {
     return new TableDataExecutorProcessor(context, this);
   }
@@ -21,6 +21,8 @@ import org.opendatakit.common.android.data.OrderedColumns;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableMetadataCache;
 
 import android.os.Bundle;
 
@@ -69,8 +71,9 @@ public abstract class AbsTableActivity extends AbsBaseActivity {
       if ( app.getDatabase() != null ) {
         OdkDbHandle db = null;
         try {
-          db = app.getDatabase().openDatabase(getAppName());
-          mColumnDefinitions = app.getDatabase().getUserDefinedColumns(getAppName(), db, getTableId());
+          db = DbHandlePool.get().acquire(getAppName());
+          mColumnDefinitions = TableMetadataCache.get()
+              .getSnapshot(getAppName(), db, getTableId()).getColumnDefinitions();
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).e(TAG, "[onCreate] unable to access database.");
           WebLogger.getLogger(getAppName()).printStackTrace(e);
@@ -78,7 +81,7 @@ public abstract class AbsTableActivity extends AbsBaseActivity {
         } finally {
           if (db != null) {
             try {
-              app.getDatabase().closeDatabase(getAppName(), db);
+              DbHandlePool.get().release(getAppName(), db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(getAppName()).e(TAG, "[onCreate] unable to close database.");
               WebLogger.getLogger(getAppName()).printStackTrace(e);
@@ -22,6 +22,8 @@ import org.opendatakit.common.android.data.OrderedColumns;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableMetadataCache;
 
 /**
  * This class is the base for any Activity that will display information about
@@ -68,8 +70,9 @@ public abstract class AbsTableWebActivity extends AbsBaseWebActivity {
       if ( app.getDatabase() != null ) {
         OdkDbHandle db = null;
         try {
-          db = app.getDatabase().openDatabase(getAppName());
-          mColumnDefinitions = app.getDatabase().getUserDefinedColumns(getAppName(), db, getTableId());
+          db = DbHandlePool.get().acquire(getAppName());
+          mColumnDefinitions = TableMetadataCache.get()
+              .getSnapshot(getAppName(), db, getTableId()).getColumnDefinitions();
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).e(TAG, "[onCreate] unable to access database.");
           WebLogger.getLogger(getAppName()).printStackTrace(e);
@@ -77,7 +80,7 @@ public abstract class AbsTableWebActivity extends AbsBaseWebActivity {
         } finally {
           if (db != null) {
             try {
-              app.getDatabase().closeDatabase(getAppName(), db);
+              DbHandlePool.get().release(getAppName(), db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(getAppName()).e(TAG, "[onCreate] unable to close database.");
               WebLogger.getLogger(getAppName()).printStackTrace(e);
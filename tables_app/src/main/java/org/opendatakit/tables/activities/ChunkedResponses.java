@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.activities;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.os.Looper;
+
+/**
+ * The responses of an {@link AbsBaseWebActivity} being delivered to its page
+ * in chunks, by response id.
+ * <p>
+ * Once maxChars characters of responses are waiting to be read, a further
+ * response is held back until the page catches up. The wait is skipped on the
+ * UI thread, and bounded, so that a page that stops reading cannot stall
+ * queries indefinitely.
+ */
+final class ChunkedResponses {
+
+  private static final class ChunkedResponse {
+    final String responseJSON;
+    final int chunkSize;
+    final int chunkCount;
+    /** the chunks the page has read */
+    final BitSet read;
+
+    ChunkedResponse(String responseJSON, int chunkSize) {
+      this.responseJSON = responseJSON;
+      this.chunkSize = chunkSize;
+      this.chunkCount = (responseJSON.length() + chunkSize - 1) / chunkSize;
+      this.read = new BitSet(chunkCount);
+    }
+  }
+
+  private final int mMaxChars;
+  private final long mMaxWaitMs;
+  private final Map<String, ChunkedResponse> mResponses = new HashMap<String, ChunkedResponse>();
+  private int mChars = 0;
+  private int mNextId = 0;
+
+  /**
+   * @param maxChars
+   *          once this many characters are waiting to be read, further
+   *          responses are held back
+   * @param maxWaitMs
+   *          longest that a response is held back
+   */
+  ChunkedResponses(int maxChars, long maxWaitMs) {
+    mMaxChars = maxChars;
+    mMaxWaitMs = maxWaitMs;
+  }
+
+  /**
+   * Hold a long response for delivery in chunks, waiting first for the page to
+   * read earlier responses if too much is already waiting.
+   *
+   * @param responseJSON
+   * @param chunkSize
+   * @return the envelope to queue in place of the response: its id, the
+   *         number of chunks and its total length
+   */
+  String register(String responseJSON, int chunkSize) {
+    ChunkedResponse response = new ChunkedResponse(responseJSON, chunkSize);
+    String responseId;
+    synchronized (this) {
+      if (Looper.myLooper() != Looper.getMainLooper()) {
+        long deadline = System.currentTimeMillis() + mMaxWaitMs;
+        long remaining = mMaxWaitMs;
+        while (!mResponses.isEmpty() && mChars + responseJSON.length() > mMaxChars
+            && remaining > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+          remaining = deadline - System.currentTimeMillis();
+        }
+      }
+      responseId = Integer.toString(++mNextId);
+      mResponses.put(responseId, response);
+      mChars += responseJSON.length();
+    }
+    return "{\"chunkedResponseId\":\"" + responseId + "\",\"chunkSize\":" + chunkSize
+        + ",\"chunkCount\":" + response.chunkCount + ",\"length\":" + responseJSON.length()
+        + "}";
+  }
+
+  /**
+   * Get one chunk of a response. Chunks may be read in any order, and more
+   * than once; the response is released once every one of its chunks has been
+   * read.
+   *
+   * @param responseId
+   * @param index
+   * @return the chunk, or null if there is no such response or chunk
+   */
+  synchronized String getChunk(String responseId, int index) {
+    ChunkedResponse response = mResponses.get(responseId);
+    if (response == null || index < 0 || index >= response.chunkCount) {
+      return null;
+    }
+    String responseJSON = response.responseJSON;
+    int start = index * response.chunkSize;
+    int end = Math.min(responseJSON.length(), start + response.chunkSize);
+    response.read.set(index);
+    if (response.read.cardinality() == response.chunkCount) {
+      release(responseId);
+    }
+    return responseJSON.substring(start, end);
+  }
+
+  /**
+   * Drop a response without reading the rest of it.
+   *
+   * @param responseId
+   */
+  synchronized void cancel(String responseId) {
+    release(responseId);
+  }
+
+  /**
+   * @return the number of characters waiting to be read
+   */
+  synchronized int getWaitingChars() {
+    return mChars;
+  }
+
+  private void release(String responseId) {
+    ChunkedResponse response = mResponses.remove(responseId);
+    if (response != null) {
+      mChars -= response.responseJSON.length();
+      notifyAll();
+    }
+  }
+}
@@ -28,6 +28,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.utils.IntentUtil;
 
 public class DisplayPrefsActivity extends BasePreferenceActivity {
@@ -84,11 +85,11 @@ public class DisplayPrefsActivity extends BasePreferenceActivity {
     String localizedDisplayName;
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       localizedDisplayName = TableUtil.get().getLocalizedDisplayName(Tables.getInstance(), appName, db, tableId);
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
+        DbHandlePool.get().release(appName, db);
       }
     }
 
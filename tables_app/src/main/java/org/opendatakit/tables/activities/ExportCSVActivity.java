@@ -28,6 +28,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.tasks.ExportRequest;
 import org.opendatakit.tables.tasks.ExportTask;
 import org.opendatakit.tables.utils.TableFileUtils;
@@ -178,7 +179,7 @@ public class ExportCSVActivity extends AbstractImportExportActivity {
       try {
         List<String> rawTableIds = Collections.emptyList();
         ArrayList<String> localizedNames = new ArrayList<String>();
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbHandlePool.get().acquire(appName);
         rawTableIds = Tables.getInstance().getDatabase().getAllTableIds(appName, db);
         for (String tableId : rawTableIds) {
           String localizedDisplayName;
@@ -192,7 +193,7 @@ public class ExportCSVActivity extends AbstractImportExportActivity {
       } finally {
         if (db != null) {
           try {
-            Tables.getInstance().getDatabase().closeDatabase(appName, db);
+            DbHandlePool.get().release(appName, db);
             db = null;
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(appName).printStackTrace(e);
@@ -35,7 +35,10 @@ import org.opendatakit.common.android.views.ODKWebView;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.UserTableCache;
 import org.opendatakit.tables.fragments.AbsBaseFragment;
 import org.opendatakit.tables.fragments.DetailViewFragment;
 import org.opendatakit.tables.fragments.ListViewFragment;
@@ -196,6 +199,8 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
    * The {@link UserTable} that is being displayed in this activity.
    */
   private UserTable mUserTable = null;
+  /** the row mUserTable was fetched for in a detail view; null if it holds the whole query */
+  private String mUserTableRowId = null;
 
   private String getDefaultFileNameForViewFragmentType(ViewFragmentType fragmentType) {
     if ( mPossibleTableViewTypes == null || fragmentType == null ) {
@@ -217,32 +222,42 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
 
   /**
    * Get the {@link UserTable} that is being held by this activity.
+   * <p>
+   * In a detail view only the row being shown is fetched, by its _id,
+   * whatever query the intent carries, so that opening the detail view of a
+   * row costs the same however large the table is.
    *
    * @return
    */
   public UserTable getUserTable() {
+    String detailRowId = (mCurrentFragmentType == ViewFragmentType.DETAIL) ?
+        IntentUtil.retrieveRowIdFromBundle(this.getIntent().getExtras()) : null;
+    if ( mUserTable != null && !equalRowIds(mUserTableRowId, detailRowId) ) {
+      // built for the other kind of view
+      mUserTable = null;
+    }
     if ( mUserTable == null ) {
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-        SQLQueryStruct sqlQueryStruct = IntentUtil.getSQLQueryStructFromBundle(this.getIntent().getExtras());
-        String[] emptyArray = {};
-        UserTable result = Tables.getInstance().getDatabase().rawSqlQuery(this.getAppName(), db,
-            this.getTableId(), getColumnDefinitions(), sqlQueryStruct.whereClause,
-            (sqlQueryStruct.selectionArgs == null) ? emptyArray : sqlQueryStruct.selectionArgs,
-            (sqlQueryStruct.groupBy == null) ? emptyArray : sqlQueryStruct.groupBy,
-            sqlQueryStruct.having,
-            (sqlQueryStruct.orderByElementKey == null) ? emptyArray : new String[] { sqlQueryStruct.orderByElementKey },
-            (sqlQueryStruct.orderByDirection == null) ? emptyArray : new String[] {
-                sqlQueryStruct.orderByDirection }, null, null);
+        db = DbHandlePool.get().acquire(getAppName());
+        UserTable result;
+        if ( detailRowId != null ) {
+          result = Tables.getInstance().getDatabase().getRowsWithId(this.getAppName(), db,
+              this.getTableId(), getColumnDefinitions(), detailRowId);
+        } else {
+          SQLQueryStruct sqlQueryStruct = IntentUtil.getSQLQueryStructFromBundle(this.getIntent().getExtras());
+          result = UserTableCache.get().getUserTable(this.getAppName(), db, this.getTableId(),
+              getColumnDefinitions(), sqlQueryStruct);
+        }
         mUserTable = result;
+        mUserTableRowId = detailRowId;
       } catch (ServicesAvailabilityException e) {
         // TODO Auto-generated catch block
         e.printStackTrace();
       } finally {
         if ( db != null ) {
           try {
-            Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+            DbHandlePool.get().release(getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             // ignore
             e.printStackTrace();
@@ -253,6 +268,10 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
     return mUserTable;
   }
 
+  private static boolean equalRowIds(String a, String b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+
   @Override
   public String getUrlBaseLocation(boolean ifChanged) {
     // TODO: do we need to track the ifChanged status?
@@ -422,6 +441,7 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
   protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     // for most returns, we just refresh the data set and redraw the page
     // for others, we need to take more intensive action
+    boolean refreshedInPlace = false;
     switch (requestCode) {
       case Constants.RequestCodes.ADD_ROW_SURVEY:
       case Constants.RequestCodes.EDIT_ROW_SURVEY:
@@ -432,11 +452,18 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
           WebLogger.getLogger(getAppName()).d(TAG,
                   "[onActivityResult] result canceled, refreshing backing table");
         }
+        // only the one row can have changed
+        refreshedInPlace = refreshRowInPlace(getActionRowId(),
+            requestCode == Constants.RequestCodes.ADD_ROW_SURVEY);
+        setActionRowId(null);
         break;
     }
 
     super.onActivityResult(requestCode, resultCode, data);
 
+    if (refreshedInPlace) {
+      return;
+    }
     try {
       // verify that the data table doesn't contain checkpoints...
       // always refresh, as table properties may have done something
@@ -446,10 +473,36 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
     }
   }
 
+  /**
+   * Pick up a row added or edited in Survey without reloading the table, if
+   * the current view can do that.
+   *
+   * @param rowId
+   * @param added
+   * @return true if the view is refreshing the row; false if everything
+   *         must be reloaded
+   */
+  private boolean refreshRowInPlace(String rowId, boolean added) {
+    if (rowId == null || mCurrentFragmentType != ViewFragmentType.SPREADSHEET) {
+      return false;
+    }
+    SpreadsheetFragment spreadsheetFragment = (SpreadsheetFragment) getFragmentManager()
+        .findFragmentByTag(ViewFragmentType.SPREADSHEET.name());
+    if (spreadsheetFragment == null || !spreadsheetFragment.refreshRow(rowId, added)) {
+      return false;
+    }
+    WebLogger.getLogger(getAppName()).d(TAG, "[refreshRowInPlace] " + rowId);
+    // the whole-table copy is only built on demand; let it be built afresh
+    mUserTable = null;
+    UserTableCache.get().invalidate(getAppName(), getTableId());
+    return true;
+  }
+
   public void refreshDataAndDisplayFragment() {
     WebLogger.getLogger(getAppName()).d(TAG, "[refreshDataAndDisplayFragment]");
     // drop cached table, if any...
     mUserTable = null;
+    UserTableCache.get().invalidate(getAppName(), getTableId());
     // drop default filenames...
     mPossibleTableViewTypes = null;
     showCurrentDisplayFragment(true);
@@ -474,12 +527,18 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
 
   private void possiblySupplyDefaults() {
 
-    if ( mPossibleTableViewTypes == null && Tables.getInstance().getDatabase() != null ) {
+    // a detail view that was told its file needs nothing else from the
+    // table's properties
+    boolean detailViewIsComplete = mOriginalFragmentType == ViewFragmentType.DETAIL
+        && mOriginalFileName != null
+        && (mCurrentFragmentType == null || mCurrentFragmentType == ViewFragmentType.DETAIL);
+    if ( mPossibleTableViewTypes == null && !detailViewIsComplete
+        && Tables.getInstance().getDatabase() != null ) {
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-        mPossibleTableViewTypes = new PossibleTableViewTypes(getAppName(), db, getTableId(),
-            getColumnDefinitions());
+        db = DbHandlePool.get().acquire(getAppName());
+        mPossibleTableViewTypes = new PossibleTableViewTypes(
+            TableMetadataCache.get().getSnapshot(getAppName(), db, getTableId()));
       } catch (ServicesAvailabilityException e) {
         WebLogger.getLogger(getAppName()).printStackTrace(e);
         WebLogger.getLogger(getAppName()).e(TAG,
@@ -488,7 +547,7 @@ public class TableDisplayActivity extends AbsTableWebActivity implements
       } finally {
         if (db != null) {
           try {
-            Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+            DbHandlePool.get().release(getAppName(), db);
           } catch (ServicesAvailabilityException e) {
             WebLogger.getLogger(getAppName()).printStackTrace(e);
             WebLogger.getLogger(getAppName()).e(TAG,
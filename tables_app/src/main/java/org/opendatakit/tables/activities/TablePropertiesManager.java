@@ -31,6 +31,7 @@ import org.opendatakit.common.android.utilities.*;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
 import org.opendatakit.tables.utils.TableFileUtils;
 
 import android.content.ActivityNotFoundException;
@@ -67,6 +68,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
   private String appName;
   private String tableId;
   private OrderedColumns orderedDefns;
+  private DbExecutor.Job<Properties> mLoadJob;
 
   // private TableProperties tp;
 
@@ -89,6 +91,15 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
     ((Tables) getApplication()).establishDoNotFireDatabaseConnectionListener(this);
   }
 
+  @Override
+  protected void onDestroy() {
+    if (mLoadJob != null) {
+      mLoadJob.cancel();
+      mLoadJob = null;
+    }
+    super.onDestroy();
+  }
+
   @Override
   protected void onPostResume() {
     super.onPostResume();
@@ -100,34 +111,66 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
     return appName;
   }
 
-  private void createFromDatabase() {
-    String localizedDisplayName;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      localizedDisplayName = TableUtil.get().getLocalizedDisplayName(Tables.getInstance(), appName, db, tableId);
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-      Toast.makeText(this, "Unable to access database", Toast.LENGTH_LONG).show();
-      PreferenceScreen root = getPreferenceManager().createPreferenceScreen(this);
-      setPreferenceScreen(root);
-      return;
-    } finally {
-      if (db != null) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(appName).printStackTrace(e);
-          Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
-        }
-      }
+  /**
+   * The properties of the table the screen shows, read in one go on a
+   * background thread.
+   */
+  private static final class Properties {
+    final String localizedDisplayName;
+    final String rawDisplayName;
+    final TableViewType defaultViewType;
+    final TableUtil.MapViewColorRuleInfo mapListViewColorRuleInfo;
+
+    Properties(String localizedDisplayName, String rawDisplayName,
+        TableViewType defaultViewType, TableUtil.MapViewColorRuleInfo mapListViewColorRuleInfo) {
+      this.localizedDisplayName = localizedDisplayName;
+      this.rawDisplayName = rawDisplayName;
+      this.defaultViewType = defaultViewType;
+      this.mapListViewColorRuleInfo = mapListViewColorRuleInfo;
     }
-
-    setTitle(getString(R.string.table_manager_title, localizedDisplayName));
-    init();
   }
 
+  /**
+   * Read the table's properties in the background and then rebuild the
+   * preferences from them.
+   */
   private void init() {
+    if (mLoadJob != null) {
+      mLoadJob.cancel();
+    }
+    mLoadJob = DbExecutor.get().submit(appName, DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Properties>() {
+          @Override
+          public Properties doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            return new Properties(
+                TableUtil.get().getLocalizedDisplayName(Tables.getInstance(), appName, db,
+                    tableId),
+                TableUtil.get().getRawDisplayName(Tables.getInstance(), appName, db, tableId),
+                TableUtil.get().getDefaultViewType(Tables.getInstance(), appName, db, tableId),
+                TableUtil.get().getMapListViewColorRuleInfo(Tables.getInstance(), appName, db,
+                    tableId));
+          }
+
+          @Override
+          public void onResult(Properties properties) {
+            mLoadJob = null;
+            setTitle(getString(R.string.table_manager_title, properties.localizedDisplayName));
+            init(properties);
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            mLoadJob = null;
+            WebLogger.getLogger(appName).printStackTrace(e);
+            Toast.makeText(TablePropertiesManager.this, "Unable to access database",
+                Toast.LENGTH_LONG).show();
+            setPreferenceScreen(getPreferenceManager()
+                .createPreferenceScreen(TablePropertiesManager.this));
+          }
+        });
+  }
+
+  private void init(Properties properties) {
 
     PreferenceScreen root = getPreferenceManager().createPreferenceScreen(this);
 
@@ -137,27 +180,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
     root.addPreference(genCat);
     genCat.setTitle(getString(R.string.general_settings));
 
-    String rawDisplayName;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      rawDisplayName = TableUtil.get().getRawDisplayName(Tables.getInstance(), appName, db, tableId);
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-      Toast.makeText(this, "Unable to access database", Toast.LENGTH_LONG).show();
-      setPreferenceScreen(root);
-      return;
-    } finally {
-      if (db != null) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(appName).printStackTrace(e);
-          Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
-        }
-      }
-    }
-
+    String rawDisplayName = properties.rawDisplayName;
     EditTextPreference dnPref = new EditTextPreference(this);
     dnPref.setTitle(getString(R.string.table_display_name));
     dnPref.setDialogTitle(getString(R.string.change_table_display_name));
@@ -172,7 +195,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
       PreferenceCategory displayCat = new PreferenceCategory(this);
       root.addPreference(displayCat);
       displayCat.setTitle(getString(R.string.display_settings));
-      addViewPreferences(displayCat);
+      addViewPreferences(displayCat, properties);
     }
     PreferenceCategory displayListViewCat = new PreferenceCategory(this);
     root.addPreference(displayListViewCat);
@@ -187,7 +210,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
     setPreferenceScreen(root);
   }
 
-  private void addViewPreferences(PreferenceCategory prefCat) {
+  private void addViewPreferences(PreferenceCategory prefCat, Properties properties) {
 
     // int[] viewTypes = settings.getPossibleViewTypes();
 
@@ -213,11 +236,8 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
     // viewTypePref.setEntries(viewTypeNames);
     // viewTypePref.setValue(String.valueOf(settings.getViewType()));
 
-    TableViewType type;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      type = TableUtil.get().getDefaultViewType(Tables.getInstance(), appName, db, tableId);
+    {
+      TableViewType type = properties.defaultViewType;
 
       viewTypePref.setValue(type.name());
       // TODO: currently throwing an error i think
@@ -280,8 +300,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
       // });
       // prefCat.addPreference(statusColumnColorRulePref);
 
-      TableUtil.MapViewColorRuleInfo info =
-              TableUtil.get().getMapListViewColorRuleInfo(Tables.getInstance(), getAppName(), db, tableId);
+      TableUtil.MapViewColorRuleInfo info = properties.mapListViewColorRuleInfo;
 
       ColumnDefinition colorColumn = null;
       // If the color rule type is columns, find the column that it identifies.
@@ -342,18 +361,6 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
 //        colorColumnPref.setOnPreferenceChangeListener(new ColorRuleColumnChangeListener());
 //        prefCat.addPreference(colorColumnPref);
 //      }
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(appName).printStackTrace(e);
-      Toast.makeText(this, "Unable to access database", Toast.LENGTH_LONG).show();
-    } finally {
-      if (db != null) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(appName).printStackTrace(e);
-          Toast.makeText(this, "Unable to close database", Toast.LENGTH_LONG).show();
-        }
-      }
     }
   }
 
@@ -626,7 +633,7 @@ public class TablePropertiesManager extends BasePreferenceActivity implements Da
 
   @Override
   public void databaseAvailable() {
-    createFromDatabase();
+    init();
   }
 
   @Override
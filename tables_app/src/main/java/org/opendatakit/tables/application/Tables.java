@@ -18,6 +18,10 @@ import org.opendatakit.common.android.application.CommonApplication;
 import org.opendatakit.common.android.logic.CommonToolProperties;
 import org.opendatakit.common.android.logic.PropertiesSingleton;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.data.QueryMetadataCache;
+import org.opendatakit.tables.data.UserTableCache;
+
+import android.content.ComponentCallbacks2;
 
 public class Tables extends CommonApplication {
 
@@ -36,6 +40,23 @@ public class Tables extends CommonApplication {
     super.onCreate();
   }
 
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    UserTableCache.get().trimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      QueryMetadataCache.get().clear();
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    UserTableCache.get().trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    QueryMetadataCache.get().clear();
+  }
+
   @Override
   public int getApkDisplayNameResourceId() {
     return R.string.app_name;
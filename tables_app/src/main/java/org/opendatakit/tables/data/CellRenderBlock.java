@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.ColorGuide;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+
+/**
+ * The display text and colors of every cell in a run of rows, computed once
+ * when the rows are loaded so that drawing them is only a matter of array
+ * reads.
+ * <p>
+ * Cells are stored row-major in flat arrays; the cell for row r (relative to
+ * {@link #firstRow}) and display column c is at index
+ * {@code r * columnCount + c}. Where no color rule matched a cell the
+ * corresponding entry of {@link #hasColor} is false and the colors are
+ * meaningless.
+ */
+public final class CellRenderBlock {
+
+  /**
+   * Describes the columns of the spreadsheet, in display order, and the color
+   * rules that apply to them.
+   */
+  public static final class Layout {
+    final String[] elementKeys;
+    final ElementType[] types;
+    final ColorRuleGroup[] columnColorRuleGroups;
+    final ColorRuleGroup tableColorRuleGroup;
+    final ColorRuleGroup statusColorRuleGroup;
+
+    /**
+     * @param elementKeys
+     *          the element keys of the columns in display order
+     * @param types
+     *          the types of those columns
+     * @param columnColorRuleGroups
+     *          the column color rules of those columns; entries may be null
+     * @param tableColorRuleGroup
+     *          the row color rules; may be null
+     * @param statusColorRuleGroup
+     *          the status column color rules; may be null
+     */
+    public Layout(String[] elementKeys, ElementType[] types,
+        ColorRuleGroup[] columnColorRuleGroups, ColorRuleGroup tableColorRuleGroup,
+        ColorRuleGroup statusColorRuleGroup) {
+      this.elementKeys = elementKeys;
+      this.types = types;
+      this.columnColorRuleGroups = columnColorRuleGroups;
+      this.tableColorRuleGroup = tableColorRuleGroup;
+      this.statusColorRuleGroup = statusColorRuleGroup;
+    }
+  }
+
+  /** the index, within the whole result set, of the first row of the block */
+  public final int firstRow;
+  public final int rowCount;
+  public final int columnCount;
+
+  public final String[] displayText;
+  public final int[] foreground;
+  public final int[] background;
+  public final boolean[] hasColor;
+
+  /** colors for the status column, indexed by row */
+  public final int[] statusForeground;
+  public final int[] statusBackground;
+  public final boolean[] statusHasColor;
+
+  final Layout layout;
+
+  private CellRenderBlock(Layout layout, int firstRow, int rowCount) {
+    this.layout = layout;
+    this.firstRow = firstRow;
+    this.rowCount = rowCount;
+    this.columnCount = layout.elementKeys.length;
+    int cells = rowCount * columnCount;
+    displayText = new String[cells];
+    foreground = new int[cells];
+    background = new int[cells];
+    hasColor = new boolean[cells];
+    statusForeground = new int[rowCount];
+    statusBackground = new int[rowCount];
+    statusHasColor = new boolean[rowCount];
+  }
+
+  public int cellIndex(int row, int column) {
+    return (row - firstRow) * columnCount + column;
+  }
+
+  /**
+   * Evaluate the display text and color rules of every cell of table, or of
+   * the given rows of it.
+   *
+   * @param layout
+   * @param orderedDefns
+   *          the user-defined columns of the table
+   * @param table
+   * @param rows
+   *          the indexes in table of the rows of the block, in display order,
+   *          or null if the block is all of table
+   * @param firstRow
+   *          the index of the first row of the block within the whole result
+   *          set
+   * @return
+   */
+  static CellRenderBlock build(Layout layout, OrderedColumns orderedDefns, UserTable table,
+      int[] rows, int firstRow) {
+    int rowCount = (rows == null) ? table.getNumberOfRows() : rows.length;
+    CellRenderBlock block = new CellRenderBlock(layout, firstRow, rowCount);
+    ColorGuideCache cache = ColorGuideCache.get();
+
+    // a row rule applies to every cell of the row; a column rule overrides it.
+    if (layout.tableColorRuleGroup != null) {
+      ColorGuide[] rowGuides = cache.getColorGuides(table, orderedDefns,
+          ColorRuleGroup.Type.TABLE, null, layout.tableColorRuleGroup, rows);
+      for (int r = 0; r < rowCount; ++r) {
+        ColorGuide guide = rowGuides[r];
+        if (guide != null) {
+          for (int c = 0; c < block.columnCount; ++c) {
+            block.setColor(r * block.columnCount + c, guide);
+          }
+        }
+      }
+    }
+    for (int c = 0; c < block.columnCount; ++c) {
+      ColorRuleGroup crg = layout.columnColorRuleGroups[c];
+      ColorGuide[] columnGuides = (crg == null) ? null : cache.getColorGuides(table,
+          orderedDefns, ColorRuleGroup.Type.COLUMN, layout.elementKeys[c], crg, rows);
+      for (int r = 0; r < rowCount; ++r) {
+        int cell = r * block.columnCount + c;
+        block.displayText[cell] = table.getDisplayTextOfData((rows == null) ? r : rows[r],
+            layout.types[c], layout.elementKeys[c]);
+        if (columnGuides != null) {
+          ColorGuide guide = columnGuides[r];
+          if (guide != null) {
+            block.setColor(cell, guide);
+          }
+        }
+      }
+    }
+    if (layout.statusColorRuleGroup != null) {
+      ColorGuide[] statusGuides = cache.getColorGuides(table, orderedDefns,
+          ColorRuleGroup.Type.STATUS_COLUMN, null, layout.statusColorRuleGroup, rows);
+      for (int r = 0; r < rowCount; ++r) {
+        ColorGuide guide = statusGuides[r];
+        if (guide != null) {
+          block.statusForeground[r] = guide.getForeground();
+          block.statusBackground[r] = guide.getBackground();
+          block.statusHasColor[r] = true;
+        }
+      }
+    }
+    return block;
+  }
+
+  private void setColor(int cell, ColorGuide guide) {
+    foreground[cell] = guide.getForeground();
+    background[cell] = guide.getBackground();
+    hasColor[cell] = true;
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opendatakit.common.android.data.ColorGuide;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbRow;
+
+/**
+ * Remembers the outcome of evaluating a color rule group against each row, so
+ * that redisplaying a table only evaluates the rules against the rows that
+ * have changed since they were last seen.
+ * <p>
+ * Outcomes are held per (appName, tableId, rule group type, elementKey) and
+ * per row id, along with the version of the row: its _row_etag,
+ * _savepoint_timestamp and _sync_state. The etag only changes on sync, so the
+ * savepoint timestamp is what picks up local edits. A row whose version
+ * differs from the remembered one is evaluated again. If the rules of a group
+ * differ from those it was evaluated with, e.g., because they were edited in
+ * the key value store, everything remembered for that group is dropped.
+ */
+public class ColorGuideCache {
+
+  private static final String TAG = ColorGuideCache.class.getSimpleName();
+
+  /** upper bound on the number of rule groups remembered */
+  private static final int MAX_GROUPS = 32;
+  /** upper bound on the number of rows remembered for each rule group */
+  private static final int MAX_ROWS_PER_GROUP = 20000;
+
+  private static ColorGuideCache singleton = null;
+
+  public static synchronized ColorGuideCache get() {
+    if (singleton == null) {
+      singleton = new ColorGuideCache();
+    }
+    return singleton;
+  }
+
+  private static final class RowOutcome {
+    final String rowETag;
+    final String savepointTimestamp;
+    final String syncState;
+    /** null if no rule matched */
+    final ColorGuide guide;
+
+    RowOutcome(OdkDbRow row, ColorGuide guide) {
+      this.rowETag = row.getDataByKey(DataTableColumns.ROW_ETAG);
+      this.savepointTimestamp = row.getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP);
+      this.syncState = row.getDataByKey(DataTableColumns.SYNC_STATE);
+      this.guide = guide;
+    }
+
+    /**
+     * @return true if row is the version this outcome was evaluated against
+     */
+    boolean isOutcomeOf(OdkDbRow row) {
+      String savepoint = row.getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP);
+      // without the savepoint we cannot tell when the row was edited
+      return savepoint != null && savepoint.equals(savepointTimestamp)
+          && equal(row.getDataByKey(DataTableColumns.ROW_ETAG), rowETag)
+          && equal(row.getDataByKey(DataTableColumns.SYNC_STATE), syncState);
+    }
+  }
+
+  private static final class GroupOutcomes {
+    final String appName;
+    final String tableId;
+    final String rulesFingerprint;
+    final CompiledColorRules rules;
+    final LinkedHashMap<String, RowOutcome> rows =
+        new LinkedHashMap<String, RowOutcome>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, RowOutcome> eldest) {
+            return size() > MAX_ROWS_PER_GROUP;
+          }
+        };
+
+    GroupOutcomes(String appName, String tableId, String rulesFingerprint,
+        CompiledColorRules rules) {
+      this.appName = appName;
+      this.tableId = tableId;
+      this.rulesFingerprint = rulesFingerprint;
+      this.rules = rules;
+    }
+  }
+
+  private final LinkedHashMap<String, GroupOutcomes> mGroups =
+      new LinkedHashMap<String, GroupOutcomes>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GroupOutcomes> eldest) {
+          return size() > MAX_GROUPS;
+        }
+      };
+
+  private ColorGuideCache() {
+  }
+
+  /**
+   * Get the color guide of every row of table under the given rule group.
+   *
+   * @param table
+   * @param orderedDefns
+   *          the user-defined columns of the table
+   * @param type
+   *          the type of the rule group
+   * @param elementKey
+   *          the column of a COLUMN rule group; otherwise null
+   * @param crg
+   * @return the guides, indexed by row; an entry is null if no rule matched
+   */
+  public ColorGuide[] getColorGuides(UserTable table, OrderedColumns orderedDefns,
+      ColorRuleGroup.Type type, String elementKey, ColorRuleGroup crg) {
+    return getColorGuides(table, orderedDefns, type, elementKey, crg, null);
+  }
+
+  /**
+   * Get the color guide of some of the rows of table under the given rule
+   * group.
+   *
+   * @param table
+   * @param orderedDefns
+   *          the user-defined columns of the table
+   * @param type
+   *          the type of the rule group
+   * @param elementKey
+   *          the column of a COLUMN rule group; otherwise null
+   * @param crg
+   * @param rows
+   *          the indexes in table of the rows wanted, or null for every row
+   * @return the guides, indexed like rows; an entry is null if no rule matched
+   */
+  public ColorGuide[] getColorGuides(UserTable table, OrderedColumns orderedDefns,
+      ColorRuleGroup.Type type, String elementKey, ColorRuleGroup crg, int[] rows) {
+    int numberOfRows = (rows == null) ? table.getNumberOfRows() : rows.length;
+    ColorGuide[] guides = new ColorGuide[numberOfRows];
+    int[] stale = null;
+    int staleCount = 0;
+
+    String groupKey = table.getAppName() + "|" + table.getTableId() + "|" + type.name() + "|"
+        + ((elementKey == null) ? "" : elementKey);
+    String fingerprint = fingerprint(crg);
+    CompiledColorRules rules;
+
+    synchronized (this) {
+      GroupOutcomes group = mGroups.get(groupKey);
+      if (group == null || !group.rulesFingerprint.equals(fingerprint)) {
+        group = new GroupOutcomes(table.getAppName(), table.getTableId(), fingerprint,
+            CompiledColorRules.compile(crg, orderedDefns));
+        mGroups.put(groupKey, group);
+      }
+      rules = group.rules;
+      for (int i = 0; i < numberOfRows; ++i) {
+        OdkDbRow row = table.getRowAtIndex((rows == null) ? i : rows[i]);
+        String rowId = row.getDataByKey(DataTableColumns.ID);
+        RowOutcome outcome = (rowId == null) ? null : group.rows.get(rowId);
+        if (outcome != null && outcome.isOutcomeOf(row)) {
+          guides[i] = outcome.guide;
+        } else {
+          if (stale == null) {
+            stale = new int[numberOfRows - i];
+          }
+          stale[staleCount++] = i;
+        }
+      }
+    }
+
+    if (staleCount == 0) {
+      return guides;
+    }
+
+    rules.evaluate(table, rows, stale, staleCount, guides);
+
+    synchronized (this) {
+      GroupOutcomes group = mGroups.get(groupKey);
+      if (group != null && group.rulesFingerprint.equals(fingerprint)) {
+        for (int s = 0; s < staleCount; ++s) {
+          int i = stale[s];
+          OdkDbRow row = table.getRowAtIndex((rows == null) ? i : rows[i]);
+          String rowId = row.getDataByKey(DataTableColumns.ID);
+          if (rowId != null && row.getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP) != null) {
+            group.rows.put(rowId, new RowOutcome(row, guides[i]));
+          }
+        }
+      }
+    }
+    WebLogger.getLogger(table.getAppName()).d(TAG, "[getColorGuides] " + table.getTableId()
+        + " " + type.name() + " evaluated " + staleCount + " of " + numberOfRows + " rows");
+    return guides;
+  }
+
+  /**
+   * Forget everything remembered for a table, e.g., when it is deleted or its
+   * data is replaced wholesale.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public synchronized void invalidate(String appName, String tableId) {
+    Iterator<GroupOutcomes> it = mGroups.values().iterator();
+    while (it.hasNext()) {
+      GroupOutcomes group = it.next();
+      if (group.appName.equals(appName) && group.tableId.equals(tableId)) {
+        it.remove();
+      }
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  private static String fingerprint(ColorRuleGroup crg) {
+    StringBuilder b = new StringBuilder();
+    for (ColorRule rule : crg.getColorRules()) {
+      b.append(rule.getColumnElementKey()).append('\u0001')
+          .append(rule.getOperator().name()).append('\u0001')
+          .append(rule.getVal()).append('\u0001')
+          .append(rule.getForeground()).append('\u0001')
+          .append(rule.getBackground()).append('\u0002');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.utilities.DataUtil;
+
+/**
+ * Typed, column-at-a-time copies of the values of a {@link UserTable}, so
+ * that the numbers and dates in a result are parsed once rather than by
+ * every consumer, every time it looks at them.
+ * <p>
+ * The copy of a column is made the first time it is asked for and kept for
+ * as long as the table is; {@link #forTable(UserTable)} hands every caller the
+ * same instance for the same table. The instances are held weakly by their
+ * tables, so they keep no reference to the table themselves: every getter is
+ * handed the table the instance is for. A value that is null or does not
+ * parse is recorded as null.
+ */
+public final class ColumnVectors {
+
+  /**
+   * A column of integers, or of dates and times as milliseconds since the
+   * epoch.
+   */
+  public static final class LongColumn {
+    private final long[] values;
+    private final long[] nulls;
+
+    LongColumn(int size) {
+      values = new long[size];
+      nulls = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+      return values.length;
+    }
+
+    public boolean isNull(int row) {
+      return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @param row
+     * @return the value, or 0 if it is null
+     */
+    public long get(int row) {
+      return values[row];
+    }
+  }
+
+  /**
+   * A column of numbers.
+   */
+  public static final class DoubleColumn {
+    private final double[] values;
+    private final long[] nulls;
+
+    DoubleColumn(int size) {
+      values = new double[size];
+      nulls = new long[(size + 63) >>> 6];
+    }
+
+    public int size() {
+      return values.length;
+    }
+
+    public boolean isNull(int row) {
+      return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @param row
+     * @return the value, or 0 if it is null
+     */
+    public double get(int row) {
+      return values[row];
+    }
+  }
+
+  private static final Map<UserTable, ColumnVectors> forTables =
+      Collections.synchronizedMap(new WeakHashMap<UserTable, ColumnVectors>());
+
+  /**
+   * @param table
+   * @return the typed columns of table, shared by every caller
+   */
+  public static ColumnVectors forTable(UserTable table) {
+    synchronized (forTables) {
+      ColumnVectors vectors = forTables.get(table);
+      if (vectors == null) {
+        vectors = new ColumnVectors();
+        forTables.put(table, vectors);
+      }
+      return vectors;
+    }
+  }
+
+  private final Map<String, DoubleColumn> numbers = new HashMap<String, DoubleColumn>();
+  private final Map<String, LongColumn> integers = new HashMap<String, LongColumn>();
+  private final Map<String, LongColumn> timestamps = new HashMap<String, LongColumn>();
+  private DataUtil dataUtil;
+
+  private ColumnVectors() {
+  }
+
+  /**
+   * The values of an integer or number column, or of any column whose values
+   * are meant to be read as numbers, e.g., latitudes.
+   *
+   * @param table
+   *          the table this instance is for
+   * @param elementKey
+   * @return
+   */
+  public synchronized DoubleColumn getNumbers(UserTable table, String elementKey) {
+    DoubleColumn column = numbers.get(elementKey);
+    if (column != null) {
+      return column;
+    }
+    int size = table.getNumberOfRows();
+    column = new DoubleColumn(size);
+    for (int i = 0; i < size; ++i) {
+      String value = table.getRowAtIndex(i).getDataByKey(elementKey);
+      boolean isNull = (value == null);
+      if (!isNull) {
+        try {
+          column.values[i] = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          isNull = true;
+        }
+      }
+      if (isNull) {
+        column.nulls[i >>> 6] |= 1L << i;
+      }
+    }
+    numbers.put(elementKey, column);
+    return column;
+  }
+
+  /**
+   * The values of an integer column.
+   *
+   * @param table
+   *          the table this instance is for
+   * @param elementKey
+   * @return
+   */
+  public synchronized LongColumn getIntegers(UserTable table, String elementKey) {
+    LongColumn column = integers.get(elementKey);
+    if (column != null) {
+      return column;
+    }
+    int size = table.getNumberOfRows();
+    column = new LongColumn(size);
+    for (int i = 0; i < size; ++i) {
+      String value = table.getRowAtIndex(i).getDataByKey(elementKey);
+      boolean isNull = (value == null);
+      if (!isNull) {
+        try {
+          column.values[i] = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          isNull = true;
+        }
+      }
+      if (isNull) {
+        column.nulls[i >>> 6] |= 1L << i;
+      }
+    }
+    integers.put(elementKey, column);
+    return column;
+  }
+
+  /**
+   * The values of a date, dateTime or time column, as milliseconds since the
+   * epoch.
+   *
+   * @param table
+   *          the table this instance is for
+   * @param elementKey
+   * @return
+   */
+  public synchronized LongColumn getTimestamps(UserTable table, String elementKey) {
+    LongColumn column = timestamps.get(elementKey);
+    if (column != null) {
+      return column;
+    }
+    if (dataUtil == null) {
+      dataUtil = new DataUtil(Locale.ENGLISH, TimeZone.getDefault());
+    }
+    int size = table.getNumberOfRows();
+    column = new LongColumn(size);
+    for (int i = 0; i < size; ++i) {
+      String value = table.getRowAtIndex(i).getDataByKey(elementKey);
+      boolean isNull = (value == null || value.length() == 0);
+      if (!isNull) {
+        try {
+          column.values[i] = dataUtil.parseDateTimeFromDb(value).getMillis();
+        } catch (IllegalArgumentException e) {
+          isNull = true;
+        }
+      }
+      if (isNull) {
+        column.nulls[i >>> 6] |= 1L << i;
+      }
+    }
+    timestamps.put(elementKey, column);
+    return column;
+  }
+}
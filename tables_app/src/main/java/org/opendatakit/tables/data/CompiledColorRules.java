@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.common.android.data.ColorGuide;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.database.service.OdkDbRow;
+
+/**
+ * A {@link ColorRuleGroup} turned into a chain of typed comparisons, so that
+ * evaluating it against a row does not have to look up column types or parse
+ * the rule values again.
+ * <p>
+ * Rules keep the semantics of {@link ColorRuleGroup}: they are tried in order
+ * and the first one that matches wins. A rule on an integer or number column
+ * compares numerically, any other rule (including those on admin columns)
+ * compares the raw strings. Null values, values that do not parse, and
+ * {@link ColorRule.RuleType#NO_OP} never match. Each column a rule refers to is
+ * read at most once per row however many rules test it, and numeric columns
+ * are taken from the {@link ColumnVectors} of the table rather than parsed
+ * here.
+ */
+public final class CompiledColorRules {
+
+  private static final int LESS_THAN = 0;
+  private static final int LESS_THAN_OR_EQUAL = 1;
+  private static final int EQUAL = 2;
+  private static final int GREATER_THAN_OR_EQUAL = 3;
+  private static final int GREATER_THAN = 4;
+
+  /** the element keys of the columns the rules refer to */
+  private final String[] columnKeys;
+  /** whether the values of each of those columns are compared numerically */
+  private final boolean[] columnNumeric;
+
+  /** for each rule, the index of its column in columnKeys */
+  private final int[] ruleColumn;
+  private final int[] ruleOperator;
+  private final double[] ruleNumber;
+  private final String[] ruleString;
+  private final ColorGuide[] ruleGuide;
+
+  private CompiledColorRules(List<String> columnKeys, List<Boolean> columnNumeric, int ruleCount) {
+    this.columnKeys = columnKeys.toArray(new String[columnKeys.size()]);
+    this.columnNumeric = new boolean[columnNumeric.size()];
+    for (int i = 0; i < this.columnNumeric.length; ++i) {
+      this.columnNumeric[i] = columnNumeric.get(i);
+    }
+    ruleColumn = new int[ruleCount];
+    ruleOperator = new int[ruleCount];
+    ruleNumber = new double[ruleCount];
+    ruleString = new String[ruleCount];
+    ruleGuide = new ColorGuide[ruleCount];
+  }
+
+  /**
+   * Compile the rules of crg against the columns of a table.
+   *
+   * @param crg
+   * @param orderedDefns
+   *          the user-defined columns of the table; rules on any other
+   *          column compare as strings
+   * @return
+   */
+  public static CompiledColorRules compile(ColorRuleGroup crg, OrderedColumns orderedDefns) {
+    List<String> keys = new ArrayList<String>();
+    List<Boolean> numeric = new ArrayList<Boolean>();
+    List<ColorRule> kept = new ArrayList<ColorRule>();
+    List<Integer> keptColumns = new ArrayList<Integer>();
+    List<Integer> keptOperators = new ArrayList<Integer>();
+    List<Double> keptNumbers = new ArrayList<Double>();
+
+    for (ColorRule rule : crg.getColorRules()) {
+      int operator = operatorOf(rule.getOperator());
+      String elementKey = rule.getColumnElementKey();
+      if (operator < 0 || elementKey == null || rule.getVal() == null) {
+        // can never match
+        continue;
+      }
+      boolean isNumeric = isNumeric(orderedDefns, elementKey);
+      double number = 0.0;
+      if (isNumeric) {
+        try {
+          number = Double.parseDouble(rule.getVal());
+        } catch (NumberFormatException e) {
+          // the interpreted comparison fails on every row
+          continue;
+        }
+      }
+      int column = keys.indexOf(elementKey);
+      if (column < 0) {
+        column = keys.size();
+        keys.add(elementKey);
+        numeric.add(isNumeric);
+      }
+      kept.add(rule);
+      keptColumns.add(column);
+      keptOperators.add(operator);
+      keptNumbers.add(number);
+    }
+
+    CompiledColorRules compiled = new CompiledColorRules(keys, numeric, kept.size());
+    for (int i = 0; i < kept.size(); ++i) {
+      ColorRule rule = kept.get(i);
+      compiled.ruleColumn[i] = keptColumns.get(i);
+      compiled.ruleOperator[i] = keptOperators.get(i);
+      compiled.ruleNumber[i] = keptNumbers.get(i);
+      compiled.ruleString[i] = rule.getVal().intern();
+      compiled.ruleGuide[i] = new ColorGuide(rule.getForeground(), rule.getBackground());
+    }
+    return compiled;
+  }
+
+  /**
+   * @return true if no rule can ever match
+   */
+  public boolean isEmpty() {
+    return ruleColumn.length == 0;
+  }
+
+  /**
+   * Evaluate the rules against every row of table.
+   *
+   * @param table
+   * @return the guides, indexed by row; an entry is null if no rule matched
+   */
+  public ColorGuide[] evaluate(UserTable table) {
+    ColorGuide[] guides = new ColorGuide[table.getNumberOfRows()];
+    if (isEmpty()) {
+      return guides;
+    }
+    Values values = new Values(columnKeys.length, numericColumnsOf(table));
+    for (int r = 0; r < guides.length; ++r) {
+      guides[r] = evaluate(table.getRowAtIndex(r), r, values);
+    }
+    return guides;
+  }
+
+  /**
+   * Evaluate the rules against some of the rows of table.
+   *
+   * @param table
+   * @param rows
+   *          the indexes in table of the rows guides is indexed by, or null if
+   *          guides is indexed by the rows of table
+   * @param positions
+   *          the positions in guides to evaluate
+   * @param count
+   *          how many of positions are in use
+   * @param guides
+   *          receives the guide of the row at each of those positions
+   */
+  public void evaluate(UserTable table, int[] rows, int[] positions, int count,
+      ColorGuide[] guides) {
+    Values values = isEmpty() ? null : new Values(columnKeys.length, numericColumnsOf(table));
+    for (int i = 0; i < count; ++i) {
+      int p = positions[i];
+      int r = (rows == null) ? p : rows[p];
+      guides[p] = isEmpty() ? null : evaluate(table.getRowAtIndex(r), r, values);
+    }
+  }
+
+  /**
+   * @return the typed values of each numeric column in columnKeys, null for
+   *         the others
+   */
+  private ColumnVectors.DoubleColumn[] numericColumnsOf(UserTable table) {
+    ColumnVectors.DoubleColumn[] columns = new ColumnVectors.DoubleColumn[columnKeys.length];
+    ColumnVectors vectors = null;
+    for (int c = 0; c < columnKeys.length; ++c) {
+      if (columnNumeric[c]) {
+        if (vectors == null) {
+          vectors = ColumnVectors.forTable(table);
+        }
+        columns[c] = vectors.getNumbers(table, columnKeys[c]);
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * The values of the columns of the row being evaluated, read on first use.
+   */
+  private static final class Values {
+    final boolean[] loaded;
+    /** false if the value is null or, for a numeric column, does not parse */
+    final boolean[] usable;
+    final String[] strings;
+    final double[] numbers;
+    /** the typed values of the numeric columns of the table */
+    final ColumnVectors.DoubleColumn[] numericColumns;
+
+    Values(int columns, ColumnVectors.DoubleColumn[] numericColumns) {
+      loaded = new boolean[columns];
+      usable = new boolean[columns];
+      strings = new String[columns];
+      numbers = new double[columns];
+      this.numericColumns = numericColumns;
+    }
+  }
+
+  private ColorGuide evaluate(OdkDbRow row, int r, Values values) {
+    for (int c = 0; c < columnKeys.length; ++c) {
+      values.loaded[c] = false;
+    }
+    for (int i = 0; i < ruleColumn.length; ++i) {
+      int c = ruleColumn[i];
+      if (!values.loaded[c]) {
+        load(row, r, c, values);
+      }
+      if (!values.usable[c]) {
+        continue;
+      }
+      int comparison;
+      if (columnNumeric[c]) {
+        comparison = Double.compare(values.numbers[c], ruleNumber[i]);
+      } else if (ruleOperator[i] == EQUAL) {
+        if (values.strings[c].equals(ruleString[i])) {
+          return ruleGuide[i];
+        }
+        continue;
+      } else {
+        comparison = values.strings[c].compareTo(ruleString[i]);
+      }
+      if (matches(ruleOperator[i], comparison)) {
+        return ruleGuide[i];
+      }
+    }
+    return null;
+  }
+
+  private void load(OdkDbRow row, int r, int c, Values values) {
+    values.loaded[c] = true;
+    if (columnNumeric[c]) {
+      ColumnVectors.DoubleColumn column = values.numericColumns[c];
+      values.usable[c] = !column.isNull(r);
+      values.numbers[c] = column.get(r);
+      return;
+    }
+    String value = row.getDataByKey(columnKeys[c]);
+    values.strings[c] = value;
+    values.usable[c] = (value != null);
+  }
+
+  private static boolean matches(int operator, int comparison) {
+    switch (operator) {
+    case LESS_THAN:
+      return comparison < 0;
+    case LESS_THAN_OR_EQUAL:
+      return comparison <= 0;
+    case EQUAL:
+      return comparison == 0;
+    case GREATER_THAN_OR_EQUAL:
+      return comparison >= 0;
+    case GREATER_THAN:
+      return comparison > 0;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * @return the operator code, or -1 if the operator never matches
+   */
+  private static int operatorOf(ColorRule.RuleType type) {
+    if (type == null) {
+      return -1;
+    }
+    switch (type) {
+    case LESS_THAN:
+      return LESS_THAN;
+    case LESS_THAN_OR_EQUAL:
+      return LESS_THAN_OR_EQUAL;
+    case EQUAL:
+      return EQUAL;
+    case GREATER_THAN_OR_EQUAL:
+      return GREATER_THAN_OR_EQUAL;
+    case GREATER_THAN:
+      return GREATER_THAN;
+    default:
+      return -1;
+    }
+  }
+
+  private static boolean isNumeric(OrderedColumns orderedDefns, String elementKey) {
+    if (orderedDefns == null) {
+      return false;
+    }
+    ColumnDefinition cd;
+    try {
+      cd = orderedDefns.find(elementKey);
+    } catch (IllegalArgumentException e) {
+      // not a user-defined column, e.g., an admin column
+      return false;
+    }
+    if (cd == null) {
+      return false;
+    }
+    ElementDataType type = cd.getType().getDataType();
+    return type == ElementDataType.integer || type == ElementDataType.number;
+  }
+}
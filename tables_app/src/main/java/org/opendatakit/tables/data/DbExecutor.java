@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs database work for the app's screens on a small pool of background
+ * threads and reports the outcome on the main thread.
+ * <p>
+ * Work is taken in order of {@link Priority}, and in order of submission
+ * within a priority, so that what the user is waiting to see is not stuck
+ * behind prefetching. Each piece of work is handed a handle borrowed from
+ * {@link DbHandlePool}, unless it opens its own, e.g., for a transaction; see
+ * {@link #submitWithoutHandle(String, Priority, Callback)}.
+ */
+public class DbExecutor {
+
+  private static final String TAG = DbExecutor.class.getSimpleName();
+
+  private static final int THREADS = 2;
+
+  /**
+   * In decreasing order of urgency.
+   */
+  public enum Priority {
+    /** needed to show something on the screen now */
+    UI_VISIBLE,
+    /** anything that can wait */
+    BACKGROUND
+  }
+
+  /**
+   * @param <T>
+   *          the result of the work
+   */
+  public interface Callback<T> {
+    /**
+     * Called on a background thread.
+     *
+     * @param db
+     *          a pooled handle, which must not be used for transactions, or
+     *          null if the work was submitted without one
+     * @return
+     * @throws ServicesAvailabilityException
+     */
+    T doInBackground(OdkDbHandle db) throws ServicesAvailabilityException;
+
+    /**
+     * Called on the main thread if the work completed and was not cancelled.
+     *
+     * @param result
+     */
+    void onResult(T result);
+
+    /**
+     * Called on the main thread if the database could not be accessed, or the
+     * work threw, and the work was not cancelled.
+     *
+     * @param e
+     */
+    void onFailure(ServicesAvailabilityException e);
+  }
+
+  /**
+   * A piece of submitted work.
+   */
+  public static final class Job<T> implements Runnable, Comparable<Job<?>> {
+    private final String appName;
+    private final Priority priority;
+    private final long sequence;
+    private final Callback<T> callback;
+    private final boolean borrowsHandle;
+    private final Handler handler;
+    private volatile boolean cancelled = false;
+
+    private Job(String appName, Priority priority, long sequence, Callback<T> callback,
+        boolean borrowsHandle, Handler handler) {
+      this.appName = appName;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.callback = callback;
+      this.borrowsHandle = borrowsHandle;
+      this.handler = handler;
+    }
+
+    /**
+     * Keep the work from starting, if it has not, and the callback from being
+     * told of its outcome.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public int compareTo(Job<?> other) {
+      if (priority != other.priority) {
+        return priority.ordinal() - other.priority.ordinal();
+      }
+      return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+    }
+
+    @Override
+    public void run() {
+      if (cancelled) {
+        return;
+      }
+      T result = null;
+      ServicesAvailabilityException failure = null;
+      OdkDbHandle db = null;
+      try {
+        if (borrowsHandle) {
+          db = DbHandlePool.get().acquire(appName);
+        }
+        result = callback.doInBackground(db);
+      } catch (ServicesAvailabilityException e) {
+        failure = e;
+      } catch (RuntimeException e) {
+        // e.g., an SQLiteException from the services layer. The screen
+        // waiting on the work must still hear of it.
+        WebLogger.getLogger(appName).printStackTrace(e);
+        failure = new ServicesAvailabilityException(e.toString());
+      } finally {
+        if (db != null) {
+          try {
+            DbHandlePool.get().release(appName, db);
+          } catch (ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG, "Unable to release database handle");
+          }
+        }
+      }
+
+      final T finalResult = result;
+      final ServicesAvailabilityException finalFailure = failure;
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (cancelled) {
+            return;
+          }
+          if (finalFailure != null) {
+            callback.onFailure(finalFailure);
+          } else {
+            callback.onResult(finalResult);
+          }
+        }
+      });
+    }
+  }
+
+  private static DbExecutor singleton = null;
+
+  public static synchronized DbExecutor get() {
+    if (singleton == null) {
+      singleton = new DbExecutor();
+    }
+    return singleton;
+  }
+
+  private final AtomicLong mSequence = new AtomicLong();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 30L,
+      TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, TAG);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private DbExecutor() {
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue work against the database of appName.
+   *
+   * @param appName
+   * @param priority
+   * @param callback
+   * @return the job, which may be cancelled, e.g., when the screen that wants
+   *         the result goes away
+   */
+  public <T> Job<T> submit(String appName, Priority priority, Callback<T> callback) {
+    return submit(appName, priority, callback, true);
+  }
+
+  /**
+   * Queue work that opens its own handle to the database of appName, e.g., to
+   * hold a transaction, so that it does not also keep a pooled one from other
+   * work. The callback is handed null for the handle.
+   *
+   * @param appName
+   * @param priority
+   * @param callback
+   * @return the job
+   */
+  public <T> Job<T> submitWithoutHandle(String appName, Priority priority,
+      Callback<T> callback) {
+    return submit(appName, priority, callback, false);
+  }
+
+  private <T> Job<T> submit(String appName, Priority priority, Callback<T> callback,
+      boolean borrowsHandle) {
+    Job<T> job = new Job<T>(appName, priority, mSequence.getAndIncrement(), callback,
+        borrowsHandle, mHandler);
+    // not submit(): the queue orders the jobs themselves, not futures
+    mExecutor.execute(job);
+    return job;
+  }
+}
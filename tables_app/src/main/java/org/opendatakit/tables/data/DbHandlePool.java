@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+
+import android.content.pm.ApplicationInfo;
+import android.os.Looper;
+
+/**
+ * Lends out one database handle per appName, so that code that opens the
+ * database to do one thing and then closes it does not go through the
+ * services layer twice each time.
+ * <p>
+ * A handle is opened on the first {@link #acquire(String)} and shared by all
+ * borrowers; it is closed once it has not been borrowed for
+ * {@link #IDLE_TIMEOUT_MS}. Borrowers must hand it back with
+ * {@link #release(String, OdkDbHandle)} in a finally block, exactly as they
+ * would close a handle of their own.
+ * <p>
+ * Borrowers on different threads may use the handle at the same time. Every
+ * call on it is a separate call through the services interface, which looks
+ * up the connection behind the handle for that call and serializes the calls
+ * made on one connection, as it does for any handle shared by the threads of
+ * a client. A transaction, though, belongs to the connection, so one begun on
+ * the pooled handle would take in the work of every other borrower. Work that
+ * needs a transaction opens a handle of its own and begins it with
+ * {@link #beginTransaction(String, OdkDbHandle)}, which refuses the pooled
+ * handle.
+ * <p>
+ * The borrows, opens and closes are counted against the screen that was in
+ * the foreground at the time, as set by {@link #setCurrentScreen(String)}.
+ * <p>
+ * In debuggable builds, every borrow made on the main thread is logged when
+ * it is handed back, with its caller and how long the handle was held.
+ * Such work belongs on {@link DbExecutor}.
+ */
+public class DbHandlePool {
+
+  private static final String TAG = DbHandlePool.class.getSimpleName();
+
+  /** how long a handle nobody has borrowed stays open */
+  static final long IDLE_TIMEOUT_MS = 10000L;
+
+  private static DbHandlePool singleton = null;
+
+  public static synchronized DbHandlePool get() {
+    if (singleton == null) {
+      singleton = new DbHandlePool();
+    }
+    return singleton;
+  }
+
+  private static final class PooledHandle {
+    final OdkDbHandle db;
+    int borrowers = 0;
+    ScheduledFuture<?> pendingClose;
+
+    PooledHandle(OdkDbHandle db) {
+      this.db = db;
+    }
+  }
+
+  /**
+   * The round trips a screen made, or avoided.
+   */
+  public static final class Counters {
+    /** calls to acquire */
+    public int borrows;
+    /** handles actually opened */
+    public int opens;
+    /** handles actually closed */
+    public int closes;
+
+    @Override
+    public String toString() {
+      return "borrows=" + borrows + " opens=" + opens + " closes=" + closes;
+    }
+  }
+
+  /**
+   * A borrow made on the main thread, remembered until it is handed back.
+   */
+  private static final class MainThreadBorrow {
+    final String caller;
+    final long startNanos;
+
+    MainThreadBorrow(String caller, long startNanos) {
+      this.caller = caller;
+      this.startNanos = startNanos;
+    }
+  }
+
+  private final Map<String, PooledHandle> mHandles = new HashMap<String, PooledHandle>();
+  private final Map<String, Counters> mCounters = new HashMap<String, Counters>();
+  private String mCurrentScreen = "none";
+
+  /** null until first needed; the application info is not known before then */
+  private Boolean mDebuggable = null;
+  /** only touched on the main thread */
+  private final ArrayDeque<MainThreadBorrow> mMainThreadBorrows =
+      new ArrayDeque<MainThreadBorrow>();
+
+  private final ScheduledExecutorService mCloser = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, TAG);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  private DbHandlePool() {
+  }
+
+  /**
+   * Borrow the handle of appName, opening it if needed.
+   *
+   * @param appName
+   * @return
+   * @throws ServicesAvailabilityException
+   */
+  public OdkDbHandle acquire(String appName) throws ServicesAvailabilityException {
+    // timed from here, so that a borrow that opens the database pays for it
+    boolean tracked = isDebuggable() && isMainThread();
+    if (tracked) {
+      mMainThreadBorrows.push(new MainThreadBorrow(findCaller(), System.nanoTime()));
+    }
+    synchronized (this) {
+      countersOf(mCurrentScreen).borrows++;
+      PooledHandle handle = mHandles.get(appName);
+      if (handle != null) {
+        handle.borrowers++;
+        if (handle.pendingClose != null) {
+          handle.pendingClose.cancel(false);
+          handle.pendingClose = null;
+        }
+        return handle.db;
+      }
+    }
+
+    // open outside the lock; another thread may race us to it
+    OdkDbHandle db;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(appName);
+    } catch (ServicesAvailabilityException e) {
+      // nothing was borrowed, so nothing will be released
+      if (tracked) {
+        mMainThreadBorrows.pop();
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      if (tracked) {
+        mMainThreadBorrows.pop();
+      }
+      throw e;
+    }
+    OdkDbHandle surplus = null;
+    OdkDbHandle result;
+    synchronized (this) {
+      countersOf(mCurrentScreen).opens++;
+      PooledHandle handle = mHandles.get(appName);
+      if (handle == null) {
+        handle = new PooledHandle(db);
+        mHandles.put(appName, handle);
+      } else {
+        surplus = db;
+        if (handle.pendingClose != null) {
+          handle.pendingClose.cancel(false);
+          handle.pendingClose = null;
+        }
+      }
+      handle.borrowers++;
+      result = handle.db;
+    }
+    if (surplus != null) {
+      close(appName, surplus);
+    }
+    return result;
+  }
+
+  /**
+   * Hand back a handle obtained from {@link #acquire(String)}. The pooled
+   * handle stays open for a while in case it is wanted again; a handle that
+   * is no longer the pooled one, e.g., because the pool was discarded while
+   * it was borrowed, is closed right away.
+   *
+   * @param appName
+   * @param db
+   * @throws ServicesAvailabilityException
+   */
+  public void release(final String appName, OdkDbHandle db)
+      throws ServicesAvailabilityException {
+    if (isDebuggable() && isMainThread() && !mMainThreadBorrows.isEmpty()) {
+      MainThreadBorrow borrow = mMainThreadBorrows.pop();
+      long elapsedMs = (System.nanoTime() - borrow.startNanos) / 1000000L;
+      WebLogger.getLogger(appName).w(TAG, "database used on the main thread by "
+          + borrow.caller + " for " + elapsedMs + " ms");
+    }
+    synchronized (this) {
+      final PooledHandle handle = mHandles.get(appName);
+      if (handle != null && handle.db.equals(db)) {
+        handle.borrowers--;
+        if (handle.borrowers <= 0) {
+          handle.borrowers = 0;
+          handle.pendingClose = mCloser.schedule(new Runnable() {
+            @Override
+            public void run() {
+              closeIfIdle(appName, handle);
+            }
+          }, IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        return;
+      }
+    }
+    close(appName, db);
+  }
+
+  /**
+   * Begin a transaction on a handle the caller opened itself.
+   *
+   * @param appName
+   * @param db
+   * @throws ServicesAvailabilityException
+   * @throws IllegalStateException
+   *           if db is the handle this pool lends out
+   */
+  public void beginTransaction(String appName, OdkDbHandle db)
+      throws ServicesAvailabilityException {
+    synchronized (this) {
+      PooledHandle handle = mHandles.get(appName);
+      if (handle != null && handle.db.equals(db)) {
+        throw new IllegalStateException("transaction begun on the pooled handle of " + appName);
+      }
+    }
+    Tables.getInstance().getDatabase().beginTransaction(appName, db);
+  }
+
+  /**
+   * Forget every handle without closing them, e.g., because the database
+   * service went away and took them with it.
+   */
+  public synchronized void discardAll() {
+    for (PooledHandle handle : mHandles.values()) {
+      if (handle.pendingClose != null) {
+        handle.pendingClose.cancel(false);
+      }
+    }
+    mHandles.clear();
+  }
+
+  /**
+   * @param screen
+   *          the name of the screen now in the foreground
+   */
+  public synchronized void setCurrentScreen(String screen) {
+    mCurrentScreen = screen;
+  }
+
+  /**
+   * @param screen
+   * @return a copy of the counters of the screen
+   */
+  public synchronized Counters getCounters(String screen) {
+    Counters counters = countersOf(screen);
+    Counters copy = new Counters();
+    copy.borrows = counters.borrows;
+    copy.opens = counters.opens;
+    copy.closes = counters.closes;
+    return copy;
+  }
+
+  /**
+   * Log the counters of a screen.
+   *
+   * @param appName
+   * @param screen
+   */
+  public void logCounters(String appName, String screen) {
+    WebLogger.getLogger(appName).d(TAG, "[" + screen + "] " + getCounters(screen));
+  }
+
+  private void closeIfIdle(String appName, PooledHandle handle) {
+    synchronized (this) {
+      if (mHandles.get(appName) != handle || handle.borrowers != 0) {
+        return;
+      }
+      mHandles.remove(appName);
+    }
+    try {
+      close(appName, handle.db);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to close idle database handle");
+    }
+  }
+
+  private void close(String appName, OdkDbHandle db) throws ServicesAvailabilityException {
+    synchronized (this) {
+      countersOf(mCurrentScreen).closes++;
+    }
+    Tables.getInstance().getDatabase().closeDatabase(appName, db);
+  }
+
+  private synchronized boolean isDebuggable() {
+    if (mDebuggable == null) {
+      Tables app = Tables.getInstance();
+      if (app == null) {
+        return false;
+      }
+      mDebuggable = (app.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+    return mDebuggable;
+  }
+
+  private static boolean isMainThread() {
+    return Looper.myLooper() == Looper.getMainLooper();
+  }
+
+  /**
+   * @return the first frame on the stack outside of this class
+   */
+  private static String findCaller() {
+    StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+    for (StackTraceElement frame : stack) {
+      String className = frame.getClassName();
+      if (className.equals(DbHandlePool.class.getName())
+          || className.equals(Thread.class.getName())
+          || className.equals("dalvik.system.VMStack")) {
+        continue;
+      }
+      return frame.toString();
+    }
+    return "unknown";
+  }
+
+  private Counters countersOf(String screen) {
+    Counters counters = mCounters.get(screen);
+    if (counters == null) {
+      counters = new Counters();
+      mCounters.put(screen, counters);
+    }
+    return counters;
+  }
+}
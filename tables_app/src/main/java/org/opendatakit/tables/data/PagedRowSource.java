@@ -0,0 +1,893 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.database.service.OdkDbRow;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.SQLQueryStruct;
+
+/**
+ * Serves the rows of a query in fixed-size pages fetched with LIMIT/OFFSET,
+ * rather than materializing the whole result as one {@link UserTable}.
+ * <p>
+ * Only a bounded number of pages are kept resident (least recently used pages
+ * are dropped first). The pages on either side of the current viewport are
+ * fetched on a background thread so that scrolling does not normally have to
+ * wait on the database.
+ * <p>
+ * Drawing never waits on the database: {@link #getRenderBlock(int)} returns
+ * null for a page that is not resident and fetches it in the background,
+ * telling the {@link PageListener}s when it lands. The source's lock guards
+ * only its state and is never held across a query; the operations that query
+ * and then update the state are serialized on a lock of their own.
+ * <p>
+ * A result that is small enough can instead be held whole, see
+ * {@link #holdAllRows()}. Pages are then cut from the held rows rather than
+ * fetched, and sorting and filtering are done in memory by a
+ * {@link RowSorter} rather than by querying again.
+ */
+public class PagedRowSource {
+
+  private static final String TAG = PagedRowSource.class.getSimpleName();
+
+  /** number of rows fetched per query */
+  public static final int DEFAULT_PAGE_SIZE = 200;
+  /** maximum number of pages held in memory at any one time */
+  public static final int DEFAULT_MAX_RESIDENT_PAGES = 8;
+
+  /** how long the prefetch thread waits for work before it goes away */
+  private static final long PREFETCH_IDLE_SECONDS = 10L;
+
+  /**
+   * The columns that order the rows that have the same value in the sort
+   * column. Together they identify a row: the versions of a row in conflict
+   * share its id, as do its checkpoints.
+   */
+  private static final String[] TIE_BREAKERS = { DataTableColumns.ID,
+      DataTableColumns.CONFLICT_TYPE, DataTableColumns.SAVEPOINT_TIMESTAMP };
+
+  /**
+   * One LIMIT/OFFSET window of the result set, together with its rendering.
+   */
+  private static class Page {
+    final int pageNumber;
+    final UserTable table;
+    /** the indexes in table of the rows of the page, or null if it is all of table */
+    final int[] rows;
+    final int firstRow;
+    CellRenderBlock renderBlock;
+
+    Page(int pageNumber, UserTable table, int firstRow) {
+      this(pageNumber, table, null, firstRow);
+    }
+
+    Page(int pageNumber, UserTable table, int[] rows, int firstRow) {
+      this.pageNumber = pageNumber;
+      this.table = table;
+      this.rows = rows;
+      this.firstRow = firstRow;
+    }
+
+    int tableRow(int indexInPage) {
+      return (rows == null) ? indexInPage : rows[indexInPage];
+    }
+
+    synchronized CellRenderBlock getRenderBlock(CellRenderBlock.Layout layout,
+        OrderedColumns orderedDefns) {
+      if (renderBlock == null || renderBlock.layout != layout) {
+        renderBlock = CellRenderBlock.build(layout, orderedDefns, table, rows, firstRow);
+      }
+      return renderBlock;
+    }
+  }
+
+  /**
+   * Told when a page that was not resident has been fetched, so that rows
+   * drawn as placeholders can be drawn again.
+   */
+  public interface PageListener {
+    /**
+     * Called on a background thread.
+     *
+     * @param firstRow
+     *          the first row of the page
+     * @param lastRow
+     *          the last row of the page
+     */
+    void onPageLoaded(int firstRow, int lastRow);
+  }
+
+  private final String mAppName;
+  private final String mTableId;
+  private final OrderedColumns mColumnDefinitions;
+  private final SQLQueryStruct mQuery;
+  private final int mPageSize;
+  private final int mMaxResidentPages;
+
+  /** access-ordered, so that iteration order is least recently used first */
+  private final LinkedHashMap<Integer, Page> mResidentPages;
+  /** pages that are currently being fetched by the prefetch thread */
+  private final Set<Integer> mPendingPages = new HashSet<Integer>();
+  private final ThreadPoolExecutor mPrefetcher = newPrefetcher();
+  private final List<PageListener> mListeners = new CopyOnWriteArrayList<PageListener>();
+  /**
+   * Held by the operations that query and then update the state, so that they
+   * do not interleave. Taken before, never while holding, the source's lock.
+   */
+  private final Object mLoadLock = new Object();
+
+  private int mNumberOfRows = -1;
+  /**
+   * The page most recently returned by getPage(). Rows are nearly always read
+   * from the same page as the row before, and checking this first avoids
+   * boxing the page number to look it up.
+   */
+  private Page mLastPage;
+  private int mLastViewportFirstPage = -1;
+  private int mLastViewportLastPage = -1;
+  private volatile CellRenderBlock.Layout mRenderLayout;
+
+  /** overrides the order of the query; null to keep it */
+  private volatile String mSortElementKey;
+  /** ASC or DESC, the direction of mSortElementKey */
+  private volatile String mSortDirection = "ASC";
+  /** bumped whenever the resident pages are dropped */
+  private int mGeneration = 0;
+  /** the column rows are filtered on, or null if they are not */
+  private String mFilterElementKey;
+  private String mFilterValue;
+  /** the whole result, if it is held; otherwise null and pages are fetched */
+  private UserTable mAllRows;
+  /** when the whole result is held, the index in it of each row, in display order */
+  private int[] mOrder;
+
+  public PagedRowSource(String appName, String tableId, OrderedColumns orderedDefns,
+      SQLQueryStruct query) {
+    this(appName, tableId, orderedDefns, query, DEFAULT_PAGE_SIZE, DEFAULT_MAX_RESIDENT_PAGES);
+  }
+
+  public PagedRowSource(String appName, String tableId, OrderedColumns orderedDefns,
+      SQLQueryStruct query, int pageSize, int maxResidentPages) {
+    this.mAppName = appName;
+    this.mTableId = tableId;
+    this.mColumnDefinitions = orderedDefns;
+    this.mQuery = query;
+    this.mPageSize = pageSize;
+    this.mMaxResidentPages = maxResidentPages;
+    this.mResidentPages = new LinkedHashMap<Integer, Page>(maxResidentPages + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+        return size() > mMaxResidentPages;
+      }
+    };
+  }
+
+  /**
+   * A single daemon thread that goes away when it has been idle for a while,
+   * so that a source that is dropped without {@link #close()} does not keep a
+   * thread alive.
+   */
+  private static ThreadPoolExecutor newPrefetcher() {
+    ThreadPoolExecutor prefetcher = new ThreadPoolExecutor(1, 1, PREFETCH_IDLE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, TAG);
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    prefetcher.allowCoreThreadTimeOut(true);
+    return prefetcher;
+  }
+
+  public String getAppName() {
+    return mAppName;
+  }
+
+  public String getTableId() {
+    return mTableId;
+  }
+
+  public int getPageSize() {
+    return mPageSize;
+  }
+
+  /**
+   * The total number of rows in the result set. This is determined without
+   * materializing the rows: the first page answers it for small results;
+   * otherwise we gallop and then binary-search on single-row probes. The
+   * probes are not ordered, as the count does not depend on the order and
+   * sorting by an unindexed column would cost a scan per probe.
+   *
+   * @return
+   * @throws ServicesAvailabilityException
+   */
+  public int getNumberOfRows() throws ServicesAvailabilityException {
+    int generation;
+    synchronized (this) {
+      if (mNumberOfRows >= 0) {
+        return mNumberOfRows;
+      }
+      generation = mGeneration;
+    }
+    Page first = getPage(0);
+    int count = first.table.getNumberOfRows();
+    if (count >= mPageSize) {
+      OdkDbHandle db = null;
+      try {
+        db = DbHandlePool.get().acquire(mAppName);
+        // lo is known to exist; hi is known to not exist.
+        int lo = mPageSize - 1;
+        int hi = mPageSize * 2;
+        while (rowExists(db, hi)) {
+          lo = hi;
+          hi *= 2;
+        }
+        while (hi - lo > 1) {
+          int mid = (lo + hi) >>> 1;
+          if (rowExists(db, mid)) {
+            lo = mid;
+          } else {
+            hi = mid;
+          }
+        }
+        count = lo + 1;
+      } finally {
+        if (db != null) {
+          DbHandlePool.get().release(mAppName, db);
+        }
+      }
+      WebLogger.getLogger(mAppName).i(TAG, "[getNumberOfRows] " + mTableId + " has "
+          + count + " rows");
+    }
+    synchronized (this) {
+      if (mNumberOfRows >= 0) {
+        return mNumberOfRows;
+      }
+      if (generation == mGeneration) {
+        mNumberOfRows = count;
+      }
+      return count;
+    }
+  }
+
+  public OdkDbRow getRowAtIndex(int index) throws ServicesAvailabilityException {
+    Page page = getPage(index / mPageSize);
+    return page.table.getRowAtIndex(page.tableRow(index % mPageSize));
+  }
+
+  public String getRowId(int index) throws ServicesAvailabilityException {
+    Page page = getPage(index / mPageSize);
+    return page.table.getRowId(page.tableRow(index % mPageSize));
+  }
+
+  public String getDisplayTextOfData(int index, ElementType type, String elementKey)
+      throws ServicesAvailabilityException {
+    Page page = getPage(index / mPageSize);
+    return page.table.getDisplayTextOfData(page.tableRow(index % mPageSize), type, elementKey);
+  }
+
+  /**
+   * Fetch the whole result and hold it, if it is small enough to be held in
+   * memory; see {@link UserTableCache#fitsInMemory(int, OrderedColumns)}.
+   *
+   * @return true if the whole result is held
+   * @throws ServicesAvailabilityException
+   */
+  public boolean holdAllRows() throws ServicesAvailabilityException {
+    synchronized (mLoadLock) {
+      synchronized (this) {
+        if (mAllRows != null) {
+          return true;
+        }
+      }
+      int numberOfRows = getNumberOfRows();
+      if (!UserTableCache.get().fitsInMemory(numberOfRows, mColumnDefinitions)) {
+        WebLogger.getLogger(mAppName).i(TAG, "[holdAllRows] paging " + mTableId + ": "
+            + numberOfRows + " rows");
+        return false;
+      }
+      loadAllRows();
+      return true;
+    }
+  }
+
+  /**
+   * @return true if the whole result is held, so that sorting and filtering
+   *         do not need the database
+   */
+  public synchronized boolean isHoldingAllRows() {
+    return mAllRows != null;
+  }
+
+  /**
+   * Whether {@link #holdAllRows()} would hold the result, as far as can be
+   * told without the database.
+   *
+   * @return false if the rows have yet to be counted, or are too many
+   */
+  public synchronized boolean canHoldAllRows() {
+    return mAllRows != null || (mNumberOfRows >= 0
+        && UserTableCache.get().fitsInMemory(mNumberOfRows, mColumnDefinitions));
+  }
+
+  /**
+   * Order the rows by a column instead of by the order of the query. When the
+   * whole result is held this is done in memory; otherwise the pages are
+   * dropped and fetched again in the new order.
+   *
+   * @param elementKey
+   *          the column to sort by, or null to go back to the order of the
+   *          query
+   * @param direction
+   *          ASC or DESC
+   */
+  public synchronized void sortBy(String elementKey, String direction) {
+    mSortElementKey = elementKey;
+    mSortDirection = "DESC".equals(direction) ? "DESC" : "ASC";
+    if (mAllRows != null) {
+      reorder();
+    } else {
+      // the number of rows stays the same
+      dropPages();
+    }
+  }
+
+  public synchronized String getSortElementKey() {
+    return mSortElementKey;
+  }
+
+  public synchronized String getSortDirection() {
+    return mSortDirection;
+  }
+
+  /**
+   * Show only the rows whose value in a column is the given value. Only
+   * possible when the whole result is held.
+   *
+   * @param elementKey
+   *          the column to filter on, or null to show every row
+   * @param value
+   *          the raw value to keep; may be null
+   * @return false if the whole result is not held, in which case nothing was
+   *         done
+   */
+  public synchronized boolean filterBy(String elementKey, String value) {
+    if (mAllRows == null) {
+      return false;
+    }
+    mFilterElementKey = elementKey;
+    mFilterValue = value;
+    reorder();
+    return true;
+  }
+
+  public synchronized boolean isFiltered() {
+    return mFilterElementKey != null;
+  }
+
+  /**
+   * Set the columns and color rules with which pages are rendered. Pages that
+   * are fetched in the background are rendered there as well.
+   *
+   * @param layout
+   */
+  public void setRenderLayout(CellRenderBlock.Layout layout) {
+    mRenderLayout = layout;
+  }
+
+  /**
+   * Get the rendering of the page containing the given row, if the page is
+   * resident. It is computed once per resident page, and discarded when the
+   * page is evicted. Never waits on the database, so it may be called from
+   * the draw path.
+   *
+   * @param index
+   * @return the rendering, or null if the page has yet to be fetched; it is
+   *         then fetched in the background and the {@link PageListener}s are
+   *         told when it lands
+   * @throws IllegalStateException
+   *           if no layout has been set
+   */
+  public CellRenderBlock getRenderBlock(int index) {
+    CellRenderBlock.Layout layout = mRenderLayout;
+    if (layout == null) {
+      throw new IllegalStateException("setRenderLayout() has not been called");
+    }
+    int pageNumber = index / mPageSize;
+    Page page;
+    synchronized (this) {
+      page = residentPage(pageNumber);
+    }
+    if (page == null) {
+      fetchInBackground(pageNumber);
+      return null;
+    }
+    return page.getRenderBlock(layout, mColumnDefinitions);
+  }
+
+  public void addPageListener(PageListener listener) {
+    mListeners.add(listener);
+  }
+
+  public void removePageListener(PageListener listener) {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * Tell the source which rows are currently on screen. The pages covering
+   * the viewport are expected to be fetched on demand; the pages immediately
+   * above and below it are queued for background fetching.
+   *
+   * @param firstRow
+   * @param lastRow
+   */
+  public void setViewport(int firstRow, int lastRow) {
+    int firstPage = firstRow / mPageSize;
+    int lastPage = lastRow / mPageSize;
+    synchronized (this) {
+      // nothing to do until the viewport crosses onto another page
+      if (firstPage == mLastViewportFirstPage && lastPage == mLastViewportLastPage) {
+        return;
+      }
+      mLastViewportFirstPage = firstPage;
+      mLastViewportLastPage = lastPage;
+    }
+    fetchInBackground(firstPage - 1);
+    fetchInBackground(lastPage + 1);
+  }
+
+  /**
+   * Drop all resident pages and the cached row count.
+   */
+  public synchronized void invalidate() {
+    dropPages();
+    mNumberOfRows = -1;
+    mAllRows = null;
+    mOrder = null;
+  }
+
+  /**
+   * Pick up an edit of one row without dropping the other pages. The resident
+   * page holding the row is fetched again; if the rows of that page are still
+   * the same rows in the same order, the new page replaces the old and
+   * nothing else is touched. Otherwise, e.g., because the edit moved the row
+   * under the sort order, everything is dropped as in {@link #invalidate()}.
+   *
+   * @param rowId
+   * @return the index of the row if only its page was replaced, or -1 if
+   *         everything was dropped
+   * @throws ServicesAvailabilityException
+   */
+  public int refreshRow(String rowId) throws ServicesAvailabilityException {
+    synchronized (mLoadLock) {
+      Page oldPage = null;
+      int indexInPage = -1;
+      boolean holding;
+      int generation;
+      synchronized (this) {
+        holding = (mAllRows != null);
+        if (!holding) {
+          for (Page page : mResidentPages.values()) {
+            indexInPage = indexOfRowId(page.table, rowId);
+            if (indexInPage >= 0) {
+              oldPage = page;
+              break;
+            }
+          }
+          if (oldPage == null) {
+            // not on a page we hold; we cannot tell where it went
+            invalidate();
+            return -1;
+          }
+        }
+        generation = mGeneration;
+      }
+      if (holding) {
+        // the edit may move the row under the sort or the filter
+        loadAllRows();
+        return -1;
+      }
+      UserTable table = fetchPage(oldPage.pageNumber);
+      synchronized (this) {
+        if (generation != mGeneration || !sameRowIds(oldPage.table, table)) {
+          invalidate();
+          return -1;
+        }
+        Page page = new Page(oldPage.pageNumber, table, oldPage.firstRow);
+        mResidentPages.put(page.pageNumber, page);
+        if (mLastPage == oldPage) {
+          mLastPage = page;
+        }
+        return oldPage.firstRow + indexInPage;
+      }
+    }
+  }
+
+  /**
+   * Pick up a row that may have been added to the result set. Only the last
+   * page is fetched again. If the row is on it, or was not added after all,
+   * the pages before it are unchanged and are kept, and the row count follows
+   * from the new last page. Otherwise everything is dropped as in
+   * {@link #invalidate()}.
+   *
+   * @param rowId
+   *          the row that was added
+   * @return true if the pages before the old end of the result set were kept
+   * @throws ServicesAvailabilityException
+   */
+  public boolean refreshAddedRow(String rowId) throws ServicesAvailabilityException {
+    synchronized (mLoadLock) {
+      int oldCount;
+      boolean holding;
+      int generation;
+      synchronized (this) {
+        holding = (mAllRows != null);
+        if (!holding && mNumberOfRows < 0) {
+          invalidate();
+          return false;
+        }
+        oldCount = mNumberOfRows;
+        generation = mGeneration;
+      }
+      if (holding) {
+        loadAllRows();
+        return false;
+      }
+      int tailPage = oldCount / mPageSize;
+      UserTable table = fetchPage(tailPage);
+      int tailIndex = indexOfRowId(table, rowId);
+      synchronized (this) {
+        if (generation != mGeneration
+            || (tailIndex < 0 && table.getNumberOfRows() != oldCount - tailPage * mPageSize)) {
+          // the row landed somewhere in the middle; everything after it shifted
+          invalidate();
+          return false;
+        }
+        // drop the old tail; everything before it is unchanged
+        Iterator<Map.Entry<Integer, Page>> it = mResidentPages.entrySet().iterator();
+        while (it.hasNext()) {
+          if (it.next().getKey() >= tailPage) {
+            it.remove();
+          }
+        }
+        mLastPage = null;
+        mLastViewportFirstPage = -1;
+        mLastViewportLastPage = -1;
+        mResidentPages.put(tailPage, new Page(tailPage, table, tailPage * mPageSize));
+        if (table.getNumberOfRows() < mPageSize) {
+          mNumberOfRows = tailPage * mPageSize + table.getNumberOfRows();
+          return true;
+        }
+        // the tail page filled up; count the rest
+        mNumberOfRows = -1;
+      }
+      getNumberOfRows();
+      return true;
+    }
+  }
+
+  /**
+   * Stop the background prefetching. The source may still be used, but will
+   * only fetch pages synchronously afterward.
+   */
+  public void close() {
+    mPrefetcher.shutdownNow();
+  }
+
+  /**
+   * Queue a page to be fetched, and rendered if a layout is set, unless it is
+   * resident or already queued.
+   */
+  private void fetchInBackground(final int pageNumber) {
+    if (pageNumber < 0 || mPrefetcher.isShutdown()) {
+      return;
+    }
+    int generation;
+    synchronized (this) {
+      if (mAllRows != null) {
+        // pages are cut from the held rows as they are needed
+        return;
+      }
+      if (mNumberOfRows >= 0 && pageNumber * mPageSize >= mNumberOfRows) {
+        return;
+      }
+      if (mResidentPages.containsKey(pageNumber) || mPendingPages.contains(pageNumber)) {
+        return;
+      }
+      mPendingPages.add(pageNumber);
+      generation = mGeneration;
+    }
+    final int fetchedGeneration = generation;
+    try {
+      mPrefetcher.execute(new Runnable() {
+        @Override
+        public void run() {
+          Page page = null;
+          try {
+            page = new Page(pageNumber, fetchPage(pageNumber), pageNumber * mPageSize);
+            CellRenderBlock.Layout layout = mRenderLayout;
+            if (layout != null) {
+              page.getRenderBlock(layout, mColumnDefinitions);
+            }
+            synchronized (PagedRowSource.this) {
+              // a page fetched before the pages were dropped may be out of order
+              if (fetchedGeneration == mGeneration && !mResidentPages.containsKey(pageNumber)) {
+                // residentPage() does not touch the LRU order when it returns
+                // mLastPage, so refresh it here to keep it from being evicted.
+                if (mLastPage != null) {
+                  mResidentPages.get(mLastPage.pageNumber);
+                }
+                mResidentPages.put(pageNumber, page);
+              } else {
+                page = null;
+              }
+            }
+          } catch (ServicesAvailabilityException e) {
+            WebLogger.getLogger(mAppName).printStackTrace(e);
+            WebLogger.getLogger(mAppName).w(TAG, "[fetchInBackground] unable to fetch page "
+                + pageNumber);
+          } finally {
+            synchronized (PagedRowSource.this) {
+              mPendingPages.remove(pageNumber);
+            }
+          }
+          if (page != null) {
+            int lastRow = page.firstRow + page.table.getNumberOfRows() - 1;
+            for (PageListener listener : mListeners) {
+              listener.onPageLoaded(page.firstRow, lastRow);
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // closed meanwhile
+      synchronized (this) {
+        mPendingPages.remove(pageNumber);
+      }
+    }
+  }
+
+  /**
+   * Get a page, fetching it if it is not resident. Must not be called on the
+   * UI thread unless the whole result is held.
+   */
+  private Page getPage(int pageNumber) throws ServicesAvailabilityException {
+    while (true) {
+      int generation;
+      synchronized (this) {
+        Page page = residentPage(pageNumber);
+        if (page != null) {
+          return page;
+        }
+        generation = mGeneration;
+      }
+      // not under the lock, so that drawing is not held up by the query
+      UserTable table = fetchPage(pageNumber);
+      synchronized (this) {
+        Page page = residentPage(pageNumber);
+        if (page != null) {
+          return page;
+        }
+        if (generation == mGeneration) {
+          page = new Page(pageNumber, table, pageNumber * mPageSize);
+          mResidentPages.put(pageNumber, page);
+          mLastPage = page;
+          return page;
+        }
+        // sorted or invalidated meanwhile; the rows fetched may be the wrong ones
+      }
+    }
+  }
+
+  /**
+   * @return the page if it is resident or can be cut from the held rows,
+   *         otherwise null. Called with the lock held.
+   */
+  private Page residentPage(int pageNumber) {
+    if (mLastPage != null && mLastPage.pageNumber == pageNumber) {
+      return mLastPage;
+    }
+    Page page = mResidentPages.get(pageNumber);
+    if (page == null && mAllRows != null) {
+      int firstRow = pageNumber * mPageSize;
+      // past the end, e.g., after a filter dropped rows, the page is empty
+      int[] rows = new int[Math.max(0, Math.min(mPageSize, mOrder.length - firstRow))];
+      if (rows.length != 0) {
+        System.arraycopy(mOrder, firstRow, rows, 0, rows.length);
+      }
+      page = new Page(pageNumber, mAllRows, rows, firstRow);
+      mResidentPages.put(pageNumber, page);
+    }
+    if (page != null) {
+      mLastPage = page;
+    }
+    return page;
+  }
+
+  private UserTable fetchPage(int pageNumber) throws ServicesAvailabilityException {
+    OdkDbHandle db = null;
+    try {
+      db = DbHandlePool.get().acquire(mAppName);
+      return query(db, mPageSize, pageNumber * mPageSize);
+    } finally {
+      if (db != null) {
+        DbHandlePool.get().release(mAppName, db);
+      }
+    }
+  }
+
+  private void dropPages() {
+    ++mGeneration;
+    mResidentPages.clear();
+    mLastPage = null;
+    mLastViewportFirstPage = -1;
+    mLastViewportLastPage = -1;
+  }
+
+  /**
+   * Fetch the whole result, through the {@link UserTableCache} so that it is
+   * shared with other views of the same query, and apply the sort and the
+   * filter to it. Called with the load lock held.
+   */
+  private void loadAllRows() throws ServicesAvailabilityException {
+    UserTable allRows;
+    OdkDbHandle db = null;
+    try {
+      db = DbHandlePool.get().acquire(mAppName);
+      allRows = UserTableCache.get().getUserTable(mAppName, db, mTableId, mColumnDefinitions,
+          mQuery);
+    } finally {
+      if (db != null) {
+        DbHandlePool.get().release(mAppName, db);
+      }
+    }
+    synchronized (this) {
+      mAllRows = allRows;
+      reorder();
+    }
+  }
+
+  /**
+   * Compute the display order of the held rows from the filter and the sort,
+   * and drop the pages cut in the old order. Called with the lock held.
+   */
+  private void reorder() {
+    long start = System.currentTimeMillis();
+    int[] order = RowSorter.identity(mAllRows.getNumberOfRows());
+    if (mFilterElementKey != null) {
+      order = RowSorter.filterEquals(mAllRows, order, mFilterElementKey, mFilterValue);
+    }
+    if (mSortElementKey != null) {
+      RowSorter.sort(mAllRows, mColumnDefinitions, order, mSortElementKey,
+          !"DESC".equals(mSortDirection));
+    }
+    mOrder = order;
+    mNumberOfRows = order.length;
+    dropPages();
+    WebLogger.getLogger(mAppName).d(TAG, "[reorder] " + mTableId + ": " + order.length + " of "
+        + mAllRows.getNumberOfRows() + " rows in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  private static int indexOfRowId(UserTable table, String rowId) {
+    for (int i = 0; i < table.getNumberOfRows(); ++i) {
+      if (rowId.equals(table.getRowId(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean sameRowIds(UserTable a, UserTable b) {
+    if (a.getNumberOfRows() != b.getNumberOfRows()) {
+      return false;
+    }
+    for (int i = 0; i < a.getNumberOfRows(); ++i) {
+      if (!a.getRowId(i).equals(b.getRowId(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean rowExists(OdkDbHandle db, int index) throws ServicesAvailabilityException {
+    return query(db, 1, index, false).getNumberOfRows() != 0;
+  }
+
+  private UserTable query(OdkDbHandle db, int limit, int offset)
+      throws ServicesAvailabilityException {
+    return query(db, limit, offset, true);
+  }
+
+  private UserTable query(OdkDbHandle db, int limit, int offset, boolean ordered)
+      throws ServicesAvailabilityException {
+    String[] emptyArray = {};
+    return Tables.getInstance().getDatabase().rawSqlQuery(mAppName, db, mTableId,
+        mColumnDefinitions, mQuery.whereClause,
+        (mQuery.selectionArgs == null) ? emptyArray : mQuery.selectionArgs,
+        (mQuery.groupBy == null) ? emptyArray : mQuery.groupBy,
+        mQuery.having,
+        ordered ? orderByElementKeys() : emptyArray, ordered ? orderByDirections() : emptyArray,
+        limit, offset);
+  }
+
+  /**
+   * The columns the pages are ordered by. Each page is a query of its own, and
+   * SQLite only keeps the order of rows that the ORDER BY tells apart, so the
+   * requested column is followed by columns that identify a row: the
+   * {@link #TIE_BREAKERS}, or the group by columns of a grouped query.
+   */
+  private String[] orderByElementKeys() {
+    List<String> elementKeys = new ArrayList<String>();
+    if (mSortElementKey != null) {
+      elementKeys.add(mSortElementKey);
+    } else if (mQuery.orderByElementKey != null) {
+      elementKeys.add(mQuery.orderByElementKey);
+    }
+    for (String tieBreaker : tieBreakers()) {
+      if (!elementKeys.contains(tieBreaker)) {
+        elementKeys.add(tieBreaker);
+      }
+    }
+    return elementKeys.toArray(new String[elementKeys.size()]);
+  }
+
+  /**
+   * @return the directions of the columns of {@link #orderByElementKeys()}
+   */
+  private String[] orderByDirections() {
+    String[] elementKeys = orderByElementKeys();
+    String[] directions = new String[elementKeys.length];
+    for (int i = 0; i < directions.length; ++i) {
+      directions[i] = "ASC";
+    }
+    if (mSortElementKey != null) {
+      directions[0] = mSortDirection;
+    } else if (mQuery.orderByElementKey != null && mQuery.orderByDirection != null) {
+      directions[0] = mQuery.orderByDirection;
+    }
+    return directions;
+  }
+
+  private String[] tieBreakers() {
+    return (mQuery.groupBy == null || mQuery.groupBy.length == 0) ? TIE_BREAKERS
+        : mQuery.groupBy;
+  }
+}
@@ -47,8 +47,26 @@ public class PossibleTableViewTypes {
 
   public PossibleTableViewTypes(String appName, OdkDbHandle db, String tableId, OrderedColumns orderedDefns) throws
       ServicesAvailabilityException {
-    TableViewType defaultViewType = TableUtil.get().getDefaultViewType(Tables.getInstance(),
-        appName, db, tableId);
+    this(TableUtil.get().getDefaultViewType(Tables.getInstance(), appName, db, tableId),
+        TableUtil.get().getListViewFilename(Tables.getInstance(), appName, db, tableId),
+        TableUtil.get().getMapListViewFilename(Tables.getInstance(), appName, db, tableId),
+        TableUtil.get().getDetailViewFilename(Tables.getInstance(), appName, db, tableId),
+        orderedDefns);
+  }
+
+  /**
+   * Construct from properties already read from the database.
+   *
+   * @param snapshot
+   */
+  public PossibleTableViewTypes(TableMetadataSnapshot snapshot) {
+    this(snapshot.getDefaultViewType(), snapshot.getListViewFilename(),
+        snapshot.getMapListViewFilename(), snapshot.getDetailViewFilename(),
+        snapshot.getColumnDefinitions());
+  }
+
+  private PossibleTableViewTypes(TableViewType defaultViewType, String listFileName,
+      String mapListFileName, String detailFileName, OrderedColumns orderedDefns) {
     if ( defaultViewType != null ) {
       switch (defaultViewType) {
       case SPREADSHEET:
@@ -68,14 +86,12 @@ public class PossibleTableViewTypes {
     }
 
     mSpreadsheetIsValid = true; // always
-    mListFileName = TableUtil.get().getListViewFilename(Tables.getInstance(), appName, db, tableId);
+    mListFileName = listFileName;
     mListIsValid = (null != mListFileName);
-    mMapListFileName = TableUtil.get().getMapListViewFilename(Tables.getInstance(), appName, db,
-        tableId);
+    mMapListFileName = mapListFileName;
     mMapIsValid = (null != mMapListFileName) && orderedDefns.mapViewIsPossible();
 
-    mDetailFileName = TableUtil.get().getDetailViewFilename(Tables.getInstance(), appName, db,
-        tableId);
+    mDetailFileName = detailFileName;
   }
   
   /**
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.database.service.OdkDbRow;
+
+/**
+ * Holds the metadata computed for recent query results of the web pages, the
+ * color rule outcomes in particular, for the whole process. Pages issue the
+ * same query again and again, e.g., on every reload or when the selected map
+ * item changes, and those results are normally unchanged.
+ * <p>
+ * An entry is keyed by the table and the shape of the request, and is used
+ * only if the rows of the new result are the rows it was computed for, in the
+ * same order and at the same versions, and the table's properties are the
+ * {@link TableMetadataSnapshot} it was computed from. The snapshot is read
+ * again whenever the key value store changes, so a change to the color rules
+ * misses; a change to the data changes the rows. Code that drops a table
+ * should still call {@link #invalidate(String, String)}.
+ */
+public class QueryMetadataCache {
+
+  /** upper bound on the number of results remembered */
+  private static final int MAX_ENTRIES = 8;
+
+  public static final String HITS = "hits";
+  public static final String MISSES = "misses";
+  public static final String HIT_RATE = "hitRate";
+
+  private static QueryMetadataCache singleton = null;
+
+  public static synchronized QueryMetadataCache get() {
+    if (singleton == null) {
+      singleton = new QueryMetadataCache();
+    }
+    return singleton;
+  }
+
+  private static final class Entry {
+    final String appName;
+    final String tableId;
+    final TableMetadataSnapshot snapshot;
+    final String rowsFingerprint;
+    final Map<String, Object> metadata;
+
+    Entry(String appName, String tableId, TableMetadataSnapshot snapshot,
+        String rowsFingerprint, Map<String, Object> metadata) {
+      this.appName = appName;
+      this.tableId = tableId;
+      this.snapshot = snapshot;
+      this.rowsFingerprint = rowsFingerprint;
+      this.metadata = metadata;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> mEntries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+  private long mHits = 0;
+  private long mMisses = 0;
+
+  private QueryMetadataCache() {
+  }
+
+  /**
+   * @param userTable
+   *          the result of the query
+   * @param variant
+   *          whatever else the metadata depends on, e.g., its encoding
+   * @param elementKeys
+   *          the columns of the result
+   * @return the key of the metadata of userTable
+   */
+  public static String keyOf(UserTable userTable, String variant, Collection<String> elementKeys) {
+    StringBuilder b = new StringBuilder();
+    b.append(userTable.getAppName()).append('\u0000').append(userTable.getTableId())
+        .append('\u0000').append(variant).append('\u0000');
+    // the order of the map the keys come from is not meaningful
+    for (String elementKey : new TreeSet<String>(elementKeys)) {
+      b.append(elementKey).append('\u0001');
+    }
+    return b.toString();
+  }
+
+  /**
+   * @param userTable
+   * @return a digest of the ids and versions of the rows of userTable, in
+   *         order
+   */
+  public static String fingerprintOf(UserTable userTable) {
+    // 64-bit FNV-1a
+    long hash = 0xcbf29ce484222325L;
+    int numberOfRows = userTable.getNumberOfRows();
+    for (int i = 0; i < numberOfRows; ++i) {
+      OdkDbRow row = userTable.getRowAtIndex(i);
+      hash = hash(hash, userTable.getRowId(i));
+      hash = hash(hash, row.getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP));
+      hash = hash(hash, row.getDataByKey(DataTableColumns.ROW_ETAG));
+      hash = hash(hash, row.getDataByKey(DataTableColumns.SYNC_STATE));
+      hash = hash(hash, row.getDataByKey(DataTableColumns.CONFLICT_TYPE));
+    }
+    return numberOfRows + ":" + Long.toHexString(hash);
+  }
+
+  private static long hash(long hash, String value) {
+    if (value != null) {
+      for (int i = 0; i < value.length(); ++i) {
+        hash ^= value.charAt(i);
+        hash *= 0x100000001b3L;
+      }
+    }
+    // separates the values, and null from the empty string
+    hash ^= (value == null) ? 0x10000 : 0x10001;
+    hash *= 0x100000001b3L;
+    return hash;
+  }
+
+  /**
+   * @param key
+   * @param snapshot
+   *          the properties of the table, as read for this query
+   * @param rowsFingerprint
+   *          the {@link #fingerprintOf(UserTable)} of the result of this query
+   * @return the metadata computed for the same rows, or null if there is none.
+   *         Shared, so must not be modified.
+   */
+  public synchronized Map<String, Object> getMetadata(String key, TableMetadataSnapshot snapshot,
+      String rowsFingerprint) {
+    Entry entry = mEntries.get(key);
+    if (entry != null && entry.snapshot == snapshot
+        && entry.rowsFingerprint.equals(rowsFingerprint)) {
+      ++mHits;
+      return entry.metadata;
+    }
+    ++mMisses;
+    return null;
+  }
+
+  /**
+   * Remember the metadata computed for a result.
+   *
+   * @param key
+   * @param userTable
+   * @param snapshot
+   * @param rowsFingerprint
+   * @param metadata
+   *          must not be modified afterward
+   */
+  public synchronized void putMetadata(String key, UserTable userTable,
+      TableMetadataSnapshot snapshot, String rowsFingerprint, Map<String, Object> metadata) {
+    mEntries.put(key, new Entry(userTable.getAppName(), userTable.getTableId(), snapshot,
+        rowsFingerprint, metadata));
+  }
+
+  /**
+   * @return the number of hits and misses so far, and the fraction of lookups
+   *         that hit
+   */
+  public synchronized Map<String, Object> getStatistics() {
+    Map<String, Object> statistics = new HashMap<String, Object>();
+    long lookups = mHits + mMisses;
+    statistics.put(HITS, mHits);
+    statistics.put(MISSES, mMisses);
+    statistics.put(HIT_RATE, (lookups == 0) ? 0.0 : ((double) mHits) / lookups);
+    return statistics;
+  }
+
+  /**
+   * Forget everything remembered for a table, e.g., when it is deleted.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public synchronized void invalidate(String appName, String tableId) {
+    Iterator<Entry> it = mEntries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.appName.equals(appName) && entry.tableId.equals(tableId)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Forget everything, e.g., when memory is short.
+   */
+  public synchronized void clear() {
+    mEntries.clear();
+  }
+}
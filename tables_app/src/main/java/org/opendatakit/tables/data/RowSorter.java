@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+
+/**
+ * Sorts and filters the rows of a {@link UserTable} in memory, without going
+ * back to the database. The rows themselves are never moved; the result is a
+ * permutation, an array holding the index in the table of each row in display
+ * order.
+ * <p>
+ * Integer, number, date, dateTime and time columns are compared through their
+ * {@link ColumnVectors}, so each value is parsed once per table however often
+ * the table is sorted. Every other column compares the raw strings. As in
+ * SQLite, nulls come before every other value in ascending order. The sort is
+ * stable, so rows with equal values keep the order the database gave them.
+ * Large tables are sorted in parallel runs that are then merged.
+ */
+public final class RowSorter {
+
+  private static final String TAG = RowSorter.class.getSimpleName();
+
+  /** below this many rows, a sort is not worth handing to other threads */
+  private static final int PARALLEL_THRESHOLD = 20000;
+  /** runs this short are insertion sorted */
+  private static final int INSERTION_THRESHOLD = 16;
+
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static ThreadPoolExecutor executor = null;
+
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    if (executor == null) {
+      executor = new ThreadPoolExecutor(THREADS, THREADS, 30L, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, TAG);
+              t.setDaemon(true);
+              return t;
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+
+  private RowSorter() {
+  }
+
+  /**
+   * @param numberOfRows
+   * @return the rows of a table in the order the database gave them
+   */
+  public static int[] identity(int numberOfRows) {
+    int[] rows = new int[numberOfRows];
+    for (int i = 0; i < numberOfRows; ++i) {
+      rows[i] = i;
+    }
+    return rows;
+  }
+
+  /**
+   * Keep only the rows whose value in a column is the given value.
+   *
+   * @param table
+   * @param rows
+   *          the indexes in table of the rows to filter, in display order
+   * @param elementKey
+   * @param value
+   *          the raw value to keep, or null to keep the rows where the column
+   *          is null
+   * @return the indexes of the rows kept, in the same order
+   */
+  public static int[] filterEquals(UserTable table, int[] rows, String elementKey, String value) {
+    int[] kept = new int[rows.length];
+    int count = 0;
+    for (int r : rows) {
+      String v = table.getRowAtIndex(r).getDataByKey(elementKey);
+      if ((value == null) ? (v == null) : value.equals(v)) {
+        kept[count++] = r;
+      }
+    }
+    int[] result = new int[count];
+    System.arraycopy(kept, 0, result, 0, count);
+    return result;
+  }
+
+  /**
+   * Sort rows of table, in place, by the values of a column.
+   *
+   * @param table
+   * @param orderedDefns
+   *          the user-defined columns of the table; any other column compares
+   *          as strings
+   * @param rows
+   *          the indexes in table of the rows to sort
+   * @param elementKey
+   * @param ascending
+   */
+  public static void sort(UserTable table, OrderedColumns orderedDefns, int[] rows,
+      String elementKey, boolean ascending) {
+    Keys keys = keysOf(table, orderedDefns, elementKey);
+    if (!ascending) {
+      keys = new Descending(keys);
+    }
+    int[] scratch = new int[rows.length];
+    if (rows.length < PARALLEL_THRESHOLD || THREADS < 2) {
+      mergeSort(rows, scratch, 0, rows.length, keys);
+    } else {
+      parallelSort(rows, scratch, keys);
+    }
+  }
+
+  /**
+   * Compares two rows of the table by their index.
+   */
+  private static abstract class Keys {
+    abstract int compare(int a, int b);
+  }
+
+  private static final class Descending extends Keys {
+    private final Keys keys;
+
+    Descending(Keys keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    int compare(int a, int b) {
+      return keys.compare(b, a);
+    }
+  }
+
+  private static final class DoubleKeys extends Keys {
+    private final ColumnVectors.DoubleColumn column;
+
+    DoubleKeys(ColumnVectors.DoubleColumn column) {
+      this.column = column;
+    }
+
+    @Override
+    int compare(int a, int b) {
+      boolean aNull = column.isNull(a);
+      boolean bNull = column.isNull(b);
+      if (aNull || bNull) {
+        return (aNull == bNull) ? 0 : (aNull ? -1 : 1);
+      }
+      return Double.compare(column.get(a), column.get(b));
+    }
+  }
+
+  private static final class LongKeys extends Keys {
+    private final ColumnVectors.LongColumn column;
+
+    LongKeys(ColumnVectors.LongColumn column) {
+      this.column = column;
+    }
+
+    @Override
+    int compare(int a, int b) {
+      boolean aNull = column.isNull(a);
+      boolean bNull = column.isNull(b);
+      if (aNull || bNull) {
+        return (aNull == bNull) ? 0 : (aNull ? -1 : 1);
+      }
+      long x = column.get(a);
+      long y = column.get(b);
+      return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+  }
+
+  private static final class StringKeys extends Keys {
+    private final String[] values;
+
+    StringKeys(UserTable table, String elementKey) {
+      values = new String[table.getNumberOfRows()];
+      for (int i = 0; i < values.length; ++i) {
+        values[i] = table.getRowAtIndex(i).getDataByKey(elementKey);
+      }
+    }
+
+    @Override
+    int compare(int a, int b) {
+      String x = values[a];
+      String y = values[b];
+      if (x == null || y == null) {
+        return (x == y) ? 0 : ((x == null) ? -1 : 1);
+      }
+      return x.compareTo(y);
+    }
+  }
+
+  private static Keys keysOf(UserTable table, OrderedColumns orderedDefns, String elementKey) {
+    ColumnDefinition cd = null;
+    if (orderedDefns != null) {
+      try {
+        cd = orderedDefns.find(elementKey);
+      } catch (IllegalArgumentException e) {
+        // not a user-defined column, e.g., an admin column
+      }
+    }
+    if (cd == null) {
+      return new StringKeys(table, elementKey);
+    }
+    ColumnVectors vectors = ColumnVectors.forTable(table);
+    ElementDataType dataType = cd.getType().getDataType();
+    if (dataType == ElementDataType.integer) {
+      return new LongKeys(vectors.getIntegers(table, elementKey));
+    }
+    if (dataType == ElementDataType.number) {
+      return new DoubleKeys(vectors.getNumbers(table, elementKey));
+    }
+    String elementType = cd.getType().getElementType();
+    if ("date".equals(elementType) || "dateTime".equals(elementType)
+        || "time".equals(elementType)) {
+      return new LongKeys(vectors.getTimestamps(table, elementKey));
+    }
+    return new StringKeys(table, elementKey);
+  }
+
+  /**
+   * Sort one run per thread, then merge the runs pairwise.
+   */
+  private static void parallelSort(final int[] rows, final int[] scratch, final Keys keys) {
+    final int runLength = (rows.length + THREADS - 1) / THREADS;
+    List<Future<?>> runs = new ArrayList<Future<?>>();
+    for (int lo = 0; lo < rows.length; lo += runLength) {
+      final int from = lo;
+      final int to = Math.min(lo + runLength, rows.length);
+      runs.add(getExecutor().submit(new Runnable() {
+        @Override
+        public void run() {
+          mergeSort(rows, scratch, from, to, keys);
+        }
+      }));
+    }
+    boolean interrupted = false;
+    for (Future<?> run : runs) {
+      while (true) {
+        try {
+          run.get();
+          break;
+        } catch (InterruptedException e) {
+          // the runs write into rows; they must finish before it is touched
+          interrupted = true;
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("sort failed", e.getCause());
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    for (int width = runLength; width < rows.length; width *= 2) {
+      for (int lo = 0; lo + width < rows.length; lo += 2 * width) {
+        merge(rows, scratch, lo, lo + width, Math.min(lo + 2 * width, rows.length), keys);
+      }
+    }
+  }
+
+  /**
+   * Stable sort of rows[lo, hi).
+   */
+  private static void mergeSort(int[] rows, int[] scratch, int lo, int hi, Keys keys) {
+    if (hi - lo <= INSERTION_THRESHOLD) {
+      for (int i = lo + 1; i < hi; ++i) {
+        int row = rows[i];
+        int j = i - 1;
+        while (j >= lo && keys.compare(rows[j], row) > 0) {
+          rows[j + 1] = rows[j];
+          --j;
+        }
+        rows[j + 1] = row;
+      }
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    mergeSort(rows, scratch, lo, mid, keys);
+    mergeSort(rows, scratch, mid, hi, keys);
+    merge(rows, scratch, lo, mid, hi, keys);
+  }
+
+  /**
+   * Merge the sorted runs rows[lo, mid) and rows[mid, hi).
+   */
+  private static void merge(int[] rows, int[] scratch, int lo, int mid, int hi, Keys keys) {
+    if (keys.compare(rows[mid - 1], rows[mid]) <= 0) {
+      // already in order
+      return;
+    }
+    System.arraycopy(rows, lo, scratch, lo, hi - lo);
+    int i = lo;
+    int j = mid;
+    for (int k = lo; k < hi; ++k) {
+      if (j >= hi || (i < mid && keys.compare(scratch[i], scratch[j]) <= 0)) {
+        rows[k] = scratch[i++];
+      } else {
+        rows[k] = scratch[j++];
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the changes this process knows were made to the rows of each table.
+ * The database keeps no such counter, so the counts are bumped by hand: by
+ * every path in this app that writes rows, for the one table it writes, and,
+ * for every table of an app, whenever another activity returns a result or
+ * the database service reconnects, as the other apps of the suite (Survey,
+ * sync, and the checkpoint and conflict resolvers) may have written anything.
+ * <p>
+ * A cache compares the count against the one it saw when it read a table to
+ * catch the changes that the data itself does not show, e.g., rows pulled by
+ * sync with an older savepoint timestamp than the newest local one.
+ */
+public class TableChangeCounter {
+
+  private static TableChangeCounter singleton = null;
+
+  public static synchronized TableChangeCounter get() {
+    if (singleton == null) {
+      singleton = new TableChangeCounter();
+    }
+    return singleton;
+  }
+
+  private final Map<String, Long> mAppChanges = new HashMap<String, Long>();
+  private final Map<String, Long> mTableChanges = new HashMap<String, Long>();
+
+  private TableChangeCounter() {
+  }
+
+  /**
+   * Note that this app wrote to the rows of a table.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public synchronized void noteTableChanged(String appName, String tableId) {
+    increment(mTableChanges, appName + '\u0000' + tableId);
+  }
+
+  /**
+   * Note that the rows of any table of an app may have changed.
+   *
+   * @param appName
+   */
+  public synchronized void noteAppChanged(String appName) {
+    increment(mAppChanges, appName);
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @return a count that differs from every earlier one returned for the
+   *         table if the table was noted as changed since
+   */
+  public synchronized long changesOf(String appName, String tableId) {
+    return valueOf(mAppChanges, appName) + valueOf(mTableChanges, appName + '\u0000' + tableId);
+  }
+
+  private static void increment(Map<String, Long> counts, String key) {
+    counts.put(key, valueOf(counts, key) + 1L);
+  }
+
+  private static long valueOf(Map<String, Long> counts, String key) {
+    Long count = counts.get(key);
+    return (count == null) ? 0L : count;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.KeyValueStoreEntry;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+
+/**
+ * Holds one {@link TableMetadataSnapshot} per (appName, tableId) for the whole
+ * process, so that every screen after the first opens a table from memory.
+ * <p>
+ * The database does not keep a change counter for a table's properties, so
+ * the marker of a table is built from the contents of its key value store,
+ * which every property in a snapshot either lives in or, for the columns,
+ * shows up in. Each request reads the key value store once, in a single call,
+ * and rebuilds the snapshot only if the marker differs from the one it was
+ * read at. Callers that drop or replace a table must call
+ * {@link #invalidate(String, String)}.
+ */
+public class TableMetadataCache {
+
+  private static final String TAG = TableMetadataCache.class.getSimpleName();
+
+  /** upper bound on the number of tables remembered */
+  private static final int MAX_TABLES = 16;
+
+  private static TableMetadataCache singleton = null;
+
+  public static synchronized TableMetadataCache get() {
+    if (singleton == null) {
+      singleton = new TableMetadataCache();
+    }
+    return singleton;
+  }
+
+  private final LinkedHashMap<String, TableMetadataSnapshot> mSnapshots =
+      new LinkedHashMap<String, TableMetadataSnapshot>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TableMetadataSnapshot> eldest) {
+          return size() > MAX_TABLES;
+        }
+      };
+
+  private TableMetadataCache() {
+  }
+
+  /**
+   * Get the properties of a table, reading them from the database only if
+   * they changed since they were last read.
+   *
+   * @param appName
+   * @param db
+   * @param tableId
+   * @return
+   * @throws ServicesAvailabilityException
+   */
+  public TableMetadataSnapshot getSnapshot(String appName, OdkDbHandle db, String tableId)
+      throws ServicesAvailabilityException {
+    List<KeyValueStoreEntry> entries = Tables.getInstance().getDatabase()
+        .getDBTableMetadata(appName, db, tableId, null, null, null);
+    String marker = markerOf(entries);
+    String key = appName + "|" + tableId;
+
+    synchronized (this) {
+      TableMetadataSnapshot snapshot = mSnapshots.get(key);
+      if (snapshot != null && snapshot.getMarker().equals(marker)) {
+        return snapshot;
+      }
+    }
+
+    // read outside the lock so other tables are not held up
+    WebLogger.getLogger(appName).d(TAG, "[getSnapshot] reading properties of " + tableId);
+    TableMetadataSnapshot snapshot = new TableMetadataSnapshot(appName, db, tableId, marker,
+        entries);
+    synchronized (this) {
+      mSnapshots.put(key, snapshot);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Forget the properties of a table, e.g., because it was deleted.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public synchronized void invalidate(String appName, String tableId) {
+    mSnapshots.remove(appName + "|" + tableId);
+  }
+
+  /**
+   * The entries are put in a fixed order so that the marker does not depend on
+   * the order the database returns them in.
+   */
+  private static String markerOf(List<KeyValueStoreEntry> entries) {
+    List<String> lines = new ArrayList<String>(entries.size());
+    for (KeyValueStoreEntry entry : entries) {
+      lines.add(entry.partition + "\u0000" + entry.aspect + "\u0000" + entry.key + "\u0000"
+          + entry.value);
+    }
+    Collections.sort(lines);
+    StringBuilder b = new StringBuilder();
+    for (String line : lines) {
+      b.append(line).append('\u0001');
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.JoinColumn;
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.TableViewType;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.ColumnUtil;
+import org.opendatakit.common.android.utilities.LocalizationUtils;
+import org.opendatakit.common.android.utilities.TableUtil;
+import org.opendatakit.database.service.KeyValueStoreEntry;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+
+/**
+ * The properties of a table that the screens of the app need to display it,
+ * read from the database at one point in time. Snapshots are handed out by
+ * {@link TableMetadataCache} and shared by every activity and fragment, so
+ * nothing obtained from one may be modified; this includes the
+ * {@link OrderedColumns} and the {@link ColorRuleGroup}s, which are the
+ * library's own mutable types.
+ * <p>
+ * The column color rule groups are read only when first asked for, as most
+ * screens never use them.
+ */
+public final class TableMetadataSnapshot {
+
+  private final String appName;
+  private final String tableId;
+  private final String marker;
+
+  private final OrderedColumns orderedDefns;
+  private final List<String> columnOrder;
+  private final Map<String, String> localizedDisplayNames;
+  private final Map<String, Integer> columnWidths;
+  private final Map<String, ArrayList<Map<String, Object>>> displayChoicesLists;
+  private final String indexColumnElementKey;
+  private final int spreadsheetViewFontSize;
+
+  private final TableViewType defaultViewType;
+  private final String listViewFilename;
+  private final String mapListViewFilename;
+  private final String detailViewFilename;
+
+  private final String[] adminColumns;
+  private final ColorRuleGroup tableColorRuleGroup;
+  private final ColorRuleGroup statusColumnRuleGroup;
+  /** null until first asked for */
+  private Map<String, ColorRuleGroup> columnColorRuleGroups;
+  /** null until first asked for */
+  private Map<String, ArrayList<JoinColumn>> columnJoins;
+
+  /**
+   * Read the properties of a table.
+   *
+   * @param appName
+   * @param db
+   * @param tableId
+   * @param marker
+   *          the change marker of the table at the time of the read
+   * @param entries
+   *          every key value store entry of the table, read along with the
+   *          marker
+   * @throws ServicesAvailabilityException
+   */
+  TableMetadataSnapshot(String appName, OdkDbHandle db, String tableId, String marker,
+      List<KeyValueStoreEntry> entries) throws ServicesAvailabilityException {
+    this.appName = appName;
+    this.tableId = tableId;
+    this.marker = marker;
+
+    Tables ctxt = Tables.getInstance();
+    orderedDefns = ctxt.getDatabase().getUserDefinedColumns(appName, db, tableId);
+    adminColumns = ctxt.getDatabase().getAdminColumns();
+
+    ArrayList<String> colOrder = TableUtil.get().getColumnOrder(ctxt, appName, db, tableId,
+        orderedDefns);
+    columnOrder = Collections.unmodifiableList(colOrder);
+    indexColumnElementKey = TableUtil.get().getIndexColumn(ctxt, appName, db, tableId);
+    spreadsheetViewFontSize = TableUtil.get().getSpreadsheetViewFontSize(ctxt, appName, db,
+        tableId);
+    defaultViewType = TableUtil.get().getDefaultViewType(ctxt, appName, db, tableId);
+    listViewFilename = TableUtil.get().getListViewFilename(ctxt, appName, db, tableId);
+    mapListViewFilename = TableUtil.get().getMapListViewFilename(ctxt, appName, db, tableId);
+    detailViewFilename = TableUtil.get().getDetailViewFilename(ctxt, appName, db, tableId);
+    columnWidths = Collections.unmodifiableMap(new HashMap<String, Integer>(
+        ColumnUtil.get().getColumnWidths(ctxt, appName, db, tableId, orderedDefns)));
+
+    // the column properties are already in hand; only columns that have
+    // choices need another read.
+    Map<String, String> rawDisplayNames = new HashMap<String, String>();
+    Set<String> elementKeysWithChoices = new HashSet<String>();
+    for (KeyValueStoreEntry entry : entries) {
+      if (!KeyValueStoreConstants.PARTITION_COLUMN.equals(entry.partition)) {
+        continue;
+      }
+      if (KeyValueStoreConstants.COLUMN_DISPLAY_NAME.equals(entry.key)) {
+        rawDisplayNames.put(entry.aspect, entry.value);
+      } else if (KeyValueStoreConstants.COLUMN_DISPLAY_CHOICES_LIST.equals(entry.key)
+          && entry.value != null && entry.value.trim().length() != 0) {
+        elementKeysWithChoices.add(entry.aspect);
+      }
+    }
+
+    Map<String, String> names = new HashMap<String, String>();
+    Map<String, ArrayList<Map<String, Object>>> choices =
+        new HashMap<String, ArrayList<Map<String, Object>>>();
+    for (ColumnDefinition cd : orderedDefns.getColumnDefinitions()) {
+      String elementKey = cd.getElementKey();
+      String rawDisplayName = rawDisplayNames.get(elementKey);
+      if (rawDisplayName != null) {
+        names.put(elementKey, LocalizationUtils.getLocalizedDisplayName(rawDisplayName));
+      } else {
+        // let ColumnUtil construct the default name
+        names.put(elementKey, ColumnUtil.get().getLocalizedDisplayName(ctxt, appName, db,
+            tableId, elementKey));
+      }
+      if (elementKeysWithChoices.contains(elementKey)) {
+        choices.put(elementKey, ColumnUtil.get().getDisplayChoicesList(ctxt, appName, db,
+            tableId, elementKey));
+      } else {
+        choices.put(elementKey, new ArrayList<Map<String, Object>>());
+      }
+    }
+    localizedDisplayNames = Collections.unmodifiableMap(names);
+    displayChoicesLists = Collections.unmodifiableMap(choices);
+
+    tableColorRuleGroup = ColorRuleGroup.getTableColorRuleGroup(ctxt, appName, db, tableId,
+        adminColumns);
+    statusColumnRuleGroup = ColorRuleGroup.getStatusColumnRuleGroup(ctxt, appName, db, tableId,
+        adminColumns);
+  }
+
+  public String getAppName() {
+    return appName;
+  }
+
+  public String getTableId() {
+    return tableId;
+  }
+
+  /**
+   * @return the change marker of the table this snapshot was read at
+   */
+  String getMarker() {
+    return marker;
+  }
+
+  public OrderedColumns getColumnDefinitions() {
+    return orderedDefns;
+  }
+
+  /**
+   * @return the element keys of the columns in display order
+   */
+  public List<String> getColumnOrder() {
+    return columnOrder;
+  }
+
+  public String getLocalizedDisplayName(String elementKey) {
+    return localizedDisplayNames.get(elementKey);
+  }
+
+  public Map<String, Integer> getColumnWidths() {
+    return columnWidths;
+  }
+
+  /**
+   * @param elementKey
+   * @return the choices of the column; empty, not null, if it has none. Must
+   *         not be modified.
+   */
+  public ArrayList<Map<String, Object>> getDisplayChoicesList(String elementKey) {
+    return displayChoicesLists.get(elementKey);
+  }
+
+  /**
+   * @return the element key of the index column, or null if there is none
+   */
+  public String getIndexColumn() {
+    return indexColumnElementKey;
+  }
+
+  public int getSpreadsheetViewFontSize() {
+    return spreadsheetViewFontSize;
+  }
+
+  /**
+   * @return the default view type, or null if none has been set
+   */
+  public TableViewType getDefaultViewType() {
+    return defaultViewType;
+  }
+
+  public String getListViewFilename() {
+    return listViewFilename;
+  }
+
+  public String getMapListViewFilename() {
+    return mapListViewFilename;
+  }
+
+  public String getDetailViewFilename() {
+    return detailViewFilename;
+  }
+
+  public ColorRuleGroup getTableColorRuleGroup() {
+    return tableColorRuleGroup;
+  }
+
+  public ColorRuleGroup getStatusColumnRuleGroup() {
+    return statusColumnRuleGroup;
+  }
+
+  /**
+   * @param db
+   *          used to read the column color rule groups, if this is the first
+   *          time they are asked for
+   * @param elementKey
+   * @return the column color rule group, or null if elementKey is not a
+   *         user-defined column
+   * @throws ServicesAvailabilityException
+   */
+  public ColorRuleGroup getColumnColorRuleGroup(OdkDbHandle db, String elementKey)
+      throws ServicesAvailabilityException {
+    return getColumnColorRuleGroups(db).get(elementKey);
+  }
+
+  /**
+   * @param db
+   *          used to read the column color rule groups, if this is the first
+   *          time they are asked for
+   * @return the column color rule groups by element key
+   * @throws ServicesAvailabilityException
+   */
+  public synchronized Map<String, ColorRuleGroup> getColumnColorRuleGroups(OdkDbHandle db)
+      throws ServicesAvailabilityException {
+    if (columnColorRuleGroups == null) {
+      Tables ctxt = Tables.getInstance();
+      Map<String, ColorRuleGroup> columnGroups = new HashMap<String, ColorRuleGroup>();
+      for (ColumnDefinition cd : orderedDefns.getColumnDefinitions()) {
+        String elementKey = cd.getElementKey();
+        columnGroups.put(elementKey, ColorRuleGroup.getColumnColorRuleGroup(ctxt, appName, db,
+            tableId, elementKey, adminColumns));
+      }
+      columnColorRuleGroups = Collections.unmodifiableMap(columnGroups);
+    }
+    return columnColorRuleGroups;
+  }
+
+  /**
+   * @param db
+   *          used to read the join associations, if this is the first time
+   *          they are asked for
+   * @return the join associations of the columns by element key; a column
+   *         with none may map to null or to an empty list
+   * @throws ServicesAvailabilityException
+   */
+  public synchronized Map<String, ArrayList<JoinColumn>> getColumnJoins(OdkDbHandle db)
+      throws ServicesAvailabilityException {
+    if (columnJoins == null) {
+      Tables ctxt = Tables.getInstance();
+      Map<String, ArrayList<JoinColumn>> joins = new HashMap<String, ArrayList<JoinColumn>>();
+      for (ColumnDefinition cd : orderedDefns.getColumnDefinitions()) {
+        String elementKey = cd.getElementKey();
+        joins.put(elementKey, ColumnUtil.get().getJoins(ctxt, appName, db, tableId, elementKey));
+      }
+      columnJoins = Collections.unmodifiableMap(joins);
+    }
+    return columnJoins;
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.SQLQueryStruct;
+
+import android.content.ComponentCallbacks2;
+import android.os.SystemClock;
+
+/**
+ * Holds the results of recent queries against user tables for the whole
+ * process, so that coming back to a table that was just viewed, e.g., from a
+ * detail view or from a shortcut, does not run the same query again.
+ * <p>
+ * Results are keyed by the table and every field of the {@link SQLQueryStruct}.
+ * The database does not keep a change counter for a table's rows. A cached
+ * result is used without touching the database if the column definitions are
+ * the ones it was built with and the {@link TableChangeCounter} of the table
+ * has not moved, which covers the writes of this app and the returns from the
+ * other apps of the suite, such as sync and the conflict resolver.
+ * <p>
+ * The counter cannot see a write made by another process while this one keeps
+ * running, e.g., by a sync in the background. So once a result has gone
+ * {@link #VERIFY_INTERVAL_MS} without being checked, it is used only if also:
+ * <ul>
+ * <li>the most recently saved row of the table is the same, which catches
+ * rows added or edited by anything else;</li>
+ * <li>the query still has as many rows, checked with two single-row probes,
+ * which catches rows deleted by anything else.</li>
+ * </ul>
+ * Code that otherwise knows the data changed may call
+ * {@link #invalidate(String, String)} to free the memory right away.
+ * <p>
+ * The total size of the results is kept under a budget estimated from their
+ * row and column counts, least recently used first, and the cache gives up
+ * memory when the system asks through {@link #trimMemory(int)}.
+ */
+public class UserTableCache {
+
+  private static final String TAG = UserTableCache.class.getSimpleName();
+
+  /** rough cost of holding one cell of a result */
+  private static final int ESTIMATED_BYTES_PER_CELL = 64;
+  /** the metadata columns every row carries besides the user's columns */
+  private static final int ESTIMATED_ADMIN_COLUMNS = 12;
+  /** the budget is this fraction of the heap */
+  private static final int HEAP_DIVISOR = 16;
+  /**
+   * how long a result is trusted on the counter alone before it is checked
+   * against the data again
+   */
+  static final long VERIFY_INTERVAL_MS = 30000L;
+
+  private static UserTableCache singleton = null;
+
+  public static synchronized UserTableCache get() {
+    if (singleton == null) {
+      singleton = new UserTableCache();
+    }
+    return singleton;
+  }
+
+  private static final class CachedResult {
+    final String appName;
+    final String tableId;
+    final OrderedColumns orderedDefns;
+    final long changes;
+    final String dataMarker;
+    final UserTable table;
+    final long bytes;
+    /** when the result was last found to match the data */
+    volatile long verifiedAt;
+
+    CachedResult(String appName, String tableId, OrderedColumns orderedDefns, long changes,
+        String dataMarker, UserTable table, long bytes, long verifiedAt) {
+      this.appName = appName;
+      this.tableId = tableId;
+      this.orderedDefns = orderedDefns;
+      this.changes = changes;
+      this.dataMarker = dataMarker;
+      this.table = table;
+      this.bytes = bytes;
+      this.verifiedAt = verifiedAt;
+    }
+  }
+
+  /** access-ordered, so that iteration order is least recently used first */
+  private final LinkedHashMap<String, CachedResult> mResults =
+      new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+  private final long mMaxBytes;
+  private long mBytes = 0;
+
+  private UserTableCache() {
+    mMaxBytes = Runtime.getRuntime().maxMemory() / HEAP_DIVISOR;
+  }
+
+  /**
+   * Get the result of a query, running it only if the same query has not
+   * been run since the table last changed.
+   *
+   * @param appName
+   * @param db
+   * @param tableId
+   * @param orderedDefns
+   * @param query
+   * @return
+   * @throws ServicesAvailabilityException
+   */
+  public UserTable getUserTable(String appName, OdkDbHandle db, String tableId,
+      OrderedColumns orderedDefns, SQLQueryStruct query) throws ServicesAvailabilityException {
+    String key = keyOf(appName, tableId, query);
+    // read before the data, so that a change made meanwhile is not missed
+    long changes = TableChangeCounter.get().changesOf(appName, tableId);
+    long now = SystemClock.elapsedRealtime();
+    String dataMarker = null;
+
+    CachedResult cached;
+    synchronized (this) {
+      cached = mResults.get(key);
+    }
+    if (cached != null) {
+      // the definitions are shared through the TableMetadataCache, so a
+      // different instance means the columns were read again
+      if (cached.orderedDefns == orderedDefns && cached.changes == changes) {
+        if (now - cached.verifiedAt < VERIFY_INTERVAL_MS) {
+          return cached.table;
+        }
+        dataMarker = dataMarkerOf(appName, db, tableId, orderedDefns);
+        if (cached.dataMarker.equals(dataMarker) && hasNumberOfRows(appName, db, tableId,
+            orderedDefns, query, cached.table.getNumberOfRows())) {
+          cached.verifiedAt = now;
+          return cached.table;
+        }
+      }
+      synchronized (this) {
+        if (mResults.get(key) == cached) {
+          remove(key);
+        }
+      }
+    }
+
+    if (dataMarker == null) {
+      dataMarker = dataMarkerOf(appName, db, tableId, orderedDefns);
+    }
+
+    String[] emptyArray = {};
+    UserTable table = Tables.getInstance().getDatabase().rawSqlQuery(appName, db, tableId,
+        orderedDefns, query.whereClause,
+        (query.selectionArgs == null) ? emptyArray : query.selectionArgs,
+        (query.groupBy == null) ? emptyArray : query.groupBy,
+        query.having,
+        (query.orderByElementKey == null) ? emptyArray : new String[] { query.orderByElementKey },
+        (query.orderByDirection == null) ? emptyArray : new String[] { query.orderByDirection },
+        null, null);
+
+    long bytes = estimateBytes(table.getNumberOfRows(), orderedDefns);
+    if (bytes > mMaxBytes / 2) {
+      // would push out everything else
+      WebLogger.getLogger(appName).d(TAG, "[getUserTable] not caching " + tableId + ": "
+          + table.getNumberOfRows() + " rows");
+      return table;
+    }
+    synchronized (this) {
+      remove(key);
+      mResults.put(key, new CachedResult(appName, tableId, orderedDefns, changes, dataMarker,
+          table, bytes, now));
+      mBytes += bytes;
+      trimTo(mMaxBytes);
+    }
+    return table;
+  }
+
+  /**
+   * Whether a result of the given size is small enough to be cached, and so
+   * small enough to be held in memory as a whole rather than paged.
+   *
+   * @param numberOfRows
+   * @param orderedDefns
+   * @return
+   */
+  public boolean fitsInMemory(int numberOfRows, OrderedColumns orderedDefns) {
+    return estimateBytes(numberOfRows, orderedDefns) <= mMaxBytes / 2;
+  }
+
+  /**
+   * Whether a query has exactly the given number of rows, found with at most
+   * two single-row probes rather than by reading or counting the rows. The
+   * probes are not ordered, as the count does not depend on the order.
+   *
+   * @param appName
+   * @param db
+   * @param tableId
+   * @param orderedDefns
+   * @param query
+   * @param numberOfRows
+   *          the number of rows the query had when last read
+   * @return true if the query has that many rows
+   * @throws ServicesAvailabilityException
+   */
+  public static boolean hasNumberOfRows(String appName, OdkDbHandle db, String tableId,
+      OrderedColumns orderedDefns, SQLQueryStruct query, int numberOfRows)
+      throws ServicesAvailabilityException {
+    if (numberOfRows > 0 && !rowExists(appName, db, tableId, orderedDefns, query,
+        numberOfRows - 1)) {
+      return false;
+    }
+    return !rowExists(appName, db, tableId, orderedDefns, query, numberOfRows);
+  }
+
+  /**
+   * Forget every result of a table, e.g., because the table was dropped.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public synchronized void invalidate(String appName, String tableId) {
+    Iterator<CachedResult> it = mResults.values().iterator();
+    while (it.hasNext()) {
+      CachedResult cached = it.next();
+      if (cached.appName.equals(appName) && cached.tableId.equals(tableId)) {
+        mBytes -= cached.bytes;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Give up memory at the request of the system.
+   *
+   * @param level
+   *          as passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+   */
+  public synchronized void trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      trimTo(0);
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      trimTo(mMaxBytes / 2);
+    }
+  }
+
+  private void trimTo(long maxBytes) {
+    Iterator<CachedResult> it = mResults.values().iterator();
+    while (mBytes > maxBytes && it.hasNext()) {
+      mBytes -= it.next().bytes;
+      it.remove();
+    }
+  }
+
+  private void remove(String key) {
+    CachedResult cached = mResults.remove(key);
+    if (cached != null) {
+      mBytes -= cached.bytes;
+    }
+  }
+
+  private static long estimateBytes(int numberOfRows, OrderedColumns orderedDefns) {
+    return (long) numberOfRows
+        * (orderedDefns.getRetentionColumnNames().size() + ESTIMATED_ADMIN_COLUMNS)
+        * ESTIMATED_BYTES_PER_CELL;
+  }
+
+  /**
+   * @return the id and savepoint timestamp of the most recently saved row of
+   *         the table, or an empty string if it has none
+   */
+  private static String dataMarkerOf(String appName, OdkDbHandle db, String tableId,
+      OrderedColumns orderedDefns) throws ServicesAvailabilityException {
+    String[] emptyArray = {};
+    UserTable newest = Tables.getInstance().getDatabase().rawSqlQuery(appName, db, tableId,
+        orderedDefns, null, emptyArray, emptyArray, null,
+        new String[] { DataTableColumns.SAVEPOINT_TIMESTAMP }, new String[] { "DESC" }, 1, 0);
+    if (newest.getNumberOfRows() == 0) {
+      return "";
+    }
+    return newest.getRowId(0) + "|"
+        + newest.getRowAtIndex(0).getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP);
+  }
+
+  private static boolean rowExists(String appName, OdkDbHandle db, String tableId,
+      OrderedColumns orderedDefns, SQLQueryStruct query, int index)
+      throws ServicesAvailabilityException {
+    String[] emptyArray = {};
+    UserTable probe = Tables.getInstance().getDatabase().rawSqlQuery(appName, db, tableId,
+        orderedDefns, query.whereClause,
+        (query.selectionArgs == null) ? emptyArray : query.selectionArgs,
+        (query.groupBy == null) ? emptyArray : query.groupBy,
+        query.having, emptyArray, emptyArray, 1, index);
+    return probe.getNumberOfRows() != 0;
+  }
+
+  private static String keyOf(String appName, String tableId, SQLQueryStruct query) {
+    StringBuilder b = new StringBuilder();
+    b.append(appName).append('\u0000').append(tableId).append('\u0000')
+        .append(query.whereClause).append('\u0000');
+    appendAll(b, query.selectionArgs);
+    appendAll(b, query.groupBy);
+    b.append(query.having).append('\u0000')
+        .append(query.orderByElementKey).append('\u0000')
+        .append(query.orderByDirection);
+    return b.toString();
+  }
+
+  private static void appendAll(StringBuilder b, String[] values) {
+    if (values != null) {
+      b.append(values.length);
+      for (String value : values) {
+        b.append('\u0001').append(value);
+      }
+    }
+    b.append('\u0000');
+  }
+}
@@ -29,6 +29,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.views.components.ColorRuleAdapter;
 
@@ -63,6 +64,15 @@ public class ColorRuleListFragment extends ListFragment {
   /** The group of color rules being displayed by this list. */
   ColorRuleGroup mColorRuleGroup;
   ColorRuleAdapter mColorRuleAdapter;
+
+  /** Reads the rules in the background; null once they have been read. */
+  private DbExecutor.Job<LoadedRules> mLoadJob;
+
+  /** What {@link #onActivityCreated(Bundle)} reads before the list can be shown. */
+  private static final class LoadedRules {
+    TableUtil.TableColumns tc;
+    ColorRuleGroup colorRuleGroup;
+  }
   
   /**
    * Retrieve a new instance of {@list ColorRuleListFragment} with the
@@ -116,32 +126,58 @@ public class ColorRuleListFragment extends ListFragment {
   public void onActivityCreated(Bundle savedInstanceState) {
     super.onActivityCreated(savedInstanceState);
     this.setHasOptionsMenu(true);
-    TableUtil.TableColumns tc = null;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+    final String appName = getAppName();
+    final String tableId = getTableId();
+    final String elementKey = this.retrieveTableLevelPreferencesActivity().getElementKey();
+    final ColorRuleGroup.Type type = this.retrieveColorRuleType();
+    mLoadJob = DbExecutor.get().submit(appName, DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<LoadedRules>() {
+          @Override
+          public LoadedRules doInBackground(OdkDbHandle db)
+              throws ServicesAvailabilityException {
+            LoadedRules loaded = new LoadedRules();
+            loaded.tc = TableUtil.get().getTableColumns(Tables.getInstance(), appName, db,
+                tableId);
+            loaded.colorRuleGroup = retrieveColorRuleGroup(db, appName, tableId, elementKey,
+                type, loaded.tc.adminColumns);
+            return loaded;
+          }
 
-      tc = TableUtil.get().getTableColumns(Tables.getInstance(), getAppName(), db, getTableId());
-      this.mColorRuleGroup = this.retrieveColorRuleGroup(db, tc.adminColumns);
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(getAppName()).printStackTrace(e);
-      throw new IllegalStateException("Unable to access database");
-    } finally {
-      if ( db != null ) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(getAppName()).printStackTrace(e);
-          WebLogger.getLogger(getAppName()).e(TAG, "Error while initializing color rule list");
-          Toast.makeText(getActivity(), "Error while initializing color rule list", Toast.LENGTH_LONG).show();
-        }
-      }
+          @Override
+          public void onResult(LoadedRules loaded) {
+            mLoadJob = null;
+            if (!isAdded()) {
+              return;
+            }
+            mColorRuleGroup = loaded.colorRuleGroup;
+            mColorRuleAdapter = createColorRuleAdapter(loaded.tc.adminColumns,
+                loaded.tc.localizedDisplayNames);
+            setListAdapter(mColorRuleAdapter);
+            registerForContextMenu(getListView());
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            mLoadJob = null;
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG, "Error while initializing color rule list");
+            if (isAdded()) {
+              Toast.makeText(getActivity(), "Error while initializing color rule list",
+                  Toast.LENGTH_LONG).show();
+            }
+          }
+        });
+  }
+
+  @Override
+  public void onDestroy() {
+    if (mLoadJob != null) {
+      mLoadJob.cancel();
+      mLoadJob = null;
     }
-    this.mColorRuleAdapter = this.createColorRuleAdapter(tc.adminColumns, tc.localizedDisplayNames);
-    this.setListAdapter(this.mColorRuleAdapter);
-    this.registerForContextMenu(this.getListView());
+    super.onDestroy();
   }
-  
+
   ColorRuleAdapter createColorRuleAdapter(String[] adminColumns, Map<String,String> colDisplayNames) {
     ColorRuleGroup.Type type = this.retrieveColorRuleType();
     ColorRuleAdapter result = new ColorRuleAdapter(
@@ -184,6 +220,10 @@ public class ColorRuleListFragment extends ListFragment {
   
   @Override
   public boolean onOptionsItemSelected(MenuItem item) {
+    if (this.mColorRuleGroup == null) {
+      // still loading
+      return super.onOptionsItemSelected(item);
+    }
     ColorRuleGroup.Type colorRuleGroupType = this.retrieveColorRuleType();
     TableLevelPreferencesActivity activity =
         this.retrieveTableLevelPreferencesActivity();
@@ -234,6 +274,10 @@ public class ColorRuleListFragment extends ListFragment {
   
   @Override
   public boolean onContextItemSelected(MenuItem item) {
+    if (this.mColorRuleGroup == null) {
+      // still loading
+      return super.onContextItemSelected(item);
+    }
     TableLevelPreferencesActivity activity =
         this.retrieveTableLevelPreferencesActivity();
     final String appName = activity.getAppName();
@@ -350,23 +394,22 @@ public class ColorRuleListFragment extends ListFragment {
     return result.getTableId();
   }
   
-  ColorRuleGroup retrieveColorRuleGroup(OdkDbHandle db, String[] adminColumns) throws ServicesAvailabilityException {
-    ColorRuleGroup.Type type = this.retrieveColorRuleType();
+  static ColorRuleGroup retrieveColorRuleGroup(OdkDbHandle db, String appName, String tableId,
+      String elementKey, ColorRuleGroup.Type type, String[] adminColumns)
+      throws ServicesAvailabilityException {
     ColorRuleGroup result = null;
     switch (type) {
     case COLUMN:
-      String elementKey =
-          this.retrieveTableLevelPreferencesActivity().getElementKey();
       result = ColorRuleGroup.getColumnColorRuleGroup(
-          Tables.getInstance(), getAppName(), db, getTableId(), elementKey, adminColumns);
+          Tables.getInstance(), appName, db, tableId, elementKey, adminColumns);
       break;
     case STATUS_COLUMN:
       result = ColorRuleGroup.getStatusColumnRuleGroup(
-          Tables.getInstance(), getAppName(), db, getTableId(), adminColumns);
+          Tables.getInstance(), appName, db, tableId, adminColumns);
       break;
     case TABLE:
       result = ColorRuleGroup.getTableColorRuleGroup(
-          Tables.getInstance(), getAppName(), db, getTableId(), adminColumns);
+          Tables.getInstance(), appName, db, tableId, adminColumns);
       break;
     default:
       throw new IllegalArgumentException(
@@ -18,14 +18,14 @@ package org.opendatakit.tables.fragments;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.opendatakit.common.android.data.OrderedColumns;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
-import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
-import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 
 import android.app.Activity;
 import android.app.ListFragment;
@@ -50,6 +50,9 @@ public class ColumnListFragment extends ListFragment {
   /** The display name of every column in the table. */
   private List<String> mDisplayNames;
 
+  /** Reads the columns in the background. */
+  private DbExecutor.Job<Void> mLoadJob;
+
   @Override
   public void onAttach(Activity activity) {
     super.onAttach(activity);
@@ -64,22 +67,50 @@ public class ColumnListFragment extends ListFragment {
     super.onActivityCreated(savedInstanceState);
     TableLevelPreferencesActivity tableLevelPreferenceActivity = (TableLevelPreferencesActivity) this
         .getActivity();
-    WebLogger.getLogger(tableLevelPreferenceActivity.getAppName()).d(TAG, "[onActivityCreated]");
+    final String appName = tableLevelPreferenceActivity.getAppName();
+    WebLogger.getLogger(appName).d(TAG, "[onActivityCreated]");
     // All we need to do is get the columns to display.
-    try {
-      setElementKeysAndDisplayNames();
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(tableLevelPreferenceActivity.getAppName()).printStackTrace(e);
-      return;
+    final String tableId = tableLevelPreferenceActivity.getTableId();
+    mLoadJob = DbExecutor.get().submit(appName, DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Void>() {
+          @Override
+          public Void doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            setElementKeysAndDisplayNames(appName, db, tableId);
+            return null;
+          }
+
+          @Override
+          public void onResult(Void result) {
+            if (!isAdded()) {
+              return;
+            }
+            ArrayAdapter<String> adapter = new ArrayAdapter<String>(getActivity(),
+                android.R.layout.simple_list_item_1, mDisplayNames);
+            setListAdapter(adapter);
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+          }
+        });
+  }
+
+  @Override
+  public void onDestroy() {
+    if (mLoadJob != null) {
+      mLoadJob.cancel();
+      mLoadJob = null;
     }
-    ArrayAdapter<String> adapter = new ArrayAdapter<String>(this.getActivity(),
-        android.R.layout.simple_list_item_1, this.mDisplayNames);
-    this.setListAdapter(adapter);
+    super.onDestroy();
   }
 
   public void onListItemClick(ListView l, View v, int position, long id) {
     TableLevelPreferencesActivity tableLevelPreferenceActivity = (TableLevelPreferencesActivity) this
         .getActivity();
+    if (this.mElementKeys == null) {
+      return;
+    }
     String elementKey = this.mElementKeys.get(position);
     tableLevelPreferenceActivity.showColumnPreferenceFragment(elementKey);
   }
@@ -87,34 +118,21 @@ public class ColumnListFragment extends ListFragment {
   /**
    * Retrieve all the element keys for the columns in the table.
    * 
-   * @return
+   * @param appName
+   * @param db
+   * @param tableId
    * @throws ServicesAvailabilityException
    */
-  private void setElementKeysAndDisplayNames() throws ServicesAvailabilityException {
-    
-    AbsTableActivity activity = retrieveTableActivity();
-    String appName = activity.getAppName();
-    OrderedColumns orderedDefns = activity.getColumnDefinitions();
-    TableUtil.TableColumns tc = null;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      tc = TableUtil.get().getTableColumns(Tables.getInstance(), appName, db, activity.getTableId());
-
-      ArrayList<String> colOrder;
-      colOrder = TableUtil.get().getColumnOrder(Tables.getInstance(), appName, db, activity.getTableId(), orderedDefns);
-      this.mElementKeys = colOrder;
-      List<String> displayNames = new ArrayList<String>();
-      for (String elementKey : mElementKeys) {
-        String localizedDisplayName = tc.localizedDisplayNames.get(elementKey);
-        displayNames.add(localizedDisplayName);
-      }
-      this.mDisplayNames = displayNames;
-    } finally {
-      if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
-      }
+  private void setElementKeysAndDisplayNames(String appName, OdkDbHandle db, String tableId)
+      throws ServicesAvailabilityException {
+    TableMetadataSnapshot snapshot = TableMetadataCache.get().getSnapshot(appName, db, tableId);
+    List<String> colOrder = snapshot.getColumnOrder();
+    List<String> displayNames = new ArrayList<String>();
+    for (String elementKey : colOrder) {
+      displayNames.add(snapshot.getLocalizedDisplayName(elementKey));
     }
+    this.mElementKeys = colOrder;
+    this.mDisplayNames = displayNames;
   }
 
   /**
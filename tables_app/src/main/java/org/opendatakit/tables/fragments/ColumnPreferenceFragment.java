@@ -26,6 +26,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.ElementTypeManipulator;
 import org.opendatakit.tables.utils.ElementTypeManipulator.ITypeManipulatorFragment;
@@ -129,13 +130,13 @@ public class ColumnPreferenceFragment extends AbsTableLevelPreferenceFragment {
     String rawDisplayName;
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbHandlePool.get().acquire(getAppName());
       rawDisplayName = ColumnUtil.get().getRawDisplayName(Tables.getInstance(), getAppName(), 
           db, getTableId(), 
           this.retrieveColumnDefinition().getElementKey());
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+        DbHandlePool.get().release(getAppName(), db);
       }
     }
 
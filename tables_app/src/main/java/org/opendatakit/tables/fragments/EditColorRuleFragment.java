@@ -28,6 +28,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.preferences.EditColorPreference;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
@@ -147,7 +148,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment imple
     super.onResume();
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbHandlePool.get().acquire(getAppName());
       this.initializeStateRequiringContext(db);
       this.initializeAllPreferences(db);
     } catch (ServicesAvailabilityException e) {
@@ -156,7 +157,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment imple
     } finally {
       if ( db != null ) {
         try {
-          Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+          DbHandlePool.get().release(getAppName(), db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(getAppName()).printStackTrace(e);
           Toast.makeText(getActivity(), "Error releasing database", Toast.LENGTH_LONG).show();
@@ -277,7 +278,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment imple
         String localizedDisplayName = null;
         OdkDbHandle db = null;
         try {
-          db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+          db = DbHandlePool.get().acquire(getAppName());
           localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(Tables.getInstance(), getAppName(),
               db, getTableId(),
               mElementKey);
@@ -286,7 +287,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment imple
         } finally {
           if (db != null) {
             try {
-              Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+              DbHandlePool.get().release(getAppName(), db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(getAppName()).printStackTrace(e);
             }
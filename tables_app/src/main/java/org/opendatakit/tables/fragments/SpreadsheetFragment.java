@@ -32,6 +32,11 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity.ViewFragmentType;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableChangeCounter;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
+import org.opendatakit.tables.tasks.SpreadsheetUserTableLoadTask;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.Constants.IntentKeys;
@@ -49,12 +54,14 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.ContextMenu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -69,7 +76,7 @@ import android.widget.Toast;
  *
  */
 public class SpreadsheetFragment extends AbsTableDisplayFragment implements
-    SpreadsheetView.Controller {
+    SpreadsheetView.Controller, SpreadsheetUserTableLoadTask.Listener {
 
   private static final String TAG = SpreadsheetFragment.class.getSimpleName();
 
@@ -86,8 +93,17 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
   // This should allow for the opening of a joined table.
   private static final int MENU_ITEM_ID_OPEN_JOIN_TABLE = 10;
   private static final int MENU_ITEM_ID_EDIT_COLUMN_COLOR_RULES = 11;
+  private static final int MENU_ITEM_ID_FILTER_TO_VALUE = 12;
+  private static final int MENU_ITEM_ID_CLEAR_FILTER = 13;
 
   private SpreadsheetUserTable spreadsheetTable;
+  private SpreadsheetUserTableLoadTask mLoadTask;
+  /** the view of spreadsheetTable, once it has been built */
+  private SpreadsheetView mSpreadsheetView;
+  private DbExecutor.Job<Integer> mRefreshJob;
+  private DbExecutor.Job<Void> mSortJob;
+  /** holds the placeholder until the spreadsheet is ready, then the spreadsheet */
+  private FrameLayout mContainer;
 
   private CellInfo mLastDataCellMenued;
   private CellInfo mLastHeaderCellMenued;
@@ -100,25 +116,153 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
   @Override
   public View onCreateView(android.view.LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
+    // the table is built in the background; show a placeholder until then.
+    mContainer = new FrameLayout(getActivity());
+    TextView textView = new TextView(getActivity());
+    textView.setText(getString(R.string.loading));
+    mContainer.addView(textView);
+    mLoadTask = new SpreadsheetUserTableLoadTask(this, this);
+    mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    return mContainer;
+  }
+
+  @Override
+  public void spreadsheetUserTableLoaded(SpreadsheetUserTable table) {
+    mLoadTask = null;
+    if (mContainer == null) {
+      table.close();
+      return;
+    }
+    if (spreadsheetTable != null && spreadsheetTable != table) {
+      // stop the prefetching of the table this one replaces
+      spreadsheetTable.close();
+    }
+    spreadsheetTable = table;
+    mContainer.removeAllViews();
+    if (!spreadsheetTable.hasData()) {
+      TextView textView = new TextView(getActivity());
+      textView.setText(getString(R.string.no_data));
+      mContainer.addView(textView);
+      return;
+    }
     try {
-      spreadsheetTable = new SpreadsheetUserTable(this);
-      if (!spreadsheetTable.hasData()) {
-        TextView textView = new TextView(getActivity());
-        textView.setText(getString(R.string.no_data));
-        return textView;
-      } else {
-        return this.buildSpreadsheetView();
-      }
+      mSpreadsheetView = this.buildSpreadsheetView();
+      mContainer.addView(mSpreadsheetView);
     } catch (ServicesAvailabilityException e) {
       WebLogger.getLogger(getAppName()).printStackTrace(e);
       WebLogger.getLogger(getAppName()).e(TAG,
           "Error while constructing spreadsheet view: " + e.toString());
-      TextView textView = new TextView(getActivity());
-      textView.setText(getString(R.string.error_accessing_database));
-      return textView;
+      spreadsheetUserTableFailed();
     }
   }
-  
+
+  @Override
+  public void spreadsheetUserTableFailed() {
+    mLoadTask = null;
+    if (mContainer == null) {
+      return;
+    }
+    mContainer.removeAllViews();
+    TextView textView = new TextView(getActivity());
+    textView.setText(getString(R.string.error_accessing_database));
+    mContainer.addView(textView);
+  }
+
+  @Override
+  public void onDestroyView() {
+    super.onDestroyView();
+    if (mLoadTask != null) {
+      mLoadTask.cancel(false);
+      mLoadTask = null;
+    }
+    if (mRefreshJob != null) {
+      mRefreshJob.cancel();
+      mRefreshJob = null;
+    }
+    if (mSortJob != null) {
+      mSortJob.cancel();
+      mSortJob = null;
+    }
+    mContainer = null;
+    mSpreadsheetView = null;
+    if (spreadsheetTable != null) {
+      spreadsheetTable.close();
+    }
+  }
+
+  /**
+   * Pick up a row that was just edited or added, e.g., in Survey, without
+   * rebuilding the table. Only the rows that may have changed are read again;
+   * the properties of the table are kept.
+   *
+   * @param rowId
+   * @param added
+   *          true if the row may be new, false if it was edited
+   * @return false if there is no spreadsheet to refresh yet, in which case
+   *         the caller should reload everything
+   */
+  public boolean refreshRow(final String rowId, final boolean added) {
+    if (spreadsheetTable == null || mSpreadsheetView == null || mContainer == null) {
+      return false;
+    }
+    if (mRefreshJob != null) {
+      mRefreshJob.cancel();
+    }
+    final SpreadsheetUserTable table = spreadsheetTable;
+    mRefreshJob = DbExecutor.get().submit(getAppName(), DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Integer>() {
+          @Override
+          public Integer doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            // the row source borrows its own handle
+            return table.refreshRow(rowId, added);
+          }
+
+          @Override
+          public void onResult(Integer changedIndex) {
+            mRefreshJob = null;
+            if (mContainer == null || table != spreadsheetTable) {
+              return;
+            }
+            if (changedIndex != SpreadsheetUserTable.ALL_ROWS_CHANGED) {
+              mSpreadsheetView.refreshRow(changedIndex);
+              return;
+            }
+            // the rows moved or their number changed; lay the view out again
+            // from the same table
+            rebuildSpreadsheetView();
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            mRefreshJob = null;
+            WebLogger.getLogger(getAppName()).printStackTrace(e);
+            WebLogger.getLogger(getAppName()).e(TAG,
+                "Error while refreshing row " + rowId + ": " + e.toString());
+            if (mContainer != null) {
+              spreadsheetUserTableFailed();
+            }
+          }
+        });
+    return true;
+  }
+
+  /**
+   * Lay the spreadsheet out again from the same table, e.g., after its rows
+   * were reordered.
+   */
+  private void rebuildSpreadsheetView() {
+    mContainer.removeAllViews();
+    try {
+      mSpreadsheetView = buildSpreadsheetView();
+      mContainer.addView(mSpreadsheetView);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(getAppName()).printStackTrace(e);
+      WebLogger.getLogger(getAppName()).e(TAG,
+          "Error while constructing spreadsheet view: " + e.toString());
+      spreadsheetUserTableFailed();
+    }
+  }
+
   @Override
   public void databaseAvailable() {
     if ( Tables.getInstance().getDatabase() != null && getView() != null ) {
@@ -155,12 +299,125 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
     }
   }
 
+  /**
+   * Sort the spreadsheet by a column and remember it as the table's sort
+   * column. The rows are reordered in memory when the table is held whole;
+   * otherwise they are held first, in the background, if there are few
+   * enough, and sorted by the database if not. The sort column is saved in the
+   * background either way.
+   *
+   * @param cd
+   *          null to unset the sort column
+   */
   void setColumnAsSort(ColumnDefinition cd) {
-    try {
-      TableUtil.get().atomicSetSortColumn(Tables.getInstance(), getAppName(), getTableId(), (cd == null) ? null : cd.getElementKey());
-    } catch ( ServicesAvailabilityException e ) {
-      Toast.makeText(getActivity(), "Unable to set Sort Column", Toast.LENGTH_LONG).show();
+    final String elementKey = (cd == null) ? null : cd.getElementKey();
+    saveSortColumn(elementKey);
+    // the table's properties keep no direction
+    reorder("sorting by " + elementKey, new Reordering() {
+      @Override
+      public void apply(SpreadsheetUserTable table) throws ServicesAvailabilityException {
+        table.sortBy(elementKey, "ASC");
+      }
+    });
+  }
+
+  /**
+   * Reorder the rows of the spreadsheet, right away if they are held and in
+   * the background otherwise, and then rebuild the spreadsheet.
+   */
+  private void reorder(final String description, final Reordering reordering) {
+    if (mSortJob != null) {
+      mSortJob.cancel();
+      mSortJob = null;
+    }
+    if (spreadsheetTable.isHoldingAllRows()) {
+      try {
+        reordering.apply(spreadsheetTable);
+      } catch (ServicesAvailabilityException e) {
+        // does not happen: the rows are already in memory
+        WebLogger.getLogger(getAppName()).printStackTrace(e);
+      }
+      rebuildSpreadsheetView();
+      return;
     }
+    final SpreadsheetUserTable table = spreadsheetTable;
+    mSortJob = DbExecutor.get().submit(getAppName(), DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Void>() {
+          @Override
+          public Void doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            // the row source borrows its own handle
+            reordering.apply(table);
+            return null;
+          }
+
+          @Override
+          public void onResult(Void result) {
+            mSortJob = null;
+            if (mContainer != null && table == spreadsheetTable) {
+              rebuildSpreadsheetView();
+            }
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            mSortJob = null;
+            WebLogger.getLogger(getAppName()).printStackTrace(e);
+            WebLogger.getLogger(getAppName()).e(TAG,
+                "Error while " + description + ": " + e.toString());
+            if (mContainer != null) {
+              spreadsheetUserTableFailed();
+            }
+          }
+        });
+  }
+
+  /**
+   * A change to the order or the selection of the rows of the spreadsheet.
+   */
+  private interface Reordering {
+    void apply(SpreadsheetUserTable table) throws ServicesAvailabilityException;
+  }
+
+  private void saveSortColumn(final String elementKey) {
+    final String appName = getAppName();
+    final String tableId = getTableId();
+    final Context context = getActivity().getApplicationContext();
+    DbExecutor.get().submit(appName, DbExecutor.Priority.BACKGROUND,
+        new DbExecutor.Callback<Void>() {
+          @Override
+          public Void doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            TableUtil.get().atomicSetSortColumn(Tables.getInstance(), appName, tableId,
+                elementKey);
+            return null;
+          }
+
+          @Override
+          public void onResult(Void result) {
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+            Toast.makeText(context, "Unable to set Sort Column", Toast.LENGTH_LONG).show();
+          }
+        });
+  }
+
+  /**
+   * Show only the rows whose value in a column is the given value, or every
+   * row again. Only offered when the table is, or can be, held in memory.
+   *
+   * @param elementKey
+   *          null to show every row
+   * @param value
+   */
+  void filterBy(final String elementKey, final String value) {
+    reorder("filtering on " + elementKey, new Reordering() {
+      @Override
+      public void apply(SpreadsheetUserTable table) throws ServicesAvailabilityException {
+        table.filterBy(elementKey, value);
+      }
+    });
   }
 
   void setColumnAsIndexedCol(ColumnDefinition cd) {
@@ -243,16 +500,93 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       ActionNotAuthorizedException {
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbHandlePool.get().acquire(getAppName());
       Tables.getInstance().getDatabase().deleteRowWithId(getAppName(), db, getTableId(),
           getColumnDefinitions(), rowId);
+      TableChangeCounter.get().noteTableChanged(getAppName(), getTableId());
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+        DbHandlePool.get().release(getAppName(), db);
+      }
+    }
+  }
+
+  /**
+   * Open the table joined to a column. The joins were read along with the
+   * table.
+   *
+   * @param cd
+   */
+  private void openJoinTable(ColumnDefinition cd) {
+    ArrayList<JoinColumn> joinColumns = spreadsheetTable.getColumnJoins(cd.getElementKey());
+
+    AlertDialog.Builder badJoinDialog;
+    // TODO should check for valid table properties and
+    // column properties here. or rather valid ids and keys.
+    if (joinColumns == null || joinColumns.size() == 0) {
+      badJoinDialog = new AlertDialog.Builder(this.getActivity());
+      badJoinDialog.setTitle("Bad Join");
+      badJoinDialog.setMessage("A join column has not been " + "set in Column Properties.");
+      badJoinDialog.create().show();
+      WebLogger.getLogger(getAppName()).e(
+          TAG,
+          "cp.getJoins was null but open join table " + "was requested for cp: "
+              + cd.getElementKey());
+    } else if (joinColumns.size() != 1) {
+      badJoinDialog = new AlertDialog.Builder(this.getActivity());
+      badJoinDialog.setTitle("Bad Join");
+      badJoinDialog.setMessage("Multiple join associations have been "
+          + "set in Column Properties.");
+      badJoinDialog.create().show();
+      WebLogger.getLogger(getAppName()).e(
+          TAG,
+          "cp.getJoins has multiple joins " + "(missing code is needed to handle this) for cp: "
+              + cd.getElementKey());
+    } else {
+      JoinColumn joinColumn = joinColumns.get(0);
+      if (joinColumn.getTableId().equals(JoinColumn.DEFAULT_NOT_SET_VALUE)
+          || joinColumn.getElementKey().equals(JoinColumn.DEFAULT_NOT_SET_VALUE)) {
+        badJoinDialog = new AlertDialog.Builder(this.getActivity());
+        badJoinDialog.setTitle("Bad Join");
+        badJoinDialog.setMessage("Both a table and column " + "must be set.");
+        badJoinDialog.create().show();
+        WebLogger.getLogger(getAppName()).e(
+            TAG,
+            "Bad elementKey or tableId in open join " + "table. tableId: "
+                + joinColumn.getTableId() + " elementKey: " + joinColumn.getElementKey());
+      } else {
+        // I would prefer this kind of query to be set in another
+        // object, but alas, it looks like atm it is hardcoded.
+        Intent intent = new Intent(this.getActivity(), TableDisplayActivity.class);
+        Bundle extras = new Bundle();
+        IntentUtil.addAppNameToBundle(extras, getAppName());
+        // TODO: pass the correct view type.
+        IntentUtil.addFragmentViewTypeToBundle(extras, ViewFragmentType.SPREADSHEET);
+        intent.putExtras(extras);
+        getActivity().startActivityForResult(intent, Constants.RequestCodes.LAUNCH_VIEW);
+        // Controller.launchTableActivity(context, joinedTable,
+        // joinedTable.getDefaultViewType());
       }
     }
   }
 
+  /**
+   * Fetch the cell for which the data context menu was last shown.
+   *
+   * @return null if the row could not be read from the database
+   */
+  private SpreadsheetCell getLastDataCellMenued() {
+    try {
+      return spreadsheetTable.getSpreadsheetCell(getActivity(), this.mLastDataCellMenued);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(getAppName()).printStackTrace(e);
+      WebLogger.getLogger(getAppName()).e(TAG, "Error while accessing database");
+      Toast.makeText(getActivity(), getString(R.string.error_accessing_database),
+          Toast.LENGTH_LONG).show();
+      return null;
+    }
+  }
+
   @Override
   public boolean onContextItemSelected(MenuItem item) {
     SpreadsheetCell cell;
@@ -260,7 +594,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
 
     switch (item.getItemId()) {
     case MENU_ITEM_ID_HISTORY_IN:
-      cell = spreadsheetTable.getSpreadsheetCell(activity, this.mLastDataCellMenued);
+      cell = getLastDataCellMenued();
+      if (cell == null) {
+        return true;
+      }
       openCollectionView(cell);
       return true;
 //    case MENU_ITEM_ID_EDIT_CELL:
@@ -268,7 +605,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
 //      openCellEditDialog(cell);
 //      return true;
     case MENU_ITEM_ID_DELETE_ROW:
-      cell = spreadsheetTable.getSpreadsheetCell(activity, this.mLastDataCellMenued);
+      cell = getLastDataCellMenued();
+      if (cell == null) {
+        return true;
+      }
       AlertDialog confirmDeleteAlert;
       // Prompt an alert box
       final String rowId = cell.row.getDataByKey(DataTableColumns.ID);
@@ -306,7 +646,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       confirmDeleteAlert.show();
       return true;
     case MENU_ITEM_ID_EDIT_ROW:
-      cell = spreadsheetTable.getSpreadsheetCell(activity, this.mLastDataCellMenued);
+      cell = getLastDataCellMenued();
+      if (cell == null) {
+        return true;
+      }
       // It is possible that a custom form has been defined for this table.
       // We will get the strings we need, and then set the parameter object.
       try {
@@ -321,104 +664,11 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       // launch ODK Collect
       return true;
     case MENU_ITEM_ID_OPEN_JOIN_TABLE:
-      cell = spreadsheetTable.getSpreadsheetCell(getActivity(), this.mLastDataCellMenued);
-      ColumnDefinition cd = spreadsheetTable.getColumnByElementKey(cell.elementKey);
-      // Get the JoinColumn.
-      ArrayList<JoinColumn> joinColumns;
-      OdkDbHandle db = null;
-      try {
-        db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-        joinColumns = ColumnUtil.get().getJoins(Tables.getInstance(), getAppName(), db, getTableId(), cd.getElementKey());
-      } catch (ServicesAvailabilityException e) {
-        WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
-        WebLogger.getLogger(activity.getAppName()).e(TAG, "Error while accessing database");
-        Toast.makeText(activity, "Error while accessing database", Toast.LENGTH_LONG).show();
+      cell = getLastDataCellMenued();
+      if (cell == null) {
         return true;
-      } finally {
-        if (db != null) {
-          try {
-            Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-          } catch (ServicesAvailabilityException e) {
-            WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
-            WebLogger.getLogger(activity.getAppName()).e(TAG, "Error closing database");
-            Toast.makeText(activity, "Error closing database", Toast.LENGTH_LONG).show();
-          }
-        }
-      }
-
-      AlertDialog.Builder badJoinDialog;
-      // TODO should check for valid table properties and
-      // column properties here. or rather valid ids and keys.
-      if (joinColumns == null || joinColumns.size() == 0) {
-        badJoinDialog = new AlertDialog.Builder(this.getActivity());
-        badJoinDialog.setTitle("Bad Join");
-        badJoinDialog.setMessage("A join column has not been " + "set in Column Properties.");
-        badJoinDialog.create().show();
-        WebLogger.getLogger(getAppName()).e(
-            TAG,
-            "cp.getJoins was null but open join table " + "was requested for cp: "
-                + cd.getElementKey());
-      } else if (joinColumns.size() != 1) {
-        badJoinDialog = new AlertDialog.Builder(this.getActivity());
-        badJoinDialog.setTitle("Bad Join");
-        badJoinDialog.setMessage("Multiple join associations have been "
-            + "set in Column Properties.");
-        badJoinDialog.create().show();
-        WebLogger.getLogger(getAppName()).e(
-            TAG,
-            "cp.getJoins has multiple joins " + "(missing code is needed to handle this) for cp: "
-                + cd.getElementKey());
-      } else {
-        JoinColumn joinColumn = joinColumns.get(0);
-        if (joinColumn.getTableId().equals(JoinColumn.DEFAULT_NOT_SET_VALUE)
-            || joinColumn.getElementKey().equals(JoinColumn.DEFAULT_NOT_SET_VALUE)) {
-          badJoinDialog = new AlertDialog.Builder(this.getActivity());
-          badJoinDialog.setTitle("Bad Join");
-          badJoinDialog.setMessage("Both a table and column " + "must be set.");
-          badJoinDialog.create().show();
-          WebLogger.getLogger(getAppName()).e(
-              TAG,
-              "Bad elementKey or tableId in open join " + "table. tableId: "
-                  + joinColumn.getTableId() + " elementKey: " + joinColumn.getElementKey());
-        } else {
-          String tableId = joinColumn.getTableId();
-          String elementKey = joinColumn.getElementKey();
-          String joinedColTableDisplayName;
-          db = null;
-          try {
-            db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-            joinedColTableDisplayName = ColumnUtil.get().getLocalizedDisplayName(Tables.getInstance(), getAppName(), 
-                db, tableId,
-                elementKey);
-          } catch (ServicesAvailabilityException e) {
-            WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
-            WebLogger.getLogger(activity.getAppName()).e(TAG, "Error while accessing database");
-            Toast.makeText(activity, "Error while accessing database", Toast.LENGTH_LONG).show();
-          } finally {
-            if (db != null) {
-              try {
-                Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-              } catch (ServicesAvailabilityException e) {
-                WebLogger.getLogger(activity.getAppName()).printStackTrace(e);
-                WebLogger.getLogger(activity.getAppName()).e(TAG, "Error closing database");
-                Toast.makeText(activity, "Error closing database", Toast.LENGTH_LONG).show();
-              }
-            }
-          }
-
-          // I would prefer this kind of query to be set in another
-          // object, but alas, it looks like atm it is hardcoded.
-          Intent intent = new Intent(this.getActivity(), TableDisplayActivity.class);
-          Bundle extras = new Bundle();
-          IntentUtil.addAppNameToBundle(extras, getAppName());
-          // TODO: pass the correct view type.
-          IntentUtil.addFragmentViewTypeToBundle(extras, ViewFragmentType.SPREADSHEET);
-          intent.putExtras(extras);
-          getActivity().startActivityForResult(intent, Constants.RequestCodes.LAUNCH_VIEW);
-          // Controller.launchTableActivity(context, joinedTable,
-          // joinedTable.getDefaultViewType());
-        }
       }
+      openJoinTable(spreadsheetTable.getColumnByElementKey(cell.elementKey));
       return true;
     case MENU_ITEM_ID_SET_COLUMN_AS_GROUP_BY:
         addGroupByColumn(spreadsheetTable
@@ -432,11 +682,19 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       return true;
     case MENU_ITEM_ID_SET_COLUMN_AS_SORT:
       setColumnAsSort(spreadsheetTable.getColumnByElementKey(this.mLastHeaderCellMenued.elementKey));
-      init();
       return true;
     case MENU_ITEM_ID_UNSET_COLUMN_AS_SORT:
       setColumnAsSort(null);
-      init();
+      return true;
+    case MENU_ITEM_ID_FILTER_TO_VALUE:
+      cell = getLastDataCellMenued();
+      if (cell == null) {
+        return true;
+      }
+      filterBy(cell.elementKey, cell.value);
+      return true;
+    case MENU_ITEM_ID_CLEAR_FILTER:
+      filterBy(null, null);
       return true;
     case MENU_ITEM_ID_SET_AS_INDEXED_COL:
       setColumnAsIndexedCol(spreadsheetTable
@@ -473,20 +731,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
   public void prepDataCellOccm(ContextMenu menu, CellInfo cellInfo) throws ServicesAvailabilityException {
     this.mLastDataCellMenued = cellInfo;
     ColumnDefinition cd = spreadsheetTable.getColumnByElementKey(cellInfo.elementKey);
-    String localizedDisplayName;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-      localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(Tables.getInstance(), getAppName(),
-          db, getTableId(),
-          cd.getElementKey());
-    } finally {
-      if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-      }
-    }
-
-    menu.setHeaderTitle(localizedDisplayName);
+    // everything the menus need was read along with the table, so nothing
+    // here waits on the database
+    menu.setHeaderTitle(spreadsheetTable.getMetadataSnapshot()
+        .getLocalizedDisplayName(cd.getElementKey()));
 
     MenuItem mi;
     if (this.hasGroupBys()) {
@@ -509,21 +757,18 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       mi = menu.add(ContextMenu.NONE, MENU_ITEM_ID_EDIT_ROW, ContextMenu.NONE, getString(R.string.edit_row));
       mi.setIcon(R.drawable.ic_mode_edit_black_24dp);
     }
+    if (spreadsheetTable.canHoldAllRows()) {
+      menu.add(ContextMenu.NONE, MENU_ITEM_ID_FILTER_TO_VALUE, ContextMenu.NONE,
+          getString(R.string.show_only_this_value));
+    }
+    if (spreadsheetTable.isFiltered()) {
+      menu.add(ContextMenu.NONE, MENU_ITEM_ID_CLEAR_FILTER, ContextMenu.NONE,
+          getString(R.string.show_all_rows));
+    }
 
     // check a join association with this column; add a join... option if
     // it is applicable.
-    ArrayList<JoinColumn> joinColumns;
-    db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-      joinColumns = ColumnUtil.get().getJoins(Tables.getInstance(), getAppName(), 
-          db, getTableId(), cd.getElementKey());
-    } finally {
-      if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-      }
-    }
-
+    ArrayList<JoinColumn> joinColumns = spreadsheetTable.getColumnJoins(cd.getElementKey());
     if (joinColumns != null && joinColumns.size() != 0) {
       mi = menu.add(ContextMenu.NONE, MENU_ITEM_ID_OPEN_JOIN_TABLE, ContextMenu.NONE,
           getString(R.string.open_join_table));
@@ -545,21 +790,12 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
   public void prepHeaderCellOccm(ContextMenu menu, CellInfo cellInfo) throws ServicesAvailabilityException {
     this.mLastHeaderCellMenued = cellInfo;
 
-    String sortColumn;
-    String indexColumn;
-    ArrayList<String> groupByColumns;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-      sortColumn = TableUtil.get().getSortColumn(Tables.getInstance(), getAppName(), db, getTableId());
-      indexColumn = TableUtil.get().getIndexColumn(Tables.getInstance(), getAppName(), db, getTableId());
-      groupByColumns = TableUtil.get().getColumnOrder(Tables.getInstance(), getAppName(), db, getTableId(),
-              spreadsheetTable.getColumnDefinitions());
-    } finally {
-      if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-      }
-    }
+    // the sort in effect; the one in the table's properties may not have been
+    // saved yet
+    String sortColumn = spreadsheetTable.getSortElementKey();
+    TableMetadataSnapshot snapshot = spreadsheetTable.getMetadataSnapshot();
+    String indexColumn = snapshot.getIndexColumn();
+    List<String> groupByColumns = snapshot.getColumnOrder();
 
     ColumnDefinition cd = spreadsheetTable.getColumnByElementKey(cellInfo.elementKey);
     if (groupByColumns.contains(cd.getElementKey())) {
@@ -582,6 +818,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
 
     menu.add(ContextMenu.NONE, MENU_ITEM_ID_EDIT_COLUMN_COLOR_RULES, ContextMenu.NONE,
         getString(R.string.edit_column_color_rules));
+    if (spreadsheetTable.isFiltered()) {
+      menu.add(ContextMenu.NONE, MENU_ITEM_ID_CLEAR_FILTER, ContextMenu.NONE,
+          getString(R.string.show_all_rows));
+    }
 
   }
 
@@ -629,7 +869,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
           OdkDbHandle db = null;
           try {
             try {
-              db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+              db = DbHandlePool.get().acquire(getAppName());
 
               String value = ParseUtil.validifyValue(getAppName(), dataUtil,
                   spreadsheetTable.getColumnDisplayChoicesList(CellEditDialog.this.cell.elementKey),
@@ -647,9 +887,10 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
               Tables.getInstance().getDatabase().updateRowWithId(getAppName(), db,
                   getTableId(),
                   getColumnDefinitions(), values, cell.row.getDataByKey(DataTableColumns.ID));
+              TableChangeCounter.get().noteTableChanged(getAppName(), getTableId());
             } finally {
               if (db != null) {
-                Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+                DbHandlePool.get().release(getAppName(), db);
               }
             }
   
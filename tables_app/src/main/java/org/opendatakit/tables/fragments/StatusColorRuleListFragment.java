@@ -25,6 +25,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.views.components.ColorRuleAdapter;
 
@@ -49,6 +50,15 @@ public class StatusColorRuleListFragment extends ListFragment {
   ColorRuleGroup mColorRuleGroup;
   ColorRuleAdapter mColorRuleAdapter;
 
+  /** Reads the rules in the background; null once they have been read. */
+  private DbExecutor.Job<LoadedRules> mLoadJob;
+
+  /** What {@link #onActivityCreated(Bundle)} reads before the list can be shown. */
+  private static final class LoadedRules {
+    TableUtil.TableColumns tc;
+    ColorRuleGroup colorRuleGroup;
+  }
+
   /**
    * Retrieve a new instance of {@list StatusColorRuleListFragment} with the
    * appropriate values set in its arguments.
@@ -89,30 +99,55 @@ public class StatusColorRuleListFragment extends ListFragment {
   public void onActivityCreated(Bundle savedInstanceState) {
     super.onActivityCreated(savedInstanceState);
     //this.setHasOptionsMenu(true);
-    TableUtil.TableColumns tc = null;
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
-
-      tc = TableUtil.get().getTableColumns(Tables.getInstance(), getAppName(), db, getTableId());
-      this.mColorRuleGroup = this.retrieveColorRuleGroup(db, tc.adminColumns);
-    } catch (ServicesAvailabilityException e) {
-      WebLogger.getLogger(getAppName()).printStackTrace(e);
-      throw new IllegalStateException("Unable to access database");
-    } finally {
-      if ( db != null ) {
-        try {
-          Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
-        } catch (ServicesAvailabilityException e) {
-          WebLogger.getLogger(getAppName()).printStackTrace(e);
-          WebLogger.getLogger(getAppName()).e(TAG, "Error while initializing color rule list");
-          Toast.makeText(getActivity(), "Error while initializing color rule list", Toast.LENGTH_LONG).show();
-        }
-      }
+    final String appName = getAppName();
+    final String tableId = getTableId();
+    final ColorRuleGroup.Type type = this.retrieveColorRuleType();
+    mLoadJob = DbExecutor.get().submit(appName, DbExecutor.Priority.UI_VISIBLE,
+            new DbExecutor.Callback<LoadedRules>() {
+              @Override
+              public LoadedRules doInBackground(OdkDbHandle db)
+                      throws ServicesAvailabilityException {
+                LoadedRules loaded = new LoadedRules();
+                loaded.tc = TableUtil.get().getTableColumns(Tables.getInstance(), appName, db,
+                        tableId);
+                loaded.colorRuleGroup = retrieveColorRuleGroup(db, appName, tableId, type,
+                        loaded.tc.adminColumns);
+                return loaded;
+              }
+
+              @Override
+              public void onResult(LoadedRules loaded) {
+                mLoadJob = null;
+                if (!isAdded()) {
+                  return;
+                }
+                mColorRuleGroup = loaded.colorRuleGroup;
+                mColorRuleAdapter = createColorRuleAdapter(loaded.tc.adminColumns,
+                        loaded.tc.localizedDisplayNames);
+                setListAdapter(mColorRuleAdapter);
+                registerForContextMenu(getListView());
+              }
+
+              @Override
+              public void onFailure(ServicesAvailabilityException e) {
+                mLoadJob = null;
+                WebLogger.getLogger(appName).printStackTrace(e);
+                WebLogger.getLogger(appName).e(TAG, "Error while initializing color rule list");
+                if (isAdded()) {
+                  Toast.makeText(getActivity(), "Error while initializing color rule list",
+                          Toast.LENGTH_LONG).show();
+                }
+              }
+            });
+  }
+
+  @Override
+  public void onDestroy() {
+    if (mLoadJob != null) {
+      mLoadJob.cancel();
+      mLoadJob = null;
     }
-    this.mColorRuleAdapter = this.createColorRuleAdapter(tc.adminColumns, tc.localizedDisplayNames);
-    this.setListAdapter(this.mColorRuleAdapter);
-    this.registerForContextMenu(this.getListView());
+    super.onDestroy();
   }
 
   ColorRuleAdapter createColorRuleAdapter(String[] adminColumns, Map<String,String> colDisplayNames) {
@@ -159,13 +194,13 @@ public class StatusColorRuleListFragment extends ListFragment {
     return result.getTableId();
   }
 
-  ColorRuleGroup retrieveColorRuleGroup(OdkDbHandle db, String[] adminColumns) throws ServicesAvailabilityException {
-    ColorRuleGroup.Type type = this.retrieveColorRuleType();
+  static ColorRuleGroup retrieveColorRuleGroup(OdkDbHandle db, String appName, String tableId,
+          ColorRuleGroup.Type type, String[] adminColumns) throws ServicesAvailabilityException {
     ColorRuleGroup result = null;
     switch (type) {
       case STATUS_COLUMN:
         result = ColorRuleGroup.getStatusColumnRuleGroup(
-                Tables.getInstance(), getAppName(), db, getTableId(), adminColumns);
+                Tables.getInstance(), appName, db, tableId, adminColumns);
         break;
       default:
         throw new IllegalArgumentException(
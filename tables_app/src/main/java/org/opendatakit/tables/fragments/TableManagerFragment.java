@@ -22,7 +22,6 @@ import org.opendatakit.common.android.listener.DatabaseConnectionListener;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
@@ -30,6 +29,12 @@ import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorGuideCache;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.QueryMetadataCache;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.UserTableCache;
+import org.opendatakit.tables.tasks.TableNameStructLoadTask;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.TableNameStruct;
@@ -39,6 +44,7 @@ import android.app.ListFragment;
 import android.content.ComponentName;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
@@ -51,13 +57,15 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class TableManagerFragment extends ListFragment implements DatabaseConnectionListener {
+public class TableManagerFragment extends ListFragment implements DatabaseConnectionListener,
+    TableNameStructLoadTask.Listener {
 
   private static final String TAG = TableManagerFragment.class.getSimpleName();
 
   private static final int ID = R.layout.fragment_table_list;
   
   private TableNameStructAdapter mTpAdapter;
+  private TableNameStructLoadTask mLoadTask;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
@@ -77,8 +85,22 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
     updateTableIdList();
   }
 
+  @Override
+  public void onDestroy() {
+    if (mLoadTask != null) {
+      mLoadTask.cancel(false);
+      mLoadTask = null;
+    }
+    if (mTpAdapter != null) {
+      mTpAdapter.close();
+    }
+    super.onDestroy();
+  }
+
   /**
-   * Refresh the list of tables that is being displayed by the fragment.
+   * Refresh the list of tables that is being displayed by the fragment. The
+   * list last read is shown at once and the tables are read again in the
+   * background.
    */
   protected void updateTableIdList() {
     AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
@@ -87,47 +109,42 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
     }
     
     String appName = baseActivity.getAppName();
-    OdkDbHandle db = null;
 
-    List<TableNameStruct> tableNameStructs = new ArrayList<TableNameStruct>();
+    List<TableNameStruct> cached = TableNameStructLoadTask.getCachedTableNameStructs(appName);
+    if ( cached != null && Tables.getInstance().getDatabase() != null ) {
+      showTableNameStructs(cached);
+    }
 
-    if ( Tables.getInstance().getDatabase() != null ) {
-      
-      try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
-  
-        List<String> tableIds = Tables.getInstance().getDatabase().getAllTableIds(appName, db);
-  
-        for (String tableId : tableIds) {
-          String localizedDisplayName = TableUtil.get().getLocalizedDisplayName(Tables.getInstance(), appName, db, tableId);
-  
-          TableNameStruct tableNameStruct = new TableNameStruct(tableId, localizedDisplayName);
-  
-          tableNameStructs.add(tableNameStruct);
-        }
-        WebLogger.getLogger(baseActivity.getAppName()).e(TAG,
-            "got tableId list of size: " + tableNameStructs.size());
-      } catch ( ServicesAvailabilityException e ) {
-        WebLogger.getLogger(baseActivity.getAppName()).e(TAG,
-            "error while fetching tableId list: " + e.toString());
-      } finally {
-        if (db != null) {
-          try {
-            Tables.getInstance().getDatabase().closeDatabase(appName, db);
-          } catch (ServicesAvailabilityException e) {
-            WebLogger.getLogger(baseActivity.getAppName()).e(TAG,
-                "error while closing database: " + e.toString());
-          }
-        }
-      }
+    if ( mLoadTask != null ) {
+      mLoadTask.cancel(false);
+    }
+    mLoadTask = new TableNameStructLoadTask(appName, this);
+    mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
+
+  @Override
+  public void tableNameStructsLoaded(List<TableNameStruct> tableNameStructs) {
+    mLoadTask = null;
+    showTableNameStructs(tableNameStructs);
+  }
+
+  @Override
+  public void tableNameStructsFailed() {
+    mLoadTask = null;
+    showTableNameStructs(new ArrayList<TableNameStruct>());
+  }
+
+  private void showTableNameStructs(List<TableNameStruct> tableNameStructs) {
+    AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
+    if ( baseActivity == null ) {
+      return;
     }
 
     if ( mTpAdapter == null ) {
       this.mTpAdapter = new TableNameStructAdapter(baseActivity, tableNameStructs);
       this.setListAdapter(this.mTpAdapter);
     } else {
-      this.mTpAdapter.clear();
-      this.mTpAdapter.addAll(tableNameStructs);
+      this.mTpAdapter.update(tableNameStructs);
     }
     // and set visibility of the no data vs. list
     if ( this.getView() != null ) {
@@ -146,7 +163,6 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
         none.setVisibility(View.GONE);
       }
     }
-    this.mTpAdapter.notifyDataSetChanged();
   }
 
   @Override
@@ -199,11 +215,15 @@ public class TableManagerFragment extends ListFragment implements DatabaseConnec
           OdkDbHandle db = null;
           try {
             try {
-              db = Tables.getInstance().getDatabase().openDatabase(appName);
+              db = DbHandlePool.get().acquire(appName);
               Tables.getInstance().getDatabase().deleteDBTableAndAllData(appName, db, tableIdOfSelectedItem);
+              ColorGuideCache.get().invalidate(appName, tableIdOfSelectedItem);
+              TableMetadataCache.get().invalidate(appName, tableIdOfSelectedItem);
+              UserTableCache.get().invalidate(appName, tableIdOfSelectedItem);
+              QueryMetadataCache.get().invalidate(appName, tableIdOfSelectedItem);
             } finally {
               if (db != null) {
-                Tables.getInstance().getDatabase().closeDatabase(appName, db);
+                DbHandlePool.get().release(appName, db);
               }
             }
             // Now update the list.
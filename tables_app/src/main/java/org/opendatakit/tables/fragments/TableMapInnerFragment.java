@@ -22,7 +22,6 @@ import java.util.Map;
 import java.util.Set;
 
 import org.opendatakit.common.android.data.ColorGuide;
-import org.opendatakit.common.android.data.ColorGuideGroup;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.OrderedColumns;
@@ -30,11 +29,15 @@ import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.*;
 import org.opendatakit.database.service.OdkDbHandle;
-import org.opendatakit.database.service.OdkDbRow;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorGuideCache;
+import org.opendatakit.tables.data.ColumnVectors;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 
 import android.graphics.Color;
 import android.os.Bundle;
@@ -120,7 +123,8 @@ public class TableMapInnerFragment extends MapFragment {
 
   /** Used for coloring markers. */
   private ColorRuleGroup mColorGroup;
-  private ColorGuideGroup mColorGuideGroup;
+  /** The guide of each row of the table under mColorGroup, indexed by row. */
+  private ColorGuide[] mColorGuides;
 
   /** the latitide elementKey to use for plotting */
   private String mLatitudeElementKey;
@@ -233,35 +237,38 @@ public class TableMapInnerFragment extends MapFragment {
 
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(activity.getAppName());
+      db = DbHandlePool.get().acquire(activity.getAppName());
       
       // get the elementKey for the latitude and longitude columns
       mLatitudeElementKey = getLatitudeElementKey(db);
       mLongitudeElementKey = getLongitudeElementKey(db);
 
-      String[] adminColumns = Tables.getInstance().getDatabase().getAdminColumns();
-
       TableUtil.MapViewColorRuleInfo colorRuleInfo =
               TableUtil.get().getMapListViewColorRuleInfo(Tables.getInstance(), activity.getAppName(), db, activity.getTableId());
 
       // Create a guide depending on what type of color rule is selected.
+      TableMetadataSnapshot snapshot = TableMetadataCache.get()
+          .getSnapshot(activity.getAppName(), db, activity.getTableId());
       mColorGroup = null;
+      mColorGuides = null;
+      ColorRuleGroup.Type colorGroupType = null;
       if (colorRuleInfo.colorType.equals(LocalKeyValueStoreConstants.Map.COLOR_TYPE_TABLE)) {
-        mColorGroup = ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance(), activity.getAppName(),
-            db, activity.getTableId(), adminColumns);
+        mColorGroup = snapshot.getTableColorRuleGroup();
+        colorGroupType = ColorRuleGroup.Type.TABLE;
       }
       if (colorRuleInfo.colorType.equals(LocalKeyValueStoreConstants.Map.COLOR_TYPE_STATUS)) {
-        mColorGroup = ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance(), activity.getAppName(),
-            db, activity.getTableId(), adminColumns);
+        mColorGroup = snapshot.getStatusColumnRuleGroup();
+        colorGroupType = ColorRuleGroup.Type.STATUS_COLUMN;
       }
 
-      if (mColorGroup != null) {
-        UserTable userTableForColor = activity.getUserTable();
-        mColorGuideGroup = new ColorGuideGroup(mColorGroup, userTableForColor);
+      UserTable userTableForColor = activity.getUserTable();
+      if (mColorGroup != null && userTableForColor != null) {
+        mColorGuides = ColorGuideCache.get().getColorGuides(userTableForColor,
+            snapshot.getColumnDefinitions(), colorGroupType, null, mColorGroup);
       }
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(activity.getAppName(), db);
+        DbHandlePool.get().release(activity.getAppName(), db);
       }
     }
   }
@@ -300,25 +307,24 @@ public class TableMapInnerFragment extends MapFragment {
       ColumnDefinition latitudeColumn = orderedDefns.find(mLatitudeElementKey);
       ColumnDefinition longitudeColumn = orderedDefns.find(mLongitudeElementKey);
 
+      // The coordinates, parsed once for the table. A value that is missing
+      // or does not parse is null, and its row gets no marker.
+      ColumnVectors vectors = ColumnVectors.forTable(table);
+      ColumnVectors.DoubleColumn latitudes = vectors.getNumbers(table,
+          latitudeColumn.getElementKey());
+      ColumnVectors.DoubleColumn longitudes = vectors.getNumbers(table,
+          longitudeColumn.getElementKey());
+
       // Find the locations from entries in the table.
       LatLng firstLocation = null;
 
       // Go through each row and create a marker at the specified location.
       for (int i = 0; i < table.getNumberOfRows(); i++) {
-        OdkDbRow row = table.getRowAtIndex(i);
-        String latitudeString = row.getDataByKey(latitudeColumn.getElementKey());
-        String longitudeString = row.getDataByKey(longitudeColumn.getElementKey());
-        if (latitudeString == null || longitudeString == null || latitudeString.length() == 0
-            || longitudeString.length() == 0) {
+        if (latitudes.isNull(i) || longitudes.isNull(i)) {
           continue;
         }
 
-        // Create a LatLng from the latitude and longitude strings.
-        LatLng location = parseLocationFromString(latitudeColumn, latitudeString, longitudeColumn,
-            longitudeString);
-        if (location == null) {
-          continue;
-        }
+        LatLng location = new LatLng(latitudes.get(i), longitudes.get(i));
         if (firstLocation == null) {
           firstLocation = location;
         }
@@ -357,8 +363,8 @@ public class TableMapInnerFragment extends MapFragment {
 
     UserTable table = activity.getUserTable();
     // Create a guide depending on the color group.
-    if (table != null && mColorGuideGroup != null) {
-      ColorGuide guide = mColorGuideGroup.getColorGuideForRowIndex(index);
+    if (table != null && mColorGuides != null && index < mColorGuides.length) {
+      ColorGuide guide = mColorGuides[index];
       // Based on if the guide matched or not, grab the hue.
       if (guide != null) {
         float[] hsv = new float[3];
@@ -404,21 +410,6 @@ public class TableMapInnerFragment extends MapFragment {
     return null;
   }
 
-  /**
-   * Parses the latitude and longitude strings and creates a LatLng.
-   */
-  private LatLng parseLocationFromString(ColumnDefinition latitudeColumn, String latitude,
-      ColumnDefinition longitudeColumn, String longitude) {
-    try {
-      return new LatLng(Double.parseDouble(latitude), Double.parseDouble(longitude));
-    } catch (Exception e) {
-      AbsBaseActivity activity = (AbsBaseActivity) getActivity();
-      WebLogger.getLogger(activity.getAppName()).e(TAG,
-          "The following location did not parse correctly: " + latitude + "," + longitude);
-    }
-    return null;
-  }
-
   /**
    * If a marker is selected, deselect it.
    */
@@ -26,6 +26,7 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.preferences.DefaultViewTypePreference;
 import org.opendatakit.tables.preferences.EditFormDialogPreference;
 import org.opendatakit.tables.preferences.FileSelectorPreference;
@@ -188,7 +189,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
   protected void initializeAllPreferences() throws ServicesAvailabilityException {
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+      db = DbHandlePool.get().acquire(getAppName());
 
       this.initializeDisplayNamePreference(db);
       this.initializeTableIdPreference();
@@ -203,7 +204,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
       this.initializeColumns();
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+        DbHandlePool.get().release(getAppName(), db);
       }
     }
   }
@@ -355,7 +356,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
             colorRuleType = LocalKeyValueStoreConstants.Map.COLOR_TYPE_NONE;
           }
 
-          db = Tables.getInstance().getDatabase().openDatabase(getAppName());
+          db = DbHandlePool.get().acquire(getAppName());
           TableUtil.MapViewColorRuleInfo mvcri = new TableUtil.MapViewColorRuleInfo(colorRuleType, null);
           TableUtil.get().setMapListViewColorRuleInfo(Tables.getInstance(), getAppName(), db, getTableId(), mvcri);
           return true;
@@ -368,7 +369,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
         } finally {
           if (db != null) {
             try {
-              Tables.getInstance().getDatabase().closeDatabase(getAppName(), db);
+              DbHandlePool.get().release(getAppName(), db);
             } catch (ServicesAvailabilityException re) {
               WebLogger.getLogger(getAppName()).e(TAG,
                       "[onPreferenceChange] for map color rule preference. " +
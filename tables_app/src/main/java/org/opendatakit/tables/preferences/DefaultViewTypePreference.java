@@ -25,6 +25,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.data.PossibleTableViewTypes;
 import org.opendatakit.tables.views.components.TableViewTypeAdapter;
 
@@ -59,13 +60,13 @@ public class DefaultViewTypePreference extends ListPreference {
     
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(mAppName);
+      db = DbHandlePool.get().acquire(mAppName);
       this.mPossibleViewTypes = new PossibleTableViewTypes(mAppName, db, tableId, orderedDefns);
       // Let's set the currently selected one.
       defaultViewType = TableUtil.get().getDefaultViewType(Tables.getInstance(), mAppName, db, tableId);
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(mAppName, db);
+        DbHandlePool.get().release(mAppName, db);
       }
     }
 
@@ -23,6 +23,7 @@ import org.opendatakit.common.android.utilities.CsvUtil.ExportListener;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.activities.ExportCSVActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.os.AsyncTask;
 
@@ -54,7 +55,7 @@ public class ExportTask
         OdkDbHandle db = null;
         try {
           String tableId = request.getTableId();
-          db = Tables.getInstance().getDatabase().openDatabase(appName);
+          db = DbHandlePool.get().acquire(appName);
           OrderedColumns orderedDefns = Tables.getInstance().getDatabase().getUserDefinedColumns(appName, db, tableId);          // export goes to output/csv directory...
           return cu.exportSeparable(this, db, tableId, orderedDefns, request.getFileQualifier());
         } catch (ServicesAvailabilityException e) {
@@ -65,7 +66,7 @@ public class ExportTask
         } finally {
           if ( db != null ) {
             try {
-              Tables.getInstance().getDatabase().closeDatabase(appName, db);
+              DbHandlePool.get().release(appName, db);
             } catch (ServicesAvailabilityException e) {
               WebLogger.getLogger(appName).printStackTrace(e);
               WebLogger.getLogger(appName).e(TAG, "Unable to close database");
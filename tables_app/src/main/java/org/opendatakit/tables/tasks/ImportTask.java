@@ -21,6 +21,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.utilities.CsvUtil.ImportListener;
 import org.opendatakit.tables.activities.ImportCSVActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TableChangeCounter;
 
 import android.os.AsyncTask;
 
@@ -48,8 +49,11 @@ extends AsyncTask<ImportRequest, Integer, Boolean> implements ImportListener {
 		ImportRequest request = importRequests[0];
 		CsvUtil cu = new CsvUtil(Tables.getInstance(), appName);
 		  try {
-        return cu.importSeparable(this, request.getTableId(),
+        boolean imported = cu.importSeparable(this, request.getTableId(),
              request.getFileQualifier(), request.getCreateTable());
+        // even a failed import may have written some rows
+        TableChangeCounter.get().noteTableChanged(appName, request.getTableId());
+        return imported;
       } catch (ServicesAvailabilityException e) {
         WebLogger.getLogger(appName).printStackTrace(e);
         WebLogger.getLogger(appName).e(TAG, "Unable to access database");
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.fragments.AbsTableDisplayFragment;
+import org.opendatakit.tables.views.SpreadsheetUserTable;
+
+import android.os.AsyncTask;
+
+/**
+ * Builds a {@link SpreadsheetUserTable} in the background and hands it to a
+ * listener on the UI thread.
+ */
+public class SpreadsheetUserTableLoadTask extends AsyncTask<Void, Void, SpreadsheetUserTable> {
+
+  private static final String TAG = "SpreadsheetUserTableLoadTask";
+
+  public interface Listener {
+    /**
+     * Called on the UI thread once the table is built. The listener owns the
+     * table from then on and must close it.
+     *
+     * @param table
+     */
+    void spreadsheetUserTableLoaded(SpreadsheetUserTable table);
+
+    /**
+     * Called on the UI thread if the table could not be built.
+     */
+    void spreadsheetUserTableFailed();
+  }
+
+  private final AbsTableDisplayFragment fragment;
+  private final Listener listener;
+  private final String appName;
+
+  public SpreadsheetUserTableLoadTask(AbsTableDisplayFragment fragment, Listener listener) {
+    this.fragment = fragment;
+    this.listener = listener;
+    this.appName = fragment.getAppName();
+  }
+
+  @Override
+  protected SpreadsheetUserTable doInBackground(Void... params) {
+    try {
+      return new SpreadsheetUserTable(fragment);
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+      WebLogger.getLogger(appName).e(TAG, "Unable to access database");
+      return null;
+    }
+  }
+
+  @Override
+  protected void onPostExecute(SpreadsheetUserTable table) {
+    if (table == null) {
+      listener.spreadsheetUserTableFailed();
+    } else {
+      listener.spreadsheetUserTableLoaded(table);
+    }
+  }
+
+  @Override
+  protected void onCancelled(SpreadsheetUserTable table) {
+    // nobody will display it
+    if (table != null) {
+      table.close();
+    }
+  }
+}
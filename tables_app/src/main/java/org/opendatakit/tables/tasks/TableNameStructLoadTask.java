@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.TableUtil;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.utils.TableNameStruct;
+
+import android.os.AsyncTask;
+
+/**
+ * Reads the ids and display names of the tables of an app in the background
+ * and hands them to a listener on the UI thread.
+ * <p>
+ * The last list read for each app is remembered, so that a screen can show it
+ * at once while the task checks for changes.
+ */
+public class TableNameStructLoadTask extends AsyncTask<Void, Void, List<TableNameStruct>> {
+
+  private static final String TAG = "TableNameStructLoadTask";
+
+  public interface Listener {
+    /**
+     * Called on the UI thread with the tables of the app.
+     *
+     * @param tableNameStructs
+     */
+    void tableNameStructsLoaded(List<TableNameStruct> tableNameStructs);
+
+    /**
+     * Called on the UI thread if the database could not be read.
+     */
+    void tableNameStructsFailed();
+  }
+
+  private static final Map<String, List<TableNameStruct>> lastLoaded =
+      new HashMap<String, List<TableNameStruct>>();
+
+  /**
+   * @param appName
+   * @return the tables of the app as last read, or null if they have not been
+   *         read yet
+   */
+  public static List<TableNameStruct> getCachedTableNameStructs(String appName) {
+    synchronized (lastLoaded) {
+      return lastLoaded.get(appName);
+    }
+  }
+
+  private final String appName;
+  private final Listener listener;
+
+  public TableNameStructLoadTask(String appName, Listener listener) {
+    this.appName = appName;
+    this.listener = listener;
+  }
+
+  @Override
+  protected List<TableNameStruct> doInBackground(Void... params) {
+    if (Tables.getInstance().getDatabase() == null) {
+      return null;
+    }
+    List<TableNameStruct> tableNameStructs = new ArrayList<TableNameStruct>();
+    OdkDbHandle db = null;
+    try {
+      db = DbHandlePool.get().acquire(appName);
+      List<String> tableIds = Tables.getInstance().getDatabase().getAllTableIds(appName, db);
+      for (String tableId : tableIds) {
+        if (isCancelled()) {
+          return null;
+        }
+        String localizedDisplayName = TableUtil.get().getLocalizedDisplayName(
+            Tables.getInstance(), appName, db, tableId);
+        tableNameStructs.add(new TableNameStruct(tableId, localizedDisplayName));
+      }
+      WebLogger.getLogger(appName).d(TAG,
+          "got tableId list of size: " + tableNameStructs.size());
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(appName).e(TAG, "error while fetching tableId list: " + e.toString());
+      return null;
+    } finally {
+      if (db != null) {
+        try {
+          DbHandlePool.get().release(appName, db);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(appName).e(TAG, "error while closing database: " + e.toString());
+        }
+      }
+    }
+
+    List<TableNameStruct> result = Collections.unmodifiableList(tableNameStructs);
+    synchronized (lastLoaded) {
+      lastLoaded.put(appName, result);
+    }
+    return result;
+  }
+
+  @Override
+  protected void onPostExecute(List<TableNameStruct> tableNameStructs) {
+    if (tableNameStructs == null) {
+      listener.tableNameStructsFailed();
+    } else {
+      listener.tableNameStructsLoaded(tableNameStructs);
+    }
+  }
+}
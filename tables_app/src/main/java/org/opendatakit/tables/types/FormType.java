@@ -21,6 +21,7 @@ import org.opendatakit.common.android.utilities.KeyValueStoreUtils;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 import org.opendatakit.tables.utils.SurveyUtil.SurveyFormParameters;
 
 import android.content.Context;
@@ -63,7 +64,7 @@ public class FormType {
               FormType.KEY_FORM_TYPE,
               ElementDataType.string, type.name());
 
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       // don't use a transaction, but ensure that if we are transitioning to
       // the survey type (or updating it), that we update its settings first.
       this.mSurveyParams.persist(appName, db, tableId);
@@ -73,7 +74,7 @@ public class FormType {
       this.mSurveyParams.persist(appName, db, tableId);
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
+        DbHandlePool.get().release(appName, db);
       }
     }
   }
@@ -57,6 +57,8 @@ public class Constants {
   public static class IntentKeys {
 
     public static final String ACTION_TABLE_ID = "actionTableId";
+    /** the row being added or edited by the activity launched for a result */
+    public static final String ACTION_ROW_ID = "actionRowId";
     /** tables that have conflict rows */
     public static final String CONFLICT_TABLES = "conflictTables";
     /** tables that have checkpoint rows */
@@ -21,12 +21,14 @@ import org.apache.commons.lang3.CharEncoding;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.OrderedColumns;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -97,7 +99,7 @@ public class OutputUtil {
 
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       List<String> tableIds = Tables.getInstance().getDatabase().getAllTableIds(appName, db);
       for (String tableId : tableIds) {
 
@@ -109,7 +111,7 @@ public class OutputUtil {
       }
     } finally {
       if (db != null) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
+        DbHandlePool.get().release(appName, db);
       }
     }
     controlMap.put(CTRL_KEY_TABLE_ID_TO_DISPLAY_NAME, tableIdToDisplayName);
@@ -141,27 +143,19 @@ public class OutputUtil {
       String tableId) throws ServicesAvailabilityException {
     Map<String, Object> controlTable = new HashMap<String, Object>();
     Map<String, String> pathToKey = new HashMap<String, String>();
-    OrderedColumns orderedDefns;
-
-    String defaultDetailFileName = null;
-    String defaultListFileName = null;
     Map<String, String> keyToDisplayName = new HashMap<String, String>();
 
-    orderedDefns = Tables.getInstance().getDatabase().getUserDefinedColumns(appName, db, tableId);
-    defaultDetailFileName = TableUtil.get().getDetailViewFilename(Tables.getInstance(), appName, db, tableId);
-    defaultListFileName = TableUtil.get().getListViewFilename(Tables.getInstance(), appName, db, tableId);
+    TableMetadataSnapshot snapshot = TableMetadataCache.get().getSnapshot(appName, db, tableId);
+    OrderedColumns orderedDefns = snapshot.getColumnDefinitions();
+    String defaultDetailFileName = snapshot.getDetailViewFilename();
+    String defaultListFileName = snapshot.getListViewFilename();
 
     for (ColumnDefinition cd : orderedDefns.getColumnDefinitions()) {
       String elementName = cd.getElementName();
       if (elementName != null) {
         pathToKey.put(cd.getElementName(), cd.getElementKey());
-
-        String localizedDisplayName;
-        localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(Tables.getInstance(), appName,
-            db, tableId,
-            cd.getElementKey());
-
-        keyToDisplayName.put(cd.getElementKey(), localizedDisplayName);
+        keyToDisplayName.put(cd.getElementKey(),
+            snapshot.getLocalizedDisplayName(cd.getElementKey()));
       }
     }
 
@@ -20,6 +20,7 @@ import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.*;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.content.Context;
 import android.widget.Toast;
@@ -71,11 +72,11 @@ public class PreferenceUtil {
     Integer result = null;
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       result = ColumnUtil.get().getColumnWidth(Tables.getInstance(), appName, db, tableId, elementKey);
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
+        DbHandlePool.get().release(appName, db);
       }
     }
     return result;
@@ -16,6 +16,7 @@
 package org.opendatakit.tables.utils;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,7 @@ import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.content.ComponentName;
 import android.content.ContentResolver;
@@ -316,6 +318,31 @@ public class SurveyUtil {
     return Uri.parse(uriStr);
   }
 
+  /**
+   * Get the instanceId passed to Survey in the frame of the Uri of an add or
+   * edit Intent built by this class.
+   *
+   * @param surveyIntent
+   * @return the id of the row, or null if it cannot be found
+   */
+  static String getInstanceIdFromSurveyIntent(Intent surveyIntent) {
+    Uri uri = surveyIntent.getData();
+    if (uri == null || uri.getEncodedFragment() == null) {
+      return null;
+    }
+    String prefix = URI_SURVEY_QUERY_PARAM_INSTANCE_ID + "=";
+    for (String param : uri.getEncodedFragment().split("&")) {
+      if (param.startsWith(prefix)) {
+        try {
+          return URLDecoder.decode(param.substring(prefix.length()), ApiConstants.UTF8_ENCODE);
+        } catch (UnsupportedEncodingException e) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
   /**
    * TODO: Eventually will launch the Intent with the correct return code.
    * For now,
@@ -330,6 +357,7 @@ public class SurveyUtil {
     Context ctxt = activityToAwaitReturn.getApplicationContext();
     if (DependencyChecker.isPackageInstalled(ctxt, DependencyChecker.surveyAppPkgName)) {
       activityToAwaitReturn.setActionTableId(tableId);
+      activityToAwaitReturn.setActionRowId(getInstanceIdFromSurveyIntent(surveyAddIntent));
       activityToAwaitReturn.startActivityForResult(
               surveyAddIntent,
               Constants.RequestCodes.ADD_ROW_SURVEY);
@@ -414,6 +442,7 @@ public class SurveyUtil {
     Context ctxt = activityToAwaitReturn.getApplicationContext();
     if (DependencyChecker.isPackageInstalled(ctxt, DependencyChecker.surveyAppPkgName)){
       activityToAwaitReturn.setActionTableId(tableId);
+      activityToAwaitReturn.setActionRowId(rowId);
       activityToAwaitReturn.startActivityForResult(
               surveyEditIntent,
               Constants.RequestCodes.EDIT_ROW_SURVEY);
@@ -505,7 +534,7 @@ public class SurveyUtil {
       String formId;
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbHandlePool.get().acquire(appName);
         List<KeyValueStoreEntry> kvsList =  Tables.getInstance().getDatabase()
                 .getDBTableMetadata(appName, db, tableId, SurveyUtil.KVS_PARTITION, SurveyUtil.KVS_ASPECT, SurveyUtil.KEY_FORM_ID );
         if ( kvsList.size() != 1 ) {
@@ -515,7 +544,7 @@ public class SurveyUtil {
         }
       } finally {
         if ( db != null ) {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbHandlePool.get().release(appName, db);
         }
       }
       if (formId == null) {
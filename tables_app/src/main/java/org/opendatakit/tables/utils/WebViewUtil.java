@@ -37,6 +37,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.database.service.OdkDbRow;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -134,12 +135,12 @@ public class WebViewUtil {
       ArrayList<Map<String, Object>> choices;
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbHandlePool.get().acquire(appName);
         choices = (ArrayList<Map<String, Object>>) ColumnUtil.get().getDisplayChoicesList(
             Tables.getInstance(), appName, db, tableId, colDefn.getElementKey());
       } finally {
         if (db != null) {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbHandlePool.get().release(appName, db);
         }
       }
       // we have to validate it. this validate function just returns null if
@@ -254,13 +255,13 @@ public class WebViewUtil {
     {
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbHandlePool.get().acquire(appName);
 
         adminColumns = Tables.getInstance().getDatabase().getAdminColumns();
         userTable = Tables.getInstance().getDatabase().getRowsWithId(appName, db, tableId, orderedDefns, rowId);
       } finally {
         if (db != null) {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbHandlePool.get().release(appName, db);
         }
       }
     }
@@ -23,6 +23,7 @@ import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.content.Context;
 import android.widget.ArrayAdapter;
@@ -37,7 +38,7 @@ public class CellValueView {
 
     OdkDbHandle db = null;
     try {
-      db = app.getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       ArrayList<Map<String,Object>> displayChoices = (ArrayList<Map<String, Object>>) 
           ColumnUtil.get().getDisplayChoicesList(app, appName, db, tableId, cd.getElementKey());
       if (displayChoices != null) {
@@ -47,7 +48,7 @@ public class CellValueView {
       }
     } finally {
       if ( db != null ) {
-        app.getDatabase().closeDatabase(appName, db);
+        DbHandlePool.get().release(appName, db);
       }
     }
   }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.Arrays;
+
+/**
+ * The horizontal layout of the columns of a {@link TabularView}: each column is
+ * preceded by a border of {@link TabularView#BORDER_WIDTH}, and the last is
+ * followed by one.
+ * <p>
+ * The left border of every column is held as a prefix sum of the widths, so
+ * that finding the column under an x coordinate is a binary search rather than
+ * a walk over every column. The header and data views of one part of a
+ * spreadsheet share a single index.
+ */
+class ColumnOffsetIndex {
+
+  private final int[] widths;
+  /**
+   * offsets[i] is the x coordinate of the left border of column i;
+   * offsets[widths.length] is that of the border after the last column.
+   */
+  private final int[] offsets;
+
+  ColumnOffsetIndex(int[] widths) {
+    this.widths = widths;
+    this.offsets = new int[widths.length + 1];
+    for (int i = 0; i < widths.length; ++i) {
+      offsets[i + 1] = offsets[i] + TabularView.BORDER_WIDTH + widths[i];
+    }
+  }
+
+  /**
+   * Build the index of a subset of these columns.
+   *
+   * @param columns
+   *          the positions, in this index, of the columns to keep, in the
+   *          order they are to be laid out
+   * @return
+   */
+  ColumnOffsetIndex select(int[] columns) {
+    int[] selected = new int[columns.length];
+    for (int i = 0; i < columns.length; ++i) {
+      selected[i] = widths[columns[i]];
+    }
+    return new ColumnOffsetIndex(selected);
+  }
+
+  int getColumnCount() {
+    return widths.length;
+  }
+
+  int getWidth(int column) {
+    return widths[column];
+  }
+
+  /**
+   * The widths of the columns. The returned array must not be modified.
+   */
+  int[] getWidths() {
+    return widths;
+  }
+
+  /**
+   * @return the x coordinate of the left border of the column
+   */
+  int getBorderLeft(int column) {
+    return offsets[column];
+  }
+
+  /**
+   * @return the x coordinate of the first pixel inside the column
+   */
+  int getCellLeft(int column) {
+    return offsets[column] + TabularView.BORDER_WIDTH;
+  }
+
+  /**
+   * @return the width of all the columns, including every border
+   */
+  int getTotalWidth() {
+    return offsets[widths.length] + TabularView.BORDER_WIDTH;
+  }
+
+  /**
+   * Find the column that x falls in, counting a column's left border as part
+   * of it. Coordinates before the first column map to it, and coordinates
+   * after the last column map to the last.
+   *
+   * @param x
+   * @return the column, or -1 if there are no columns
+   */
+  int getColumnAt(int x) {
+    if (widths.length == 0) {
+      return -1;
+    }
+    int result = Arrays.binarySearch(offsets, 0, widths.length, x);
+    if (result >= 0) {
+      return result;
+    }
+    // in case of a miss binary search returns (-insertionPoint - 1), and we
+    // want the column before the insertion point.
+    int column = -result - 2;
+    return (column < 0) ? 0 : column;
+  }
+}
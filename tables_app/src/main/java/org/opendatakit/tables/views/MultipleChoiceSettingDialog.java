@@ -27,6 +27,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
 
 import android.app.Dialog;
 import android.content.Context;
@@ -76,7 +77,7 @@ public class MultipleChoiceSettingDialog extends Dialog {
 
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
+      db = DbHandlePool.get().acquire(appName);
       choices = (ArrayList<Map<String, Object>>) ColumnUtil.get().getDisplayChoicesList(
           Tables.getInstance(), appName, db, tableId, cd.getElementKey());
     } catch (ServicesAvailabilityException e) {
@@ -86,7 +87,7 @@ public class MultipleChoiceSettingDialog extends Dialog {
     } finally {
       if (db != null) {
         try {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbHandlePool.get().release(appName, db);
         } catch (ServicesAvailabilityException e) {
           WebLogger.getLogger(appName).printStackTrace(e);
           WebLogger.getLogger(appName).e(TAG, "Unable to close database");
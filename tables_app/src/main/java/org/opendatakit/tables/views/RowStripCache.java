@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+/**
+ * Holds rendered rows of a {@link TabularView} as bitmaps, so that a row that
+ * scrolls back into view can be drawn with a single bitmap blit rather than by
+ * drawing each of its cells again.
+ * <p>
+ * A strip covers the range of columns that was being painted when it was
+ * drawn. The strips of each range are held apart and keyed by row index, so
+ * that looking one up does not allocate, and so that scrolling sideways and
+ * back finds the strips of the earlier range still there. When the cache is
+ * full, the strips of the ranges least recently drawn are dropped first, and
+ * then the strips of the current range farthest from the row being added.
+ * Bitmaps of dropped strips are kept in a small pool and handed back out for
+ * strips of the same dimensions.
+ * <p>
+ * A strip handed to the canvas stays referenced by the frame being drawn, which
+ * on a hardware-accelerated view is rendered after onDraw returns. So a strip
+ * drawn in the current frame is never dropped, even if that puts the cache
+ * over its budget until the next frame, and a dropped bitmap goes back to the
+ * pool only when the next frame begins, see {@link #beginFrame()}. Bitmaps are
+ * never recycled; the ones that do not fit in the pool are left to the
+ * garbage collector.
+ */
+class RowStripCache {
+
+  /** how many dropped bitmaps to hold for reuse */
+  private static final int MAX_POOLED_BITMAPS = 8;
+
+  /**
+   * The strips of one range of columns.
+   */
+  private static final class ColumnRange {
+    final int firstColumn;
+    final int lastColumn;
+    final SparseArray<Bitmap> strips = new SparseArray<Bitmap>();
+    /** the frame in which each strip was last drawn */
+    final SparseIntArray drawnInFrame = new SparseIntArray();
+
+    ColumnRange(int firstColumn, int lastColumn) {
+      this.firstColumn = firstColumn;
+      this.lastColumn = lastColumn;
+    }
+  }
+
+  private final int mMaxBytes;
+  /** least recently drawn first */
+  private final List<ColumnRange> mRanges = new ArrayList<ColumnRange>();
+  private final List<Bitmap> mPool = new ArrayList<Bitmap>(MAX_POOLED_BITMAPS);
+  /** bitmaps dropped during the current frame; they may still be drawn */
+  private final List<Bitmap> mDropped = new ArrayList<Bitmap>();
+  private int mBytes = 0;
+  private int mFrame = 0;
+
+  /**
+   * @param maxBytes
+   *          upper bound on the total size of the cached strips, outside of
+   *          a frame
+   */
+  RowStripCache(int maxBytes) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Called at the start of every onDraw. The bitmaps dropped during the last
+   * frame can no longer be drawn, and may be reused.
+   */
+  void beginFrame() {
+    ++mFrame;
+    for (int i = 0; i < mDropped.size(); ++i) {
+      if (mPool.size() < MAX_POOLED_BITMAPS) {
+        mPool.add(mDropped.get(i));
+      }
+    }
+    mDropped.clear();
+  }
+
+  /**
+   * Get the strip of a row, which the caller is about to draw.
+   */
+  Bitmap get(int row, int firstColumn, int lastColumn) {
+    ColumnRange range = touch(firstColumn, lastColumn);
+    if (range == null) {
+      return null;
+    }
+    Bitmap strip = range.strips.get(row);
+    if (strip != null) {
+      range.drawnInFrame.put(row, mFrame);
+    }
+    return strip;
+  }
+
+  /**
+   * Add the strip of a row, which the caller is about to draw.
+   */
+  void put(int row, int firstColumn, int lastColumn, Bitmap strip) {
+    ColumnRange range = touch(firstColumn, lastColumn);
+    if (range == null) {
+      range = new ColumnRange(firstColumn, lastColumn);
+      mRanges.add(range);
+    }
+    int existing = range.strips.indexOfKey(row);
+    if (existing >= 0) {
+      release(range.strips.valueAt(existing));
+    }
+    range.strips.put(row, strip);
+    range.drawnInFrame.put(row, mFrame);
+    mBytes += strip.getByteCount();
+
+    // the other ranges go first, least recently drawn first
+    while (mBytes > mMaxBytes && mRanges.size() > 1) {
+      ColumnRange victim = mRanges.get(0);
+      if (victim == range) {
+        break;
+      }
+      dropAll(victim);
+      mRanges.remove(0);
+    }
+    while (mBytes > mMaxBytes && range.strips.size() > 1) {
+      int first = 0;
+      int last = range.strips.size() - 1;
+      int victim = (row - range.strips.keyAt(first) > range.strips.keyAt(last) - row) ? first
+          : last;
+      if (isDrawnInThisFrame(range, victim)) {
+        victim = (victim == first) ? last : first;
+        if (isDrawnInThisFrame(range, victim)) {
+          // everything left is on screen; over budget until the next frame
+          break;
+        }
+      }
+      Bitmap b = range.strips.valueAt(victim);
+      range.drawnInFrame.delete(range.strips.keyAt(victim));
+      range.strips.removeAt(victim);
+      release(b);
+    }
+  }
+
+  /**
+   * Drop the strips of one row, e.g., because its contents changed.
+   */
+  void remove(int row) {
+    for (int i = 0; i < mRanges.size(); ++i) {
+      ColumnRange range = mRanges.get(i);
+      int existing = range.strips.indexOfKey(row);
+      if (existing >= 0) {
+        Bitmap b = range.strips.valueAt(existing);
+        range.strips.removeAt(existing);
+        range.drawnInFrame.delete(row);
+        release(b);
+      }
+    }
+  }
+
+  /**
+   * Get a bitmap of the given size into which a new strip can be drawn. The
+   * contents of the returned bitmap are undefined.
+   */
+  Bitmap obtain(int width, int height) {
+    for (int i = 0; i < mPool.size(); ++i) {
+      Bitmap b = mPool.get(i);
+      if (b.getWidth() == width && b.getHeight() == height) {
+        mPool.remove(i);
+        return b;
+      }
+    }
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  /**
+   * Drop every strip and every pooled bitmap, e.g., when the view is detached.
+   */
+  void clear() {
+    for (int i = 0; i < mRanges.size(); ++i) {
+      dropAll(mRanges.get(i));
+    }
+    mRanges.clear();
+    mDropped.clear();
+    mPool.clear();
+  }
+
+  /**
+   * Find the strips of a range of columns and mark them as the most recently
+   * drawn.
+   *
+   * @return null if no strips of the range are held
+   */
+  private ColumnRange touch(int firstColumn, int lastColumn) {
+    int last = mRanges.size() - 1;
+    for (int i = last; i >= 0; --i) {
+      ColumnRange range = mRanges.get(i);
+      if (range.firstColumn == firstColumn && range.lastColumn == lastColumn) {
+        if (i != last) {
+          mRanges.remove(i);
+          mRanges.add(range);
+        }
+        return range;
+      }
+    }
+    return null;
+  }
+
+  private boolean isDrawnInThisFrame(ColumnRange range, int index) {
+    return range.drawnInFrame.get(range.strips.keyAt(index), -1) == mFrame;
+  }
+
+  private void dropAll(ColumnRange range) {
+    for (int i = 0; i < range.strips.size(); ++i) {
+      release(range.strips.valueAt(i));
+    }
+    range.strips.clear();
+    range.drawnInFrame.clear();
+  }
+
+  private void release(Bitmap b) {
+    mBytes -= b.getByteCount();
+    // may be in the frame being drawn; pooled when the next one begins
+    mDropped.add(b);
+  }
+}
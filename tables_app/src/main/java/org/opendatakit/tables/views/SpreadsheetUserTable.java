@@ -17,25 +17,43 @@ package org.opendatakit.tables.views;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.opendatakit.aggregate.odktables.rest.ElementType;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.JoinColumn;
 import org.opendatakit.common.android.data.OrderedColumns;
-import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.database.service.OdkDbRow;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.CellRenderBlock;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 import org.opendatakit.tables.fragments.AbsTableDisplayFragment;
+import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.SQLQueryStruct;
 
 import android.content.Context;
 
 /**
  * Wrapper class for UserTable that presents the table in the way that the
  * configuration says the UserTable should be presented.
+ * <p>
+ * The rows themselves are not held here; they are read a page at a time
+ * through a {@link PagedRowSource} so that opening a table does not require
+ * materializing every row. Once the user sorts or filters a table small
+ * enough to be held whole, it is held, and sorted and filtered in memory
+ * instead of by querying again.
+ * <p>
+ * Constructing one reads from the database, so it should be done off the UI
+ * thread, e.g., with a
+ * {@link org.opendatakit.tables.tasks.SpreadsheetUserTableLoadTask}.
  *
  * @author Administrator
  *
@@ -44,51 +62,175 @@ public class SpreadsheetUserTable {
   @SuppressWarnings("unused")
   private static final String TAG = "SpreadsheetUserTable";
 
+  /** returned by {@link #refreshRow(String, boolean)} */
+  public static final int ALL_ROWS_CHANGED = -1;
+
   private final AbsTableDisplayFragment fragment;
+  private final TableMetadataSnapshot snapshot;
+  private final Map<String, ColorRuleGroup> columnColorRuleGroups;
+  private final Map<String, ArrayList<JoinColumn>> columnJoins;
   private final String indexColumnElementKey;
   private final String[] header;
   private final String[] spreadsheetIndexToElementKey;
   private final Map<String, Integer> elementKeyToSpreadsheetIndex;
   private final Map<String, ArrayList<Map<String,Object>>> elementKeyToDisplayChoicesList;
-  UserTable userTable;
+  private final PagedRowSource rows;
+  private volatile int numberOfRows;
 
   public SpreadsheetUserTable(AbsTableDisplayFragment frag) throws ServicesAvailabilityException {
     this.fragment = frag;
 
-    ArrayList<String> colOrder;
+    SQLQueryStruct sqlQueryStruct = IntentUtil.getSQLQueryStructFromBundle(
+        frag.getActivity().getIntent().getExtras());
+    rows = new PagedRowSource(frag.getAppName(), frag.getTableId(), frag.getColumnDefinitions(),
+        sqlQueryStruct);
+
+    String sortColumn;
     OdkDbHandle db = null;
     try {
-      db = Tables.getInstance().getDatabase().openDatabase(frag.getAppName());
-      userTable = getUserTable();
-      indexColumnElementKey = TableUtil.get().getIndexColumn(Tables.getInstance(), getAppName(), db, getTableId());
-      colOrder = TableUtil.get().getColumnOrder(Tables.getInstance(), frag.getAppName(), db, frag.getTableId(),
-              frag.getColumnDefinitions());
-
-      header = new String[colOrder.size()];
-      spreadsheetIndexToElementKey = new String[colOrder.size()];
-      elementKeyToSpreadsheetIndex = new HashMap<String, Integer>();
-      elementKeyToDisplayChoicesList = new HashMap<String, ArrayList<Map<String,Object>>>();
-
-      for (int i = 0; i < colOrder.size(); ++i) {
-        String elementKey = colOrder.get(i);
-        String localizedDisplayName;
-        localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(Tables.getInstance(),
-            getAppName(), db, frag.getTableId(),
-            elementKey);
-
-        header[i] = localizedDisplayName;
-        spreadsheetIndexToElementKey[i] = elementKey;
-        elementKeyToSpreadsheetIndex.put(elementKey, i);
-
-        ArrayList<Map<String,Object>> choices =
-        ColumnUtil.get().getDisplayChoicesList(Tables.getInstance(), getAppName(), db, frag.getTableId(), elementKey);
-        elementKeyToDisplayChoicesList.put(elementKey, choices);
-      }
+      db = DbHandlePool.get().acquire(frag.getAppName());
+      snapshot = TableMetadataCache.get().getSnapshot(frag.getAppName(), db, frag.getTableId());
+      columnColorRuleGroups = snapshot.getColumnColorRuleGroups(db);
+      // read here, off the main thread, for the data cell context menu
+      columnJoins = snapshot.getColumnJoins(db);
+      sortColumn = TableUtil.get().getSortColumn(Tables.getInstance(), frag.getAppName(), db,
+          frag.getTableId());
     } finally {
       if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(frag.getAppName(), db);
+        DbHandlePool.get().release(frag.getAppName(), db);
       }
     }
+    indexColumnElementKey = snapshot.getIndexColumn();
+    List<String> colOrder = snapshot.getColumnOrder();
+
+    header = new String[colOrder.size()];
+    spreadsheetIndexToElementKey = new String[colOrder.size()];
+    elementKeyToSpreadsheetIndex = new HashMap<String, Integer>();
+    elementKeyToDisplayChoicesList = new HashMap<String, ArrayList<Map<String,Object>>>();
+
+    for (int i = 0; i < colOrder.size(); ++i) {
+      String elementKey = colOrder.get(i);
+      header[i] = snapshot.getLocalizedDisplayName(elementKey);
+      spreadsheetIndexToElementKey[i] = elementKey;
+      elementKeyToSpreadsheetIndex.put(elementKey, i);
+      elementKeyToDisplayChoicesList.put(elementKey, snapshot.getDisplayChoicesList(elementKey));
+    }
+    if (sortColumn != null && sortColumn.length() != 0) {
+      // keep the direction of the query if it orders by the same column
+      rows.sortBy(sortColumn, sortColumn.equals(sqlQueryStruct.orderByElementKey)
+          ? sqlQueryStruct.orderByDirection : "ASC");
+    }
+    numberOfRows = rows.getNumberOfRows();
+  }
+
+  /**
+   * @return true if sorting and filtering are done in memory, without the
+   *         database
+   */
+  public boolean isHoldingAllRows() {
+    return rows.isHoldingAllRows();
+  }
+
+  /**
+   * @return true if the rows are held, or few enough to be held when the user
+   *         sorts or filters, so that {@link #filterBy(String, String)} is
+   *         possible
+   */
+  public boolean canHoldAllRows() {
+    return rows.canHoldAllRows();
+  }
+
+  /**
+   * @return the column the rows are sorted by, or null if they are in the
+   *         order of the query
+   */
+  public String getSortElementKey() {
+    return rows.getSortElementKey();
+  }
+
+  /**
+   * Sort the rows by a column. Takes only milliseconds if
+   * {@link #isHoldingAllRows()}; otherwise it queries the database, holding
+   * the rows first if there are few enough, and must not be called on the UI
+   * thread. Either way the views showing this table must be rebuilt
+   * afterward. Does not change the sort column stored in the table's
+   * properties.
+   *
+   * @param elementKey
+   *          null to go back to the order of the query
+   * @param direction
+   *          ASC or DESC
+   * @throws ServicesAvailabilityException
+   */
+  public void sortBy(String elementKey, String direction) throws ServicesAvailabilityException {
+    rows.holdAllRows();
+    rows.sortBy(elementKey, direction);
+    numberOfRows = rows.getNumberOfRows();
+    if (!rows.isHoldingAllRows() && numberOfRows != 0) {
+      // fetch the first page here rather than when it is drawn
+      rows.getRowAtIndex(0);
+    }
+  }
+
+  /**
+   * Show only the rows whose value in a column is the given value. Only
+   * possible if the rows can be held, see {@link #canHoldAllRows()}; they are
+   * fetched first if they are not held yet, in which case this must not be
+   * called on the UI thread. The views showing this table must be rebuilt
+   * afterward.
+   *
+   * @param elementKey
+   *          null to show every row
+   * @param value
+   *          the raw value to keep; may be null
+   * @return false if the rows are too many to be held, in which case nothing
+   *         was done
+   * @throws ServicesAvailabilityException
+   */
+  public boolean filterBy(String elementKey, String value) throws ServicesAvailabilityException {
+    if (!rows.holdAllRows() || !rows.filterBy(elementKey, value)) {
+      return false;
+    }
+    numberOfRows = rows.getNumberOfRows();
+    return true;
+  }
+
+  public boolean isFiltered() {
+    return rows.isFiltered();
+  }
+
+  /**
+   * Pick up a row that was edited or added elsewhere, e.g., in Survey, while
+   * keeping the properties of the table and, where possible, the rows already
+   * fetched. Reads from the database, so must not be called on the UI thread.
+   *
+   * @param rowId
+   * @param added
+   *          true if the row may be new, false if it was edited
+   * @return the index of the only row whose cells changed, or
+   *         {@link #ALL_ROWS_CHANGED} if the rows may have moved or the number
+   *         of rows changed, in which case the views showing this table must
+   *         be rebuilt rather than just redrawn
+   * @throws ServicesAvailabilityException
+   */
+  public int refreshRow(String rowId, boolean added) throws ServicesAvailabilityException {
+    int changedIndex;
+    if (added) {
+      rows.refreshAddedRow(rowId);
+      changedIndex = ALL_ROWS_CHANGED;
+    } else {
+      changedIndex = rows.refreshRow(rowId);
+    }
+    numberOfRows = rows.getNumberOfRows();
+    return changedIndex;
+  }
+
+  /**
+   * Stop any background fetching of rows. Called when the owning view is torn
+   * down.
+   */
+  public void close() {
+    rows.close();
   }
 
   public String getTableId() {
@@ -107,44 +249,90 @@ public class SpreadsheetUserTable {
     return elementKeyToDisplayChoicesList.get(elementKey);
   }
 
-  public ColorRuleGroup getColumnColorRuleGroup(OdkDbHandle db, String elementKey, String[] adminColumns) throws
-      ServicesAvailabilityException {
-    return ColorRuleGroup.getColumnColorRuleGroup(Tables.getInstance(),
-        getAppName(), db, getTableId(), elementKey, adminColumns);
+  /**
+   * @return the properties of the table this was built from; shared, so must
+   *         not be modified
+   */
+  public TableMetadataSnapshot getMetadataSnapshot() {
+    return snapshot;
   }
 
-  public ColorRuleGroup getStatusColumnRuleGroup(OdkDbHandle db, String[] adminColumns) throws ServicesAvailabilityException {
-    return ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance(),
-        getAppName(), db, getTableId(), adminColumns);
+  /**
+   * @return the column color rule groups by element key, read along with the
+   *         {@link #getMetadataSnapshot()}
+   */
+  public Map<String, ColorRuleGroup> getColumnColorRuleGroups() {
+    return columnColorRuleGroups;
   }
 
-  public ColorRuleGroup getTableColorRuleGroup(OdkDbHandle db, String[] adminColumns) throws ServicesAvailabilityException {
-    return ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance(),
-        getAppName(), db, getTableId(), adminColumns);
+  /**
+   * @param elementKey
+   * @return the join associations of the column, read along with the
+   *         {@link #getMetadataSnapshot()}; null or empty if there are none
+   */
+  public ArrayList<JoinColumn> getColumnJoins(String elementKey) {
+    return columnJoins.get(elementKey);
   }
 
   int getNumberOfRows() {
-    UserTable table = fragment.getUserTable();
-    if ( table == null ) {
-      return 0;
-    }
-    return table.getNumberOfRows();
+    return numberOfRows;
+  }
+
+  public OdkDbRow getRowAtIndex(int index) throws ServicesAvailabilityException {
+    return rows.getRowAtIndex(index);
   }
 
-  public OdkDbRow getRowAtIndex(int index) {
-    UserTable table = fragment.getUserTable();
-    if ( table == null ) {
-      return null;
+  /**
+   * Set the color rules used when rendering the cells. Must be called before
+   * {@link #getRenderBlock(int)}.
+   *
+   * @param elementKeyToColorRuleGroup
+   * @param tableColorRuleGroup
+   * @param statusColumnRuleGroup
+   */
+  void setColorRuleGroups(Map<String, ColorRuleGroup> elementKeyToColorRuleGroup,
+      ColorRuleGroup tableColorRuleGroup, ColorRuleGroup statusColumnRuleGroup) {
+    ElementType[] types = new ElementType[spreadsheetIndexToElementKey.length];
+    ColorRuleGroup[] columnColorRuleGroups = new ColorRuleGroup[spreadsheetIndexToElementKey.length];
+    for (int i = 0; i < spreadsheetIndexToElementKey.length; ++i) {
+      types[i] = getColumnByIndex(i).getType();
+      columnColorRuleGroups[i] = elementKeyToColorRuleGroup.get(spreadsheetIndexToElementKey[i]);
     }
-    return table.getRowAtIndex(index);
+    rows.setRenderLayout(new CellRenderBlock.Layout(spreadsheetIndexToElementKey, types,
+        columnColorRuleGroups, tableColorRuleGroup, statusColumnRuleGroup));
+  }
+
+  /**
+   * Get the precomputed display text and colors of the block of rows
+   * containing rowIndex. Cells are addressed by the index of their column in
+   * the spreadsheet, as returned by {@link #getColumnIndexOfElementKey(String)}.
+   * Does not wait on the database.
+   *
+   * @param rowIndex
+   * @return null if the rows are still being fetched; the page listeners are
+   *         told when they land
+   */
+  CellRenderBlock getRenderBlock(int rowIndex) {
+    return rows.getRenderBlock(rowIndex);
+  }
+
+  void addPageListener(PagedRowSource.PageListener listener) {
+    rows.addPageListener(listener);
   }
 
-  public UserTable getUserTable() {
-    return fragment.getUserTable();
+  void removePageListener(PagedRowSource.PageListener listener) {
+    rows.removePageListener(listener);
   }
 
-  public UserTable getCachedUserTable() {
-    return userTable;
+  /**
+   * Called from the draw path with the range of rows that is on screen so
+   * that the neighboring pages can be fetched ahead of the scroll.
+   *
+   * @param firstRow
+   * @param lastRow
+   */
+  void setViewport(int firstRow, int lastRow) {
+    rows.setViewport(firstRow, lastRow);
   }
 
   // ///////////////////////////////////////////////////////////////////////////
@@ -163,8 +351,7 @@ public class SpreadsheetUserTable {
   // These need to be re-worked...
 
   public boolean hasData() {
-    UserTable table = fragment.getUserTable();
-    return !(table == null || (header.length == 0));
+    return header.length != 0;
   }
 
   public static class SpreadsheetCell {
@@ -175,17 +362,16 @@ public class SpreadsheetUserTable {
     public String value;
   };
 
-  public SpreadsheetCell getSpreadsheetCell(Context context, CellInfo cellInfo) {
+  public SpreadsheetCell getSpreadsheetCell(Context context, CellInfo cellInfo)
+      throws ServicesAvailabilityException {
     SpreadsheetCell cell = new SpreadsheetCell();
-    userTable = getUserTable();
     cell.rowNum = cellInfo.rowId;
-    cell.row = userTable.getRowAtIndex(cellInfo.rowId);
+    cell.row = rows.getRowAtIndex(cellInfo.rowId);
     cell.elementKey = cellInfo.elementKey;
     OrderedColumns orderedDefns = getColumnDefinitions();
     ColumnDefinition cd = orderedDefns.find(cellInfo.elementKey);
-    getTableId();
-    cell.displayText = userTable
-        .getDisplayTextOfData(cellInfo.rowId, cd.getType(), cellInfo.elementKey);
+    cell.displayText = rows.getDisplayTextOfData(cellInfo.rowId, cd.getType(),
+        cellInfo.elementKey);
     cell.value = cell.row.getDataByKey(cellInfo.elementKey);
     return cell;
   }
@@ -24,9 +24,8 @@ import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
 import org.opendatakit.common.android.utilities.*;
-import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
-import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 import org.opendatakit.tables.views.components.LockableHorizontalScrollView;
 import org.opendatakit.tables.views.components.LockableScrollView;
 
@@ -35,6 +34,7 @@ import android.view.ContextMenu;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
 import android.widget.Toast;
@@ -62,7 +62,11 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private final Controller controller;
   private final SpreadsheetUserTable table;
   private final int fontSize;
-  private final int completeColWidths[];
+  /**
+   * The layout of every column of the spreadsheet, in column order. The
+   * frozen and scrolling parts of an indexed table are selected from it.
+   */
+  private final ColumnOffsetIndex completeColumns;
   
   private final Map<String, ColorRuleGroup> mElementKeyToColorRuleGroup;
 
@@ -81,6 +85,25 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private TabularView indexHeader;
   private TabularView mainData;
   private TabularView mainHeader;
+  private TabularView statusData;
+  private TabularView[] tabularViews;
+
+  /**
+   * The TabularViews only paint the region of the table near the screen, so
+   * they must be told when any of the scroll views move.
+   */
+  private final ViewTreeObserver.OnScrollChangedListener scrollChangedListener =
+      new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+          if (tabularViews == null) {
+            return;
+          }
+          for (int i = 0; i < tabularViews.length; ++i) {
+            tabularViews[i].onViewportScrolled();
+          }
+        }
+      };
 
   private View.OnTouchListener mainDataCellClickListener;
   private View.OnTouchListener mainHeaderCellClickListener;
@@ -96,40 +119,24 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     this.controller = controller;
     this.table = table;
 
-    // TODO: figure out if we can invalidate a screen region
-    // to get it to render the screen rather than
-    // disabling the hardware acceleration on this view.
-    // Disable it so that you don't have to tap the screen to
-    // after a scroll action to see the new portion of the
-    // spreadsheet.
-    this.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-
     // We have to initialize the items that will be shared across the
     // TabularView objects.
     this.mElementKeyToColorRuleGroup = new HashMap<String, ColorRuleGroup>();
 
-    // if a custom font size is defined in the KeyValueStore, use that
-    // if not, use the general font size defined in preferences
-    String appName = table.getAppName();
-    OdkDbHandle db = null;
-    try {
-      db = Tables.getInstance().getDatabase().openDatabase(appName);
-      String[] adminColumns = Tables.getInstance().getDatabase().getAdminColumns();
-      for (ColumnDefinition cd : table.getColumnDefinitions().getColumnDefinitions()) {
-        mElementKeyToColorRuleGroup.put(cd.getElementKey(),
-            table.getColumnColorRuleGroup(db, cd.getElementKey(), adminColumns));
-      }
-      mStatusColumnRuleGroup = ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance(),
-          appName, db, table.getTableId(), adminColumns);
-      mTableColorRuleGroup = ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance(),
-          appName, db, table.getTableId(), adminColumns);
-      completeColWidths = getColumnWidths(db);
-      fontSize = TableUtil.get().getSpreadsheetViewFontSize(Tables.getInstance(), appName, db, table.getTableId());
-    } finally {
-      if ( db != null ) {
-        Tables.getInstance().getDatabase().closeDatabase(appName, db);
-      }
+    // the properties were read when the table was built; if a custom font
+    // size is defined in the KeyValueStore, it is among them
+    TableMetadataSnapshot snapshot = table.getMetadataSnapshot();
+    for (ColumnDefinition cd : table.getColumnDefinitions().getColumnDefinitions()) {
+      mElementKeyToColorRuleGroup.put(cd.getElementKey(),
+          table.getColumnColorRuleGroups().get(cd.getElementKey()));
     }
+    mStatusColumnRuleGroup = snapshot.getStatusColumnRuleGroup();
+    mTableColorRuleGroup = snapshot.getTableColorRuleGroup();
+    completeColumns = new ColumnOffsetIndex(getColumnWidths());
+    fontSize = snapshot.getSpreadsheetViewFontSize();
+
+    table.setColorRuleGroups(mElementKeyToColorRuleGroup, mTableColorRuleGroup,
+        mStatusColumnRuleGroup);
 
     initListeners();
     if (!table.isIndexed()) {
@@ -141,6 +148,23 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     }
     mainData.setOnTouchListener(mainDataCellClickListener);
     mainHeader.setOnTouchListener(mainHeaderCellClickListener);
+    if (table.isIndexed()) {
+      tabularViews = new TabularView[] { mainData, mainHeader, indexData, indexHeader, statusData };
+    } else {
+      tabularViews = new TabularView[] { mainData, mainHeader, statusData };
+    }
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
+    super.onDetachedFromWindow();
   }
 
   /**
@@ -363,21 +387,21 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     //      "entering buildTable. indexedCol: " + indexedCol +
     // "isIndexed: " + isIndexed);
     List<String> elementKeysToDisplay = new ArrayList<String>();
-    int[] colWidths;
+    ColumnOffsetIndex columns;
     TabularView dataTable;
     TabularView headerTable;
     if (isIndexed) {
       ColumnDefinition cd = table.getColumnByElementKey(indexElementKey);
       elementKeysToDisplay.add(cd.getElementKey());
-      colWidths = new int[1];
-      colWidths[0] = completeColWidths[table.getColumnIndexOfElementKey(indexElementKey)];
+      columns = completeColumns.select(
+          new int[] { table.getColumnIndexOfElementKey(indexElementKey) });
       dataTable = TabularView.getIndexDataTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          columns, fontSize);
       headerTable = TabularView.getIndexHeaderTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          columns, fontSize);
     } else {
       int width = (indexElementKey == null || indexElementKey.length() == 0) ? table.getWidth() : table.getWidth() - 1;
-      colWidths = new int[width];
+      int[] selected = new int[width];
       int addIndex = 0;
       for (int i = 0; i < table.getWidth(); i++) {
         ColumnDefinition cd = table.getColumnByIndex(i);
@@ -385,13 +409,14 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
           continue;
         }
         elementKeysToDisplay.add(cd.getElementKey());
-        colWidths[addIndex] = completeColWidths[i];
+        selected[addIndex] = i;
         addIndex++;
       }
+      columns = (width == table.getWidth()) ? completeColumns : completeColumns.select(selected);
       dataTable = TabularView.getMainDataTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          columns, fontSize);
       headerTable = TabularView.getMainHeaderTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+          columns, fontSize);
     }
 
     LockableScrollView dataScroll;
@@ -420,21 +445,21 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   }
 
   private View buildStatusTable() {
-    int[] colWidths;
-    colWidths = new int[1];
-    colWidths[0] = TabularView.DEFAULT_STATUS_COLUMN_WIDTH;
+    ColumnOffsetIndex columns =
+        new ColumnOffsetIndex(new int[] { TabularView.DEFAULT_STATUS_COLUMN_WIDTH });
 
     dataStatusScroll = new LockableScrollView(context);
-    TabularView dataTable = TabularView.getStatusDataTable(context, this, table, colWidths,
-        fontSize, this.mElementKeyToColorRuleGroup, mStatusColumnRuleGroup);
+    TabularView dataTable = TabularView.getStatusDataTable(context, this, table, columns,
+        fontSize);
+    statusData = dataTable;
     dataTable.setVerticalFadingEdgeEnabled(true);
     dataTable.setVerticalScrollBarEnabled(false);
     dataStatusScroll.addView(dataTable, new ViewGroup.LayoutParams(dataTable.getTableWidth(),
         dataTable.getTableHeight()));
     dataStatusScroll.setVerticalFadingEdgeEnabled(true);
     dataStatusScroll.setHorizontalFadingEdgeEnabled(true);
-    TabularView headerTable = TabularView.getStatusHeaderTable(context, this, table, colWidths,
-        fontSize, this.mElementKeyToColorRuleGroup, mTableColorRuleGroup);
+    TabularView headerTable = TabularView.getStatusHeaderTable(context, this, table, columns,
+        fontSize);
     LinearLayout wrapper = new LinearLayout(context);
     wrapper.setOrientation(LinearLayout.VERTICAL);
     wrapper.addView(headerTable, headerTable.getTableWidth(), headerTable.getTableHeight());
@@ -447,6 +472,18 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     return wrapper;
   }
 
+  /**
+   * Redraw one row after its data was refreshed with
+   * {@link SpreadsheetUserTable#refreshRow(String, boolean)}.
+   *
+   * @param rowIndex
+   */
+  public void refreshRow(int rowIndex) {
+    for (TabularView view : tabularViews) {
+      view.invalidateRow(rowIndex);
+    }
+  }
+
   /**
    * Gets the x translation of the scroll. This is in particular how far you
    * have scrolled to look at columns that do not begin onscreen.
@@ -590,18 +627,12 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
    * consider if you need to be accessing column widths.
    *
    * @return
-   * @throws ServicesAvailabilityException
    */
-  public int[] getColumnWidths(OdkDbHandle db) throws ServicesAvailabilityException {
-    // So what we want to do is go through and get the column widths for each
-    // column. A problem here is that there is no caching, and if you have a
-    // lot of columns you're really working the gut of the database.
+  public int[] getColumnWidths() {
     int numberOfDisplayColumns = table.getNumberOfDisplayColumns();
     int[] columnWidths = new int[numberOfDisplayColumns];
-    String appName = table.getAppName();
 
-    Map<String, Integer> colWidths =
-            ColumnUtil.get().getColumnWidths(Tables.getInstance(), appName, db, table.getTableId(), table.getColumnDefinitions());
+    Map<String, Integer> colWidths = table.getMetadataSnapshot().getColumnWidths();
 
     for (int i = 0; i < numberOfDisplayColumns; i++) {
       ColumnDefinition cd = table.getColumnByIndex(i);
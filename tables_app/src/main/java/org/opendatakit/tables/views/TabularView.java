@@ -16,27 +16,25 @@
 package org.opendatakit.tables.views;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
 
 import org.opendatakit.common.android.data.ColorGuide;
-import org.opendatakit.common.android.data.ColorGuideGroup;
-import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
-import org.opendatakit.common.android.provider.DataTableColumns;
 import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.data.CellRenderBlock;
+import org.opendatakit.tables.data.PagedRowSource;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.view.ContextMenu;
 import android.view.View;
-import org.opendatakit.database.service.OdkDbRow;
 
 /**
  * A view that draws a single table. A single table is essentially a grid of of
@@ -73,11 +71,25 @@ class TabularView extends View {
   private static final int ROW_HEIGHT_PADDING = 14;
   private static final int HORIZONTAL_CELL_PADDING = 5;
   private static final int VERTICAL_CELL_PADDING = 9;
-  private static final int BORDER_WIDTH = 1;
+  static final int BORDER_WIDTH = 1;
+
+  /**
+   * The cached row strips of one spreadsheet may occupy this fraction of the
+   * memory class of the app. It is split in shares between the data tables,
+   * which are drawn at the same time; the headers draw a single row and cache
+   * nothing.
+   */
+  private static final int STRIP_CACHE_MEMORY_CLASS_DIVISOR = 8;
+  private static final int STRIP_CACHE_MAIN_DATA_SHARES = 4;
+  private static final int STRIP_CACHE_INDEX_DATA_SHARES = 1;
+  private static final int STRIP_CACHE_STATUS_DATA_SHARES = 1;
+  private static final int STRIP_CACHE_TOTAL_SHARES = STRIP_CACHE_MAIN_DATA_SHARES
+      + STRIP_CACHE_INDEX_DATA_SHARES + STRIP_CACHE_STATUS_DATA_SHARES;
 
   private final Controller controller;
   private final int defaultBackgroundColor;
   private final int defaultForegroundColor;
+  private final ColumnOffsetIndex mColumns;
   private final int[] columnWidths;
   private final TableLayoutType type;
   private final int rowHeight;
@@ -91,6 +103,25 @@ class TabularView extends View {
   private final Paint borderPaint;
   private final Paint highlightPaint;
 
+  /**
+   * Rendered rows of the data tables. Null for the header tables, which only
+   * ever have a single row to draw.
+   */
+  private final RowStripCache mStripCache;
+  private final Canvas mStripCanvas;
+  /**
+   * The region, in the coordinates of this view, that was painted by the last
+   * call to onDraw. So long as the visible portion of the table stays within
+   * it, scrolling does not require this view to be redrawn.
+   */
+  private final Rect mPaintedRegion = new Rect();
+  private final Rect mVisibleRegion = new Rect();
+  /**
+   * Redraws the rows that were drawn empty while their page was fetched. Null
+   * for the header tables.
+   */
+  private final PagedRowSource.PageListener mPageListener;
+
   /**
    * The abstraction of the table onto which this {@link TabularView} is
    * providing a view.
@@ -102,28 +133,12 @@ class TabularView extends View {
    */
   private final List<String> mElementKeys;
 
-  /**
-   * The map of element key to {@link ColorRuleGroup} objects for the columns of
-   * the table. This will be responsible for coloring the cells of a column.
-   */
-  private Map<String, ColorRuleGroup> mColumnColorRules;
-  private Map<String, ColorGuideGroup> mColumnColorGuideGroup;
-  /**
-   * The {@link ColorRuleGroup} object for the table. This will be responsible
-   * for things like determining row color.
-   */
-  private ColorRuleGroup mRowColorRuleGroup;
-  private ColorGuideGroup mRowColorGuideGroup;
-
   // trying to get the dimensions of the screen
   private final DisplayMetrics metrics;
 
-  // this should hold the x location of the column. so xs[12] should hold the
-  // x displacement of the left side of that column.
-  private int[] xs;
-  // this array should hold the column displacement. i think it should be the
-  // same as xs, except that the first position should be 0.
-  private int[] spans;
+  // the correspondence between the displayed elementKeys and the
+  // SpreadsheetUserTable column index (-1 for the status column)
+  private final int[] mUserDataIndex;
   // This is the number of rows represented by this TabularView. This will
   // change based on the TableType. For instance, data objects will be all the
   // data rows of the table; the header has one row.
@@ -133,162 +148,124 @@ class TabularView extends View {
    * Construct the data portion of the main portion of the table. Default colors
    * are applied.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getMainDataTable(Context context, Controller controller,
-      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, ColumnOffsetIndex columns,
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.MAIN_DATA, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        columns, TableLayoutType.MAIN_DATA, fontSize);
   }
 
   /**
    * Construct the header of the main portion of table. Default colors are
    * applied.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getMainHeaderTable(Context context, Controller controller,
-      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, ColumnOffsetIndex columns,
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.MAIN_HEADER, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        columns, TableLayoutType.MAIN_HEADER, fontSize);
   }
 
   /**
    * Construct the data portion of the indexed table. Default colors are
    * applied.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getIndexDataTable(Context context, Controller controller,
-      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, ColumnOffsetIndex columns,
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.INDEX_DATA, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        columns, TableLayoutType.INDEX_DATA, fontSize);
   }
 
   /**
    * Construct the header of the indexed portion of the table. Default colors
    * are applied.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getIndexHeaderTable(Context context, Controller controller,
-      SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, List<String> elementKeysToDisplay, ColumnOffsetIndex columns,
+      int fontSize) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.INDEX_HEADER, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        columns, TableLayoutType.INDEX_HEADER, fontSize);
   }
 
   /**
    * Construct the data portion of the status table. Default colors are applied.
    * No data is displayed in the status table.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getStatusDataTable(Context context, Controller controller,
-      SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, ColumnOffsetIndex columns, int fontSize) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("data");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
-        DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths, TableLayoutType.STATUS_DATA,
-        fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columns, TableLayoutType.STATUS_DATA,
+        fontSize);
   }
 
   /**
    * Construct the header for the status table. Default colors are applied. No
    * data is displayed in the status column.
    * 
-   * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
    * @param context
    * @param controller
-   * @param tp
    * @param table
-   * @param columnWidths
+   * @param columns
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
-   * @param rowColorRuleGroup
    * @return
    */
   public static TabularView getStatusHeaderTable(Context context, Controller controller,
-      SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      SpreadsheetUserTable table, ColumnOffsetIndex columns, int fontSize) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("header");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
-        DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.STATUS_HEADER, fontSize, elementKeyToColorRuleGroup, rowColorRuleGroup);
+        DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columns,
+        TableLayoutType.STATUS_HEADER, fontSize);
   }
 
   /**
@@ -303,7 +280,6 @@ class TabularView extends View {
    * 
    * @param context
    * @param controller
-   * @param tp
    * @param table
    *          the {@link SpreadsheetUserTable} into which this TabularView is
    *          providing a view.
@@ -316,28 +292,21 @@ class TabularView extends View {
    * @param defaultForegroundColor
    * @param defaultBackgroundColor
    * @param borderColor
-   * @param columnWidths
+   * @param columns
    * @param type
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   *          mapping of element key to the corresponding
-   *          {@link ColumnDefinition} object. Must be all the columns, NOT just
-   *          those displayed in thie TabularView.
-   * @param elementKeyToColorRuleGroup
-   *          mapping of element key to their corresponding
-   *          {@link ColorRuleGroup} objects.
    */
   private TabularView(Context context, Controller controller, SpreadsheetUserTable table,
       List<String> elementKeys, int defaultForegroundColor, int defaultBackgroundColor,
-      int borderColor, int[] columnWidths, TableLayoutType type, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup, ColorRuleGroup rowColorRuleGroup) {
+      int borderColor, ColumnOffsetIndex columns, TableLayoutType type, int fontSize) {
     super(context);
     this.controller = controller;
     this.mTable = table;
     this.mElementKeys = elementKeys;
     this.defaultBackgroundColor = defaultBackgroundColor;
     this.defaultForegroundColor = defaultForegroundColor;
-    this.columnWidths = columnWidths;
+    this.mColumns = columns;
+    this.columnWidths = columns.getWidths();
     this.type = type;
     if (this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA
         || this.type == TableLayoutType.STATUS_DATA) {
@@ -350,25 +319,6 @@ class TabularView extends View {
           "Unrecognized TableType in constructor: " + this.type.name());
       this.mNumberOfRows = this.mTable.getNumberOfRows();
     }
-    this.mColumnColorRules = elementKeyToColorRuleGroup;
-
-    this.mRowColorRuleGroup = rowColorRuleGroup;
-
-    // Initialized the ColorGuideGroups
-    if (mTable != null) {
-      this.mRowColorGuideGroup = new ColorGuideGroup(mRowColorRuleGroup, mTable.getUserTable());
-
-      Set<String> keys = elementKeyToColorRuleGroup.keySet();
-      for(String key: keys){
-        ColorRuleGroup crg = elementKeyToColorRuleGroup.get(key);
-        if (crg != null) {
-          if (this.mColumnColorGuideGroup == null) {
-            this.mColumnColorGuideGroup = new TreeMap<String, ColorGuideGroup>();
-          }
-          this.mColumnColorGuideGroup.put(key, new ColorGuideGroup(crg, mTable.getUserTable()));
-        }
-      }
-    }
 
     rowHeight = fontSize + ROW_HEIGHT_PADDING;
     highlightedCellInfo = null;
@@ -382,11 +332,33 @@ class TabularView extends View {
     highlightPaint = new Paint();
     highlightPaint.setColor(Color.CYAN);
     highlightPaint.setStrokeWidth(3);
-    totalHeight = (rowHeight + BORDER_WIDTH) * this.mNumberOfRows + BORDER_WIDTH;
-    totalWidth = BORDER_WIDTH;
-    for (int i = 0; i < columnWidths.length; i++) {
-      totalWidth += columnWidths[i] + BORDER_WIDTH;
+    if (this.type == TableLayoutType.MAIN_DATA) {
+      mStripCache = new RowStripCache(stripCacheBudget(context, STRIP_CACHE_MAIN_DATA_SHARES));
+      mStripCanvas = new Canvas();
+    } else if (this.type == TableLayoutType.INDEX_DATA) {
+      mStripCache = new RowStripCache(stripCacheBudget(context, STRIP_CACHE_INDEX_DATA_SHARES));
+      mStripCanvas = new Canvas();
+    } else if (this.type == TableLayoutType.STATUS_DATA) {
+      mStripCache = new RowStripCache(stripCacheBudget(context, STRIP_CACHE_STATUS_DATA_SHARES));
+      mStripCanvas = new Canvas();
+    } else {
+      mStripCache = null;
+      mStripCanvas = null;
+    }
+    if (isHeader()) {
+      mPageListener = null;
+    } else {
+      mPageListener = new PagedRowSource.PageListener() {
+        @Override
+        public void onPageLoaded(int firstRow, int lastRow) {
+          int top = firstRow * (rowHeight + BORDER_WIDTH);
+          int bottom = (lastRow + 1) * (rowHeight + BORDER_WIDTH) + BORDER_WIDTH;
+          postInvalidate(0, top, totalWidth, bottom);
+        }
+      };
     }
+    totalHeight = (rowHeight + BORDER_WIDTH) * this.mNumberOfRows + BORDER_WIDTH;
+    totalWidth = columns.getTotalWidth();
     setVerticalScrollBarEnabled(true);
     setVerticalFadingEdgeEnabled(true);
     setHorizontalFadingEdgeEnabled(true);
@@ -394,22 +366,10 @@ class TabularView extends View {
     setMinimumWidth(totalWidth);
     setClickable(true);
     this.metrics = getResources().getDisplayMetrics();
-    if (this.mNumberOfRows > 0) {
-      this.xs = new int[this.mElementKeys.size()];
-      xs[0] = BORDER_WIDTH;
-      for (int i = 0; i < this.mElementKeys.size() - 1; i++) {
-        xs[i + 1] = xs[i] + columnWidths[i] + BORDER_WIDTH;
-      }
-    } else {
-      this.xs = new int[0];
-    }
-    this.spans = new int[xs.length];
-    if (spans.length > 0) {
-      int total = 0;
-      for (int i = 0; i < this.spans.length; i++) {
-        spans[i] = total;
-        total += BORDER_WIDTH + columnWidths[i];
-      }
+    this.mUserDataIndex = new int[this.mElementKeys.size()];
+    for (int j = 0; j < this.mUserDataIndex.length; ++j) {
+      Integer idx = this.mTable.getColumnIndexOfElementKey(this.mElementKeys.get(j));
+      this.mUserDataIndex[j] = (idx == null) ? -1 : idx;
     }
   }
 
@@ -423,17 +383,9 @@ class TabularView extends View {
 
   public CellInfo getCellInfo(int x, int y) {
     int row = y / (rowHeight + BORDER_WIDTH);
-    int col = -1;
-    while (x > 0) {
-      col++;
-      if (col >= columnWidths.length) {
-        break;
-      }
-      x -= columnWidths[col] + BORDER_WIDTH;
-    }
-    if (col >= columnWidths.length) {
-      col = columnWidths.length - 1;
-    }
+    // touches to the left of the table do not hit any cell; those to the
+    // right of it hit the last column.
+    int col = (x <= 0) ? -1 : mColumns.getColumnAt(x);
     if (row >= mNumberOfRows) {
       row = mNumberOfRows - 1;
     }
@@ -447,8 +399,97 @@ class TabularView extends View {
   }
 
   public void highlight(CellInfo highlightedCellInfo) {
+    invalidateCell(this.highlightedCellInfo);
     this.highlightedCellInfo = highlightedCellInfo;
-    invalidate();
+    invalidateCell(this.highlightedCellInfo);
+  }
+
+  private void invalidateCell(CellInfo cellInfo) {
+    if (cellInfo == null) {
+      return;
+    }
+    int top = cellInfo.rowId * (rowHeight + BORDER_WIDTH);
+    int left = mColumns.getBorderLeft(cellInfo.colPos);
+    invalidate(left, top, left + columnWidths[cellInfo.colPos] + 2 * BORDER_WIDTH,
+        top + rowHeight + 2 * BORDER_WIDTH);
+  }
+
+  /**
+   * Redraw one row whose contents changed.
+   *
+   * @param rowIndex
+   */
+  void invalidateRow(int rowIndex) {
+    if (isHeader()) {
+      return;
+    }
+    if (mStripCache != null) {
+      mStripCache.remove(rowIndex);
+    }
+    int top = rowIndex * (rowHeight + BORDER_WIDTH);
+    invalidate(0, top, totalWidth, top + rowHeight + 2 * BORDER_WIDTH);
+  }
+
+  /**
+   * Called whenever one of the scroll views of the spreadsheet has scrolled.
+   * onDraw paints somewhat more than is on screen, so this only requests a
+   * redraw once the visible region moves outside of what was last painted.
+   * Otherwise the existing rendering is simply moved on screen.
+   */
+  void onViewportScrolled() {
+    if (this.mNumberOfRows == 0 || this.mElementKeys.size() == 0) {
+      return;
+    }
+    int xScroll = Math.max(0, controller.getMainScrollX());
+    int yScroll = Math.max(0, controller.getMainScrollY());
+    if (isHeader()) {
+      yScroll = 0;
+    }
+    mVisibleRegion.set(xScroll, yScroll, xScroll + metrics.widthPixels,
+        yScroll + metrics.heightPixels);
+    if (!mVisibleRegion.intersect(0, 0, totalWidth, totalHeight)) {
+      return;
+    }
+    if (!mPaintedRegion.contains(mVisibleRegion)) {
+      invalidate();
+    }
+  }
+
+  private boolean isHeader() {
+    return this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER
+        || this.type == TableLayoutType.STATUS_HEADER;
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    if (mPageListener != null) {
+      this.mTable.addPageListener(mPageListener);
+    }
+  }
+
+  /**
+   * @param context
+   * @param shares
+   *          the shares of the spreadsheet's strip budget this view gets
+   * @return the byte budget of the strip cache of this view
+   */
+  private static int stripCacheBudget(Context context, int shares) {
+    ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    long spreadsheetBytes = am.getMemoryClass() * 1024L * 1024L
+        / STRIP_CACHE_MEMORY_CLASS_DIVISOR;
+    return (int) (spreadsheetBytes * shares / STRIP_CACHE_TOTAL_SHARES);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (mPageListener != null) {
+      this.mTable.removePageListener(mPageListener);
+    }
+    if (mStripCache != null) {
+      mStripCache.clear();
+    }
   }
 
   @Override
@@ -459,9 +500,6 @@ class TabularView extends View {
       return;
     }
 
-    // drawing the background--so you're redrawing the background every time...
-    canvas.drawRect(0, 0, totalWidth, totalHeight, bgPaint);
-
     /*
      * SS: I am going to try and fix this method. There are several things that
      * need to be considered. First, a spreadsheet view is composed of several
@@ -503,17 +541,15 @@ class TabularView extends View {
      * these columns are, as we must tell the canvas from top left to bottom
      * right how to draw the rectangle that will become the cell.
      * 
-     * This information is stored in two separate arrays. One is the xs[] array
-     * of integers, which tells where each column begins. xs[0] is the x
-     * location of the zeroth column. This should always be 0 (the absolute left
-     * of the canvas) + BORDER_WIDTH. At the time of this writing xs is computed
-     * upon creation of the object. columnWidths[] contains the int width of
-     * each of the columns (excluding the borders, from what I can tell). At the
-     * time of this writing I do not think you can alter column width, but you
-     * should theoretically be able to, so we are programming it as such.
+     * This information is held by mColumns, a ColumnOffsetIndex, which keeps
+     * the prefix sums of the column widths. getCellLeft(i) tells where each
+     * column begins; getCellLeft(0) should always be 0 (the absolute left of
+     * the canvas) + BORDER_WIDTH. columnWidths[] contains the int width of
+     * each of the columns (excluding the borders). getColumnAt(x) finds the
+     * column under an x coordinate by binary search.
      * 
-     * The dimensions of column 7 would thus be from xs[7] to columnWidths[7],
-     * and it's height would be rowHeight.
+     * The dimensions of column 7 would thus be from getCellLeft(7) to
+     * columnWidths[7], and it's height would be rowHeight.
      * 
      * It is also important to note that atm borders and cells are being drawn
      * separately. This is not ideal, but when I tried to fix it I got weird
@@ -555,12 +591,12 @@ class TabularView extends View {
      * The other two variables we need to maintain are the topmost border and
      * the leftmost border. We will draw them until we are off the screen and
      * then stop. topmostBorder leftmostBorder These are assumed to be (and are
-     * by definition, I believe) xs[col] - BORDER_WIDTH.
+     * by definition, I believe) getCellLeft(col) - BORDER_WIDTH.
      * 
      * We also need to know the righthand border of the rightmost column, as
      * this is where we will be stopping drawing. rightRightmost. The definition
      * of rightRightmost is defined in the code below, but I think it is
-     * basically xs[rightmost] + columnWidths[rightmost] + BORDER_WIDTH.
+     * basically getCellLeft(rightmost) + columnWidths[rightmost] + BORDER_WIDTH.
      * 
      * Both leftLefmost and rightRightmost might be off the screen. In the
      * diagram below, both would be when drawing the data. The header, however,
@@ -588,6 +624,11 @@ class TabularView extends View {
     if (yScroll < 0) {
       yScroll = 0;
     }
+    // We paint half a screen beyond each edge of the visible region, so that
+    // small scrolls can be satisfied without calling back into onDraw. See
+    // onViewportScrolled().
+    int xMargin = metrics.widthPixels / 2;
+    int yMargin = metrics.heightPixels / 2;
     int topmost;
     int topmostBorder;
     int leftmostBorder;
@@ -610,12 +651,14 @@ class TabularView extends View {
     } else {
       // Otherwise, we need to compute the value.
       // First let's get the row.
-      topmost = yScroll / (BORDER_WIDTH + rowHeight);
-      bottommost = (yScroll + metrics.heightPixels) / (BORDER_WIDTH + rowHeight);
+      topmost = Math.max(0, yScroll - yMargin) / (BORDER_WIDTH + rowHeight);
+      bottommost = (yScroll + metrics.heightPixels + yMargin) / (BORDER_WIDTH + rowHeight);
       if (bottommost >= this.mNumberOfRows) {
         bottommost = this.mNumberOfRows - 1; // don't want to go beyond the last
                                              // row
       }
+      // let the table start fetching the rows just off screen
+      this.mTable.setViewport(topmost, bottommost);
     }
     topmostBorder = topmost * (BORDER_WIDTH + rowHeight);
     topTopmost = topmostBorder + BORDER_WIDTH;
@@ -623,136 +666,155 @@ class TabularView extends View {
     bottomBottommost = topBottommostBorder + BORDER_WIDTH + rowHeight;
     // And now let's get the correct column. The math here can't be as simple,
     // b/c unlike rowHeight, columnWidth is not a fixed unit.
-    int indexOfLeftmostColumn = getLeftmostColumnBasedOnXScroll(xScroll);
+    int indexOfLeftmostColumn = mColumns.getColumnAt(xScroll - xMargin);
     @SuppressWarnings("unused")
     String leftmostElementKey = this.mElementKeys.get(indexOfLeftmostColumn);
-    leftLeftmost = xs[indexOfLeftmostColumn];
+    leftLeftmost = mColumns.getCellLeft(indexOfLeftmostColumn);
     leftmostBorder = leftLeftmost - BORDER_WIDTH;
-    int indexOfRightmostColumn = getLeftmostColumnBasedOnXScroll(xScroll + metrics.widthPixels);
+    int indexOfRightmostColumn = mColumns.getColumnAt(xScroll + metrics.widthPixels + xMargin);
     @SuppressWarnings("unused")
     String rightmostElementKey = this.mElementKeys.get(indexOfRightmostColumn);
-    leftRightmost = xs[indexOfRightmostColumn];
+    leftRightmost = mColumns.getCellLeft(indexOfRightmostColumn);
     // i believe at the end, then, this should be total width, once it is all on the column?
     rightRightmostBorder = leftRightmost + columnWidths[indexOfRightmostColumn] + BORDER_WIDTH; 
-    int yCoord = topmostBorder;
-    for (int i = topmost; i < bottommost + 1; i++) {
-      canvas.drawRect(leftmostBorder, yCoord, rightRightmostBorder, yCoord + BORDER_WIDTH,
-          borderPaint);
-      yCoord += rowHeight + BORDER_WIDTH;
-    }
-    int xCoord = leftmostBorder;
-    for (int i = indexOfLeftmostColumn; i < indexOfRightmostColumn + 1; i++) {
-      canvas.drawRect(xCoord, topmostBorder, xCoord + BORDER_WIDTH, bottomBottommost, borderPaint);
-      xCoord += (i == this.mElementKeys.size()) ? 0 : columnWidths[i] + BORDER_WIDTH;
-    }
+    mPaintedRegion.set(leftmostBorder, topmostBorder, rightRightmostBorder, bottomBottommost);
 
-    // precompute the correspondence between the displayed elementKeys and the
-    // SpreadsheetUserTable userData index
-    int[] userDataIndex = new int[indexOfRightmostColumn + 1];
-    for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; ++j) {
-      String elementKey = this.mElementKeys.get(j);
-      Integer idx = this.mTable.getColumnIndexOfElementKey(elementKey);
-      userDataIndex[j] = (idx == null) ? -1 : idx;
+    if (mStripCache != null) {
+      // the strips dropped while drawing the last frame may now be reused
+      mStripCache.beginFrame();
     }
 
-    // drawing the cells
-    int y = topTopmost;
+    // drawing the cells, one row at a time
+    int stripWidth = rightRightmostBorder - leftmostBorder;
+    int stripHeight = BORDER_WIDTH + rowHeight;
+    int yCoord = topmostBorder;
     for (int i = topmost; i < bottommost + 1; i++) {
-      OdkDbRow theRow = null;
-      int theRowIndex = i;
-
-      // we only need to fetch this once for a given row...
-      ColorGuide rowGuide = null;
-      if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.INDEX_DATA
-          || this.type == TableLayoutType.MAIN_DATA) {
-        // these are the only cases (below) where this value is used...
-        theRow = this.mTable.getRowAtIndex(theRowIndex);
-        //rowGuide = mRowColorRuleGroup.getColorGuide(this.mTable.getColumnDefinitions(), theRow);
-        rowGuide = mRowColorGuideGroup
-            .getColorGuideForRowId(theRow.getDataByKey(DataTableColumns.ID));
+      Bitmap strip = (mStripCache == null) ? null
+          : mStripCache.get(i, indexOfLeftmostColumn, indexOfRightmostColumn);
+      if (strip != null) {
+        canvas.drawBitmap(strip, leftmostBorder, yCoord, null);
+        yCoord += stripHeight;
+        continue;
       }
-
-      for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
-
-        String datum = null;
-        if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.STATUS_HEADER) {
-          datum = DEFAULT_STATUS_COLUMN_VALUE;
-        } else if (this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER) {
-          datum = this.mTable.getHeader(userDataIndex[j]);
-        } else if (this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA) {
-
-          ColumnDefinition cd = this.mTable.getColumnByIndex(userDataIndex[j]);
-          datum = this.mTable.getCachedUserTable()
-              .getDisplayTextOfData(theRowIndex, cd.getType(), cd.getElementKey());
-        } else {
-          WebLogger.getLogger(this.mTable.getAppName()).e(TAG,
-              "unrecognized table type: " + this.type.name());
-          datum = null;
+      // the display text and colors of the data rows were computed when the
+      // rows were loaded.
+      CellRenderBlock block = null;
+      if (!isHeader()) {
+        block = this.mTable.getRenderBlock(i);
+        if (block == null) {
+          // the page is being fetched; the row is drawn empty, and not
+          // cached, until it lands
+          drawRowFrame(canvas, yCoord, leftmostBorder, rightRightmostBorder,
+              indexOfLeftmostColumn, indexOfRightmostColumn);
+          yCoord += stripHeight;
+          continue;
         }
-        if (datum == null) {
-          datum = "";
-        }
-        int foregroundColor = this.defaultForegroundColor;
-        int backgroundColor = this.defaultBackgroundColor;
-        if (type == TableLayoutType.INDEX_DATA || type == TableLayoutType.MAIN_DATA) {
-          // First we check for a row rule.
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
-          //ColorGuide columnGuide = mColumnColorRules.get(this.mElementKeys.get(j)).getColorGuide(this.mTable.getColumnDefinitions(), theRow);
-          ColorGuide columnGuide = mColumnColorGuideGroup.get(this.mElementKeys.get(j))
-              .getColorGuideForRowId(theRow.getDataByKey(DataTableColumns.ID));
-          // Override the role rule if a column rule matched.
-          if (columnGuide != null) {
-            foregroundColor = columnGuide.getForeground();
-            backgroundColor = columnGuide.getBackground();
-          }
-        }
-        if (type == TableLayoutType.STATUS_DATA) {
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
+      }
+      if (mStripCache == null) {
+        drawRow(canvas, i, block, yCoord, leftmostBorder, rightRightmostBorder,
+            indexOfLeftmostColumn, indexOfRightmostColumn);
+      } else {
+        strip = mStripCache.obtain(stripWidth, stripHeight);
+        mStripCanvas.setBitmap(strip);
+        mStripCanvas.save();
+        try {
+          mStripCanvas.translate(-leftmostBorder, -yCoord);
+          drawRow(mStripCanvas, i, block, yCoord, leftmostBorder, rightRightmostBorder,
+              indexOfLeftmostColumn, indexOfRightmostColumn);
+        } finally {
+          mStripCanvas.restore();
+          mStripCanvas.setBitmap(null);
         }
-        drawCell(canvas, xs[j], y, datum, backgroundColor, foregroundColor, columnWidths[j]);
+        mStripCache.put(i, indexOfLeftmostColumn, indexOfRightmostColumn, strip);
+        canvas.drawBitmap(strip, leftmostBorder, yCoord, null);
       }
-      y += rowHeight + BORDER_WIDTH;
-      /** adding to try and fix draw **/
+      yCoord += stripHeight;
     }
     // highlighting cell (if necessary)
     if (highlightedCellInfo != null) {
       int rowNum = highlightedCellInfo.rowId;
       int colPos = highlightedCellInfo.colPos;
-      highlightCell(canvas, xs[colPos], ((rowNum + 1) * BORDER_WIDTH) + (rowNum * rowHeight),
+      highlightCell(canvas, mColumns.getCellLeft(colPos), ((rowNum + 1) * BORDER_WIDTH) + (rowNum * rowHeight),
           columnWidths[colPos]);
     }
   }
 
   /**
-   * This should return the leftmost column of which anything should be
-   * displayed on the screen, where the screen position is specified by the
-   * xScroll int.
+   * Draw a single row: its top border, the left border of each column, and the
+   * cells themselves.
+   *
+   * @param canvas
+   * @param theRowIndex
+   * @param block
+   *          the rendering of the page holding the row; null for the headers
+   * @param topBorder
+   *          y coordinate of the top border of the row
+   * @param leftmostBorder
+   * @param rightRightmostBorder
+   * @param indexOfLeftmostColumn
+   * @param indexOfRightmostColumn
    */
-  private int getLeftmostColumnBasedOnXScroll(int xScroll) {
-    int bsResult; // will hold the binary search result.
-    bsResult = Arrays.binarySearch(this.spans, xScroll);
-    // now we need to do some checking. If we've found an exact match, we know
-    // that we can just return it.
-    if (bsResult >= 0) {
-      return bsResult;
-    } else {
-      // we need to do a calculation.
-      // in case of a miss binary search return (-insertionPoint - 1).
-      int col = (bsResult + 1) * -1;
-      col -= 1; // to set it correctly.
-      // however, we need to do another check. it is possible that we will have
-      // added a new element to the array. Let's do this check.
-      if (col >= xs.length) {
-        return col - 1;
+  private void drawRow(Canvas canvas, int theRowIndex, CellRenderBlock block, int topBorder,
+      int leftmostBorder, int rightRightmostBorder, int indexOfLeftmostColumn,
+      int indexOfRightmostColumn) {
+    drawRowFrame(canvas, topBorder, leftmostBorder, rightRightmostBorder, indexOfLeftmostColumn,
+        indexOfRightmostColumn);
+
+    int y = topBorder + BORDER_WIDTH;
+    for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
+
+      String datum = null;
+      int foregroundColor = this.defaultForegroundColor;
+      int backgroundColor = this.defaultBackgroundColor;
+      if (this.type == TableLayoutType.STATUS_DATA) {
+        datum = DEFAULT_STATUS_COLUMN_VALUE;
+        int r = theRowIndex - block.firstRow;
+        if (block.statusHasColor[r]) {
+          foregroundColor = block.statusForeground[r];
+          backgroundColor = block.statusBackground[r];
+        }
+      } else if (this.type == TableLayoutType.STATUS_HEADER) {
+        datum = DEFAULT_STATUS_COLUMN_VALUE;
+      } else if (this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER) {
+        datum = this.mTable.getHeader(mUserDataIndex[j]);
+      } else if (this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA) {
+        int cell = block.cellIndex(theRowIndex, mUserDataIndex[j]);
+        datum = block.displayText[cell];
+        // the row and column rules have already been resolved against each
+        // other.
+        if (block.hasColor[cell]) {
+          foregroundColor = block.foreground[cell];
+          backgroundColor = block.background[cell];
+        }
       } else {
-        return col;
+        WebLogger.getLogger(this.mTable.getAppName()).e(TAG,
+            "unrecognized table type: " + this.type.name());
+        datum = null;
+      }
+      if (datum == null) {
+        datum = "";
       }
+      drawCell(canvas, mColumns.getCellLeft(j), y, datum, backgroundColor, foregroundColor, columnWidths[j]);
+    }
+  }
+
+  /**
+   * Draw the background of a row, its top border and the left border of each
+   * column, without the cells.
+   */
+  private void drawRowFrame(Canvas canvas, int topBorder, int leftmostBorder,
+      int rightRightmostBorder, int indexOfLeftmostColumn, int indexOfRightmostColumn) {
+    // drawCell leaves bgPaint set to the color of the last cell drawn
+    bgPaint.setColor(this.defaultBackgroundColor);
+    canvas.drawRect(leftmostBorder, topBorder, rightRightmostBorder,
+        topBorder + BORDER_WIDTH + rowHeight, bgPaint);
+    canvas.drawRect(leftmostBorder, topBorder, rightRightmostBorder, topBorder + BORDER_WIDTH,
+        borderPaint);
+    int xCoord = leftmostBorder;
+    for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
+      canvas.drawRect(xCoord, topBorder, xCoord + BORDER_WIDTH,
+          topBorder + BORDER_WIDTH + rowHeight, borderPaint);
+      xCoord += columnWidths[j] + BORDER_WIDTH;
     }
   }
 
@@ -15,12 +15,31 @@
  */
 package org.opendatakit.tables.views.components;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.PagedRowSource;
+import org.opendatakit.tables.utils.SQLQueryStruct;
 import org.opendatakit.tables.utils.TableNameStruct;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ArrayAdapter;
@@ -29,17 +48,62 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 /**
- * An adapter for displaying TableProperties.
- * 
- * @author sudar.sam@gmail.com
- *
+ * Lists the tables of an app. The number of rows of a table and when it was
+ * last changed are read in the background, and only for the tables whose rows
+ * are actually shown.
+ * <p>
+ * Checking a table costs one query for its most recently saved row. The rows
+ * are counted again only if that row is not the one they were last counted
+ * with, and a table is checked at most once every {@link #STATS_MAX_AGE_MS},
+ * however often the list is refreshed.
  */
 public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
 
   private static final String TAG = TableNameStructAdapter.class.getSimpleName();
-  
+
+  /** how long stats are shown before the table is checked again */
+  private static final long STATS_MAX_AGE_MS = 30000L;
+
+  /**
+   * What is known of the rows of a table.
+   */
+  private static final class TableStats {
+    final int numberOfRows;
+    /** the _savepoint_timestamp of the most recently changed row, or null */
+    final String lastModified;
+    /** the id of the most recently changed row, or null */
+    final String lastModifiedRowId;
+
+    TableStats(int numberOfRows, String lastModified, String lastModifiedRowId) {
+      this.numberOfRows = numberOfRows;
+      this.lastModified = lastModified;
+      this.lastModifiedRowId = lastModifiedRowId;
+    }
+
+    /**
+     * @return true if the same row is still the most recently changed one
+     */
+    boolean hasNewest(String rowId, String savepoint) {
+      return rowId != null && rowId.equals(lastModifiedRowId) && savepoint != null
+          && savepoint.equals(lastModified);
+    }
+
+    boolean sameAs(TableStats other) {
+      return other != null && numberOfRows == other.numberOfRows
+          && ((lastModified == null) ? other.lastModified == null
+              : lastModified.equals(other.lastModified));
+    }
+  }
+
   private String mAppName;
 
+  /** by tableId; kept across refreshes so a row is never shown blank twice */
+  private final Map<String, TableStats> mStats = new HashMap<String, TableStats>();
+  /** by tableId, when its stats were last requested */
+  private final Map<String, Long> mRequested = new HashMap<String, Long>();
+  private final ExecutorService mStatsReader = Executors.newSingleThreadExecutor();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
   public TableNameStructAdapter(AbsBaseActivity context, List<TableNameStruct> values) {
     super(context, R.layout.row_item_with_preference);
     this.mAppName = context.getAppName();
@@ -47,6 +111,49 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     this.addAll(values);
   }
 
+  /**
+   * Bring the entries in line with tableNameStructs, touching only those that
+   * differ, so that the list keeps its scroll position.
+   *
+   * @param tableNameStructs
+   */
+  public void update(List<TableNameStruct> tableNameStructs) {
+    setNotifyOnChange(false);
+
+    Set<TableNameStruct> wanted = new HashSet<TableNameStruct>(tableNameStructs);
+    int i = 0;
+    for (TableNameStruct struct : tableNameStructs) {
+      // drop the entries that are gone
+      while (i < getCount() && !wanted.contains(getItem(i))) {
+        remove(getItem(i));
+      }
+      if (i < getCount() && getItem(i).equals(struct)) {
+        ++i;
+        continue;
+      }
+      if (getPosition(struct) >= 0) {
+        // the order changed; not worth reconciling
+        clear();
+        addAll(tableNameStructs);
+        i = getCount();
+        break;
+      }
+      insert(struct, i++);
+    }
+    while (i < getCount()) {
+      remove(getItem(i));
+    }
+    // rebinds the rows that are shown, which requests their stats if stale
+    notifyDataSetChanged();
+  }
+
+  /**
+   * Stop reading stats. Called when the owning fragment is destroyed.
+   */
+  public void close() {
+    mStatsReader.shutdownNow();
+  }
+
   @Override
   public View getView(int position, android.view.View convertView, android.view.ViewGroup parent) {
     if ( convertView == null ) {
@@ -54,10 +161,19 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     }
     final RelativeLayout view = (RelativeLayout) convertView;
     TextView textView = (TextView) view.findViewById(R.id.row_item_text);
+    TextView summaryView = (TextView) view.findViewById(R.id.row_item_text_summary);
 
     TableNameStruct nameStruct = getItem(position);
 
     textView.setText(nameStruct.getLocalizedDisplayName());
+    summaryView.setText(getSummary(mStats.get(nameStruct.getTableId())));
+    String tableId = nameStruct.getTableId();
+    Long requested = mRequested.get(tableId);
+    long now = SystemClock.elapsedRealtime();
+    if (requested == null || now - requested >= STATS_MAX_AGE_MS) {
+      mRequested.put(tableId, now);
+      requestStats(tableId, mStats.get(tableId));
+    }
     ImageView imageView = (ImageView) view.findViewById(R.id.row_item_icon);
     imageView.setOnClickListener(new View.OnClickListener() {
 
@@ -71,4 +187,96 @@ public class TableNameStructAdapter extends ArrayAdapter<TableNameStruct> {
     return view;
   }
 
+  private String getSummary(TableStats stats) {
+    if (stats == null) {
+      return "";
+    }
+    if (stats.numberOfRows == 0) {
+      return getContext().getString(R.string.table_summary_no_rows);
+    }
+    if (stats.lastModified == null) {
+      return getContext().getString(R.string.table_summary_rows, stats.numberOfRows);
+    }
+    // yyyy-MM-ddTHH:mm of the UTC timestamp
+    String lastModified = stats.lastModified.replace('T', ' ');
+    if (lastModified.length() > 16) {
+      lastModified = lastModified.substring(0, 16);
+    }
+    return getContext().getString(R.string.table_summary, stats.numberOfRows, lastModified);
+  }
+
+  private void requestStats(final String tableId, final TableStats known) {
+    if (mStatsReader.isShutdown()) {
+      return;
+    }
+    mStatsReader.execute(new Runnable() {
+      @Override
+      public void run() {
+        final TableStats stats;
+        try {
+          stats = readStats(tableId, known);
+        } catch (ServicesAvailabilityException e) {
+          WebLogger.getLogger(mAppName).e(TAG,
+              "error while reading rows of " + tableId + ": " + e.toString());
+          return;
+        }
+        mHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (stats == known || stats.sameAs(mStats.get(tableId))) {
+              return;
+            }
+            mStats.put(tableId, stats);
+            notifyDataSetChanged();
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Find the most recently changed row of the table and, unless it is the one
+   * known stats were read with, count the rows.
+   *
+   * @param known
+   *          the stats last read, or null
+   * @return known if the table appears unchanged; otherwise fresh stats
+   */
+  private TableStats readStats(String tableId, TableStats known)
+      throws ServicesAvailabilityException {
+    OrderedColumns orderedDefns;
+    String lastModified = null;
+    String lastModifiedRowId = null;
+    OdkDbHandle db = null;
+    try {
+      db = DbHandlePool.get().acquire(mAppName);
+      orderedDefns = Tables.getInstance().getDatabase().getUserDefinedColumns(mAppName, db,
+          tableId);
+      String[] emptyArray = {};
+      UserTable newest = Tables.getInstance().getDatabase().rawSqlQuery(mAppName, db, tableId,
+          orderedDefns, null, emptyArray, emptyArray, null,
+          new String[] { DataTableColumns.SAVEPOINT_TIMESTAMP }, new String[] { "DESC" }, 1, 0);
+      if (newest.getNumberOfRows() == 0) {
+        return new TableStats(0, null, null);
+      }
+      lastModified = newest.getRowAtIndex(0).getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP);
+      lastModifiedRowId = newest.getRowId(0);
+    } finally {
+      if (db != null) {
+        DbHandlePool.get().release(mAppName, db);
+      }
+    }
+    if (known != null && known.hasNewest(lastModifiedRowId, lastModified)) {
+      return known;
+    }
+
+    // the count does not depend on the order, so the probes are not sorted
+    SQLQueryStruct everyRow = new SQLQueryStruct(null, null, null, null, null, null);
+    PagedRowSource rows = new PagedRowSource(mAppName, tableId, orderedDefns, everyRow, 1, 1);
+    try {
+      return new TableStats(rows.getNumberOfRows(), lastModified, lastModifiedRowId);
+    } finally {
+      rows.close();
+    }
+  }
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.database.service.OdkDbRow;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Runs a batch of queries from a web page, see
+ * {@link OdkTablesIf#queryBatch(String, String)}, within one read transaction,
+ * and builds the single response that reports all of their results.
+ * <p>
+ * A query that fails does not fail the batch; its entry in the response
+ * carries the error instead of the rows.
+ */
+final class BatchQueryExecutor {
+
+  private static final String TAG = BatchQueryExecutor.class.getSimpleName();
+
+  // the fields of a query descriptor, named as the arguments of
+  // ExecutorDataIf.query
+  static final String TABLE_ID = "tableId";
+  static final String WHERE_CLAUSE = "whereClause";
+  static final String SQL_BIND_PARAMS = "sqlBindParams";
+  static final String GROUP_BY = "groupBy";
+  static final String HAVING = "having";
+  static final String ORDER_BY_ELEMENT_KEY = "orderByElementKey";
+  static final String ORDER_BY_DIRECTION = "orderByDirection";
+  static final String PROJECTION = "projection";
+  static final String LIMIT = "limit";
+  static final String CONTINUATION_TOKEN = "continuationToken";
+
+  // the fields of the response and of each of its results
+  static final String CALLBACK_JSON = "callbackJSON";
+  static final String ERROR_MSG = "errorMsg";
+  static final String DATA = "data";
+  static final String METADATA = "metadata";
+  static final String ELEMENT_KEY_MAP = "elementKeyMap";
+
+  private static final TypeReference<ArrayList<HashMap<String, Object>>> QUERIES_REF =
+      new TypeReference<ArrayList<HashMap<String, Object>>>() {
+      };
+
+  private final OdkTables mOdkTables;
+  private final String mAppName;
+  private final boolean mCompactColors;
+
+  /**
+   * @param odkTables
+   * @param appName
+   * @param compactColors
+   *          whether the color metadata uses the compact encoding
+   */
+  BatchQueryExecutor(OdkTables odkTables, String appName, boolean compactColors) {
+    this.mOdkTables = odkTables;
+    this.mAppName = appName;
+    this.mCompactColors = compactColors;
+  }
+
+  /**
+   * Run the queries and build the response. The transaction is opened on a
+   * handle of its own, as pooled handles must not carry transactions.
+   *
+   * @param queriesJSON
+   *          a JSON array of query descriptors
+   * @param callbackJSON
+   *          returned as is, so that the page can find its callback
+   * @return the response JSON
+   * @throws ServicesAvailabilityException
+   *           if the database could not be reached at all
+   */
+  String execute(String queriesJSON, String callbackJSON)
+      throws ServicesAvailabilityException {
+    List<HashMap<String, Object>> queries;
+    try {
+      queries = ODKFileUtils.mapper.readValue(queriesJSON, QUERIES_REF);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return errorResponse(callbackJSON, "unable to parse the queries: " + e.toString());
+    }
+    if (queries == null) {
+      return errorResponse(callbackJSON, "no queries");
+    }
+
+    long start = System.currentTimeMillis();
+    List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(queries.size());
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(mAppName);
+      // one transaction, so that every query sees the same state of the data
+      DbHandlePool.get().beginTransaction(mAppName, db);
+      try {
+        for (Map<String, Object> query : queries) {
+          results.add(executeQuery(db, query));
+        }
+      } finally {
+        // nothing was written; there is nothing to commit
+        Tables.getInstance().getDatabase().closeTransaction(mAppName, db, false);
+      }
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(mAppName, db);
+      }
+    }
+    WebLogger.getLogger(mAppName).d(TAG, "[execute] " + queries.size() + " queries in "
+        + (System.currentTimeMillis() - start) + "ms");
+
+    Map<String, Object> response = new HashMap<String, Object>();
+    response.put(CALLBACK_JSON, callbackJSON);
+    response.put(DATA, results);
+    return stringify(response, callbackJSON);
+  }
+
+  /**
+   * @return the response reporting that the whole batch failed
+   */
+  static String errorResponse(String callbackJSON, String errorMsg) {
+    Map<String, Object> response = new HashMap<String, Object>();
+    response.put(CALLBACK_JSON, callbackJSON);
+    response.put(ERROR_MSG, errorMsg);
+    try {
+      return ODKFileUtils.mapper.writeValueAsString(response);
+    } catch (Exception e) {
+      // a map of two strings always serializes
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Map<String, Object> executeQuery(OdkDbHandle db, Map<String, Object> query) {
+    Map<String, Object> result = new HashMap<String, Object>();
+    try {
+      String tableId = getString(query, TABLE_ID);
+      if (tableId == null) {
+        throw new IllegalArgumentException("query has no " + TABLE_ID);
+      }
+      String whereClause = getString(query, WHERE_CLAUSE);
+      List<String> bindArgs = new ArrayList<String>(Arrays.asList(getStrings(query,
+          SQL_BIND_PARAMS)));
+      String[] groupBy = getStrings(query, GROUP_BY);
+      String having = getString(query, HAVING);
+      String orderByElementKey = getString(query, ORDER_BY_ELEMENT_KEY);
+      String orderByDirection = getString(query, ORDER_BY_DIRECTION);
+      orderByDirection = (orderByDirection == null) ? KeysetCursor.ASC
+          : orderByDirection.toUpperCase(Locale.US);
+      Integer limit = getLimit(query);
+      String token = getString(query, CONTINUATION_TOKEN);
+
+      String[] orderBy;
+      String[] orderByDirections;
+      boolean paged = (limit != null || token != null);
+      if (paged) {
+        if (groupBy.length != 0 || having != null) {
+          throw new IllegalArgumentException("grouped queries cannot be paged");
+        }
+        // the tie breakers give every row its own position
+        orderBy = KeysetCursor.orderBy(orderByElementKey);
+        orderByDirections = KeysetCursor.orderByDirections(orderByElementKey,
+            orderByDirection);
+        if (token != null) {
+          KeysetCursor cursor = KeysetCursor.fromToken(token);
+          if (!cursor.isOrderedBy(orderByElementKey, orderByDirection)) {
+            throw new IllegalArgumentException(CONTINUATION_TOKEN
+                + " is for a query with another order");
+          }
+          String after = cursor.afterClause(bindArgs);
+          whereClause = ((whereClause == null) ? "" : "(" + whereClause + ") AND ") + "("
+              + after + ")";
+        }
+      } else if (orderByElementKey == null) {
+        orderBy = new String[] {};
+        orderByDirections = new String[] {};
+      } else {
+        orderBy = new String[] { orderByElementKey };
+        orderByDirections = new String[] { orderByDirection };
+      }
+
+      OrderedColumns orderedDefns = mOdkTables.retrieveColumnDefinitions(db, tableId);
+      UserTable table = Tables.getInstance().getDatabase().rawSqlQuery(mAppName, db, tableId,
+          orderedDefns, whereClause, bindArgs.toArray(new String[bindArgs.size()]), groupBy,
+          having, orderBy, orderByDirections, limit, (limit == null) ? null : 0);
+      // the database can evaluate the color rules against a whole result, but
+      // not against one page of it, nor against groups
+      TableDataExecutorProcessor.Selection selection = (paged || groupBy.length != 0
+          || having != null) ? null : new TableDataExecutorProcessor.Selection(whereClause,
+          bindArgs.toArray(new String[bindArgs.size()]));
+      Map<String, Object> metadata = putRows(db, table, orderedDefns,
+          getStrings(query, PROJECTION), selection, result);
+
+      if (paged) {
+        // a full page may be followed by more rows; a short one is the last
+        String next = null;
+        int numberOfRows = table.getNumberOfRows();
+        if (limit != null && numberOfRows == limit) {
+          next = KeysetCursor.after(orderByElementKey, orderByDirection, table,
+              numberOfRows - 1).toToken();
+        }
+        metadata.put(CONTINUATION_TOKEN, next);
+      }
+    } catch (ServicesAvailabilityException e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      result.put(ERROR_MSG, e.toString());
+    } catch (RuntimeException e) {
+      // e.g., an SQLiteException from a bad where clause
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      result.put(ERROR_MSG, e.toString());
+    }
+    return result;
+  }
+
+  /**
+   * Add the rows of table to result, each as an array of its values indexed
+   * by the elementKeyMap of the metadata, and their colors.
+   *
+   * @param projection
+   *          the columns to return; every column if empty. The row id is
+   *          always returned.
+   * @param selection
+   *          what selected the rows of table, if the database can select them
+   *          again
+   * @return the metadata added to result
+   */
+  private Map<String, Object> putRows(OdkDbHandle db, UserTable table, OrderedColumns orderedDefns,
+      String[] projection, TableDataExecutorProcessor.Selection selection,
+      Map<String, Object> result)
+      throws ServicesAvailabilityException {
+    String[] adminColumns = Tables.getInstance().getDatabase().getAdminColumns();
+    List<String> elementKeys = new ArrayList<String>(orderedDefns.getRetentionColumnNames());
+    for (String adminColumn : adminColumns) {
+      elementKeys.add(adminColumn);
+    }
+    if (projection.length != 0) {
+      List<String> projected = new ArrayList<String>(projection.length + 1);
+      projected.add(DataTableColumns.ID);
+      for (String elementKey : projection) {
+        if (!elementKeys.contains(elementKey)) {
+          throw new IllegalArgumentException("no column " + elementKey + " in "
+              + table.getTableId());
+        }
+        if (!projected.contains(elementKey)) {
+          projected.add(elementKey);
+        }
+      }
+      elementKeys = projected;
+    }
+    Map<String, Integer> elementKeyMap = new HashMap<String, Integer>();
+    for (int i = 0; i < elementKeys.size(); ++i) {
+      elementKeyMap.put(elementKeys.get(i), i);
+    }
+
+    List<List<String>> rows = new ArrayList<List<String>>(table.getNumberOfRows());
+    for (int r = 0; r < table.getNumberOfRows(); ++r) {
+      OdkDbRow row = table.getRowAtIndex(r);
+      List<String> values = new ArrayList<String>(elementKeys.size());
+      for (String elementKey : elementKeys) {
+        values.add(row.getDataByKey(elementKey));
+      }
+      rows.add(values);
+    }
+
+    Map<String, Object> metadata = new HashMap<String, Object>();
+    // column colors only for the columns returned
+    metadata.putAll(TableDataExecutorProcessor.getColorMetadata(db, table, adminColumns,
+        elementKeys, mCompactColors, selection));
+    metadata.put(TABLE_ID, table.getTableId());
+    metadata.put(ELEMENT_KEY_MAP, elementKeyMap);
+    result.put(DATA, rows);
+    result.put(METADATA, metadata);
+    return metadata;
+  }
+
+  private static String getString(Map<String, Object> query, String key) {
+    Object value = query.get(key);
+    return (value == null) ? null : value.toString();
+  }
+
+  /**
+   * @return the page size of the query, or null if it is not paged
+   */
+  private static Integer getLimit(Map<String, Object> query) {
+    Object value = query.get(LIMIT);
+    if (value == null) {
+      return null;
+    }
+    int limit;
+    try {
+      limit = (value instanceof Number) ? ((Number) value).intValue()
+          : Integer.parseInt(value.toString());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(LIMIT + " must be a number");
+    }
+    if (limit <= 0) {
+      throw new IllegalArgumentException(LIMIT + " must be positive");
+    }
+    return limit;
+  }
+
+  private static String[] getStrings(Map<String, Object> query, String key) {
+    Object value = query.get(key);
+    if (value == null) {
+      return new String[] {};
+    }
+    if (!(value instanceof List)) {
+      throw new IllegalArgumentException(key + " must be an array");
+    }
+    List<?> list = (List<?>) value;
+    String[] strings = new String[list.size()];
+    for (int i = 0; i < strings.length; ++i) {
+      Object element = list.get(i);
+      strings[i] = (element == null) ? null : element.toString();
+    }
+    return strings;
+  }
+
+  private String stringify(Map<String, Object> response, String callbackJSON) {
+    try {
+      return ODKFileUtils.mapper.writeValueAsString(response);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return errorResponse(callbackJSON, "unable to serialize the results: " + e.toString());
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.opendatakit.common.android.data.OrderedColumns;
+import org.opendatakit.common.android.exception.ActionNotAuthorizedException;
+import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.database.service.OdkDbHandle;
+import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableChangeCounter;
+import org.opendatakit.tables.utils.WebViewUtil;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Adds, updates or deletes many rows of a table for a web page in one
+ * database transaction, see {@link OdkTablesIf#addRows(String, String, String)}
+ * and its siblings, and builds the single response that reports the outcome
+ * of every row.
+ * <p>
+ * Every payload is parsed before the transaction begins. A row whose payload
+ * is invalid, or that the database refuses, is reported as failed and the
+ * other rows are still written; only losing the database altogether rolls
+ * the whole batch back.
+ */
+final class BulkRowWriter {
+
+  private static final String TAG = BulkRowWriter.class.getSimpleName();
+
+  enum Operation {
+    ADD, UPDATE, DELETE
+  }
+
+  // the fields of a row payload
+  static final String ROW_ID = "rowId";
+  static final String VALUES = "values";
+
+  // the fields of the response
+  static final String OUTCOMES = "outcomes";
+  static final String SUCCEEDED = "succeeded";
+  static final String FAILED = "failed";
+  static final String ELAPSED_MILLIS = "elapsedMillis";
+  static final String ROWS_PER_SECOND = "rowsPerSecond";
+
+  private static final String ROW_ID_PREFIX = "uuid:";
+
+  private static final TypeReference<ArrayList<HashMap<String, Object>>> ROWS_REF =
+      new TypeReference<ArrayList<HashMap<String, Object>>>() {
+      };
+
+  /**
+   * A row payload, ready to be written.
+   */
+  private static final class RowChange {
+    final String rowId;
+    final ContentValues values;
+    final String errorMsg;
+
+    RowChange(String rowId, ContentValues values, String errorMsg) {
+      this.rowId = rowId;
+      this.values = values;
+      this.errorMsg = errorMsg;
+    }
+  }
+
+  private final Context mContext;
+  private final OdkTables mOdkTables;
+  private final String mAppName;
+
+  BulkRowWriter(Context context, OdkTables odkTables, String appName) {
+    this.mContext = context;
+    this.mOdkTables = odkTables;
+    this.mAppName = appName;
+  }
+
+  /**
+   * Apply the changes and build the response. The transaction is opened on a
+   * handle of its own, as pooled handles must not carry transactions.
+   *
+   * @param operation
+   * @param tableId
+   * @param rowsJSON
+   *          a JSON array of row payloads
+   * @param callbackJSON
+   *          returned as is, so that the page can find its callback
+   * @return the response JSON
+   * @throws ServicesAvailabilityException
+   *           if the database could not be reached; nothing was written
+   */
+  String execute(Operation operation, String tableId, String rowsJSON, String callbackJSON)
+      throws ServicesAvailabilityException {
+    List<HashMap<String, Object>> rows;
+    try {
+      rows = ODKFileUtils.mapper.readValue(rowsJSON, ROWS_REF);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return BatchQueryExecutor.errorResponse(callbackJSON,
+          "unable to parse the rows: " + e.toString());
+    }
+    if (rows == null) {
+      return BatchQueryExecutor.errorResponse(callbackJSON, "no rows");
+    }
+
+    long start = System.currentTimeMillis();
+    List<Map<String, Object>> outcomes = new ArrayList<Map<String, Object>>(rows.size());
+    int succeeded = 0;
+    OdkDbHandle db = null;
+    try {
+      db = Tables.getInstance().getDatabase().openDatabase(mAppName);
+      OrderedColumns orderedDefns = mOdkTables.retrieveColumnDefinitions(db, tableId);
+
+      // parse everything first, so that the transaction is held only for the
+      // writes themselves
+      List<RowChange> changes = new ArrayList<RowChange>(rows.size());
+      for (Map<String, Object> row : rows) {
+        changes.add(prepare(operation, tableId, orderedDefns, row));
+      }
+
+      boolean complete = false;
+      DbHandlePool.get().beginTransaction(mAppName, db);
+      try {
+        for (RowChange change : changes) {
+          String errorMsg = change.errorMsg;
+          if (errorMsg == null) {
+            errorMsg = apply(db, operation, tableId, orderedDefns, change);
+          }
+          Map<String, Object> outcome = new HashMap<String, Object>();
+          outcome.put(ROW_ID, change.rowId);
+          if (errorMsg == null) {
+            ++succeeded;
+          } else {
+            outcome.put(BatchQueryExecutor.ERROR_MSG, errorMsg);
+          }
+          outcomes.add(outcome);
+        }
+        complete = true;
+      } finally {
+        Tables.getInstance().getDatabase().closeTransaction(mAppName, db, complete);
+      }
+    } finally {
+      if (db != null) {
+        Tables.getInstance().getDatabase().closeDatabase(mAppName, db);
+      }
+    }
+    if (succeeded != 0) {
+      TableChangeCounter.get().noteTableChanged(mAppName, tableId);
+    }
+
+    long elapsed = System.currentTimeMillis() - start;
+    // the rows written, not those that failed
+    double rowsPerSecond = succeeded * 1000.0 / Math.max(elapsed, 1);
+    WebLogger.getLogger(mAppName).d(TAG, "[execute] " + operation + " " + succeeded + " of "
+        + rows.size() + " rows of " + tableId + " in " + elapsed + "ms (" + Math.round(rowsPerSecond)
+        + " rows/s)");
+
+    Map<String, Object> data = new HashMap<String, Object>();
+    data.put(OUTCOMES, outcomes);
+    data.put(SUCCEEDED, succeeded);
+    data.put(FAILED, rows.size() - succeeded);
+    data.put(ELAPSED_MILLIS, elapsed);
+    data.put(ROWS_PER_SECOND, rowsPerSecond);
+    Map<String, Object> response = new HashMap<String, Object>();
+    response.put(BatchQueryExecutor.CALLBACK_JSON, callbackJSON);
+    response.put(BatchQueryExecutor.DATA, data);
+    try {
+      return ODKFileUtils.mapper.writeValueAsString(response);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return BatchQueryExecutor.errorResponse(callbackJSON,
+          "unable to serialize the outcomes: " + e.toString());
+    }
+  }
+
+  /**
+   * Check a row payload and turn its values into the form the database takes.
+   */
+  private RowChange prepare(Operation operation, String tableId, OrderedColumns orderedDefns,
+      Map<String, Object> row) throws ServicesAvailabilityException {
+    Object id = row.get(ROW_ID);
+    String rowId = (id == null) ? null : id.toString();
+    if (rowId == null) {
+      if (operation != Operation.ADD) {
+        return new RowChange(null, null, "row has no " + ROW_ID);
+      }
+      rowId = ROW_ID_PREFIX + UUID.randomUUID().toString();
+    }
+    if (operation == Operation.DELETE) {
+      return new RowChange(rowId, null, null);
+    }
+
+    Object values = row.get(VALUES);
+    if (!(values instanceof Map)) {
+      return new RowChange(rowId, null, "row has no " + VALUES);
+    }
+    Map<String, String> elementKeyToValue = new HashMap<String, String>();
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) values).entrySet()) {
+      Object value = entry.getValue();
+      elementKeyToValue.put(entry.getKey().toString(), (value == null) ? null : value.toString());
+    }
+    ContentValues contentValues;
+    try {
+      contentValues = WebViewUtil.getContentValuesFromMap(mContext, mAppName, tableId,
+          orderedDefns, elementKeyToValue);
+    } catch (IllegalArgumentException e) {
+      // no such column
+      contentValues = null;
+    }
+    if (contentValues == null) {
+      return new RowChange(rowId, null, "unknown column or unparsable value");
+    }
+    return new RowChange(rowId, contentValues, null);
+  }
+
+  /**
+   * @return null if the change was written, else why not
+   */
+  private String apply(OdkDbHandle db, Operation operation, String tableId,
+      OrderedColumns orderedDefns, RowChange change) throws ServicesAvailabilityException {
+    try {
+      switch (operation) {
+      case ADD:
+        Tables.getInstance().getDatabase().insertRowWithId(mAppName, db, tableId, orderedDefns,
+            change.values, change.rowId);
+        break;
+      case UPDATE:
+        Tables.getInstance().getDatabase().updateRowWithId(mAppName, db, tableId, orderedDefns,
+            change.values, change.rowId);
+        break;
+      case DELETE:
+        Tables.getInstance().getDatabase().deleteRowWithId(mAppName, db, tableId, orderedDefns,
+            change.rowId);
+        break;
+      }
+      return null;
+    } catch (ActionNotAuthorizedException e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return e.toString();
+    } catch (RuntimeException e) {
+      // e.g., an SQLiteException from a duplicate row id
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return e.toString();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.tables.views.webkits;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.OrderedColumns;
+
+import java.util.List;
+
+/**
+ * Translates a {@link ColorRuleGroup} into a SQL CASE expression that
+ * evaluates, for each row, to the position in
+ * {@link ColorRuleGroup#getColorRules()} of the first rule that matches the
+ * row, or to -1 if none does.
+ * <p>
+ * Rules on string columns and on admin columns compare the text of the value;
+ * rules on integer and number columns compare numerically and only match
+ * values actually stored as numbers. Rules on columns of any other type are
+ * not supported and the group must be evaluated in Java instead.
+ */
+final class ColorRuleSqlTranslator {
+
+  private ColorRuleSqlTranslator() {
+  }
+
+  /**
+   * @param crg
+   * @param orderedDefns
+   *          the user-defined columns of the table
+   * @param adminColumns
+   * @param bindArgs
+   *          receives the values to bind to the placeholders of the
+   *          expression, in order
+   * @return the CASE expression, or null if some rule cannot be expressed in
+   *         SQL
+   */
+  static String toCaseExpression(ColorRuleGroup crg, OrderedColumns orderedDefns,
+      List<String> adminColumns, List<String> bindArgs) {
+    return toCaseExpression(crg.getColorRules(), orderedDefns, adminColumns, bindArgs);
+  }
+
+  /**
+   * @param rules
+   *          the rules of a group, in order
+   * @see #toCaseExpression(ColorRuleGroup, OrderedColumns, List, List)
+   */
+  static String toCaseExpression(List<ColorRule> rules, OrderedColumns orderedDefns,
+      List<String> adminColumns, List<String> bindArgs) {
+    StringBuilder b = new StringBuilder("CASE");
+    boolean anyRule = false;
+    for (int i = 0; i < rules.size(); ++i) {
+      ColorRule rule = rules.get(i);
+      String symbol = operatorSymbol(rule.getOperator());
+      String elementKey = rule.getColumnElementKey();
+      if (symbol == null || elementKey == null || rule.getVal() == null) {
+        // never matches
+        continue;
+      }
+      ElementDataType type = dataTypeOf(orderedDefns, elementKey);
+      String column = "\"" + elementKey + "\"";
+      if (type == null && !adminColumns.contains(elementKey)) {
+        // not a column of the table
+        return null;
+      } else if (type == null || type == ElementDataType.string) {
+        b.append(" WHEN CAST(").append(column).append(" AS TEXT) ").append(symbol)
+            .append(" ?");
+        bindArgs.add(rule.getVal());
+      } else if (type == ElementDataType.integer || type == ElementDataType.number) {
+        try {
+          Double.parseDouble(rule.getVal());
+        } catch (NumberFormatException e) {
+          // never matches
+          continue;
+        }
+        b.append(" WHEN typeof(").append(column).append(") IN ('integer','real') AND ")
+            .append(column).append(' ').append(symbol).append(" CAST(? AS REAL)");
+        bindArgs.add(rule.getVal());
+      } else {
+        return null;
+      }
+      b.append(" THEN ").append(i);
+      anyRule = true;
+    }
+    if (!anyRule) {
+      return "-1";
+    }
+    b.append(" ELSE -1 END");
+    return b.toString();
+  }
+
+  /**
+   * The condition selecting the rows for which a CASE expression from
+   * {@link #toCaseExpression(ColorRuleGroup, OrderedColumns, List, List)}
+   * yields the given rule. The position is written into the condition, as the
+   * expression yields an integer and a bound parameter would be compared as
+   * text.
+   *
+   * @param caseExpression
+   * @param rule
+   *          the position of the rule in the group
+   * @return the condition
+   */
+  static String selectRule(String caseExpression, int rule) {
+    return "(" + caseExpression + ") = " + rule;
+  }
+
+  private static String operatorSymbol(ColorRule.RuleType type) {
+    if (type == null) {
+      return null;
+    }
+    switch (type) {
+    case LESS_THAN:
+      return "<";
+    case LESS_THAN_OR_EQUAL:
+      return "<=";
+    case EQUAL:
+      return "=";
+    case GREATER_THAN_OR_EQUAL:
+      return ">=";
+    case GREATER_THAN:
+      return ">";
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * @return the data type of a user-defined column, or null for any other
+   *         column, e.g., an admin column
+   */
+  private static ElementDataType dataTypeOf(OrderedColumns orderedDefns, String elementKey) {
+    ColumnDefinition cd;
+    try {
+      cd = orderedDefns.find(elementKey);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return (cd == null) ? null : cd.getType().getDataType();
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.opendatakit.tables.views.webkits;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the colors of the rows of a query result compactly, for pages that
+ * ask for it through {@link OdkTablesIf#setColorMetadataEncoding(String)}.
+ * <p>
+ * Instead of one object per colored row carrying its rowId and two color
+ * strings, each color rule group is sent as:
+ *
+ * <pre>
+ * {
+ *   "palette": [ ["#RRGGBB", "#RRGGBB"], ... ],
+ *   "runs": [ count, paletteIndex, count, paletteIndex, ... ]
+ * }
+ * </pre>
+ *
+ * where each palette entry is a (foreground, background) pair and the runs
+ * cover the rows of the result in order, by row index: the first count rows
+ * get the first palette index, and so on. A palette index of -1 means the
+ * rows are not colored.
+ */
+final class CompactColorEncoder {
+
+  /** encoding of one RowColorObject per colored row; the default */
+  static final String VERBOSE = "verbose";
+  /** palette and run-length encoding */
+  static final String COMPACT = "compact";
+
+  static final String PALETTE = "palette";
+  static final String RUNS = "runs";
+
+  private CompactColorEncoder() {
+  }
+
+  static boolean isValidEncoding(String encoding) {
+    return VERBOSE.equals(encoding) || COMPACT.equals(encoding);
+  }
+
+  /**
+   * @param rowColors
+   * @param hexColors
+   *          the hex strings of colors already formatted, shared across groups
+   * @return a map, ready to be serialized, holding the palette and the runs
+   */
+  static Map<String, Object> encode(TableDataExecutorProcessor.RowColors rowColors,
+      Map<Integer, String> hexColors) {
+    List<String[]> palette = new ArrayList<String[]>();
+    Map<Long, Integer> paletteIndexes = new HashMap<Long, Integer>();
+    // at most two entries per row; usually far fewer
+    int[] runs = new int[16];
+    int runCount = 0;
+
+    int numberOfRows = rowColors.hasColor.length;
+    int i = 0;
+    while (i < numberOfRows) {
+      int index = paletteIndex(rowColors, i, palette, paletteIndexes, hexColors);
+      int start = i;
+      ++i;
+      while (i < numberOfRows && sameColor(rowColors, start, i)) {
+        ++i;
+      }
+      if (runCount + 2 > runs.length) {
+        int[] grown = new int[runs.length * 2];
+        System.arraycopy(runs, 0, grown, 0, runCount);
+        runs = grown;
+      }
+      runs[runCount++] = i - start;
+      runs[runCount++] = index;
+    }
+
+    int[] trimmed = new int[runCount];
+    System.arraycopy(runs, 0, trimmed, 0, runCount);
+    Map<String, Object> encoded = new HashMap<String, Object>();
+    encoded.put(PALETTE, palette);
+    encoded.put(RUNS, trimmed);
+    return encoded;
+  }
+
+  private static boolean sameColor(TableDataExecutorProcessor.RowColors rowColors, int a, int b) {
+    if (!rowColors.hasColor[a] || !rowColors.hasColor[b]) {
+      return rowColors.hasColor[a] == rowColors.hasColor[b];
+    }
+    return rowColors.foreground[a] == rowColors.foreground[b]
+        && rowColors.background[a] == rowColors.background[b];
+  }
+
+  private static int paletteIndex(TableDataExecutorProcessor.RowColors rowColors, int row,
+      List<String[]> palette, Map<Long, Integer> paletteIndexes, Map<Integer, String> hexColors) {
+    if (!rowColors.hasColor[row]) {
+      return -1;
+    }
+    long key = (((long) rowColors.foreground[row]) << 32)
+        | (rowColors.background[row] & 0xFFFFFFFFL);
+    Integer index = paletteIndexes.get(key);
+    if (index == null) {
+      index = palette.size();
+      palette.add(new String[] {
+          TableDataExecutorProcessor.toHexColor(hexColors, rowColors.foreground[row]),
+          TableDataExecutorProcessor.toHexColor(hexColors, rowColors.background[row]) });
+      paletteIndexes.put(key, index);
+    }
+    return index;
+  }
+}
@@ -83,6 +83,44 @@ public interface ExecutorDataIf {
             throws ServicesAvailabilityException, SQLiteException;
 
 
+    /**
+     * Query the database using sql, returning only some columns, or a page of the rows.
+     * Otherwise the same as
+     * {@link #query(String, String, String[], String[], String, String, String, boolean, String, String, Boolean)}.
+     *
+     * @param tableId  The table being queried. This is a user-defined table.
+     * @param whereClause The where clause for the query
+     * @param sqlBindParams The array of bind parameter values (including any in the having clause)
+     * @param groupBy The array of columns to group by
+     * @param having The having clause
+     * @param orderByElementKey The column to order by
+     * @param orderByDirection 'ASC' or 'DESC' ordering
+     * @param projection null or the element keys of the columns to return. Every column is still
+     *                   read from the database, but only these are returned, appear in the
+     *                   elementKeyMap and are given column colors; _id is always returned.
+     *                   null returns every column.
+     * @param limit null or the most rows to return. The rows are then ordered by orderByElementKey
+     *              and then by _id, _conflict_type and _savepoint_timestamp, and the metadata
+     *              carries a continuationToken if there may be more rows.
+     * @param continuationToken null or the continuationToken of the previous page, to get the
+     *                          rows after it. The other arguments must be those of that query.
+     * @param includeKeyValueStoreMap true if the keyValueStoreMap should be returned
+     * @param callbackJSON The JSON object used by the JS layer to recover the callback function
+     *                     that can process the response
+     * @param transId null or the id of an open transaction if action should occur on an existing transaction.
+     * @param leaveTransactionOpen null or false close the transaction or use a transient one. true will return
+     *                             the transId and leave transaction open.
+     * @return see description in class header
+     * transId and leaveTransactionOpen are used only if the user wants to explicitly control db transactions
+     */
+    public String query(String tableId, String whereClause, String[] sqlBindParams,
+                        String[] groupBy, String having, String orderByElementKey, String orderByDirection,
+                        String[] projection, Integer limit, String continuationToken,
+                        boolean includeKeyValueStoreMap,
+                        String callbackJSON, String transId, Boolean leaveTransactionOpen)
+            throws ServicesAvailabilityException, SQLiteException;
+
+
     /**
      * Raw SQL query
      *
@@ -163,6 +201,67 @@ public interface ExecutorDataIf {
 
 
 
+    /**
+     * Add many rows to the table in one transaction, with a single callback.
+     *
+     * @param tableId  The table being updated
+     * @param stringifiedJSON array of {rowId, values} objects, values being the key-value map of
+     *                        the row. A rowId is generated if missing.
+     * @param callbackJSON The JSON object used by the JS layer to recover the callback function
+     *                     that can process the response
+     * @param transId null or the id of an open transaction if action should occur on an existing transaction.
+     * @param leaveTransactionOpen null or false close the transaction or use a transient one. true will return
+     *                             the transId and leave transaction open.
+     * @return see description in class header. The data object holds the outcome of each row, in
+     * order, and the counts of rows that succeeded and failed, the elapsed milliseconds and the
+     * rows that succeeded per second.
+     *
+     * transId and leaveTransactionOpen are used only if the user wants to explicitly control db transactions
+     */
+    public String addRows(String tableId, String stringifiedJSON,
+                          String callbackJSON, String transId, Boolean leaveTransactionOpen)
+            throws ServicesAvailabilityException, ActionNotAuthorizedException;
+
+
+    /**
+     * Update many rows in the table in one transaction, with a single callback.
+     *
+     * @param tableId  The table being updated
+     * @param stringifiedJSON array of {rowId, values} objects, values being the key-value map of
+     *                        values to update. If missing, the value remains unchanged.
+     * @param callbackJSON The JSON object used by the JS layer to recover the callback function
+     *                     that can process the response
+     * @param transId null or the id of an open transaction if action should occur on an existing transaction.
+     * @param leaveTransactionOpen null or false close the transaction or use a transient one. true will return
+     *                             the transId and leave transaction open.
+     * @return see {@link #addRows(String, String, String, String, Boolean)}
+     *
+     * transId and leaveTransactionOpen are used only if the user wants to explicitly control db transactions
+     */
+    public String updateRows(String tableId, String stringifiedJSON,
+                             String callbackJSON, String transId, Boolean leaveTransactionOpen)
+            throws ServicesAvailabilityException, ActionNotAuthorizedException;
+
+
+    /**
+     * Delete many rows from the table in one transaction, with a single callback.
+     *
+     * @param tableId  The table being updated
+     * @param stringifiedJSON array of {rowId} objects
+     * @param callbackJSON The JSON object used by the JS layer to recover the callback function
+     *                     that can process the response
+     * @param transId null or the id of an open transaction if action should occur on an existing transaction.
+     * @param leaveTransactionOpen null or false close the transaction or use a transient one. true will return
+     *                             the transId and leave transaction open.
+     * @return see {@link #addRows(String, String, String, String, Boolean)}
+     *
+     * transId and leaveTransactionOpen are used only if the user wants to explicitly control db transactions
+     */
+    public String deleteRows(String tableId, String stringifiedJSON,
+                             String callbackJSON, String transId, Boolean leaveTransactionOpen)
+            throws ServicesAvailabilityException, ActionNotAuthorizedException;
+
+
     /**
      * Update the row, marking the updates as a checkpoint save.
      *
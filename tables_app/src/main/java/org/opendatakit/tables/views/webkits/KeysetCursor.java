@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+
+import android.util.Base64;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * The position of a page of query results, for fetching the next page
+ * without an offset. The rows are ordered by the requested column and then by
+ * the {@link #TIE_BREAKERS}, so every row has a unique position; the next page
+ * is the rows after the last one returned, which the database finds through
+ * the ordering rather than by counting past the earlier pages. How long it
+ * takes to get the first row of a page therefore does not depend on how far
+ * into the table it is.
+ * <p>
+ * The row id alone does not break ties: the local and server versions of a
+ * row in conflict share it, as do the checkpoints of a row. They differ in
+ * their conflict type and savepoint timestamp.
+ * <p>
+ * Pages see the table as it is when they are fetched: rows added or changed
+ * behind the position are not returned, and rows deleted are not skipped over.
+ * <p>
+ * The page receives the position as an opaque continuation token. As in
+ * SQLite, nulls come before every other value in ascending order.
+ */
+final class KeysetCursor {
+
+  private static final String ORDER_BY_ELEMENT_KEY = "k";
+  private static final String ORDER_BY_DIRECTION = "d";
+  private static final String LAST_VALUE = "v";
+  private static final String LAST_ROW_ID = "i";
+  private static final String LAST_CONFLICT_TYPE = "c";
+  private static final String LAST_SAVEPOINT_TIMESTAMP = "t";
+
+  private static final TypeReference<HashMap<String, String>> TOKEN_REF =
+      new TypeReference<HashMap<String, String>>() {
+      };
+
+  static final String ASC = "ASC";
+  static final String DESC = "DESC";
+
+  /**
+   * The columns that order the rows with the same value in the requested
+   * column, in order and all ascending. Together they identify a row.
+   */
+  static final String[] TIE_BREAKERS = { DataTableColumns.ID, DataTableColumns.CONFLICT_TYPE,
+      DataTableColumns.SAVEPOINT_TIMESTAMP };
+
+  private final String orderByElementKey;
+  private final String orderByDirection;
+  private final String lastValue;
+  private final String lastRowId;
+  private final String lastConflictType;
+  private final String lastSavepointTimestamp;
+
+  /**
+   * @param orderByElementKey
+   *          null to order by the tie breakers alone
+   * @param orderByDirection
+   *          ASC or DESC
+   * @param lastValue
+   *          the value in the ordering column of the last row returned
+   * @param lastRowId
+   *          the id of the last row returned
+   * @param lastConflictType
+   *          the conflict type of the last row returned; may be null
+   * @param lastSavepointTimestamp
+   *          the savepoint timestamp of the last row returned
+   */
+  KeysetCursor(String orderByElementKey, String orderByDirection, String lastValue,
+      String lastRowId, String lastConflictType, String lastSavepointTimestamp) {
+    this.orderByElementKey = orderByElementKey;
+    this.orderByDirection = orderByDirection;
+    this.lastValue = lastValue;
+    this.lastRowId = lastRowId;
+    this.lastConflictType = lastConflictType;
+    this.lastSavepointTimestamp = lastSavepointTimestamp;
+  }
+
+  /**
+   * @param orderByElementKey
+   * @param orderByDirection
+   * @param table
+   *          a page ordered as in {@link #orderBy(String)}
+   * @param row
+   *          the index in table of the last row returned
+   * @return the position after that row
+   */
+  static KeysetCursor after(String orderByElementKey, String orderByDirection, UserTable table,
+      int row) {
+    String lastValue = (orderByElementKey == null) ? null
+        : table.getRowAtIndex(row).getDataByKey(orderByElementKey);
+    return new KeysetCursor(orderByElementKey, orderByDirection, lastValue,
+        table.getRowId(row),
+        table.getRowAtIndex(row).getDataByKey(DataTableColumns.CONFLICT_TYPE),
+        table.getRowAtIndex(row).getDataByKey(DataTableColumns.SAVEPOINT_TIMESTAMP));
+  }
+
+  /**
+   * @param orderByElementKey
+   *          null to order by the tie breakers alone
+   * @return the columns that order a paged query
+   */
+  static String[] orderBy(String orderByElementKey) {
+    if (orderByElementKey == null) {
+      return TIE_BREAKERS.clone();
+    }
+    String[] orderBy = new String[TIE_BREAKERS.length + 1];
+    orderBy[0] = orderByElementKey;
+    System.arraycopy(TIE_BREAKERS, 0, orderBy, 1, TIE_BREAKERS.length);
+    return orderBy;
+  }
+
+  /**
+   * @param orderByElementKey
+   *          null to order by the tie breakers alone
+   * @param orderByDirection
+   *          ASC or DESC, the direction of orderByElementKey
+   * @return the directions of the columns of {@link #orderBy(String)}
+   */
+  static String[] orderByDirections(String orderByElementKey, String orderByDirection) {
+    String[] directions = new String[orderBy(orderByElementKey).length];
+    for (int i = 0; i < directions.length; ++i) {
+      directions[i] = ASC;
+    }
+    if (orderByElementKey != null) {
+      directions[0] = orderByDirection;
+    }
+    return directions;
+  }
+
+  /**
+   * @param token
+   *          a token from {@link #toToken()}
+   * @return the cursor
+   * @throws IllegalArgumentException
+   *           if token was not made by {@link #toToken()}
+   */
+  static KeysetCursor fromToken(String token) {
+    Map<String, String> fields;
+    try {
+      byte[] json = Base64.decode(token, Base64.URL_SAFE | Base64.NO_WRAP);
+      fields = ODKFileUtils.mapper.readValue(json, TOKEN_REF);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("not a continuation token: " + token);
+    }
+    if (fields == null || fields.get(LAST_ROW_ID) == null
+        || fields.get(LAST_SAVEPOINT_TIMESTAMP) == null) {
+      throw new IllegalArgumentException("not a continuation token: " + token);
+    }
+    String direction = fields.get(ORDER_BY_DIRECTION);
+    return new KeysetCursor(fields.get(ORDER_BY_ELEMENT_KEY),
+        DESC.equals(direction) ? DESC : ASC, fields.get(LAST_VALUE), fields.get(LAST_ROW_ID),
+        fields.get(LAST_CONFLICT_TYPE), fields.get(LAST_SAVEPOINT_TIMESTAMP));
+  }
+
+  /**
+   * @return the opaque form of this cursor handed to the page
+   */
+  String toToken() {
+    Map<String, String> fields = new HashMap<String, String>();
+    fields.put(ORDER_BY_ELEMENT_KEY, orderByElementKey);
+    fields.put(ORDER_BY_DIRECTION, orderByDirection);
+    fields.put(LAST_VALUE, lastValue);
+    fields.put(LAST_ROW_ID, lastRowId);
+    fields.put(LAST_CONFLICT_TYPE, lastConflictType);
+    fields.put(LAST_SAVEPOINT_TIMESTAMP, lastSavepointTimestamp);
+    try {
+      return Base64.encodeToString(ODKFileUtils.mapper.writeValueAsBytes(fields),
+          Base64.URL_SAFE | Base64.NO_WRAP);
+    } catch (Exception e) {
+      // a map of strings always serializes
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Whether this cursor came from a query with the same ordering. A token is
+   * meaningless for any other ordering.
+   */
+  boolean isOrderedBy(String elementKey, String direction) {
+    return ((elementKey == null) ? orderByElementKey == null
+        : elementKey.equals(orderByElementKey)) && orderByDirection.equals(direction);
+  }
+
+  /**
+   * The condition selecting the rows after this position, to be and-ed with
+   * the where clause of the query. A row is after it if it has the same values
+   * as the last row in the columns of {@link #orderBy(String)} up to one, and
+   * comes after it in that one.
+   *
+   * @param bindArgs
+   *          receives the values of the condition's parameters, in order
+   * @return the condition
+   */
+  String afterClause(List<String> bindArgs) {
+    String[] keys = orderBy(orderByElementKey);
+    String[] directions = orderByDirections(orderByElementKey, orderByDirection);
+    String[] values = (orderByElementKey == null)
+        ? new String[] { lastRowId, lastConflictType, lastSavepointTimestamp }
+        : new String[] { lastValue, lastRowId, lastConflictType, lastSavepointTimestamp };
+
+    StringBuilder clause = new StringBuilder();
+    for (int i = 0; i < keys.length; ++i) {
+      boolean ascending = ASC.equals(directions[i]);
+      if (!ascending && values[i] == null) {
+        // the nulls come last, so nothing comes after the last row here
+        continue;
+      }
+      if (clause.length() != 0) {
+        clause.append(" OR ");
+      }
+      clause.append('(');
+      for (int j = 0; j < i; ++j) {
+        if (values[j] == null) {
+          clause.append(keys[j]).append(" IS NULL AND ");
+        } else {
+          clause.append(keys[j]).append(" = ? AND ");
+          bindArgs.add(values[j]);
+        }
+      }
+      if (values[i] == null) {
+        // the nulls come first; then every other value
+        clause.append(keys[i]).append(" IS NOT NULL");
+      } else if (ascending) {
+        clause.append(keys[i]).append(" > ?");
+        bindArgs.add(values[i]);
+      } else {
+        clause.append('(').append(keys[i]).append(" < ? OR ").append(keys[i])
+            .append(" IS NULL)");
+        bindArgs.add(values[i]);
+      }
+      clause.append(')');
+    }
+    // the last row is the last of all
+    return (clause.length() == 0) ? "0" : clause.toString();
+  }
+}
@@ -23,10 +23,14 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.views.ODKWebView;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.activities.AbsBaseActivity;
+import org.opendatakit.tables.activities.AbsBaseWebActivity;
 import org.opendatakit.tables.activities.MainActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity.ViewFragmentType;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.DbExecutor;
+import org.opendatakit.tables.data.DbHandlePool;
+import org.opendatakit.tables.data.TableMetadataCache;
 import org.opendatakit.tables.utils.*;
 import org.opendatakit.tables.utils.Constants.RequestCodes;
 import org.opendatakit.tables.utils.SurveyUtil.SurveyFormParameters;
@@ -71,11 +75,11 @@ public class OdkTables {
       String appName = mActivity.getAppName();
       OdkDbHandle db = null;
       try {
-        db = Tables.getInstance().getDatabase().openDatabase(appName);
+        db = DbHandlePool.get().acquire(appName);
         mTableIds = Tables.getInstance().getDatabase().getAllTableIds(appName, db);
       } finally {
         if (db != null) {
-          Tables.getInstance().getDatabase().closeDatabase(appName, db);
+          DbHandlePool.get().release(appName, db);
         }
       }
     }
@@ -98,7 +102,7 @@ public class OdkTables {
     }
 
     String appName = mActivity.getAppName();
-    answer = Tables.getInstance().getDatabase().getUserDefinedColumns(appName, db, tableId);
+    answer = TableMetadataCache.get().getSnapshot(appName, db, tableId).getColumnDefinitions();
     this.mCachedOrderedDefns.put(tableId, answer);
     return answer;
   }
@@ -286,6 +290,143 @@ public class OdkTables {
         sqlOrderByElementKey, sqlOrderByDirection, ViewFragmentType.SPREADSHEET, null);
   }
 
+  /**
+   * @see {@link OdkTablesIf#setResponseChunkSize(int)}
+   */
+  public boolean helperSetResponseChunkSize(int chunkSize) {
+    if (!(this.mActivity instanceof AbsBaseWebActivity) || chunkSize < 0) {
+      return false;
+    }
+    ((AbsBaseWebActivity) this.mActivity).setResponseChunkSize(chunkSize);
+    return true;
+  }
+
+  /**
+   * @see {@link OdkTablesIf#getResponseChunk(String, int)}
+   */
+  public String helperGetResponseChunk(String responseId, int index) {
+    if (!(this.mActivity instanceof AbsBaseWebActivity)) {
+      return null;
+    }
+    return ((AbsBaseWebActivity) this.mActivity).getResponseChunk(responseId, index);
+  }
+
+  /**
+   * @see {@link OdkTablesIf#cancelChunkedResponse(String)}
+   */
+  public void helperCancelChunkedResponse(String responseId) {
+    if (this.mActivity instanceof AbsBaseWebActivity) {
+      ((AbsBaseWebActivity) this.mActivity).cancelChunkedResponse(responseId);
+    }
+  }
+
+  /**
+   * @see {@link OdkTablesIf#setColorMetadataEncoding(String)}
+   */
+  public boolean helperSetColorMetadataEncoding(String encoding) {
+    if (!(this.mActivity instanceof AbsBaseWebActivity)
+        || !CompactColorEncoder.isValidEncoding(encoding)) {
+      return false;
+    }
+    ((AbsBaseWebActivity) this.mActivity).setColorMetadataEncoding(encoding);
+    return true;
+  }
+
+  /**
+   * @see {@link OdkTablesIf#queryBatch(String, String)}
+   */
+  public boolean helperQueryBatch(final String queriesJSON, final String callbackJSON) {
+    if (!(this.mActivity instanceof AbsBaseWebActivity)) {
+      return false;
+    }
+    final AbsBaseWebActivity activity = (AbsBaseWebActivity) this.mActivity;
+    final String appName = activity.getAppName();
+    DbExecutor.get().submitWithoutHandle(appName, DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Void>() {
+          @Override
+          public Void doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            // the batch opens its own handle for its transaction
+            boolean compact = CompactColorEncoder.COMPACT
+                .equals(activity.getColorMetadataEncoding());
+            String response = new BatchQueryExecutor(OdkTables.this, appName, compact)
+                .execute(queriesJSON, callbackJSON);
+            // may wait for the page to read earlier chunked responses, so
+            // not on the main thread
+            activity.signalResponseAvailable(response);
+            return null;
+          }
+
+          @Override
+          public void onResult(Void result) {
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG,
+                "Error while running query batch: " + e.toString());
+            activity.signalResponseAvailable(
+                BatchQueryExecutor.errorResponse(callbackJSON, e.toString()));
+          }
+        });
+    return true;
+  }
+
+  /**
+   * @see {@link OdkTablesIf#addRows(String, String, String)}
+   */
+  public boolean helperAddRows(String tableId, String rowsJSON, String callbackJSON) {
+    return submitBulkWrite(BulkRowWriter.Operation.ADD, tableId, rowsJSON, callbackJSON);
+  }
+
+  /**
+   * @see {@link OdkTablesIf#updateRows(String, String, String)}
+   */
+  public boolean helperUpdateRows(String tableId, String rowsJSON, String callbackJSON) {
+    return submitBulkWrite(BulkRowWriter.Operation.UPDATE, tableId, rowsJSON, callbackJSON);
+  }
+
+  /**
+   * @see {@link OdkTablesIf#deleteRows(String, String, String)}
+   */
+  public boolean helperDeleteRows(String tableId, String rowsJSON, String callbackJSON) {
+    return submitBulkWrite(BulkRowWriter.Operation.DELETE, tableId, rowsJSON, callbackJSON);
+  }
+
+  private boolean submitBulkWrite(final BulkRowWriter.Operation operation, final String tableId,
+      final String rowsJSON, final String callbackJSON) {
+    if (!(this.mActivity instanceof AbsBaseWebActivity) || tableId == null) {
+      return false;
+    }
+    final AbsBaseWebActivity activity = (AbsBaseWebActivity) this.mActivity;
+    final String appName = activity.getAppName();
+    DbExecutor.get().submitWithoutHandle(appName, DbExecutor.Priority.UI_VISIBLE,
+        new DbExecutor.Callback<Void>() {
+          @Override
+          public Void doInBackground(OdkDbHandle db) throws ServicesAvailabilityException {
+            // the writer opens its own handle for its transaction
+            String response = new BulkRowWriter(activity, OdkTables.this, appName).execute(
+                operation, tableId, rowsJSON, callbackJSON);
+            activity.signalResponseAvailable(response);
+            return null;
+          }
+
+          @Override
+          public void onResult(Void result) {
+          }
+
+          @Override
+          public void onFailure(ServicesAvailabilityException e) {
+            WebLogger.getLogger(appName).printStackTrace(e);
+            WebLogger.getLogger(appName).e(TAG,
+                "Error while writing rows of " + tableId + ": " + e.toString());
+            activity.signalResponseAvailable(
+                BatchQueryExecutor.errorResponse(callbackJSON, e.toString()));
+          }
+        });
+    return true;
+  }
+
   /**
    * Launch the with the custom filename to
    * display. The return type on this method currently is always true, should
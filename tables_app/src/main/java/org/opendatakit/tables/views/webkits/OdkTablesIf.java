@@ -154,6 +154,181 @@ public class OdkTablesIf {
     return weakControl.get().launchHTML(relativePath);
   }
 
+  /**
+   * Ask for long query responses to be delivered in chunks, so that no single
+   * call across this interface has to carry a whole large response.
+   *
+   * When a response is longer than chunkSize characters, the response that
+   * is signalled in its place is an envelope of the form
+   * {"chunkedResponseId": id, "chunkSize": n, "chunkCount": count,
+   * "length": totalLength}. The page reads the chunks with
+   * {@link #getResponseChunk(String, int)} and concatenates them to recover
+   * the response. Responses are held back while too many characters of
+   * earlier chunked responses remain unread, so the page controls the pace.
+   *
+   * @param chunkSize
+   *          the longest response, in characters, delivered whole; 0 to
+   *          always deliver responses whole, the default
+   * @return true if the chunk size was accepted
+   */
+  @android.webkit.JavascriptInterface
+  public boolean setResponseChunkSize(int chunkSize) {
+    if (isInactive()) return false;
+    return weakControl.get().helperSetResponseChunkSize(chunkSize);
+  }
+
+  /**
+   * Read one chunk of a chunked response. Chunks may be read in any order; the
+   * response is released once every one of its chunks has been read.
+   *
+   * @param responseId
+   *          the chunkedResponseId of the envelope
+   * @param index
+   *          from 0 to chunkCount - 1
+   * @return the chunk, or null if there is no such response or chunk, e.g.,
+   *         because the activity was recreated since the envelope was sent
+   */
+  @android.webkit.JavascriptInterface
+  public String getResponseChunk(String responseId, int index) {
+    if (isInactive()) return null;
+    return weakControl.get().helperGetResponseChunk(responseId, index);
+  }
+
+  /**
+   * Release a chunked response without reading the rest of it.
+   *
+   * @param responseId
+   *          the chunkedResponseId of the envelope
+   */
+  @android.webkit.JavascriptInterface
+  public void cancelChunkedResponse(String responseId) {
+    if (isInactive()) return;
+    weakControl.get().helperCancelChunkedResponse(responseId);
+  }
+
+  /**
+   * Choose how the color rule metadata (rowColors, statusColors and
+   * columnColors) of subsequent query results is encoded.
+   *
+   * "verbose", the default, gives a list with an object for each colored row
+   * holding its rowId, index and colors. "compact" gives, for each rule group,
+   * a palette of (foreground, background) pairs and a run-length encoding of
+   * the palette index of every row, in row order, with -1 for rows that are
+   * not colored. The query metadata then also carries colorEncoding: "compact".
+   *
+   * @param encoding
+   *          "verbose" or "compact"
+   * @return true if the encoding was recognized
+   */
+  @android.webkit.JavascriptInterface
+  public boolean setColorMetadataEncoding(String encoding) {
+    if (isInactive()) return false;
+    return weakControl.get().helperSetColorMetadataEncoding(encoding);
+  }
+
+  /**
+   * Run several queries at once, e.g., everything a page needs when it loads,
+   * in one read transaction so that they all see the same state of the data.
+   *
+   * queriesJSON is an array of query descriptors, each an object with a
+   * tableId and optionally a whereClause, sqlBindParams, groupBy, having,
+   * orderByElementKey and orderByDirection, as for a single query, and a
+   * projection, the array of element keys to return; every column is returned
+   * if it is omitted, and _id always is.
+   *
+   * A descriptor with a limit returns at most that many rows, ordered by
+   * orderByElementKey and then by _id, _conflict_type and _savepoint_timestamp,
+   * which tell apart the versions of a row in conflict and its checkpoints. If
+   * there may be more, the metadata of its result carries a continuationToken,
+   * and the next page is fetched by repeating the descriptor with that
+   * continuationToken; the token is null on the last page. The rows of a page are found from the position of the last
+   * row of the previous one, not by counting past the earlier pages, and its
+   * colors are evaluated for its own rows only. Grouped queries cannot be
+   * paged.
+   *
+   * A single response is signalled when they have all run: {"callbackJSON":
+   * ..., "data": [result, ...]} with one result per descriptor, in order. A
+   * result is {"data": rows, "metadata": {"tableId": ..., "elementKeyMap":
+   * ..., "rowColors": ..., "statusColors": ..., "columnColors": ...}}, the
+   * column colors given only for the columns returned, or {"errorMsg": ...}
+   * if that query failed; the others are still run. If the batch as a whole
+   * could not be run, the response carries an errorMsg and no data.
+   *
+   * @param queriesJSON
+   *          a JSON array of query descriptors
+   * @param callbackJSON
+   *          returned as is in the response
+   * @return true if the batch was started
+   */
+  @android.webkit.JavascriptInterface
+  public boolean queryBatch(String queriesJSON, String callbackJSON) {
+    if (isInactive()) return false;
+    return weakControl.get().helperQueryBatch(queriesJSON, callbackJSON);
+  }
+
+  /**
+   * Add many rows to a table in one database transaction, with a single
+   * response, rather than one call per row.
+   *
+   * rowsJSON is an array of row payloads, each {"rowId": ..., "values":
+   * {elementKey: value, ...}}; a row id is made up for a payload without one.
+   * The response, signalled once every row has been written, is
+   * {"callbackJSON": ..., "data": {"outcomes": [...], "succeeded": n,
+   * "failed": n, "elapsedMillis": ms, "rowsPerSecond": rate}} with one outcome
+   * {"rowId": ...}, plus an errorMsg if that row was not written, per
+   * payload, in order; the rate counts only the rows that succeeded. Rows
+   * that fail do not stop the others. If the batch as a whole could not be
+   * run, the response carries an errorMsg, no data, and nothing was written.
+   *
+   * @param tableId
+   * @param rowsJSON
+   *          a JSON array of row payloads
+   * @param callbackJSON
+   *          returned as is in the response
+   * @return true if the batch was started
+   */
+  @android.webkit.JavascriptInterface
+  public boolean addRows(String tableId, String rowsJSON, String callbackJSON) {
+    if (isInactive()) return false;
+    return weakControl.get().helperAddRows(tableId, rowsJSON, callbackJSON);
+  }
+
+  /**
+   * Update many rows of a table in one database transaction, as
+   * {@link #addRows(String, String, String)} adds them. Every payload needs a
+   * rowId; only the columns among its values are changed.
+   *
+   * @param tableId
+   * @param rowsJSON
+   *          a JSON array of row payloads
+   * @param callbackJSON
+   *          returned as is in the response
+   * @return true if the batch was started
+   */
+  @android.webkit.JavascriptInterface
+  public boolean updateRows(String tableId, String rowsJSON, String callbackJSON) {
+    if (isInactive()) return false;
+    return weakControl.get().helperUpdateRows(tableId, rowsJSON, callbackJSON);
+  }
+
+  /**
+   * Delete many rows of a table in one database transaction, as
+   * {@link #addRows(String, String, String)} adds them. Every payload needs a
+   * rowId; values are ignored.
+   *
+   * @param tableId
+   * @param rowsJSON
+   *          a JSON array of row payloads
+   * @param callbackJSON
+   *          returned as is in the response
+   * @return true if the batch was started
+   */
+  @android.webkit.JavascriptInterface
+  public boolean deleteRows(String tableId, String rowsJSON, String callbackJSON) {
+    if (isInactive()) return false;
+    return weakControl.get().helperDeleteRows(tableId, rowsJSON, callbackJSON);
+  }
+
   /**
    * Open the item specified by the index to the detail view.
    *
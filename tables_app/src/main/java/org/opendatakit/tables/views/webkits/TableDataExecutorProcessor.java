@@ -15,21 +15,32 @@
 package org.opendatakit.tables.views.webkits;
 
 import org.opendatakit.common.android.data.ColorGuide;
-import org.opendatakit.common.android.data.ColorGuideGroup;
+import org.opendatakit.common.android.data.ColorRule;
 import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.OrderedColumns;
 import org.opendatakit.common.android.data.RowColorObject;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.exception.ServicesAvailabilityException;
+import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.common.android.views.ExecutorContext;
 import org.opendatakit.common.android.views.ExecutorProcessor;
+import org.opendatakit.common.android.views.ExecutorRequest;
+import org.opendatakit.common.android.views.ExecutorRequestType;
 import org.opendatakit.database.service.KeyValueStoreEntry;
 import org.opendatakit.database.service.OdkDbHandle;
 import org.opendatakit.tables.activities.AbsBaseWebActivity;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.data.ColorGuideCache;
+import org.opendatakit.tables.data.QueryMetadataCache;
+import org.opendatakit.tables.data.TableChangeCounter;
+import org.opendatakit.tables.data.TableMetadataCache;
+import org.opendatakit.tables.data.TableMetadataSnapshot;
 import org.opendatakit.tables.fragments.MapListViewFragment;
 import org.opendatakit.tables.utils.Constants;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,12 +50,38 @@ import java.util.Map;
  */
 public class TableDataExecutorProcessor extends ExecutorProcessor {
 
+  private static final String TAG = TableDataExecutorProcessor.class.getSimpleName();
+
+  private final ExecutorContext mContext;
   private AbsBaseWebActivity mActivity;
 
   protected static final String ROW_COLORS = "rowColors";
   protected static final String STATUS_COLORS = "statusColors";
   protected static final String COLUMN_COLORS = "columnColors";
   protected static final String MAP_INDEX = "mapIndex";
+  protected static final String COLOR_ENCODING = "colorEncoding";
+  protected static final String QUERY_CACHE = "queryCache";
+
+  /**
+   * Results with at least this many rows have their color rules evaluated by
+   * the database rather than in Java, where the rules allow it.
+   */
+  private static final int SQL_COLOR_RULES_MIN_ROWS = 500;
+
+  /**
+   * The where clause and bind arguments that selected every row of a query
+   * result, so that the database can evaluate color rules against just those
+   * rows.
+   */
+  static final class Selection {
+    final String whereClause;
+    final String[] selectionArgs;
+
+    Selection(String whereClause, String[] selectionArgs) {
+      this.whereClause = whereClause;
+      this.selectionArgs = selectionArgs;
+    }
+  }
 
   enum colorRuleType {
     TABLE,
@@ -54,43 +91,69 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
 
   public TableDataExecutorProcessor(ExecutorContext context, AbsBaseWebActivity activity) {
     super(context);
+    this.mContext = context;
     this.mActivity = activity;
   }
 
   @Override
-  protected void extendQueryMetadata(OdkDbHandle db, List<KeyValueStoreEntry> entries, UserTable userTable, Map<String, Object> metadata) {
-    // TODO: construct color rule data here...
-    String [] adminCols = ADMIN_COLUMNS.toArray(new String[0]);
+  public void run() {
+    // the request this run processes; the library writes single rows itself,
+    // so the change is noted here for the caches that check the counter
+    ExecutorRequest request = mContext.peekRequest();
+    try {
+      super.run();
+    } finally {
+      if (request != null && request.tableId != null
+          && writesRows(request.executorRequestType)) {
+        TableChangeCounter.get().noteTableChanged(mContext.getAppName(), request.tableId);
+      }
+    }
+  }
 
+  private static boolean writesRows(ExecutorRequestType type) {
+    switch (type) {
+    case USER_TABLE_UPDATE_ROW:
+    case USER_TABLE_CHANGE_ACCESS_FILTER_ROW:
+    case USER_TABLE_DELETE_ROW:
+    case USER_TABLE_ADD_ROW:
+    case USER_TABLE_ADD_CHECKPOINT:
+    case USER_TABLE_SAVE_CHECKPOINT_AS_INCOMPLETE:
+    case USER_TABLE_SAVE_CHECKPOINT_AS_COMPLETE:
+    case USER_TABLE_DELETE_ALL_CHECKPOINTS:
+    case USER_TABLE_DELETE_LAST_CHECKPOINT:
+      return true;
+    default:
+      return false;
+    }
+  }
 
-    ArrayList<RowColorObject> rowColors = new ArrayList<RowColorObject>();
-    ArrayList<RowColorObject> statusColors = new ArrayList<RowColorObject>();
-    HashMap<String, ArrayList<RowColorObject>> colColors = new HashMap<String, ArrayList<RowColorObject>>();
+  @Override
+  protected void extendQueryMetadata(OdkDbHandle db, List<KeyValueStoreEntry> entries, UserTable userTable, Map<String, Object> metadata) {
+    boolean compact = (mActivity != null) && CompactColorEncoder.COMPACT
+        .equals(mActivity.getColorMetadataEncoding());
+    Map<String, Integer> elementKeyMap = (Map<String, Integer>) metadata.get("elementKeyMap");
 
+    Map<String, Object> colorMetadata = null;
     try {
-      // Need to get the tables color rules and determine which rows are affected
-      constructRowColorObjects(db, userTable, adminCols, rowColors, colorRuleType.TABLE, null);
-
-      // Need to get the status color rules and determine which rows are affected
-      constructRowColorObjects(db, userTable, adminCols, statusColors, colorRuleType.STATUS, null);
-
-      // Need to get column color rules working
-      Map<String, Integer> elementKeyMap = (Map<String, Integer>) metadata.get("elementKeyMap");
-      for (String elementKey : elementKeyMap.keySet()) {
-        ArrayList<RowColorObject> colColorGuide = new ArrayList<RowColorObject>();
-        constructRowColorObjects(db, userTable, adminCols, colColorGuide, colorRuleType.COLUMN, elementKey);
-        if (colColorGuide.size() > 0) {
-          colColors.put(elementKey, colColorGuide);
-        }
-      }
-
+      // the where clause of the query is not known here
+      colorMetadata = getColorMetadata(db, userTable, ADMIN_COLUMNS.toArray(new String[0]),
+          elementKeyMap.keySet(), compact, null);
     } catch (ServicesAvailabilityException e) {
       e.printStackTrace();
     }
 
-    metadata.put(ROW_COLORS, rowColors);
-    metadata.put(STATUS_COLORS, statusColors);
-    metadata.put(COLUMN_COLORS, colColors);
+    if (colorMetadata != null) {
+      metadata.putAll(colorMetadata);
+    } else {
+      Map<Integer, String> hexColors = new HashMap<Integer, String>();
+      metadata.put(ROW_COLORS, encode(userTable, null, compact, hexColors));
+      metadata.put(STATUS_COLORS, encode(userTable, null, compact, hexColors));
+      metadata.put(COLUMN_COLORS, new HashMap<String, Object>());
+      if (compact) {
+        metadata.put(COLOR_ENCODING, CompactColorEncoder.COMPACT);
+      }
+    }
+    metadata.put(QUERY_CACHE, QueryMetadataCache.get().getStatistics());
 
     if (mActivity != null) {
       MapListViewFragment mlvFragment = (MapListViewFragment) mActivity.getFragmentManager().findFragmentByTag(Constants.FragmentTags.MAP_LIST);
@@ -101,38 +164,254 @@ public class TableDataExecutorProcessor extends ExecutorProcessor {
     }
   }
 
-  private void constructRowColorObjects(OdkDbHandle db, UserTable userTable, String[] adminCols, ArrayList<RowColorObject>colors, colorRuleType crType, String elementKey) throws
+  /**
+   * The color metadata of a query result, taken from the
+   * {@link QueryMetadataCache} if the rows and the rules did not change since
+   * it was last computed.
+   *
+   * @param adminCols
+   * @param elementKeys
+   *          the columns of the result; column colors are given only for these
+   * @param compact
+   * @param selection
+   *          what selected exactly the rows of userTable, or null if the
+   *          database cannot select them again, e.g., because userTable is one
+   *          page of a longer result or is grouped. The rules are then only
+   *          evaluated in Java.
+   * @return the entries to add to the metadata of the query
+   * @throws ServicesAvailabilityException
+   */
+  static Map<String, Object> getColorMetadata(OdkDbHandle db, UserTable userTable,
+      String[] adminCols, Collection<String> elementKeys, boolean compact, Selection selection)
+      throws ServicesAvailabilityException {
+    // the rules, and the column types that decide how they compare values,
+    // come from the properties shared with the other screens
+    TableMetadataSnapshot snapshot = TableMetadataCache.get()
+        .getSnapshot(userTable.getAppName(), db, userTable.getTableId());
+
+    // pages repeat the same query; evaluate the rules again only if the
+    // rows or the rules changed
+    QueryMetadataCache cache = QueryMetadataCache.get();
+    String key = QueryMetadataCache.keyOf(userTable, compact ? CompactColorEncoder.COMPACT
+        : "", elementKeys);
+    String fingerprint = QueryMetadataCache.fingerprintOf(userTable);
+    Map<String, Object> colorMetadata = cache.getMetadata(key, snapshot, fingerprint);
+    if (colorMetadata == null) {
+      colorMetadata = constructColorMetadata(db, userTable, snapshot, adminCols, elementKeys,
+          compact, selection);
+      cache.putMetadata(key, userTable, snapshot, fingerprint, colorMetadata);
+    }
+    return colorMetadata;
+  }
+
+  /**
+   * Evaluate the table, status and column color rules against every row of
+   * userTable.
+   *
+   * @return the entries to add to the metadata of the query
+   * @throws ServicesAvailabilityException
+   */
+  private static Map<String, Object> constructColorMetadata(OdkDbHandle db, UserTable userTable,
+      TableMetadataSnapshot snapshot, String[] adminCols, Collection<String> elementKeys,
+      boolean compact, Selection selection) throws ServicesAvailabilityException {
+    Map<Integer, String> hexColors = new HashMap<Integer, String>();
+    Map<String, Object> colorMetadata = new HashMap<String, Object>();
+
+    // Need to get the tables color rules and determine which rows are affected
+    RowColors tableRowColors = constructRowColors(db, userTable, snapshot, adminCols, colorRuleType.TABLE, null, selection);
+    colorMetadata.put(ROW_COLORS, encode(userTable, tableRowColors, compact, hexColors));
+
+    // Need to get the status color rules and determine which rows are affected
+    RowColors statusRowColors = constructRowColors(db, userTable, snapshot, adminCols, colorRuleType.STATUS, null, selection);
+    colorMetadata.put(STATUS_COLORS, encode(userTable, statusRowColors, compact, hexColors));
+
+    // Need to get column color rules working
+    HashMap<String, Object> colColors = new HashMap<String, Object>();
+    for (String elementKey : elementKeys) {
+      RowColors colRowColors = constructRowColors(db, userTable, snapshot, adminCols, colorRuleType.COLUMN, elementKey, selection);
+      if (colRowColors != null && colRowColors.anyColor()) {
+        colColors.put(elementKey, encode(userTable, colRowColors, compact, hexColors));
+      }
+    }
+    colorMetadata.put(COLUMN_COLORS, colColors);
+    if (compact) {
+      colorMetadata.put(COLOR_ENCODING, CompactColorEncoder.COMPACT);
+    }
+    return colorMetadata;
+  }
+
+  /**
+   * The colors the rules of one group gave to each row of a result.
+   */
+  static final class RowColors {
+    final int[] foreground;
+    final int[] background;
+    final boolean[] hasColor;
+
+    RowColors(int numberOfRows) {
+      foreground = new int[numberOfRows];
+      background = new int[numberOfRows];
+      hasColor = new boolean[numberOfRows];
+    }
+
+    void set(int row, int fg, int bg) {
+      foreground[row] = fg;
+      background[row] = bg;
+      hasColor[row] = true;
+    }
+
+    boolean anyColor() {
+      for (boolean b : hasColor) {
+        if (b) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @param rowColors
+   *          may be null if no rules applied
+   * @return the list of RowColorObject, or the compact encoding
+   */
+  private static Object encode(UserTable userTable, RowColors rowColors, boolean compact,
+      Map<Integer, String> hexColors) {
+    if (rowColors == null) {
+      rowColors = new RowColors(userTable.getNumberOfRows());
+    }
+    if (compact) {
+      Map<String, Object> encoded = CompactColorEncoder.encode(rowColors, hexColors);
+      WebLogger.getLogger(userTable.getAppName()).d(TAG, "[encode] " + rowColors.hasColor.length
+          + " rows as " + ((int[]) encoded.get(CompactColorEncoder.RUNS)).length / 2 + " runs");
+      return encoded;
+    }
+    ArrayList<RowColorObject> colors = new ArrayList<RowColorObject>();
+    for (int i = 0; i < rowColors.hasColor.length; i++) {
+      if (rowColors.hasColor[i]) {
+        colors.add(new RowColorObject(userTable.getRowId(i), i,
+            toHexColor(hexColors, rowColors.foreground[i]),
+            toHexColor(hexColors, rowColors.background[i])));
+      }
+    }
+    return colors;
+  }
+
+  private static RowColors constructRowColors(OdkDbHandle db, UserTable userTable, TableMetadataSnapshot snapshot, String[] adminCols, colorRuleType crType, String elementKey, Selection selection) throws
       ServicesAvailabilityException {
     // Should reuse this code for column and status color rules
 
     ColorRuleGroup crg = null;
+    ColorRuleGroup.Type type = null;
 
     // Get the table color rules and determine which rows are affected
     if (crType == colorRuleType.TABLE) {
-      crg = ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance(), userTable.getAppName(), db, userTable.getTableId(), adminCols);
+      crg = snapshot.getTableColorRuleGroup();
+      type = ColorRuleGroup.Type.TABLE;
     } else if (crType == colorRuleType.COLUMN) {
-      crg = ColorRuleGroup.getColumnColorRuleGroup(Tables.getInstance(), userTable.getAppName(), db, userTable.getTableId(), elementKey, adminCols);
+      crg = snapshot.getColumnColorRuleGroup(db, elementKey);
+      type = ColorRuleGroup.Type.COLUMN;
     } else if (crType == colorRuleType.STATUS) {
-      crg = ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance(), userTable.getAppName(), db, userTable.getTableId(), adminCols);
-
+      crg = snapshot.getStatusColumnRuleGroup();
+      type = ColorRuleGroup.Type.STATUS_COLUMN;
     } else {
-      return;
+      return null;
+    }
+    if (crg == null) {
+      // e.g., an admin column, which has no column color rules
+      return null;
     }
+    OrderedColumns orderedDefns = snapshot.getColumnDefinitions();
 
-    ColorGuideGroup cgg = new ColorGuideGroup(crg, userTable);
+    if (selection != null && userTable.getNumberOfRows() >= SQL_COLOR_RULES_MIN_ROWS) {
+      RowColors rowColors = constructRowColorsInSql(db, userTable, orderedDefns, adminCols, crg,
+          selection);
+      if (rowColors != null) {
+        return rowColors;
+      }
+    }
+
+    // only the rows that changed since the last query are evaluated again
+    ColorGuide[] guides = ColorGuideCache.get().getColorGuides(userTable, orderedDefns, type,
+        elementKey, crg);
 
     // Loop through the rows
+    RowColors rowColors = new RowColors(userTable.getNumberOfRows());
     for (int i = 0; i < userTable.getNumberOfRows(); i++) {
-      ColorGuide tcg = cgg.getColorGuideForRowIndex(i);
+      ColorGuide tcg = guides[i];
 
       if (tcg != null) {
-        //String hexFgString = "#" + Integer.toHexString(0x00FFFFFF & tcg.getForeground());
-        String hexFgString = String.format("#%06X", (0xFFFFFF & tcg.getForeground()));
-        //String hexBgString = "#" + Integer.toHexString(0x00FFFFFF & tcg.getBackground());
-        String hexBgString = String.format("#%06X", (0xFFFFFF & tcg.getBackground()));
-        RowColorObject rco = new RowColorObject(userTable.getRowId(i), i, hexFgString, hexBgString);
-        colors.add(rco);
+        rowColors.set(i, tcg.getForeground(), tcg.getBackground());
       }
     }
+    return rowColors;
+  }
+
+  /**
+   * Have the database find the first rule of crg that matches each row, with
+   * one query per rule selecting the rows of the result for which the CASE
+   * expression built by {@link ColorRuleSqlTranslator} yields that rule.
+   *
+   * @param selection
+   *          what selected the rows of userTable
+   * @return the colors, or null if some rule cannot be expressed in SQL
+   * @throws ServicesAvailabilityException
+   */
+  private static RowColors constructRowColorsInSql(OdkDbHandle db, UserTable userTable,
+      OrderedColumns orderedDefns, String[] adminCols, ColorRuleGroup crg, Selection selection)
+      throws ServicesAvailabilityException {
+    List<String> bindArgs = new ArrayList<String>();
+    if (selection.selectionArgs != null) {
+      bindArgs.addAll(Arrays.asList(selection.selectionArgs));
+    }
+    String caseExpression = ColorRuleSqlTranslator.toCaseExpression(crg, orderedDefns,
+        Arrays.asList(adminCols), bindArgs);
+    if (caseExpression == null) {
+      return null;
+    }
+    String whereClause = (selection.whereClause == null || selection.whereClause.trim().isEmpty())
+        ? "" : "(" + selection.whereClause + ") AND ";
+
+    int numberOfRows = userTable.getNumberOfRows();
+    Map<String, Integer> rowIndexes = new HashMap<String, Integer>(numberOfRows * 2);
+    for (int i = 0; i < numberOfRows; i++) {
+      rowIndexes.put(userTable.getRowId(i), i);
+    }
+    int[] ruleOfRow = new int[numberOfRows];
+    Arrays.fill(ruleOfRow, -1);
+
+    List<ColorRule> rules = crg.getColorRules();
+    String[] selectionArgs = bindArgs.toArray(new String[bindArgs.size()]);
+    String[] emptyArray = {};
+    for (int r = 0; r < rules.size(); r++) {
+      UserTable matches = Tables.getInstance().getDatabase().rawSqlQuery(userTable.getAppName(),
+          db, userTable.getTableId(), orderedDefns,
+          whereClause + ColorRuleSqlTranslator.selectRule(caseExpression, r), selectionArgs,
+          emptyArray, null, emptyArray, emptyArray, null, null);
+      for (int m = 0; m < matches.getNumberOfRows(); m++) {
+        Integer index = rowIndexes.get(matches.getRowId(m));
+        if (index != null) {
+          ruleOfRow[index] = r;
+        }
+      }
+    }
+
+    RowColors rowColors = new RowColors(numberOfRows);
+    for (int i = 0; i < numberOfRows; i++) {
+      if (ruleOfRow[i] >= 0) {
+        ColorRule rule = rules.get(ruleOfRow[i]);
+        rowColors.set(i, rule.getForeground(), rule.getBackground());
+      }
+    }
+    return rowColors;
+  }
+
+  static String toHexColor(Map<Integer, String> hexColors, int color) {
+    String hex = hexColors.get(color);
+    if (hex == null) {
+      hex = String.format("#%06X", (0xFFFFFF & color));
+      hexColors.put(color, hex);
+    }
+    return hex;
   }
 }